@@ -113,6 +113,10 @@ public class AudioStemModulator extends LXModulator
   @Override
   protected double computeValue(double deltaMs) {
     AudioStems.Stem stem = this.stem.getObject();
+    if (stem != null) {
+      // Modulators run before the loop task that would apply this frame's stem values
+      AudioStems.get().update();
+    }
     double input = stem != null ? stem.getValue() : 0.0;
     double r = this.ema.update(input, deltaMs);
 
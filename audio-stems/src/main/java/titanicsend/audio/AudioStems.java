@@ -6,6 +6,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import heronarts.lx.LX;
 import heronarts.lx.LXComponent;
+import heronarts.lx.LXLoopTask;
 import heronarts.lx.osc.LXOscListener;
 import heronarts.lx.osc.OscMessage;
 import heronarts.lx.parameter.BoundedFunctionalParameter;
@@ -20,11 +21,22 @@ import java.io.FileReader;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import titanicsend.audio.util.EMA;
 
-/** Top-level component for Audio Stems, runs as a child of LX Engine */
-public class AudioStems extends LXComponent implements LXOscListener {
+/**
+ * Top-level component for Audio Stems, runs as a child of LX Engine.
+ *
+ * <p>Stem senders push values much faster than the frame rate, so incoming OSC messages only record
+ * the newest value of their stem. Values are applied to the stem parameters once per frame, along
+ * with each stem's optional smoothing and peak hold. Loop tasks run after the modulators, so
+ * AudioStemModulator applies the frame's values itself before reading a stem, and the loop task
+ * only covers frames without one.
+ */
+public class AudioStems extends LXComponent implements LXOscListener, LXLoopTask {
 
   private static AudioStems current;
 
@@ -39,6 +51,13 @@ public class AudioStems extends LXComponent implements LXOscListener {
   private String[] selectorOptions = new String[] {null};
   private final List<Selector> selectors = new ArrayList<>();
 
+  // OSC dispatch: the address prefix shared by all stems, then stems by their full address
+  private String oscPrefix = "";
+  private final Map<String, Stem> oscPaths = new HashMap<>();
+
+  // Start time of the engine frame the stems were last applied in
+  private long appliedNanoTime = 0;
+
   public final CompoundParameter gain =
       new CompoundParameter("Gain", 0, -1, 2).setUnits(Units.PERCENT_NORMALIZED);
 
@@ -51,10 +70,16 @@ public class AudioStems extends LXComponent implements LXOscListener {
     addParameter("gain", this.gain);
     loadConfig(lx);
     this.lx.engine.osc.addListener(this);
+    this.lx.engine.addLoopTask(this);
   }
 
   private void addStem(Stem stem) {
+    if (this.oscPaths.containsKey(stem.oscPath)) {
+      LOG.error("Ignoring audio stem " + stem.label + ", its oscPath is already used");
+      return;
+    }
     this.mutableStems.add(stem);
+    updateOscPaths();
     updateSelectors();
   }
 
@@ -64,9 +89,28 @@ public class AudioStems extends LXComponent implements LXOscListener {
       throw new IllegalStateException("Cannot remove unknown stem: " + stem.label);
     }
     this.mutableStems.remove(stem);
+    updateOscPaths();
     updateSelectors();
   }
 
+  private void updateOscPaths() {
+    this.oscPaths.clear();
+    String prefix = null;
+    for (Stem stem : this.stems) {
+      this.oscPaths.put(stem.oscPath, stem);
+      prefix = (prefix == null) ? stem.oscPath : commonPrefix(prefix, stem.oscPath);
+    }
+    this.oscPrefix = (prefix == null) ? "" : prefix;
+  }
+
+  private static String commonPrefix(String a, String b) {
+    int i = 0;
+    while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    return a.substring(0, i);
+  }
+
   private void updateSelectors() {
     int numOptions = this.stems.size();
     this.selectorObjects = new Stem[numOptions];
@@ -92,17 +136,44 @@ public class AudioStems extends LXComponent implements LXOscListener {
   @Override
   public void oscMessage(OscMessage message) {
     String oscPath = message.getAddressPattern().getValue();
+    // Most OSC traffic isn't for stems, and is turned away by the prefix without hashing
+    if (!oscPath.startsWith(this.oscPrefix)) {
+      return;
+    }
+    Stem stem = this.oscPaths.get(oscPath);
+    if (stem != null) {
+      stem.receive(message.getFloat());
+    }
+  }
+
+  @Override
+  public void loop(double deltaMs) {
+    update();
+  }
+
+  /**
+   * Apply the newest value of each stem, if that hasn't been done yet this frame. Must be called
+   * from the engine thread.
+   */
+  void update() {
+    final long nanoTime = this.lx.engine.nowNanoTime;
+    if (nanoTime == this.appliedNanoTime) {
+      return;
+    }
+    final double deltaMs =
+        (this.appliedNanoTime == 0) ? 0 : (nanoTime - this.appliedNanoTime) / 1_000_000.0;
+    this.appliedNanoTime = nanoTime;
     for (Stem stem : this.stems) {
-      if (oscPath.equals(stem.oscPath)) {
-        float value = message.getFloat();
-        stem.rawParameter.setValue(value);
-      }
+      stem.update(deltaMs);
     }
   }
 
   private static final String CONFIG_DEFAULT_FILENAME = "audioStems.default.json";
   private static final String CONFIG_FILENAME = "audioStems.json";
   private static final String KEY_STEMS = "stems";
+  // Optional per-stem keys
+  private static final String KEY_SMOOTHING_MS = "smoothingMs";
+  private static final String KEY_PEAK_HOLD_MS = "peakHoldMs";
 
   private void loadConfig(LX lx) {
     File file = lx.getMediaFile(CONFIG_FILENAME);
@@ -132,6 +203,12 @@ public class AudioStems extends LXComponent implements LXOscListener {
             String label = stemObj.get("label").getAsString();
             String oscPath = stemObj.get("oscPath").getAsString();
             Stem stem = new Stem(label, oscPath);
+            if (stemObj.has(KEY_SMOOTHING_MS)) {
+              stem.smoothingMs.setValue(stemObj.get(KEY_SMOOTHING_MS).getAsDouble());
+            }
+            if (stemObj.has(KEY_PEAK_HOLD_MS)) {
+              stem.peakHoldMs.setValue(stemObj.get(KEY_PEAK_HOLD_MS).getAsDouble());
+            }
             addStem(stem);
           }
         }
@@ -146,6 +223,7 @@ public class AudioStems extends LXComponent implements LXOscListener {
   @Override
   public void dispose() {
     this.lx.engine.osc.removeListener(this);
+    this.lx.engine.removeLoopTask(this);
     super.dispose();
   }
 
@@ -156,6 +234,24 @@ public class AudioStems extends LXComponent implements LXOscListener {
     public final BoundedParameter rawParameter;
     public final BoundedFunctionalParameter parameter;
 
+    public final BoundedParameter smoothingMs =
+        new BoundedParameter("Smoothing", 0, 0, AudioStemModulator.MAX_SMOOTHING_MS)
+            .setDescription("Length of EMA smoothing applied to the stem, in milliseconds")
+            .setUnits(Units.MILLISECONDS);
+
+    public final BoundedParameter peakHoldMs =
+        new BoundedParameter("Peak Hold", 0, 0, AudioStemModulator.MAX_SMOOTHING_MS)
+            .setDescription("How long the stem holds a peak before falling, in milliseconds")
+            .setUnits(Units.MILLISECONDS);
+
+    // Newest value received over OSC, applied on the next frame
+    private volatile float received;
+    private volatile boolean isReceived = false;
+
+    private final EMA ema = new EMA(0);
+    private double processed = 0;
+    private double msSincePeak = 0;
+
     private Stem(String label, String oscPath) {
       if (LXUtils.isEmpty(label)) {
         throw new IllegalArgumentException("Audio stem label cannot be empty");
@@ -168,12 +264,35 @@ public class AudioStems extends LXComponent implements LXOscListener {
           new BoundedFunctionalParameter(label) {
             @Override
             protected double computeValue() {
-              // Apply adjustments (gain, smoothing) to a raw parameter
-              return rawParameter.getValue() * (1.0 + gain.getValue());
+              // Apply gain to the smoothed and peak-held raw value
+              return processed * (1.0 + gain.getValue());
             }
           }.setDescription("Audio stem for " + label);
     }
 
+    private void receive(float value) {
+      this.received = value;
+      this.isReceived = true;
+    }
+
+    private void update(double deltaMs) {
+      if (this.isReceived) {
+        this.isReceived = false;
+        this.rawParameter.setValue(this.received);
+      }
+
+      double value = this.ema.setPeriod(this.smoothingMs.getValue()).update(getValueRaw(), deltaMs);
+      this.msSincePeak += deltaMs;
+      if (value >= this.processed) {
+        // New peak, hold it
+        this.processed = value;
+        this.msSincePeak = 0;
+      } else if (this.msSincePeak >= this.peakHoldMs.getValue()) {
+        // Hold has expired, follow the signal down
+        this.processed = value;
+      }
+    }
+
     /** Get the stem's current raw value prior to gain or smoothing. */
     public double getValueRaw() {
       return this.rawParameter.getValue();
@@ -255,7 +255,9 @@ function glueBeforeRender(delta, now, points, colors) {
   }
 }
 
-function glueRender() {
+// Renders all points, or only those from start (inclusive) to end (exclusive)
+// when the points are split between several script engines.
+function glueRender(start, end) {
   var r;
   if (typeof render3D !== 'undefined') {
     r = render3D;
@@ -267,7 +269,9 @@ function glueRender() {
   var xOffs = __pattern.getXPos();
   var yOffs = -__pattern.getYPos();
   var i;
-  for (i = 0; i < __points.length; i++) {
+  if (start === undefined) start = 0;
+  if (end === undefined) end = __points.length;
+  for (i = start; i < end; i++) {
     __color = 0;
     point = __points[i];
     r(i, point.xn + xOffs, point.yn + yOffs, point.zn);
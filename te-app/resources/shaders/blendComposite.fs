@@ -0,0 +1,95 @@
+#version 410
+
+out vec4 fragColor;
+
+// Maximum number of layers blended in a single pass, must match CompositeShader.MAX_LAYERS
+#define MAX_LAYERS 5
+
+// Blend modes, in the order of GLBlend
+#define NORMAL 0
+#define ADD 1
+#define SUBTRACT 2
+#define MULTIPLY 3
+#define SCREEN 4
+#define LIGHTEST 5
+#define DARKEST 6
+#define DIFFERENCE 7
+#define DISSOLVE 8
+#define DODGE 9
+#define BURN 10
+#define HIGHLIGHT 11
+#define SPOTLIGHT 12
+
+// Blend destination texture: the layers composited so far
+uniform sampler2D iDst;
+
+// Layer textures, blended onto the destination in order
+uniform sampler2D iSrc[MAX_LAYERS];
+
+// Layer view masks, a layer is only blended where its mask is set
+uniform sampler2D iView[MAX_LAYERS];
+
+// Amount of each layer to be applied, e.g. pattern composite level
+uniform float level[MAX_LAYERS];
+
+// Blend mode of each layer
+uniform int mode[MAX_LAYERS];
+
+// Number of layers in use
+uniform int numLayers;
+
+// Same math as the blend<Mode>.fs shader for each mode
+vec4 blend(vec4 colorDst, vec4 colorSrc, float level, int mode) {
+    if (mode == MULTIPLY) {
+        return mix(colorDst, colorDst * colorSrc, level);
+    } else if (mode == DISSOLVE) {
+        return mix(colorDst, colorSrc, level);
+    }
+
+    float amount = level * colorSrc.a;
+    vec3 rgb;
+    if (mode == NORMAL) {
+        rgb = mix(colorDst.rgb, colorSrc.rgb, amount);
+    } else if (mode == SUBTRACT) {
+        rgb = colorDst.rgb - (colorSrc.rgb * amount);
+    } else if (mode == SCREEN) {
+        rgb = mix(colorDst.rgb, 1.0 - (1.0 - colorDst.rgb) * (1.0 - colorSrc.rgb), amount);
+    } else if (mode == LIGHTEST) {
+        rgb = mix(colorDst.rgb, max(colorDst.rgb, colorSrc.rgb), amount);
+    } else if (mode == DARKEST) {
+        rgb = mix(colorDst.rgb, min(colorDst.rgb, colorSrc.rgb), amount);
+    } else if (mode == DIFFERENCE) {
+        rgb = mix(colorDst.rgb, abs(colorDst.rgb - colorSrc.rgb), amount);
+    } else if (mode == DODGE) {
+        rgb = mix(colorDst.rgb, colorDst.rgb / max(1.0 - colorSrc.rgb, 1.0 / 256.0), amount);
+    } else if (mode == BURN) {
+        rgb = mix(colorDst.rgb, 1.0 - (1.0 - colorDst.rgb) / max(colorSrc.rgb, 1.0 / 256.0), amount);
+    } else if (mode == HIGHLIGHT) {
+        rgb = colorDst.rgb + (colorDst.rgb * colorSrc.rgb * amount);
+    } else if (mode == SPOTLIGHT) {
+        float spot = max(colorDst.r, max(colorDst.g, colorDst.b));
+        rgb = colorDst.rgb + (spot * colorSrc.rgb * amount);
+    } else {
+        // ADD
+        rgb = colorDst.rgb + (colorSrc.rgb * amount);
+    }
+    return vec4(rgb, max(colorDst.a, colorSrc.a));
+}
+
+void main() {
+    ivec2 position = ivec2(gl_FragCoord.xy);
+    vec4 color = texelFetch(iDst, position, 0);
+
+    // numLayers is uniform, so the sampler array is indexed with a dynamically uniform expression
+    for (int i = 0; i < MAX_LAYERS; i++) {
+        if (i >= numLayers) {
+            break;
+        }
+        if (texelFetch(iView[i], position, 0).r > 0.5) {
+            // Constrain to [0,1] after each layer, same as separate passes into an RGBA8 texture
+            color = clamp(blend(color, texelFetch(iSrc[i], position, 0), level[i], mode[i]), 0.0, 1.0);
+        }
+    }
+
+    fragColor = color;
+}
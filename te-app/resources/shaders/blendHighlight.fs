@@ -0,0 +1,29 @@
+#version 410
+
+out vec4 fragColor;
+
+// Blend destination texture: the bus from previous channels
+uniform sampler2D iDst;
+
+// Blend source texture: total output for one channel
+uniform sampler2D iSrc;
+
+// Amount of source to be applied, e.g. channel fader
+uniform float level;
+
+void main() {
+    vec4 colorSrc = texelFetch(iSrc, ivec2(gl_FragCoord.xy), 0);
+    vec4 colorDst = texelFetch(iDst, ivec2(gl_FragCoord.xy), 0);
+
+    // Amount of source to apply at this point, scaled by source alpha
+    float amount = level * colorSrc.a;
+
+    // RGB: Add source where the destination is already lit
+    vec3 rgb = colorDst.rgb + (colorDst.rgb * colorSrc.rgb * amount);
+
+    // Alpha: maximum of source or destination alpha
+    float a = max(colorDst.a, colorSrc.a);
+
+    // Constrain all values to [0,1]
+    fragColor = clamp(vec4(rgb, a), 0.0, 1.0);
+}
@@ -0,0 +1,14 @@
+#version 410
+
+out vec4 fragColor;
+
+// Output of the shader being read back
+uniform sampler2D iSrc;
+
+// Canvas position of the model point belonging to each compacted texel
+uniform sampler2D iIndex;
+
+void main() {
+    vec2 srcPosition = texelFetch(iIndex, ivec2(gl_FragCoord.xy), 0).xy;
+    fragColor = texelFetch(iSrc, ivec2(srcPosition), 0);
+}
@@ -34,30 +34,32 @@ layout (std140) uniform PerFrameBlock {
     uniform vec3[MAX_PALETTE_ENTRIES] iPalette;
 };
 
-// standard shadertoy uniforms (updated per frame for each
-// running pattern.)
-uniform float iTime;
-
-// TE Colors
-uniform vec3 iColorRGB;
-uniform vec3 iColorHSB;
-uniform vec3 iColor2RGB;
-uniform vec3 iColor2HSB;
-uniform float iPaletteOffset;
-
-// TE common controls
-uniform float iSpeed;
-uniform float iScale;
-uniform float iQuantity;
-uniform vec2 iTranslate;
-uniform float iSpin;
-uniform float iRotationAngle;
-uniform float iBrightness;
-uniform float iWow1;
-uniform float iWow2;
-uniform bool iWowTrigger;
-uniform float frequencyReact;
-uniform float levelReact;
+// uniforms that are set per frame for each running shader: the
+// standard shadertoy iTime, TE colors and TE common controls.
+// Member offsets are queried by the Java side, so members can be
+// added or reordered freely.  Scalars are placed after each vec3 to
+// fill its 16 byte std140 slot.
+layout (std140) uniform PerShaderBlock {
+    vec3 iColorRGB;
+    float iTime;
+    vec3 iColorHSB;
+    float iPaletteOffset;
+    vec3 iColor2RGB;
+    float iSpeed;
+    vec3 iColor2HSB;
+    float iScale;
+    vec2 iTranslate;
+    float iQuantity;
+    float iSpin;
+    float iRotationAngle;
+    float iBrightness;
+    float iWow1;
+    float iWow2;
+    bool iWowTrigger;
+    float frequencyReact;
+    float levelReact;
+    float iGradientRow;
+};
 
 // Shadertoy audio channel
 uniform sampler2D iChannel0;
@@ -69,6 +71,10 @@ uniform sampler2D lxModelCoords;
 uniform sampler2D iBackbuffer;
 uniform sampler2D lxModelIndex;
 
+// Palette gradients, one row per TE gradient and blend mode, built from
+// the same lookup tables Java patterns use
+uniform sampler2D lxGradients;
+
 // Optional user defined textures
 uniform sampler2D iChannel1;
 uniform sampler2D iChannel2;
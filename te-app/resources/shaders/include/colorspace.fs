@@ -89,25 +89,33 @@ vec3 hsv_mix(vec3 colA,vec3 colB, float h) {
     return hsv2rgb(vec3(hsv1.x + dist, mix(hsv1.yz, hsv2.yz, h)));
 }
 
+// Rows of the gradient texture holding the normal TE gradient in the blend
+// modes below.  Must match GLEngine.getGradientRow().
+#define GRADIENT_ROW_OKLAB 0.0
+#define GRADIENT_ROW_HSVM 1.0
+
+// Return the color at position h (wrapped to 0.0 to 1.0) in a row of the
+// precomputed gradient texture. The texture wraps horizontally, so colors
+// past the last entry blend back into the first one.
+vec3 getGradientTextureColor(float h, float row) {
+    vec2 size = vec2(textureSize(lxGradients, 0));
+    // entry i is the color at position i / width, sampled at its texel center
+    return texture(lxGradients, vec2(h + 0.5 / size.x, (row + 0.5) / size.y)).rgb;
+}
+
 // Given a target value in the range 0.0 to 1.0 denoting a position in the
 // current palette, interpolate in hsv color space (using the shortest hue
 // distance, and checking for black) and return the resulting color as an
 // RGB vec3.
 vec3 getGradientColor_hsv(float h) {
-    float fIndex = h * iPaletteSize;
-    int c1 = int(mod(fIndex,iPaletteSize));
-    int c2 = int(mod(fIndex + 1, iPaletteSize));
-    return hsv_mix(iPalette[c1], iPalette[c2], fract(fIndex));
+    return getGradientTextureColor(h, GRADIENT_ROW_HSVM);
 }
 
 // Given a target value in the range 0.0 to 1.0 denoting a position in the
 // current palette, interpolate in oklab color space and return the resulting
 // color as an RGB vec3.
 vec3 getGradientColor_oklab(float h) {
-    float fIndex = h * iPaletteSize;
-    int c1 = int(mod(fIndex,iPaletteSize));
-    int c2 = int(mod(fIndex + 1, iPaletteSize));
-    return oklab_mix(iPalette[c1], iPalette[c2], fract(fIndex));
+    return getGradientTextureColor(h, GRADIENT_ROW_OKLAB);
 }
 
 // Given a target value in the range 0.0 to 1.0 denoting a position in the
@@ -126,10 +134,10 @@ vec3 getPaletteColor(int index) {
 }
 
 // the default gradient palette interpolator. Returns a color from the
-// current palette, or the first system color if the pattern is set to static
-// color mode.
+// pattern's gradient and blend mode, or the first system color if the
+// pattern is set to static color mode.
 vec3 getGradientColor(float h) {
-    return (iPaletteOffset >= 0.0) ? getGradientColor_oklab(fract(h + iPaletteOffset)) : iColorRGB;
+    return (iPaletteOffset >= 0.0) ? getGradientTextureColor(h + iPaletteOffset, iGradientRow) : iColorRGB;
 }
 
 #endif // COLORSPACE_FS
@@ -233,12 +233,12 @@ public class TEApp extends LXStudio {
   private static final String FLAG_DISABLE_OUTPUT = "--disable-output";
 
   // Default shader system rendering canvas
-  // resolution.  Determines the maximum number of
-  // model points allowed. May be changed via the startup
+  // resolution.  By default the canvas is fitted to the number
+  // of model points.  May be fixed via the startup
   // command line argument --resolution=WIDTHxHEIGHT
-  // (Default allows roughly 102,000 points.)
   public static int glRenderWidth = 480;
   public static int glRenderHeight = 480;
+  private static boolean glRenderResolutionFixed = false;
 
   public static GamepadEngine gamepadEngine;
 
@@ -292,6 +292,9 @@ public class TEApp extends LXStudio {
       this.dmxEngine = new DmxEngine(lx);
       this.ndiEngine = new NDIEngine(lx);
       this.glEngine = new GLEngine(lx, glRenderWidth, glRenderHeight);
+      if (glRenderResolutionFixed) {
+        this.glEngine.autoResolution.setValue(false);
+      }
       gamepadEngine = new GamepadEngine(lx);
       this.presetEngine = new PresetEngine(lx);
       this.presetEngine.openFile(lx.getMediaFile("Presets/UserPresets/BM24.userPresets"));
@@ -955,6 +958,7 @@ public class TEApp extends LXStudio {
     public void projectChanged(File file, Change change) {
       if (change == Change.OPEN) {
         applyTECameraPosition();
+        ShaderPrecompiler.logCacheStats();
       }
     }
 
@@ -1155,6 +1159,7 @@ public class TEApp extends LXStudio {
               try {
                 glRenderWidth = Integer.parseInt(resolution[0]);
                 glRenderHeight = Integer.parseInt(resolution[1]);
+                glRenderResolutionFixed = true;
                 i++; // let the rest of the parser skip the resolution argument
               } catch (NumberFormatException nfx) {
                 error("Invalid render resolution: " + args[i + 1]);
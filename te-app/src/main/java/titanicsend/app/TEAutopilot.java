@@ -23,6 +23,7 @@ import titanicsend.app.autopilot.TEPatternLibrary;
 import titanicsend.app.autopilot.TEPhrase;
 import titanicsend.app.autopilot.events.TEPhraseEvent;
 import titanicsend.app.autopilot.utils.TETimeUtils;
+import titanicsend.pattern.glengine.GLShaderPattern;
 import titanicsend.util.TE;
 import titanicsend.util.TEMath;
 
@@ -120,6 +121,13 @@ public class TEAutopilot extends LXComponent implements LXLoopTask, LX.ProjectLi
 
   private TEAutopilotMixer autoMixer;
 
+  // Pattern picked a phrase early for the next channel, so that its shaders can be built in the
+  // background. Used on the following phrase change if the phrase prediction was right.
+  private record UpcomingPattern(
+      LXPattern curPattern, TEPhrase curPhrase, TEPhrase nextPhrase, LXPattern pattern) {}
+
+  private UpcomingPattern upcomingPattern = null;
+
   /**
    * Instantiate the autopilot with a reference to both LX and the pattern library.
    *
@@ -629,6 +637,36 @@ public class TEAutopilot extends LXComponent implements LXLoopTask, LX.ProjectLi
     channel.goPattern(pattern);
   }
 
+  /**
+   * Pick the pattern that will be started on the next channel after a phrase change from curPhrase
+   * to nextPhrase, one phrase early, and start building its shaders in the background.
+   */
+  private void pickUpcomingPattern(LXPattern curPattern, TEPhrase curPhrase, TEPhrase nextPhrase) {
+    this.upcomingPattern = null;
+    try {
+      LXPattern pattern =
+          this.library.pickRandomCompatibleNextPattern(curPattern, curPhrase, nextPhrase);
+      this.upcomingPattern = new UpcomingPattern(curPattern, curPhrase, nextPhrase, pattern);
+      GLShaderPattern.prewarm(pattern);
+    } catch (Exception e) {
+      // already logged by the library, will be picked again when needed
+    }
+  }
+
+  /** Returns the pattern picked early for these phrases, or null if there isn't one */
+  private LXPattern takeUpcomingPattern(
+      LXPattern curPattern, TEPhrase curPhrase, TEPhrase nextPhrase) {
+    UpcomingPattern upcoming = this.upcomingPattern;
+    this.upcomingPattern = null;
+    if (upcoming != null
+        && upcoming.curPattern == curPattern
+        && upcoming.curPhrase == curPhrase
+        && upcoming.nextPhrase == nextPhrase) {
+      return upcoming.pattern;
+    }
+    return null;
+  }
+
   /**
    * Callback that happens when a new phrase is triggered.
    *
@@ -740,9 +778,15 @@ public class TEAutopilot extends LXComponent implements LXLoopTask, LX.ProjectLi
       // add more phrase types later!
       if (prevPhrase != nextPhrase) {
         // pick a pattern we'll start fading into on "nextChannel" during the new few bars
-        LXPattern newNextPattern =
-            this.library.pickRandomCompatibleNextPattern(newCurPattern, curPhrase, nextPhrase);
+        LXPattern newNextPattern = takeUpcomingPattern(newCurPattern, curPhrase, nextPhrase);
+        if (newNextPattern == null) {
+          newNextPattern =
+              this.library.pickRandomCompatibleNextPattern(newCurPattern, curPhrase, nextPhrase);
+        }
         startPattern(nextChannel, newNextPattern);
+
+        // and the one that will follow it if we predicted right, to build its shaders ahead of time
+        pickUpcomingPattern(newNextPattern, nextPhrase, guessNextPhrase(nextPhrase));
         // TE.log("Selected new next pattern: %s, for channel %s", newNextPattern, nextChannelName);
       }
     }
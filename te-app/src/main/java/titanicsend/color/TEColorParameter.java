@@ -9,7 +9,6 @@ import heronarts.lx.parameter.EnumParameter;
 import heronarts.lx.parameter.LXListenableNormalizedParameter;
 import heronarts.lx.parameter.LXParameter;
 import heronarts.lx.parameter.LXParameterListener;
-import heronarts.lx.utils.LXUtils;
 import titanicsend.lx.LXGradientUtils;
 
 public class TEColorParameter extends ColorParameter implements GradientUtils.GradientFunction {
@@ -50,10 +49,16 @@ public class TEColorParameter extends ColorParameter implements GradientUtils.Gr
   // BLEND MODE FOR THE GRADIENT. Excluding RGB because it does not play well with gradients.
 
   public enum BlendMode {
-    OKLAB,
-    HSVM,
-    HSVCW,
-    HSVCCW
+    OKLAB(LXGradientUtils.BlendMode.OKLAB.function),
+    HSVM(LXGradientUtils.BlendMode.HSVM.function),
+    HSVCW(LXGradientUtils.BlendMode.HSVCW.function),
+    HSVCCW(LXGradientUtils.BlendMode.HSVCCW.function);
+
+    public final LXGradientUtils.BlendFunction function;
+
+    private BlendMode(LXGradientUtils.BlendFunction function) {
+      this.function = function;
+    }
   }
 
   private final BlendMode BLEND_MODE_DEFAULT = BlendMode.OKLAB;
@@ -97,7 +102,8 @@ public class TEColorParameter extends ColorParameter implements GradientUtils.Gr
               return this;
             }
           }.setDescription(
-              "Allows user variation of solid color.  If Static, adjusts hue offset. If Palette, adjusts normalized position within gradient.");
+              "Allows user variation of solid color.  If Static, adjusts hue offset. If Palette,"
+                  + " adjusts normalized position within gradient.");
 
   private final LXParameterListener offsetListener =
       (p) -> {
@@ -237,49 +243,59 @@ public class TEColorParameter extends ColorParameter implements GradientUtils.Gr
     return getGradientColorFixed(lerp + getOffsetf());
   }
 
+  /**
+   * Same as getGradientColor(lerp), optionally interpolating between entries of the gradient's
+   * lookup table for smoother results over very short distances.
+   */
+  public int getGradientColor(float lerp, boolean interpolate) {
+    return getGradientColorFixed(lerp + getOffsetf(), interpolate);
+  }
+
   /** Returns absolute position within current gradient. */
   public int getGradientColorFixed(float lerp) {
+    return getGradientColorFixed(lerp, false);
+  }
+
+  /**
+   * Returns absolute position within current gradient, optionally interpolating between entries of
+   * the gradient's lookup table.
+   */
+  public int getGradientColorFixed(float lerp, boolean interpolate) {
     switch (this.colorSource.getEnum()) {
       case STATIC:
         return super.getColor();
       case DARK:
-        return getGradientColorFixed(lerp, TEGradient.DARK);
+        return getGradientColorFixed(lerp, TEGradient.DARK, interpolate);
       case NORMAL:
       default:
-        return getGradientColorFixed(lerp, TEGradient.NORMAL);
+        return getGradientColorFixed(lerp, TEGradient.NORMAL, interpolate);
     }
   }
 
   private int getGradientColorFixed(float lerp, TEGradient gradient) {
-    lerp = (float) LXUtils.wrapnf(lerp);
-
-    LXGradientUtils.BlendFunction bf;
-    switch (this.blendMode.getEnum()) {
-      case HSVCCW:
-        bf = LXGradientUtils.BlendMode.HSVCCW.function;
-        break;
-      case HSVCW:
-        bf = LXGradientUtils.BlendMode.HSVCW.function;
-        break;
-      case OKLAB:
-        bf = LXGradientUtils.BlendMode.OKLAB.function;
-        break;
-      case HSVM:
-      default:
-        bf = LXGradientUtils.BlendMode.HSVM.function;
-    }
+    return getGradientColorFixed(lerp, gradient, false);
+  }
 
-    return getGradientStops(gradient).getColor(lerp, bf);
+  private int getGradientColorFixed(float lerp, TEGradient gradient, boolean interpolate) {
+    TEGradientLUT lut = this.gradientSource.getLUT(gradient);
+    return interpolate
+        ? lut.getColorInterpolated(lerp, this.blendMode.getEnum())
+        : lut.getColor(lerp, this.blendMode.getEnum());
   }
 
-  /** Internal helper method. Maps gradient enum to ColorStops. */
-  private LXGradientUtils.ColorStops getGradientStops(TEGradient gradient) {
-    switch (gradient) {
+  /**
+   * Lookup table for the selected gradient and blend mode, for patterns that want to index the
+   * colors directly. See TEGradientLUT.getTable(). Returns null for a STATIC color source.
+   */
+  public int[] getGradientTable() {
+    switch (this.colorSource.getEnum()) {
+      case STATIC:
+        return null;
       case DARK:
-        return this.gradientSource.darkGradient;
+        return this.gradientSource.getLUT(TEGradient.DARK).getTable(this.blendMode.getEnum());
       case NORMAL:
       default:
-        return this.gradientSource.normalGradient;
+        return this.gradientSource.getLUT(TEGradient.NORMAL).getTable(this.blendMode.getEnum());
     }
   }
 
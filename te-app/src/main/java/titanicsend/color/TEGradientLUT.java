@@ -0,0 +1,126 @@
+package titanicsend.color;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import titanicsend.lx.LXGradientUtils;
+
+/**
+ * Lookup tables of a TE gradient, one per blend mode, so that patterns sampling the gradient for
+ * every point read an array instead of running the blend function. TEGradientSource passes the
+ * gradient's color stops every frame, and a table is only built the first time it is looked up
+ * after they changed. During palette transitions that means building only the blend modes in use.
+ */
+public class TEGradientLUT {
+
+  /** Number of colors per table */
+  public static final int SIZE = 1024;
+
+  /** A version of the color stops and the tables built from it so far */
+  private static class Tables {
+    private final LXGradientUtils.ColorStops stops = new LXGradientUtils.ColorStops();
+
+    // One table per TEColorParameter.BlendMode, null until first looked up. Each holds SIZE
+    // colors plus a copy of the first color so that interpolation can wrap without a bounds
+    // check.
+    private final AtomicReferenceArray<int[]> tables =
+        new AtomicReferenceArray<>(TEColorParameter.BlendMode.values().length);
+  }
+
+  // Replaced as a whole when the color stops change, so readers on other threads never see
+  // tables built from a mix of old and new stops
+  private volatile Tables current = new Tables();
+
+  // Incremented whenever the color stops change
+  private int version = 0;
+
+  /**
+   * Start a new version of the tables if the color stops differ from the current ones. The tables
+   * themselves are built when next looked up.
+   *
+   * @return true if the color stops changed
+   */
+  boolean update(LXGradientUtils.ColorStops colorStops) {
+    if (this.current.stops.matches(colorStops)) {
+      return false;
+    }
+    Tables tables = new Tables();
+    tables.stops.set(colorStops);
+    this.current = tables;
+    this.version++;
+    return true;
+  }
+
+  private static int[] build(
+      LXGradientUtils.ColorStops stops, TEColorParameter.BlendMode blendMode) {
+    int[] table = new int[SIZE + 1];
+    for (int i = 0; i < SIZE; ++i) {
+      table[i] = stops.getColor(i / (float) SIZE, blendMode.function);
+    }
+    table[SIZE] = table[0];
+    return table;
+  }
+
+  /** Changes whenever the color stops change, for consumers that keep a copy of the tables */
+  public int getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Get the table for a blend mode, building it if the color stops changed since it was last looked
+   * up. Holds SIZE colors, entry i being the color at position i / SIZE, followed by a copy of
+   * entry 0. Do not modify.
+   */
+  public int[] getTable(TEColorParameter.BlendMode blendMode) {
+    final Tables tables = this.current;
+    final int index = blendMode.ordinal();
+    final int[] table = tables.tables.get(index);
+    if (table != null) {
+      return table;
+    }
+    // Threads racing to build the same table build identical ones, the first one stored wins
+    final int[] built = build(tables.stops, blendMode);
+    final int[] previous = tables.tables.compareAndExchange(index, null, built);
+    return previous != null ? previous : built;
+  }
+
+  /**
+   * Color at a position in the gradient, from the nearest table entry
+   *
+   * @param lerp Position in the gradient, wrapped to 0..1
+   */
+  public int getColor(float lerp, TEColorParameter.BlendMode blendMode) {
+    // Rounding up from the last entry lands on the wrap entry, which holds the first color
+    return getTable(blendMode)[Math.round(wrap(lerp) * SIZE)];
+  }
+
+  /**
+   * Color at a position in the gradient, linearly interpolated between the two nearest table
+   * entries
+   *
+   * @param lerp Position in the gradient, wrapped to 0..1
+   */
+  public int getColorInterpolated(float lerp, TEColorParameter.BlendMode blendMode) {
+    final int[] table = getTable(blendMode);
+    final float pos = wrap(lerp) * SIZE;
+    final int i = lowerIndex(pos);
+    final int c1 = table[i];
+    final int c2 = table[i + 1];
+    if (c1 == c2) {
+      return c1;
+    }
+    final int amount = (int) ((pos - i) * 256);
+    final int inverse = 256 - amount;
+    final int rb = ((c1 & 0xff00ff) * inverse + (c2 & 0xff00ff) * amount) >>> 8;
+    final int ag = ((c1 >>> 8) & 0xff00ff) * inverse + ((c2 >>> 8) & 0xff00ff) * amount;
+    return (ag & 0xff00ff00) | (rb & 0x00ff00ff);
+  }
+
+  private static float wrap(float lerp) {
+    return lerp - (float) Math.floor(lerp);
+  }
+
+  // Entry at or below pos. Float rounding in wrap() can carry a position just below 1 onto SIZE,
+  // which is interpolated as the wrap entry.
+  private static int lowerIndex(float pos) {
+    return Math.min((int) pos, SIZE - 1);
+  }
+}
@@ -31,6 +31,11 @@ public class TEGradientSource {
   /** Primary -> Black -> (Wrap to Primary) */
   public LXGradientUtils.ColorStops darkGradient = initColorStops();
 
+  /** Lookup tables for each gradient, built on first lookup after the gradient changes */
+  private final TEGradientLUT normalLUT = new TEGradientLUT();
+
+  private final TEGradientLUT darkLUT = new TEGradientLUT();
+
   public TEGradientSource(LX lx) {
     current = this;
     this.lx = lx;
@@ -49,6 +54,19 @@ public class TEGradientSource {
   /** Refresh gradients from the global palette. Called every engine loop. */
   private void loop() {
     updateGradients(this.lx.engine.palette.swatch);
+    this.normalLUT.update(this.normalGradient);
+    this.darkLUT.update(this.darkGradient);
+  }
+
+  /** Lookup tables for a gradient */
+  public TEGradientLUT getLUT(TEGradient gradient) {
+    switch (gradient) {
+      case DARK:
+        return this.darkLUT;
+      case NORMAL:
+      default:
+        return this.normalLUT;
+    }
   }
 
   private void updateGradients(LXSwatch swatch) {
@@ -17,7 +17,6 @@ package titanicsend.dmx;
 
 import heronarts.lx.utils.LXUtils;
 import titanicsend.dmx.model.DmxWholeModel;
-import titanicsend.dmx.parameter.DmxParameter;
 
 /** A generic DMX blender used for any DmxParameter. */
 public class DmxBlend {
@@ -38,7 +37,27 @@ public class DmxBlend {
    */
   public void blend(
       DmxBuffer[] dst, DmxBuffer[] src, double alpha, DmxBuffer[] output, DmxWholeModel model) {
+    blend(dst, src, alpha, output, model, null);
+  }
+
+  /**
+   * Blends the src buffer onto the destination buffer at the specified alpha amount, for the
+   * fixtures selected by a mask.
+   *
+   * @param mask Fixtures to blend, or null for all of them. Other output fixtures are left as-is.
+   */
+  public void blend(
+      DmxBuffer[] dst,
+      DmxBuffer[] src,
+      double alpha,
+      DmxBuffer[] output,
+      DmxWholeModel model,
+      boolean[] mask) {
+    final double beaconsLevel = DmxFieldTable.getBeaconsLevel();
     for (int i = 0; i < dst.length; i++) {
+      if (mask != null && !mask[i]) {
+        continue;
+      }
       DmxBuffer d = dst[i];
       DmxBuffer s = src[i];
       DmxBuffer o = output[i];
@@ -46,41 +65,44 @@ public class DmxBlend {
       if (d.isActive) {
         if (s.isActive) {
           // Both active
-          for (int j = 0; j < d.array.length; j++) {
-            DmxParameter dp = d.array[j];
-            DmxParameter sp = s.array[j];
-            DmxParameter op = o.array[j];
-
-            switch (dp.getBlendMode()) {
-              case LERP:
-                op.setValue(LXUtils.lerp(dp.getValue(), sp.getValue(), alpha));
+          final DmxFieldTable df = d.fields;
+          final DmxFieldTable sf = s.fields;
+          final DmxFieldTable of = o.fields;
+          final byte[] blendModes = df.blendModes;
+          final double[] dv = d.values;
+          final double[] sv = s.values;
+          final double[] ov = o.values;
+          for (int j = 0; j < blendModes.length; j++) {
+            switch (blendModes[j]) {
+              case DmxFieldTable.BLEND_LERP:
+                ov[j] = of.constrain(j, LXUtils.lerp(dv[j], sv[j], alpha));
                 break;
-              case JUMP_START:
+              case DmxFieldTable.BLEND_JUMP_START:
                 if (alpha == 0) {
-                  op.setDmxValue(dp.getDmxValue(alpha));
+                  of.setDmxValue(ov, j, df.getDmxValue(dv, j, alpha, beaconsLevel));
                 } else {
-                  op.setDmxValue(sp.getDmxValue(alpha));
+                  of.setDmxValue(ov, j, sf.getDmxValue(sv, j, alpha, beaconsLevel));
                 }
                 break;
               default:
-              case JUMP_END:
+              case DmxFieldTable.BLEND_JUMP_END:
                 if (alpha == 1) {
-                  op.setDmxValue(sp.getDmxValue(alpha));
+                  of.setDmxValue(ov, j, sf.getDmxValue(sv, j, alpha, beaconsLevel));
                 } else {
-                  op.setDmxValue(dp.getDmxValue(alpha));
+                  of.setDmxValue(ov, j, df.getDmxValue(dv, j, alpha, beaconsLevel));
                 }
                 break;
             }
           }
         } else {
           // Only d active
-          DmxBlend.copyTo(d, o, 1 - alpha);
+          DmxBlend.copyTo(d, o, 1 - alpha, beaconsLevel);
         }
         o.isActive = true;
       } else {
         if (s.isActive) {
           // Only s active
-          DmxBlend.copyTo(s, o, alpha);
+          DmxBlend.copyTo(s, o, alpha, beaconsLevel);
           o.isActive = true;
         } else {
           // Neither is active for this fixture
@@ -91,10 +113,21 @@ public class DmxBlend {
   }
 
   public static void copyTo(DmxBuffer from, DmxBuffer to, double alpha) {
-    for (int i = 0; i < from.array.length; i++) {
-      DmxParameter paramFrom = from.array[i];
-      DmxParameter paramTo = to.array[i];
-      paramTo.setDmxValue(paramFrom.getDmxValue(alpha));
+    copyTo(from, to, alpha, DmxFieldTable.getBeaconsLevel());
+  }
+
+  /**
+   * Copies DMX values scaled to alpha, which may be the same buffer.
+   *
+   * @param beaconsLevel Result of DmxFieldTable.getBeaconsLevel(), fetched once per pass
+   */
+  public static void copyTo(DmxBuffer from, DmxBuffer to, double alpha, double beaconsLevel) {
+    final DmxFieldTable fromFields = from.fields;
+    final DmxFieldTable toFields = to.fields;
+    final double[] fromValues = from.values;
+    final double[] toValues = to.values;
+    for (int i = 0; i < fromValues.length; i++) {
+      toFields.setDmxValue(toValues, i, fromFields.getDmxValue(fromValues, i, alpha, beaconsLevel));
     }
   }
 
@@ -112,6 +145,21 @@ public class DmxBlend {
    */
   public void lerp(
       DmxBuffer[] from, DmxBuffer[] to, double amt, DmxBuffer[] output, DmxWholeModel model) {
+    lerp(from, to, amt, output, model, null);
+  }
+
+  /**
+   * Transitions from one buffer to another for the fixtures selected by a mask.
+   *
+   * @param mask Fixtures to blend, or null for all of them
+   */
+  public void lerp(
+      DmxBuffer[] from,
+      DmxBuffer[] to,
+      double amt,
+      DmxBuffer[] output,
+      DmxWholeModel model,
+      boolean[] mask) {
     DmxBuffer[] dst, src;
     double alpha;
     if (amt <= 0.5) {
@@ -123,6 +171,6 @@ public class DmxBlend {
       src = from;
       alpha = (1 - amt) * 2.;
     }
-    blend(dst, src, alpha, output, model);
+    blend(dst, src, alpha, output, model, mask);
   }
 }
@@ -25,30 +25,47 @@ import titanicsend.dmx.parameter.DmxParameter;
  */
 public class DmxBuffer {
 
-  // We're going to make things easy by using an object (DmxParameter)
-  // instead of a primitive (byte/int) in the buffer.
-  // There are two buffers per channel and ~5 DMX fixtures so far,
-  // so I think the performance impact is minor and worth the tradeoff.
-  // This decision could be re-evaluated with more programming time later.
+  // Patterns and UI work with parameter objects (DmxParameter), while the mixer and outputs
+  // work on the packed values. Writes to a parameter are pushed into the values by a listener.
+  // Values are only pushed back to the parameters on request by syncParameters().
   public final DmxParameter[] array;
 
+  /** Packed field values in DmxParameter.getValue() units, described by fields */
+  public final double[] values;
+
+  /** Field descriptions, read from this buffer's own parameters */
+  public final DmxFieldTable fields;
+
   public boolean isActive = false;
   public boolean isModified = false;
 
-  private LXParameterListener parameterListener =
-      (p) -> {
-        isActive = true;
-        isModified = true;
-      };
+  private final LXParameterListener[] parameterListeners;
+
+  private boolean syncing = false;
 
   public DmxBuffer(DmxParameter[] parameters) {
     this.array = parameters;
+    this.fields = new DmxFieldTable(parameters);
+    this.values = new double[parameters.length];
+    this.parameterListeners = new LXParameterListener[parameters.length];
+    for (int i = 0; i < this.array.length; i++) {
+      this.values[i] = this.array[i].getValue();
+    }
     listenParameters();
   }
 
   private void listenParameters() {
     for (int i = 0; i < this.array.length; i++) {
-      this.array[i].addListener(this.parameterListener);
+      final int field = i;
+      this.parameterListeners[i] =
+          (p) -> {
+            this.values[field] = p.getValue();
+            if (!this.syncing) {
+              isActive = true;
+              isModified = true;
+            }
+          };
+      this.array[i].addListener(this.parameterListeners[i]);
     }
   }
 
@@ -56,9 +73,43 @@ public class DmxBuffer {
     return this.array[index];
   }
 
+  /**
+   * Pick up parameter values that changed without notifying the listener, such as through
+   * modulation, and mark the buffer modified if there were any.
+   */
+  public void pullParameterValues() {
+    boolean changed = false;
+    for (int i = 0; i < this.array.length; i++) {
+      final double value = this.array[i].getValue();
+      if (value != this.values[i]) {
+        this.values[i] = value;
+        changed = true;
+      }
+    }
+    if (changed) {
+      this.isActive = true;
+      this.isModified = true;
+    }
+  }
+
+  /**
+   * Copy the packed values into the parameter objects, for consumers such as UI that read a buffer
+   * written by the mixer. Does not change the active/modified state.
+   */
+  public void syncParameters() {
+    this.syncing = true;
+    try {
+      for (int i = 0; i < this.array.length; i++) {
+        this.array[i].setValue(this.values[i]);
+      }
+    } finally {
+      this.syncing = false;
+    }
+  }
+
   public void dispose() {
     for (int i = 0; i < this.array.length; i++) {
-      this.array[i].removeListener(this.parameterListener);
+      this.array[i].removeListener(this.parameterListeners[i]);
       this.array[i] = null;
     }
   }
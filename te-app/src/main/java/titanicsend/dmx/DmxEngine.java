@@ -39,7 +39,6 @@ import titanicsend.app.dev.DevSwitch;
 import titanicsend.dmx.model.BeaconModel;
 import titanicsend.dmx.model.DmxModel;
 import titanicsend.dmx.model.DmxWholeModel;
-import titanicsend.dmx.parameter.DmxParameter;
 import titanicsend.model.TEWholeModel;
 import titanicsend.util.TE;
 
@@ -91,6 +90,14 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
   private final DmxModelBuffer blendBufferLeft;
   private final DmxModelBuffer blendBufferRight;
 
+  // Fixtures whose mixed output may differ from the previous frame
+  private boolean[] dirty = new boolean[0];
+
+  // Mix every fixture on the next frame, for changes to buffers and channels
+  private boolean mixAll = true;
+
+  private final MixerState mixerState = new MixerState();
+
   public DmxEngine(LX lx) {
     current = this;
 
@@ -173,6 +180,7 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
     this.dmxWholeModel.notifyDmxWholeModelListeners();
 
     this.buffer.refreshFrame(this.dmxWholeModel);
+    this.mixAll = true;
   }
 
   /* Search for metadata key. Too slow when tags are already indexed? */
@@ -213,6 +221,7 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
   private DmxModelBuffer createBufferDmx(LXBuffer buffer, LXAbstractChannel channel) {
     DmxModelBuffer bufferDmx = new DmxModelBuffer(this.lx, this.dmxWholeModel);
     this.dmxBufferByLXBuffer.put(buffer, bufferDmx);
+    this.mixAll = true;
 
     List<LXBuffer> chBuffers = this.lxBuffersByChannel.get(channel);
     if (chBuffers == null) {
@@ -230,12 +239,14 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
     } else {
       DmxModelBuffer bufferDmx = new DmxModelBuffer(this.lx, this.dmxWholeModel);
       this.dmxBufferByGroup.put(group, bufferDmx);
+      this.mixAll = true;
       return bufferDmx;
     }
   }
 
   /** Monitor LX mixer for channels removed, release references to expiring buffers */
   protected void removeChannel(LXAbstractChannel channel) {
+    this.mixAll = true;
     List<LXBuffer> chBuffers = this.lxBuffersByChannel.remove(channel);
     if (chBuffers != null) {
       for (LXBuffer buffer : chBuffers) {
@@ -280,7 +291,7 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
       if (this.destination == this.output) {
         LX.error(new Exception("BlendStack initialized with the same destination/output"));
       } else {
-        DmxFullBuffer.copyFullBuffer(this.destination, this.output);
+        DmxFullBuffer.copyFullBuffer(this.destination, this.output, dirty);
         this.destination = this.output;
       }
     }
@@ -290,17 +301,17 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
     }
 
     void blend(LXBlend blend, DmxBuffer[] src, double alpha, DmxWholeModel model) {
-      dmxBlend.blend(destination, src, alpha, output, model);
+      dmxBlend.blend(destination, src, alpha, output, model, dirty);
       this.destination = this.output;
     }
 
     void transition(LXBlend blend, DmxBuffer[] src, double lerp, DmxWholeModel model) {
-      dmxBlend.lerp(destination, src, lerp, output, model);
+      dmxBlend.lerp(destination, src, lerp, output, model, dirty);
       this.destination = this.output;
     }
 
     void copyFrom(BlendStack that) {
-      DmxFullBuffer.copyFullBuffer(that.destination, this.output);
+      DmxFullBuffer.copyFullBuffer(that.destination, this.output, dirty);
       this.destination = this.output;
     }
   }
@@ -317,6 +328,12 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
 
     Frame render = this.buffer.render;
 
+    // Fixtures that are not dirty keep their mixed values from the previous frame
+    if (!updateDirty()) {
+      sendDmx();
+      return;
+    }
+
     DmxEngine.debug("runDmxMixer 1 previous frame", render.main);
 
     // Initialize blend stacks
@@ -500,10 +517,109 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
   }
 
   private void scaleBrightness(DmxBuffer[] fullBuffer, double brightness) {
-    for (DmxBuffer dmxBuffer : fullBuffer) {
-      for (DmxParameter p : dmxBuffer.array) {
-        p.setDmxValue(p.getDmxValue(brightness));
+    final double beaconsLevel = DmxFieldTable.getBeaconsLevel();
+    for (int i = 0; i < fullBuffer.length; i++) {
+      if (this.dirty[i]) {
+        DmxBlend.copyTo(fullBuffer[i], fullBuffer[i], brightness, beaconsLevel);
+      }
+    }
+  }
+
+  /**
+   * Determine which fixtures need to be mixed this frame. A fixture is dirty if it was modified in
+   * any pattern buffer since the last frame, either through a parameter listener or by a parameter
+   * value differing from the one last mixed. Every fixture is dirty if mixer settings changed.
+   *
+   * @return True if any fixture is dirty
+   */
+  private boolean updateDirty() {
+    final int size = this.dmxWholeModel.sizeDmx();
+    if (this.dirty.length != size) {
+      this.dirty = new boolean[size];
+      this.mixAll = true;
+    }
+
+    boolean all = captureMixerState() || this.mixAll;
+    this.mixAll = false;
+    Arrays.fill(this.dirty, all);
+
+    boolean any = all;
+    for (DmxModelBuffer modelBuffer : this.dmxBufferByLXBuffer.values()) {
+      DmxBuffer[] array = modelBuffer.getArray();
+      for (int i = 0; i < Math.min(array.length, size); i++) {
+        array[i].pullParameterValues();
+        if (array[i].isModified) {
+          array[i].isModified = false;
+          this.dirty[i] = true;
+          any = true;
+        }
+      }
+    }
+    return any;
+  }
+
+  /**
+   * Record the mixer settings which affect every fixture.
+   *
+   * @return True if any of them changed since the previous frame
+   */
+  private boolean captureMixerState() {
+    final LXMixerEngine mixer = this.lx.engine.mixer;
+    final MixerState state = this.mixerState;
+    state.begin();
+    state.add(mixer.crossfader.getValue());
+    state.add(mixer.cueA.isOn());
+    state.add(mixer.cueB.isOn());
+    state.add(mixer.auxA.isOn());
+    state.add(mixer.auxB.isOn());
+    state.add(mixer.masterBus.previewMode.getEnum().ordinal());
+    state.add(mixer.masterBus.fader.getValue());
+    state.add(mixer.masterBus.getOutputBrightness());
+    state.add(this.lx.engine.performanceMode.isOn());
+    state.add(this.lx.flags.sendCueToOutput);
+    state.add(DmxFieldTable.getBeaconsLevel());
+    for (LXAbstractChannel channel : mixer.channels) {
+      state.add(hasDmxBuffer(channel));
+      state.add(channel.getGroup() != null);
+      state.add(channel.crossfadeGroup.getEnum().ordinal());
+      state.add(channel.enabled.isOn());
+      state.add(channel.fader.getValue());
+      state.add(channel instanceof LXChannel ? ((LXChannel) channel).getTransitionProgress() : 0);
+      state.add(channel.cueActive.isOn());
+      state.add(channel.auxActive.isOn());
+    }
+    // Double buffering flips frames, so previous values are not available
+    return state.end() || this.lx.engine.isNetworkMultithreaded.isOn();
+  }
+
+  /** Mixer settings from the previous frame, compared to detect changes */
+  private static class MixerState {
+    private double[] previous = new double[0];
+    private double[] current = new double[64];
+    private int size = 0;
+
+    void begin() {
+      this.size = 0;
+    }
+
+    void add(boolean value) {
+      add(value ? 1 : 0);
+    }
+
+    void add(double value) {
+      if (this.size == this.current.length) {
+        this.current = Arrays.copyOf(this.current, this.size * 2);
+      }
+      this.current[this.size++] = value;
+    }
+
+    /** Returns true if the values differ from the previous frame */
+    boolean end() {
+      if (Arrays.equals(this.current, 0, this.size, this.previous, 0, this.previous.length)) {
+        return false;
       }
+      this.previous = Arrays.copyOf(this.current, this.size);
+      return true;
     }
   }
 
@@ -570,7 +686,7 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
       }
 
       // Stage the data
-      output.setDmxData(data[m.index]);
+      output.setDmxData(data[m.index], m.index >= this.dirty.length || this.dirty[m.index]);
 
       // Send it
       output.send(null);
@@ -611,16 +727,10 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
     // This was a quick edit
     byte[] output = new byte[26];
     int[] outputUnsigned = new int[26];
-    int offset;
 
     for (int d = 0; d < dmxAll.length; d++) {
       DmxBuffer dmx = dmxAll[d];
-      offset = 0;
-      for (int i = 0; i < dmx.array.length; i++) {
-        DmxParameter p = dmx.array[i];
-        p.writeBytes(output, offset);
-        offset += p.getNumBytes();
-      }
+      dmx.fields.writeBytes(dmx.values, output, 0);
       for (int i = 0; i < output.length; i++) {
         outputUnsigned[i] = output[i] & 0xFF;
       }
@@ -636,7 +746,9 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
   /** LXMixerEngine.Listener for releasing buffers when channels are removed */
   public class MixerListener implements heronarts.lx.mixer.LXMixerEngine.Listener {
     @Override
-    public void channelAdded(LXMixerEngine mixer, LXAbstractChannel channel) {}
+    public void channelAdded(LXMixerEngine mixer, LXAbstractChannel channel) {
+      mixAll = true;
+    }
 
     @Override
     public void channelRemoved(LXMixerEngine mixer, LXAbstractChannel channel) {
@@ -644,7 +756,9 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
     }
 
     @Override
-    public void channelMoved(LXMixerEngine mixer, LXAbstractChannel channel) {}
+    public void channelMoved(LXMixerEngine mixer, LXAbstractChannel channel) {
+      mixAll = true;
+    }
   }
 
   // Copied from LXEngine
@@ -695,6 +809,15 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
       copyFullBuffer(that.aux, this.aux);
     }
 
+    /** Update the parameter objects of this frame, for UI which reads them */
+    public void syncParameters() {
+      for (DmxBuffer[] buffers : new DmxBuffer[][] {this.main, this.cue, this.aux}) {
+        for (DmxBuffer dmx : buffers) {
+          dmx.syncParameters();
+        }
+      }
+    }
+
     public DmxBuffer[] getColors() {
       return this.cueOn ? this.cue : this.main;
     }
@@ -755,6 +878,7 @@ public class DmxEngine implements LXLoopTask, TEWholeModel.TEModelListener {
 
     synchronized void copyTo(Frame that) {
       that.copyFrom(this.copy);
+      that.syncParameters();
     }
 
     synchronized void refreshFrame(DmxWholeModel model) {
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2023- Justin Belcher, Mark C. Slee, Heron Arts LLC
+ *
+ * <p>This file is part of the LX Studio software library. By using LX, you agree to the terms of
+ * the LX Studio Software License and Distribution Agreement, available at: http://lx.studio/license
+ *
+ * <p>Please note that the LX license is not open-source. The license allows for free,
+ * non-commercial use.
+ *
+ * <p>HERON ARTS MAKES NO WARRANTY, EXPRESS, IMPLIED, STATUTORY, OR OTHERWISE, AND SPECIFICALLY
+ * DISCLAIMS ANY WARRANTY OF MERCHANTABILITY, NON-INFRINGEMENT, OR FITNESS FOR A PARTICULAR PURPOSE,
+ * WITH RESPECT TO THE SOFTWARE.
+ *
+ * @author Mark C. Slee <mark@heronarts.com>
+ */
+package titanicsend.dmx;
+
+import heronarts.lx.LX;
+import titanicsend.app.director.Director;
+import titanicsend.dmx.parameter.DmxDiscreteParameter;
+import titanicsend.dmx.parameter.DmxParameter;
+import titanicsend.dmx.parameter.DmxParameterLimiter;
+
+/**
+ * Immutable description of the DMX fields of one DmxBuffer, read from the buffer's own parameters.
+ * Lets the mixer and outputs work on the packed double[] values of a DmxBuffer without touching
+ * DmxParameter objects.
+ *
+ * <p>Values are stored in the same units as DmxParameter.getValue(): the raw value for compound
+ * parameters and the option index for discrete parameters.
+ */
+public class DmxFieldTable {
+
+  public static final byte BLEND_LERP = 0;
+  public static final byte BLEND_JUMP_START = 1;
+  public static final byte BLEND_JUMP_END = 2;
+
+  public final int size;
+
+  /** Blend mode of each field, one of the BLEND_ constants */
+  public final byte[] blendModes;
+
+  private final boolean[] scaleToAlpha;
+  private final int[] numBytes;
+  private final double[] min;
+  private final double[] max;
+  private final double[] range;
+  private final DmxParameterLimiter[] limiters;
+
+  // Possible DMX values of discrete fields, indexed by option. Null for compound fields.
+  private final int[][] dmxValues;
+
+  /**
+   * @param parameters Parameters describing each field. Only their configuration is read.
+   */
+  public DmxFieldTable(DmxParameter[] parameters) {
+    this.size = parameters.length;
+    this.blendModes = new byte[this.size];
+    this.scaleToAlpha = new boolean[this.size];
+    this.numBytes = new int[this.size];
+    this.min = new double[this.size];
+    this.max = new double[this.size];
+    this.range = new double[this.size];
+    this.limiters = new DmxParameterLimiter[this.size];
+    this.dmxValues = new int[this.size][];
+
+    for (int i = 0; i < this.size; i++) {
+      DmxParameter p = parameters[i];
+      this.blendModes[i] =
+          switch (p.getBlendMode()) {
+            case LERP -> BLEND_LERP;
+            case JUMP_START -> BLEND_JUMP_START;
+            case JUMP_END -> BLEND_JUMP_END;
+          };
+      this.scaleToAlpha[i] = p.isScaleToAlpha();
+      this.numBytes[i] = p.getNumBytes();
+      this.limiters[i] = p.getLimiter();
+      if (p instanceof DmxDiscreteParameter discrete) {
+        this.dmxValues[i] = discrete.getDmxValuesInt();
+        this.min[i] = 0;
+        this.max[i] = this.dmxValues[i].length - 1;
+      } else {
+        this.min[i] = p.getMin();
+        this.max[i] = p.getMax();
+      }
+      this.range[i] = p.getRangeD();
+    }
+  }
+
+  /** Current level of the director's beacons fader, which combines with alpha-scaled fields. */
+  public static double getBeaconsLevel() {
+    Director director = Director.get();
+    return director != null ? director.getBeaconsLevel() : 1;
+  }
+
+  /** Equivalent to DmxParameter.getValue() after DmxParameter.setValue(value) */
+  public double constrain(int field, double value) {
+    if (this.dmxValues[field] != null) {
+      return Math.clamp((int) value, 0, this.dmxValues[field].length - 1);
+    }
+    return Math.clamp(value, this.min[field], this.max[field]);
+  }
+
+  /**
+   * Equivalent to DmxParameter.getDmxValue(alpha)
+   *
+   * @param beaconsLevel Result of getBeaconsLevel(), fetched once per pass
+   */
+  public double getDmxValue(double[] values, int field, double alpha, double beaconsLevel) {
+    final int[] dmx = this.dmxValues[field];
+    if (dmx != null) {
+      return dmx[(int) values[field]] * (this.scaleToAlpha[field] ? alpha : 1);
+    }
+    return values[field] * (this.scaleToAlpha[field] ? alpha * beaconsLevel : 1);
+  }
+
+  /**
+   * Equivalent to DmxParameter.setDmxValue(dmxValue). Discrete fields only change if the value
+   * matches one of their options.
+   */
+  public void setDmxValue(double[] values, int field, double dmxValue) {
+    final int[] dmx = this.dmxValues[field];
+    if (dmx != null) {
+      final int target = (int) dmxValue;
+      for (int i = 0; i < dmx.length; i++) {
+        if (dmx[i] == target) {
+          values[field] = i;
+          return;
+        }
+      }
+    } else {
+      values[field] = Math.clamp(dmxValue, this.min[field], this.max[field]);
+    }
+  }
+
+  /** Equivalent to DmxParameter.writeBytes() for each field */
+  public void writeBytes(double[] values, byte[] output, int offset) {
+    for (int i = 0; i < this.size; i++) {
+      final int[] dmx = this.dmxValues[i];
+      if (dmx != null) {
+        // Second byte of 16-bit discrete fields is not supported yet
+        output[offset] = (byte) this.limiters[i].limit(dmx[(int) values[i]]);
+      } else {
+        double normalized = (this.limiters[i].limit(values[i]) - this.min[i]) / this.range[i];
+        if (this.numBytes[i] == 1) {
+          output[offset] = (byte) (normalized * 255);
+        } else if (this.numBytes[i] == 2) {
+          int v = (int) (normalized * 65535);
+          output[offset] = (byte) ((v >> 8) & 0xff);
+          output[offset + 1] = (byte) ((v >> 0) & 0xff);
+        } else {
+          LX.error(new Exception("Invalid number of bytes for DmxCompoundParameter"));
+        }
+      }
+      offset += this.numBytes[i];
+    }
+  }
+}
@@ -34,12 +34,20 @@ public abstract class DmxFullBuffer {
   }
 
   public static void copyFullBuffer(DmxBuffer[] src, DmxBuffer[] dst) {
+    copyFullBuffer(src, dst, null);
+  }
+
+  /**
+   * @param mask Fixtures to copy, or null for all of them
+   */
+  public static void copyFullBuffer(DmxBuffer[] src, DmxBuffer[] dst, boolean[] mask) {
     for (int i = 0; i < src.length; i++) {
+      if (mask != null && !mask[i]) {
+        continue;
+      }
       DmxBuffer s = src[i];
       DmxBuffer d = dst[i];
-      for (int j = 0; j < s.array.length; j++) {
-        d.array[j].setValue(s.array[j].getValue());
-      }
+      System.arraycopy(s.values, 0, d.values, 0, s.values.length);
       d.isActive = s.isActive;
       d.isModified = s.isModified;
     }
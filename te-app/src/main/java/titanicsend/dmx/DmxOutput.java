@@ -24,7 +24,6 @@ import heronarts.lx.output.LXOutput;
 import heronarts.lx.output.LXOutput.GammaTable.Curve;
 import heronarts.lx.parameter.LXParameter;
 import titanicsend.dmx.model.DmxModel.DmxOutputDefinition;
-import titanicsend.dmx.parameter.DmxParameter;
 
 public class DmxOutput extends LXOutput {
 
@@ -34,6 +33,11 @@ public class DmxOutput extends LXOutput {
 
   private DmxBuffer dmx;
 
+  // Whether staged data differs from the last data sent
+  private boolean dmxChanged = true;
+
+  private long lastSendMillis = 0;
+
   private class DmxByteEncoder implements ByteEncoder {
 
     @Override
@@ -47,11 +51,7 @@ public class DmxOutput extends LXOutput {
      */
     @Override
     public void writeBytes(int argb, Curve gamma, byte[] output, int offset) {
-      for (int i = 0; i < dmx.array.length; i++) {
-        DmxParameter p = dmx.array[i];
-        p.writeBytes(output, offset);
-        offset += p.getNumBytes();
-      }
+      dmx.fields.writeBytes(dmx.values, output, offset);
     }
   }
 
@@ -75,18 +75,41 @@ public class DmxOutput extends LXOutput {
 
   /** Call before send() to pass the DMX values to the output */
   public void setDmxData(DmxBuffer dmx) {
+    setDmxData(dmx, true);
+  }
+
+  /**
+   * Call before send() to pass the DMX values to the output
+   *
+   * @param changed Whether the values may differ from the previous frame
+   */
+  public void setDmxData(DmxBuffer dmx, boolean changed) {
     this.dmx = dmx;
+    this.dmxChanged |= changed;
   }
 
   private final int[] dummyColors = {0};
 
   /**
    * Entry point for sending DMX output. Internally a custom ByteEncoder will write the staged DMX
-   * data.
+   * data. Unchanged data is only resent at the keep-alive interval.
    */
   @Override
   public LXOutput send(int[] colors) {
+    long now = System.currentTimeMillis();
+    long elapsed = now - this.lastSendMillis;
+    // Same check as the datagram's frame limiter, which would drop this frame
+    if (this.definition.fps > 0 && elapsed <= 1000 / this.definition.fps) {
+      return this;
+    }
+    if (!this.dmxChanged
+        && this.definition.keepAlive > 0
+        && elapsed < this.definition.keepAlive * 1000) {
+      return this;
+    }
     this.dg.send(dummyColors);
+    this.lastSendMillis = now;
+    this.dmxChanged = false;
     return this;
   }
 
@@ -99,6 +122,7 @@ public class DmxOutput extends LXOutput {
   public void onParameterChanged(LXParameter p) {
     if (p == this.enabled) {
       dg.enabled.setValue(this.enabled.getValueb());
+      this.dmxChanged = true;
     }
   }
 
@@ -167,6 +167,7 @@ public abstract class DmxModel extends TEModel implements LXParameterListener {
     addOutputParameter("host", this.host);
     addOutputParameter("port", this.port);
     addOutputParameter("fps", this.fps);
+    addOutputParameter("keepAlive", this.keepAlive);
     addOutputParameter("dmxChannel", this.dmxChannel);
     addOutputParameter("artNetUniverse", this.artNetUniverse);
     addOutputParameter("artNetSequenceEnabled", this.artNetSequenceEnabled);
@@ -198,6 +199,7 @@ public abstract class DmxModel extends TEModel implements LXParameterListener {
     addOutputParameter("host", this.host);
     addOutputParameter("port", this.port);
     addOutputParameter("fps", this.fps);
+    addOutputParameter("keepAlive", this.keepAlive);
     addOutputParameter("dmxChannel", this.dmxChannel);
     addOutputParameter("artNetUniverse", this.artNetUniverse);
     addOutputParameter("artNetSequenceEnabled", this.artNetSequenceEnabled);
@@ -288,6 +290,7 @@ public abstract class DmxModel extends TEModel implements LXParameterListener {
   public static class DmxOutputDefinition {
 
     protected static final float FPS_UNSPECIFIED = 0f;
+    protected static final float KEEP_ALIVE_DEFAULT = 1f;
 
     public final InetAddress address;
     public final int port;
@@ -295,6 +298,8 @@ public abstract class DmxModel extends TEModel implements LXParameterListener {
     public final int channel;
     public final boolean sequenceEnabled;
     public final float fps;
+    // Seconds between resends of unchanged data, zero to send every frame
+    public final float keepAlive;
     public final int numFields;
     public final int numBytes;
     public ByteOrder byteOrder;
@@ -306,6 +311,7 @@ public abstract class DmxModel extends TEModel implements LXParameterListener {
         int channel,
         boolean sequenceEnabled,
         float fps,
+        float keepAlive,
         int numFields,
         int numBytes,
         ByteOrder byteOrder) {
@@ -315,6 +321,7 @@ public abstract class DmxModel extends TEModel implements LXParameterListener {
       this.channel = channel;
       this.sequenceEnabled = sequenceEnabled;
       this.fps = fps;
+      this.keepAlive = keepAlive;
       this.numFields = numFields;
       this.numBytes = numBytes;
       this.byteOrder = byteOrder;
@@ -332,6 +339,12 @@ public abstract class DmxModel extends TEModel implements LXParameterListener {
       new CompoundParameter("FPS", DmxOutputDefinition.FPS_UNSPECIFIED, 0, 300)
           .setDescription("FPS limiter, zero for no limit");
 
+  public final CompoundParameter keepAlive =
+      new CompoundParameter("Keep Alive", DmxOutputDefinition.KEEP_ALIVE_DEFAULT, 0, 10)
+          .setUnits(LXParameter.Units.SECONDS)
+          .setDescription(
+              "Interval to resend DMX data that has not changed, zero to send every frame");
+
   public final BooleanParameter unknownHost = new BooleanParameter("Unknown Host", false);
 
   public final DiscreteParameter port =
@@ -395,6 +408,7 @@ public abstract class DmxModel extends TEModel implements LXParameterListener {
         this.dmxChannel.getValuei(),
         this.artNetSequenceEnabled.getValueb(),
         this.fps.getValuef(),
+        this.keepAlive.getValuef(),
         this.size,
         this.numBytes,
         this.byteOrder.getEnum());
@@ -64,6 +64,11 @@ public class DmxCompoundParameter extends CompoundParameter implements DmxParame
     return this;
   }
 
+  @Override
+  public boolean isScaleToAlpha() {
+    return this.scaleToAlpha;
+  }
+
   private int numBytes = 1;
 
   public DmxCompoundParameter setNumBytes(int numBytes) {
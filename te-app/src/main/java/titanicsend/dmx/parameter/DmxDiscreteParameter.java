@@ -117,6 +117,11 @@ public class DmxDiscreteParameter extends ObjectParameter<DmxDiscreteParameterOp
     return this;
   }
 
+  @Override
+  public boolean isScaleToAlpha() {
+    return this.scaleToAlpha;
+  }
+
   @Override
   public double getDmxValueLimited() {
     return this.limiter.limit(this.getDmxValue());
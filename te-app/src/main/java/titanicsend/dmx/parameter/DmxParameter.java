@@ -41,6 +41,9 @@ public interface DmxParameter extends LXNormalizedParameter {
    */
   public double getDmxValue(double alpha);
 
+  /** Whether getDmxValue() scales with alpha, such as for a dimmer. */
+  public boolean isScaleToAlpha();
+
   public DmxParameter setDmxValue(double value);
 
   public DmxParameterLimiter getLimiter();
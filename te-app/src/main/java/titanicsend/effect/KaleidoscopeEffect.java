@@ -2,12 +2,14 @@ package titanicsend.effect;
 
 import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
+import heronarts.lx.model.LXModel;
 import heronarts.lx.parameter.CompoundParameter;
 import heronarts.lx.parameter.DiscreteParameter;
 import heronarts.lx.transform.LXProjection;
 import heronarts.lx.transform.LXVector;
 import java.util.ArrayList;
 import titanicsend.model.TEPanelModel;
+import titanicsend.util.NearestPointGrid;
 
 @LXCategory(LXCategory.TEST)
 public class KaleidoscopeEffect extends TEEffect {
@@ -25,60 +27,117 @@ public class KaleidoscopeEffect extends TEEffect {
   private final double LOG_FREQUENCY = 60000;
   private double lastLogTime = 0;
 
+  // Precomputed gather table for all lit panels: colors[dst[i]] = colors[src[i]].
+  // Rebuilt only when the segments, start angle or model geometry change.
+  private int[] dst = new int[0];
+  private int[] src = new int[0];
+  private int tableSize = 0;
+
+  private boolean needsRebuild = true;
+  private int builtSegments = -1;
+  private double builtStartAngle = Double.NaN;
+
+  @Override
+  protected void onModelChanged(LXModel model) {
+    super.onModelChanged(model);
+    this.needsRebuild = true;
+  }
+
   @Override
   protected void run(double deltaMs, double enabledAmount) {
     if (enabledAmount > 0) {
-      double segmentAngle = 2 * Math.PI / segments.getValue();
-      for (TEPanelModel panel : this.modelTE.getPanels()) {
-        if (!panel.panelType.equals(TEPanelModel.LIT)) {
-          continue;
-        }
-
-        LXProjection projection = new LXProjection(panel.model);
-        projection.translate(-panel.centroid.x, -panel.centroid.y, -panel.centroid.z);
-
-        LXVector zAxis = new LXVector(0, 0, 1);
-
-        ArrayList<LXVector> vectors = new ArrayList<LXVector>();
-
-        projection.iterator().forEachRemaining(vectors::add);
-        if (vectors.size() < 2) {
-          // JBelcher note: I don't know the context here, just patching last minute errors before
-          // BM
-          if (this.lx.engine.nowMillis > lastLogTime + LOG_FREQUENCY) {
-            LX.log(
-                "Warning! Kaleidoscope effect is trying to reference index 1 in a single-item array of vectors");
-            this.lastLogTime = this.lx.engine.nowMillis;
-          }
-          continue;
-        }
-        LXVector normal = vectors.get(0).copy().cross(vectors.get(1));
-        LXVector rotationAxis = zAxis.cross(normal);
-        projection.rotate(
-            LXVector.angleBetween(normal, zAxis), rotationAxis.x, rotationAxis.y, rotationAxis.z);
-
-        for (LXVector v : projection) {
-          double angle = Math.atan2(v.y, v.x);
-          angle -= segmentAngle * Math.floor(angle / segmentAngle);
-          angle = Math.min(angle, segmentAngle - angle);
-          angle += startAngle.getValue();
-          double radius = Math.sqrt(v.dot(v));
-          LXVector sampleVector =
-              new LXVector((float) Math.sin(angle), (float) Math.cos(angle), 0)
-                  .mult((float) radius);
-          LXVector closest = null;
-          double minDistance = Double.MAX_VALUE;
-          for (LXVector w : projection) {
-            if (w.dist(sampleVector) < minDistance) {
-              closest = w;
-              minDistance = w.dist(sampleVector);
-            }
-          }
-          if (closest == null) {
-            continue;
-          }
-          colors[v.point.index] = colors[closest.point.index];
-        }
+      final int segments = this.segments.getValuei();
+      final double startAngle = this.startAngle.getValue();
+      if (this.needsRebuild
+          || segments != this.builtSegments
+          || startAngle != this.builtStartAngle) {
+        rebuild(segments, startAngle);
+      }
+
+      // Sequential in-place gather, same ordering as the original per-point search
+      for (int i = 0; i < this.tableSize; i++) {
+        colors[this.dst[i]] = colors[this.src[i]];
+      }
+    }
+  }
+
+  private void rebuild(int segments, double startAngle) {
+    this.needsRebuild = false;
+    this.builtSegments = segments;
+    this.builtStartAngle = startAngle;
+
+    int capacity = 0;
+    for (TEPanelModel panel : this.modelTE.getPanels()) {
+      capacity += panel.points.length;
+    }
+    if (this.dst.length < capacity) {
+      this.dst = new int[capacity];
+      this.src = new int[capacity];
+    }
+    this.tableSize = 0;
+
+    double segmentAngle = 2 * Math.PI / segments;
+    for (TEPanelModel panel : this.modelTE.getPanels()) {
+      if (!panel.panelType.equals(TEPanelModel.LIT)) {
+        continue;
+      }
+      buildPanel(panel, segmentAngle, startAngle);
+    }
+  }
+
+  /** Project a panel onto the XY plane and find the sample point for each of its points. */
+  private void buildPanel(TEPanelModel panel, double segmentAngle, double startAngle) {
+    LXProjection projection = new LXProjection(panel.model);
+    projection.translate(-panel.centroid.x, -panel.centroid.y, -panel.centroid.z);
+
+    LXVector zAxis = new LXVector(0, 0, 1);
+
+    ArrayList<LXVector> vectors = new ArrayList<LXVector>();
+
+    projection.iterator().forEachRemaining(vectors::add);
+    if (vectors.size() < 2) {
+      // JBelcher note: I don't know the context here, just patching last minute errors before
+      // BM
+      if (this.lx.engine.nowMillis > lastLogTime + LOG_FREQUENCY) {
+        LX.log(
+            "Warning! Kaleidoscope effect is trying to reference index 1 in a single-item array of vectors");
+        this.lastLogTime = this.lx.engine.nowMillis;
+      }
+      return;
+    }
+    LXVector normal = vectors.get(0).copy().cross(vectors.get(1));
+    LXVector rotationAxis = zAxis.cross(normal);
+    projection.rotate(
+        LXVector.angleBetween(normal, zAxis), rotationAxis.x, rotationAxis.y, rotationAxis.z);
+
+    final int n = vectors.size();
+    float[] x = new float[n];
+    float[] y = new float[n];
+    float[] z = new float[n];
+    int i = 0;
+    for (LXVector v : projection) {
+      x[i] = v.x;
+      y[i] = v.y;
+      z[i] = v.z;
+      i++;
+    }
+    NearestPointGrid grid = new NearestPointGrid(x, y, z);
+
+    for (LXVector v : projection) {
+      double angle = Math.atan2(v.y, v.x);
+      angle -= segmentAngle * Math.floor(angle / segmentAngle);
+      angle = Math.min(angle, segmentAngle - angle);
+      angle += startAngle;
+      double radius = Math.sqrt(v.dot(v));
+      int closest =
+          grid.nearest(
+              (float) Math.sin(angle) * (float) radius,
+              (float) Math.cos(angle) * (float) radius,
+              0);
+      if (closest >= 0) {
+        this.dst[this.tableSize] = v.point.index;
+        this.src[this.tableSize] = vectors.get(closest).point.index;
+        this.tableSize++;
       }
     }
   }
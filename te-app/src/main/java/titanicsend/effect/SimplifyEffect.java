@@ -10,6 +10,7 @@ import heronarts.lx.mixer.LXAbstractChannel;
 import heronarts.lx.mixer.LXMasterBus;
 import heronarts.lx.model.LXModel;
 import heronarts.lx.model.LXPoint;
+import heronarts.lx.parameter.BooleanParameter;
 import heronarts.lx.parameter.CompoundParameter;
 import heronarts.lx.parameter.DiscreteParameter;
 import heronarts.lx.parameter.EnumParameter;
@@ -20,9 +21,12 @@ import heronarts.lx.structure.view.LXViewDefinition;
 import heronarts.lx.studio.LXStudio.UI;
 import heronarts.lx.studio.ui.device.UIDevice;
 import heronarts.lx.studio.ui.device.UIDeviceControls;
-import heronarts.lx.utils.LXUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The SimplifyEffect forces output to be the same for all points within each view group, or within
@@ -35,99 +39,58 @@ import java.util.List;
 public class SimplifyEffect extends LXEffect
     implements heronarts.lx.LX.Listener, UIDeviceControls<SimplifyEffect> {
 
+  /**
+   * Averaging strategies. Stateless so that segments can be accumulated on several threads at once:
+   * sums live in a caller-provided array of {@link #NUM_SUMS} values, of which [0] is reserved for
+   * the luminosity total.
+   */
   public enum BlendMode {
     HSB("HSB") {
-      private int num = 0;
-      private float h, s, b;
-
-      @Override
-      void clear() {
-        this.num = 0;
-        this.h = 0f;
-        this.s = 0f;
-        this.b = 0f;
-      }
-
-      @Override
-      void add(int color) {
-        this.num++;
-        this.h += LXColor.h(color);
-        this.s += LXColor.s(color);
-        this.b += LXColor.b(color);
-      }
-
       @Override
-      float brightness() {
-        // This is crazy.  I think you want the luminosity divided by the max luminosity.
-        // // Because full red hsb(0, 100, 100) should be 100% but hsb (0, 100, 100) should be 0.
-        return this.b / this.num;
+      void add(double[] sums, int offset, int color) {
+        sums[offset + 1] += LXColor.h(color);
+        sums[offset + 2] += LXColor.s(color);
+        sums[offset + 3] += LXColor.b(color);
       }
 
       @Override
-      int average() {
-        return LXColor.hsb(this.h / this.num, this.s / this.num, this.b / this.num);
-      }
-
-      @Override
-      int average(float brightness) {
-        return LXColor.hsb((float) this.h / this.num, (float) this.s / this.num, brightness);
+      int average(double[] sums, int offset, int num) {
+        return LXColor.hsb(
+            (float) (sums[offset + 1] / num),
+            (float) (sums[offset + 2] / num),
+            (float) (sums[offset + 3] / num));
       }
     },
     RGB("RGB") {
-      private int num = 0;
-      private int r, g, b;
-
       @Override
-      void clear() {
-        this.r = this.g = this.b = 0;
-        this.num = 0;
+      void add(double[] sums, int offset, int color) {
+        sums[offset + 1] += (LXColor.red(color) & 0xFF);
+        sums[offset + 2] += (LXColor.green(color) & 0xFF);
+        sums[offset + 3] += (LXColor.blue(color) & 0xFF);
       }
 
       @Override
-      void add(int color) {
-        this.num++;
-        this.r += (LXColor.red(color) & 0xFF);
-        this.g += (LXColor.green(color) & 0xFF);
-        this.b += (LXColor.blue(color) & 0xFF);
-      }
-
-      @Override
-      float brightness() {
-        return LXColor.luminosity(average());
-      }
-
-      @Override
-      int average() {
-        float r = (float) this.r / this.num;
-        float g = (float) this.g / this.num;
-        float b = (float) this.b / this.num;
-        return LXColor.rgb((int) r, (int) g, (int) b);
-      }
-
-      @Override
-      int average(float brightness) {
-        int color = average();
-        return LXColor.hsb(LXColor.h(color), LXColor.s(color), brightness);
+      int average(double[] sums, int offset, int num) {
+        return LXColor.rgb(
+            (int) (sums[offset + 1] / num),
+            (int) (sums[offset + 2] / num),
+            (int) (sums[offset + 3] / num));
       }
     };
 
+    static final int NUM_SUMS = 4;
+
     public final String label;
 
     private BlendMode(String label) {
       this.label = label;
     }
 
-    abstract void clear();
+    /** Add one color to the running sums at offset */
+    abstract void add(double[] sums, int offset, int color);
 
-    abstract void add(int color);
-
-    /** Get brightness level of the average */
-    abstract float brightness();
-
-    abstract int average();
-
-    /** Get the average color but reset the brightness to this new value */
-    abstract int average(float brightness);
+    /** Average color of the sums at offset */
+    abstract int average(double[] sums, int offset, int num);
   }
 
   public final CompoundParameter amount =
@@ -151,8 +114,82 @@ public class SimplifyEffect extends LXEffect
       new CompoundParameter("Gain", 0)
           .setDescription("0 = variable output brightness.  1 = all or nothing brightness");
 
+  public final BooleanParameter parallel =
+      new BooleanParameter("Parallel", false)
+          .setDescription(
+              "Split the work across CPU cores, for large views with few groups. Only applies when"
+                  + " no point is in more than one group");
+
   final List<LXModel> models = new ArrayList<LXModel>();
 
+  // Aggregation plan, compiled from the models list. Segment s covers the point indices
+  // planPoints[planOffsets[s]] until planOffsets[s + 1].
+  private int[] planPoints = new int[0];
+  private int[] planOffsets = new int[] {0};
+  private int numSegments = 0;
+
+  // Whether no point is in more than one segment. Overlapping segments depend on the order they are
+  // written in, so they always run on the serial path.
+  private boolean disjoint = true;
+
+  // For the parallel path the plan is cut into chunks that never span two segments
+  private static final int CHUNK_SIZE = 4096;
+  private int[] chunkOffsets = new int[] {0};
+  private int[] chunkSegments = new int[0];
+  private int numChunks = 0;
+  private double[] chunkSums = new double[0];
+  private int[] segmentColors = new int[0];
+
+  // Sums for the serial path
+  private final double[] sums = new double[BlendMode.NUM_SUMS];
+
+  // Fork-join pool for the parallel path, created the first time it runs
+  private ForkJoinPool pool = null;
+
+  // Pass run by the tasks of the parallel path
+  private static final int PASS_ACCUMULATE = 0;
+  private static final int PASS_WRITE = 1;
+  private int pass;
+
+  // Parallel parameters of the current frame, read by the tasks
+  private BlendMode parallelBlendMode;
+  private double parallelAmount;
+
+  // Binary tree of tasks over the plan chunks, rebuilt with the plan and reused every frame
+  private ChunkAction rootAction = null;
+
+  /** Runs the current pass over the plan chunks [from, to), splitting until one chunk is left */
+  private class ChunkAction extends RecursiveAction {
+    private final int from;
+    private final int to;
+    private final ChunkAction left;
+    private final ChunkAction right;
+
+    private ChunkAction(int from, int to) {
+      this.from = from;
+      this.to = to;
+      if (to - from > 1) {
+        final int mid = (from + to) >>> 1;
+        this.left = new ChunkAction(from, mid);
+        this.right = new ChunkAction(mid, to);
+      } else {
+        this.left = null;
+        this.right = null;
+      }
+    }
+
+    @Override
+    protected void compute() {
+      if (this.left == null) {
+        runChunk(this.from);
+        return;
+      }
+      this.left.reinitialize();
+      this.right.reinitialize();
+      invokeAll(this.left, this.right);
+    }
+  }
+
   private boolean needsRefresh = true;
 
   public SimplifyEffect(LX lx) {
@@ -162,6 +199,7 @@ public class SimplifyEffect extends LXEffect
     addParameter("depth", this.depth);
     addParameter("gate", this.gate);
     addParameter("gain", this.gain);
+    addParameter("parallel", this.parallel);
 
     this.lx.addListener(this);
   }
@@ -183,6 +221,49 @@ public class SimplifyEffect extends LXEffect
     final int depth = this.depth.getValuei();
     this.models.clear();
     extractModels(this.models, this.getModelViewFixed(), depth);
+    compilePlan();
+  }
+
+  /** Flatten the models list into primitive arrays so the per-frame kernel never touches objects */
+  private void compilePlan() {
+    int numPoints = 0;
+    int numChunks = 0;
+    for (LXModel m : this.models) {
+      numPoints += m.points.length;
+      numChunks += (m.points.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    this.numSegments = this.models.size();
+    this.planPoints = new int[numPoints];
+    this.planOffsets = new int[this.numSegments + 1];
+    this.numChunks = numChunks;
+    this.chunkOffsets = new int[numChunks + 1];
+    this.chunkSegments = new int[numChunks];
+    this.chunkSums = new double[numChunks * BlendMode.NUM_SUMS];
+    this.segmentColors = new int[this.numSegments];
+
+    final BitSet seen = new BitSet();
+    this.disjoint = true;
+    int p = 0;
+    int c = 0;
+    for (int s = 0; s < this.numSegments; s++) {
+      this.planOffsets[s] = p;
+      for (LXPoint point : this.models.get(s).points) {
+        if (seen.get(point.index)) {
+          this.disjoint = false;
+        }
+        seen.set(point.index);
+        if ((p - this.planOffsets[s]) % CHUNK_SIZE == 0) {
+          this.chunkOffsets[c] = p;
+          this.chunkSegments[c] = s;
+          c++;
+        }
+        this.planPoints[p++] = point.index;
+      }
+    }
+    this.planOffsets[this.numSegments] = p;
+    this.chunkOffsets[numChunks] = p;
+    this.rootAction = numChunks > 1 ? new ChunkAction(0, numChunks) : null;
   }
 
   /**
@@ -216,41 +297,126 @@ public class SimplifyEffect extends LXEffect
     final double amount = this.amount.getValue();
     final BlendMode blendMode = this.blendMode.getEnum();
     final float gate = this.gate.getValuef();
-    final float gain = this.gain.getValuef();
 
-    for (LXModel m : this.models) {
-      int numPoints = m.points.length;
-      float lumens = 0;
-      blendMode.clear();
-
-      for (LXPoint p : m.points) {
-        int c = this.colors[p.index];
-        lumens += LXColor.luminosity(c) / 100;
-        blendMode.add(c);
+    if (this.parallel.isOn() && this.disjoint && this.rootAction != null) {
+      runParallel(blendMode, gate, amount);
+      return;
+    }
+
+    // Fused kernel: average each segment, then immediately write it back while it is still in cache
+    final int[] colors = this.colors;
+    final int[] planPoints = this.planPoints;
+    final double[] sums = this.sums;
+    for (int s = 0; s < this.numSegments; s++) {
+      final int start = this.planOffsets[s];
+      final int end = this.planOffsets[s + 1];
+      if (start == end) {
+        continue;
       }
+      Arrays.fill(sums, 0);
+      accumulate(blendMode, colors, planPoints, start, end, sums, 0);
+      final int color = segmentColor(blendMode, sums, 0, end - start, gate);
+      write(colors, planPoints, start, end, color, amount);
+    }
+  }
 
-      float level = lumens / numPoints;
-      int color;
-      if (level >= gate && level != 0f) {
-        // Scale input brightness range (gate, 100) to output brightness range (0, 100)
-        // IF avoids fail to 0 if both are 1.
-        if (gate < 1f) {
-          level = LXUtils.lerpf((level - gate) / (1f - gate), 1f, gain);
+  /**
+   * Three passes over plan chunks: partial sums in parallel, combine per segment, write back.
+   * Segments must be disjoint, so that the parallel writes never touch the same point and the
+   * result matches the serial path.
+   */
+  private void runParallel(BlendMode blendMode, float gate, double amount) {
+    if (this.pool == null) {
+      this.pool = new ForkJoinPool();
+    }
+    this.parallelBlendMode = blendMode;
+    this.parallelAmount = amount;
+
+    runPass(PASS_ACCUMULATE);
+
+    // Chunks are ordered by segment, fold them into the first chunk of each segment
+    final double[] chunkSums = this.chunkSums;
+    for (int c = 0; c < this.numChunks; ) {
+      final int s = this.chunkSegments[c];
+      final int first = c * BlendMode.NUM_SUMS;
+      for (c++; c < this.numChunks && this.chunkSegments[c] == s; c++) {
+        for (int k = 0; k < BlendMode.NUM_SUMS; k++) {
+          chunkSums[first + k] += chunkSums[c * BlendMode.NUM_SUMS + k];
         }
-        // color = blendMode.average(level);  // TODO: fix gain to match grayscale version
-        color = blendMode.average();
-      } else {
-        color = LXColor.BLACK;
       }
+      final int num = this.planOffsets[s + 1] - this.planOffsets[s];
+      this.segmentColors[s] = segmentColor(blendMode, chunkSums, first, num, gate);
+    }
+
+    runPass(PASS_WRITE);
+  }
+
+  private void runPass(int pass) {
+    this.pass = pass;
+    this.rootAction.reinitialize();
+    this.pool.invoke(this.rootAction);
+  }
 
-      setModelColor(m, color, amount);
+  /** Run the current pass on one chunk of the plan. Called by the fork-join tasks. */
+  private void runChunk(int c) {
+    final int start = this.chunkOffsets[c];
+    final int end = this.chunkOffsets[c + 1];
+    if (this.pass == PASS_ACCUMULATE) {
+      final int offset = c * BlendMode.NUM_SUMS;
+      Arrays.fill(this.chunkSums, offset, offset + BlendMode.NUM_SUMS, 0);
+      accumulate(
+          this.parallelBlendMode, this.colors, this.planPoints, start, end, this.chunkSums, offset);
+    } else {
+      write(
+          this.colors,
+          this.planPoints,
+          start,
+          end,
+          this.segmentColors[this.chunkSegments[c]],
+          this.parallelAmount);
     }
   }
 
-  /** Lerps every point in a model between its current color and the new color */
-  private void setModelColor(LXModel m, int color, double lerp) {
-    for (LXPoint p : m.points) {
-      this.colors[p.index] = LXColor.lerp(this.colors[p.index], color, lerp);
+  private static void accumulate(
+      BlendMode blendMode,
+      int[] colors,
+      int[] planPoints,
+      int start,
+      int end,
+      double[] sums,
+      int offset) {
+    float lumens = 0;
+    for (int i = start; i < end; i++) {
+      final int c = colors[planPoints[i]];
+      lumens += LXColor.luminosity(c) / 100;
+      blendMode.add(sums, offset, c);
+    }
+    sums[offset] += lumens;
+  }
+
+  private static int segmentColor(
+      BlendMode blendMode, double[] sums, int offset, int numPoints, float gate) {
+    final float level = (float) (sums[offset] / numPoints);
+    if (level >= gate && level != 0f) {
+      // TODO: apply gain to the average, to match the grayscale version
+      return blendMode.average(sums, offset, numPoints);
+    } else {
+      return LXColor.BLACK;
+    }
+  }
+
+  /** Lerps every point in a range of the plan between its current color and the new color */
+  private static void write(
+      int[] colors, int[] planPoints, int start, int end, int color, double lerp) {
+    if (lerp >= 1) {
+      for (int i = start; i < end; i++) {
+        colors[planPoints[i]] = color;
+      }
+    } else {
+      for (int i = start; i < end; i++) {
+        final int index = planPoints[i];
+        colors[index] = LXColor.lerp(colors[index], color, lerp);
+      }
     }
   }
 
@@ -268,7 +434,20 @@ public class SimplifyEffect extends LXEffect
   @Override
   public void dispose() {
     this.lx.removeListener(this);
+    if (this.pool != null) {
+      this.pool.shutdown();
+      this.pool = null;
+    }
     this.models.clear();
+    this.planPoints = new int[0];
+    this.planOffsets = new int[] {0};
+    this.numSegments = 0;
+    this.chunkOffsets = new int[] {0};
+    this.chunkSegments = new int[0];
+    this.numChunks = 0;
+    this.chunkSums = new double[0];
+    this.segmentColors = new int[0];
+    this.rootAction = null;
     super.dispose();
   }
 
@@ -282,7 +461,8 @@ public class SimplifyEffect extends LXEffect
         uiDevice,
         sectionLabel("Amount"),
         newKnob(this.amount),
-        newDropMenu(this.blendMode).setTopMargin(6));
+        newDropMenu(this.blendMode).setTopMargin(6),
+        newButton(this.parallel).setTopMargin(6));
     addColumn(
             uiDevice,
             sectionLabel("Source").setWidth(colWidth),
@@ -195,6 +195,19 @@ public class LXGradientUtils {
       return this.brightness == 0;
     }
 
+    /** True if this stop holds the same values as another stop */
+    public boolean matches(ColorStop that) {
+      return this.hue == that.hue
+          && this.saturation == that.saturation
+          && this.brightness == that.brightness
+          && this.r == that.r
+          && this.g == that.g
+          && this.b == that.b
+          && this.lStar == that.lStar
+          && this.aStar == that.aStar
+          && this.bStar == that.bStar;
+    }
+
     @Override
     public String toString() {
       return String.format("rgb(%d,%d,%d) hsb(%f,%f,%f)", r, g, b, hue, saturation, brightness);
@@ -211,6 +224,26 @@ public class LXGradientUtils {
       }
     }
 
+    public void set(ColorStops that) {
+      this.numStops = that.numStops;
+      for (int i = 0; i < this.stops.length; ++i) {
+        this.stops[i].set(that.stops[i]);
+      }
+    }
+
+    /** True if the active stops, including the wrap stop, match those of another gradient */
+    public boolean matches(ColorStops that) {
+      if (this.numStops != that.numStops) {
+        return false;
+      }
+      for (int i = 0; i <= this.numStops; ++i) {
+        if (!this.stops[i].matches(that.stops[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     public int getColor(float lerp, BlendFunction blendFunction) {
       lerp = (lerp % 1f) * this.numStops;
       int stop = (int) Math.floor(lerp);
@@ -287,7 +287,10 @@ public class TEWholeModelDynamic implements TEWholeModel, LX.Listener {
     }
 
     // Update 3D ui elements (now with extra thread safety!)
-    UI3DManager.current.rebuild();
+    // No UI exists when running headless, such as from the benchmarks.
+    if (UI3DManager.current != null) {
+      UI3DManager.current.rebuild();
+    }
 
     // Run the garbage collector to prevent buildup of old-generation objects?
   }
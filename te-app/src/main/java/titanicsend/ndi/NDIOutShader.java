@@ -31,6 +31,7 @@ public class NDIOutShader extends GLShader implements GLShader.UniformSource {
   private int ndiOffset = 0;
   private String ndiStreamLabel = "TitanicsEnd";
 
+  private LXModel model;
   private int modelCoordsTextureHandle = UNINITIALIZED;
   private int modelNeighborhoodTextureHandle = UNINITIALIZED;
 
@@ -96,6 +97,25 @@ public class NDIOutShader extends GLShader implements GLShader.UniformSource {
     this.imageBuffer = TEShader.allocateBackBuffer();
   }
 
+  @Override
+  protected void resizeShaderBuffers() {
+    this.FBOs.dispose();
+    this.FBOs = new GLShader.TripleFBO();
+    this.PBOs.dispose();
+    this.PBOs = new GLShader.TriplePBO();
+    this.imageBuffer = TEShader.allocateBackBuffer();
+    if (this.ndiFrame != null) {
+      this.ndiFrame.setData(this.imageBuffer);
+    }
+    // New PBOs are empty
+    this.frameNum = 0;
+
+    // Model textures were recreated at the new canvas size
+    if (this.model != null) {
+      setModelCoordinates(this.model);
+    }
+  }
+
   /** Set input texture handle */
   public void setDst(int iDst) {
     this.iDst = iDst;
@@ -198,6 +218,7 @@ public class NDIOutShader extends GLShader implements GLShader.UniformSource {
    * @param model Current LXModel of the calling context, which is a LXView or the global model
    */
   public void setModelCoordinates(LXModel model) {
+    this.model = model;
     this.modelCoordsTextureHandle = this.glEngine.textureCache.getModelCoordsTexture(model);
     this.modelNeighborhoodTextureHandle =
         this.glEngine.textureCache.getModelNeighborhoodTexture(model);
@@ -4,16 +4,17 @@ import heronarts.lx.LX;
 import heronarts.lx.audio.GraphicMeter;
 import heronarts.lx.parameter.LXParameter;
 import java.util.List;
+import titanicsend.pattern.glengine.AudioAnalyzer;
 import titanicsend.pattern.glengine.GLEngine;
 
 /**
  * Patterns should inherit from this if they wish to make use of live audio data and several useful
  * derived audio attributes, such as normalized bass or treble levels.
  *
- * <p>In the future we can implement gates, thresholds, or tempo inference.
- *
- * <p>ToDo: Each pattern shouldn't have it's own copy of these audio things. Need static members
- * maintaining all audio computations.
+ * <p>The audio is analyzed on its own thread by GLEngine's AudioAnalyzer, and every pattern reads
+ * the same snapshot of it, taken at the start of the frame. Patterns wanting more than the levels
+ * below, such as the individual bands, their hits or onsets, can read the snapshot directly from
+ * {@link #getAudio()}.
  */
 public abstract class TEAudioPattern extends TEPattern {
   // The GraphicMeter holds the analyzed frequency content for the audio input
@@ -66,6 +67,14 @@ public abstract class TEAudioPattern extends TEPattern {
 
   protected abstract void runTEAudioPattern(double deltaMs);
 
+  /**
+   * This frame's analysis of the audio, shared by all patterns. Fetch it again every frame and
+   * don't keep it: once the frame is over, the analysis thread reuses the snapshot for new data.
+   */
+  protected AudioAnalyzer.Snapshot getAudio() {
+    return GLEngine.getAudio();
+  }
+
   /**
    * Call computeAudio() in a TEAudioPattern's run() once per frame to update values that analyze
    * and process the audio stream.
@@ -73,42 +82,39 @@ public abstract class TEAudioPattern extends TEPattern {
    * @param deltaMs elapsed time since last frame, as provided in run(deltaMs)
    */
   protected void computeAudio(double deltaMs) {
+    final AudioAnalyzer.Snapshot audio = getAudio();
+
     // Instantaneous normalized (0..1) volume level
-    volumeLevel = GLEngine.getVolume();
+    volumeLevel = audio.volume;
 
-    /* Average bass level of the bottom `bassBands` frequency bands.
-     * The default lx.engine.audio.meter breaks up sound into 16 bands,
-     * so a `bassBandCount` of 2 averages the bottom 12.5% of frequencies.
+    /* Average level of the bottom eighth of the analyzer's frequency bands.
+     * With the default 16 bands, that's the bottom 12.5% of frequencies.
      */
-    bassLevel = GLEngine.getBassLevel();
+    bassLevel = audio.bassLevel;
 
-    // Instantaneous average level of the top half of the frequency bins
-    trebleLevel = GLEngine.getTrebleLevel();
+    // Instantaneous average level of the top half of the frequency bands
+    trebleLevel = audio.trebleLevel;
 
-    /* Compute the ratio of the current instantaneous frequency levels to
+    /* The ratio of the current instantaneous frequency levels to
      * their current moving averages.
      */
-    volumeRatio = GLEngine.getVolumeRatio();
-    bassRatio = GLEngine.getBassRatio();
-    trebleRatio = GLEngine.getTrebleRatio();
+    volumeRatio = audio.volumeRatio;
+    bassRatio = audio.bassRatio;
+    trebleRatio = audio.trebleRatio;
 
     bassHit = false;
     // If bass is over 20% higher than recent average
-    // and greater than in the previous frame
+    // and greater than in the previous frame, which the analyzer
+    // works out once for everyone,
     // and enough time has elapsed since we last triggered
     // mark the frame as a bassHit().
-    if (bassLevel > 1.2 * GLEngine.getAvgBass()
-        && bassLevel > lastBassLevel
-        && msSinceBassRise > bassRetriggerMs) {
+    if (audio.bassRising && msSinceBassRise > bassRetriggerMs) {
       bassHit = true;
       msSinceBassRise = 0;
     }
     msSinceBassRise += deltaMs;
-    lastBassLevel = bassLevel;
   }
 
-  double lastBassLevel = 1;
-
   public double getBassLevel() {
     return bassLevel;
   }
@@ -2,6 +2,7 @@ package titanicsend.pattern;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import heronarts.lx.GpuDevice;
 import heronarts.lx.LX;
 import heronarts.lx.Tempo;
 import heronarts.lx.audio.GraphicMeter;
@@ -82,6 +83,17 @@ public abstract class TEPattern extends DmxPattern {
     this.lx.addListener(this.lxListener);
   }
 
+  @Override
+  public void loop(double deltaMs) {
+    super.loop(deltaMs);
+
+    // GPU mixer: stream the output of CPU patterns to the GPU right away, before the next pattern
+    // of a composite channel reuses the render buffer
+    if (this.lx.engine.renderMode.gpu && !(this instanceof GpuDevice) && GLEngine.current != null) {
+      GLEngine.current.getMixer().uploadPatternColors(this);
+    }
+  }
+
   @Override
   public void onInactive() {
     // clearPixels(); // Note(JKB): should be ok to remove this, confirm after running for a while
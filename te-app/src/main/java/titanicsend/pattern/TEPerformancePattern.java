@@ -17,11 +17,12 @@ import titanicsend.app.TEGlobalPatternControls;
 import titanicsend.pattern.glengine.ShaderConfiguration;
 import titanicsend.pattern.jon.TEControlTag;
 import titanicsend.pattern.jon.VariableSpeedTimer;
+import titanicsend.pattern.pixelblaze.PBHost;
 import titanicsend.pattern.yoffa.framework.TEShaderView;
 import titanicsend.util.Rotor;
 import titanicsend.util.TEColor;
 
-public abstract class TEPerformancePattern extends TEAudioPattern {
+public abstract class TEPerformancePattern extends TEAudioPattern implements PBHost {
   private final TEShaderView defaultView;
 
   /**
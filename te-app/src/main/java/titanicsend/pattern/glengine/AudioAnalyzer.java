@@ -0,0 +1,555 @@
+package titanicsend.pattern.glengine;
+
+import com.jogamp.opengl.util.GLBuffers;
+import heronarts.lx.LX;
+import heronarts.lx.audio.FourierTransform;
+import heronarts.lx.audio.GraphicMeter;
+import heronarts.lx.audio.LXAudioBuffer;
+import heronarts.lx.audio.LXAudioEngine;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.EnumParameter;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import titanicsend.audio.AudioStems;
+import titanicsend.util.TEMath;
+
+/**
+ * Analyzes the audio input for everything that reads it: patterns, the GL audio texture and the
+ * per-frame uniform block. Runs its own FFT, larger than the meter's, over a history of recent
+ * sample buffers, and derives from it a log-spaced spectrum for the audio texture, a configurable
+ * number of log-spaced bands with running averages and hit events, and spectral flux onsets. Levels
+ * are normalized with the gain, range, slope, attack and release of the engine's meter, so the
+ * meter's controls still tune everything.
+ *
+ * <p>Analysis runs on its own thread, polling the audio buffer at four times its rate, whatever the
+ * frame rate. LX audio buffers have no hook or sequence number, so a buffer that the input replaces
+ * within one poll interval, as happens when the audio device delivers a burst, is missed, just as
+ * it is by the LX meter. Results are published through three {@link Snapshot}s: the analysis thread
+ * fills one, the engine thread reads another for the whole of a frame, and the third holds the
+ * newest complete analysis. Either side swaps its snapshot with the newest one atomically, so
+ * neither ever waits on the other.
+ */
+public class AudioAnalyzer {
+
+  public enum FFTSize {
+    SIZE_512(512),
+    SIZE_1024(1024),
+    SIZE_2048(2048),
+    SIZE_4096(4096);
+
+    public final int size;
+
+    FFTSize(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public String toString() {
+      return Integer.toString(this.size);
+    }
+  }
+
+  /** Number of bins in the spectrum, which is the width of the audio texture */
+  public static final int SPECTRUM_SIZE = 512;
+
+  public static final int DEFAULT_NUM_BANDS = FourierTransform.DEFAULT_NUM_BANDS;
+
+  /** Number of audio stems passed on to shaders */
+  public static final int MAX_STEMS = 5;
+
+  // Floor for the levels, so their ratios to their averages stay finite
+  private static final double LEVEL_MIN = 0.01;
+
+  // A band hits when it rises to this many times its running average...
+  private static final double HIT_RATIO = 1.2;
+  // ...and it hasn't hit for this long
+  private static final double BAND_RETRIGGER_MS = 100;
+
+  // An onset is spectral flux above this multiple of its running average, plus the floor
+  private static final double ONSET_RATIO = 1.5;
+  private static final double ONSET_FLOOR = 0.01;
+  private static final double ONSET_RETRIGGER_MS = 100;
+
+  public final EnumParameter<FFTSize> fftSize =
+      new EnumParameter<FFTSize>("FFT Size", FFTSize.SIZE_2048)
+          .setDescription("Samples per audio FFT. Larger sizes resolve bass better but lag more");
+
+  public final DiscreteParameter numBands =
+      new DiscreteParameter("Audio Bands", DEFAULT_NUM_BANDS, 4, 65)
+          .setDescription("Number of log-spaced frequency bands tracked for audio patterns");
+
+  /**
+   * Everything known about the audio for one frame. Don't modify, and don't keep it past the frame:
+   * the analysis thread refills snapshots once the engine thread has moved on to a newer one.
+   */
+  public static class Snapshot {
+    /** Log-spaced spectrum, normalized to 0..1. Row 0 of the audio texture. */
+    public final float[] spectrum = new float[SPECTRUM_SIZE];
+
+    /** Most recent audio samples, range -1 to 1. Row 1 of the audio texture. */
+    public final float[] waveform = new float[SPECTRUM_SIZE];
+
+    /** Contents of the audio texture, filled in by the analysis thread */
+    public final FloatBuffer texture = GLBuffers.newDirectFloatBuffer(2 * SPECTRUM_SIZE);
+
+    /** Values of the first MAX_STEMS audio stems, with gain applied */
+    public final float[] stems = new float[MAX_STEMS];
+
+    /** Log-spaced bands, normalized to 0..1, with their running averages */
+    public final float[] bands;
+
+    public final float[] bandAverages;
+
+    /** Bands that rose steeply above their average since the previous frame */
+    public final boolean[] bandHits;
+
+    public double volume;
+    public double bassLevel;
+    public double trebleLevel;
+    public double avgVolume;
+    public double avgBass;
+    public double avgTreble;
+    public double volumeRatio;
+    public double bassRatio;
+    public double trebleRatio;
+
+    /**
+     * Bass rose to over 20% higher than its recent average since the previous frame. TEAudioPattern
+     * gates this with each pattern's retrigger time to make its bassHit.
+     */
+    public boolean bassRising;
+
+    /** Spectral flux: the summed rise of the spectrum since the previous audio buffer */
+    public double flux;
+
+    public double onsetThreshold;
+
+    /** Whether a new sound started since the previous frame */
+    public boolean onset;
+
+    // The analysis thread counts events, and acquire() turns the counts into the events of a
+    // frame, so that no event is lost when the analysis runs more often than frames.
+    private long sequence = 0;
+    private long onsetCount = 0;
+    private long bassRiseCount = 0;
+    private final long[] bandHitCounts;
+
+    public Snapshot(int numBands) {
+      this.bands = new float[numBands];
+      this.bandAverages = new float[numBands];
+      this.bandHits = new boolean[numBands];
+      this.bandHitCounts = new long[numBands];
+    }
+
+    public int getNumBands() {
+      return this.bands.length;
+    }
+  }
+
+  private final LX lx;
+  private final GraphicMeter meter;
+
+  // Snapshot read by the engine thread, newest published snapshot, and snapshot being filled by
+  // the analysis thread
+  private Snapshot front;
+  private final AtomicReference<Snapshot> ready;
+  private Snapshot back;
+  private long sequence = 0;
+
+  // Event counts of the snapshot read in the previous frame
+  private long lastOnsetCount = 0;
+  private long lastBassRiseCount = 0;
+  private long[] lastBandHitCounts = new long[0];
+
+  private final Thread thread;
+  private final long pollNanos;
+
+  // Time it takes the audio input to fill one buffer, and when the last new buffer was seen
+  private final long bufferNanos;
+  private long freshNanos = 0;
+
+  // Samples of the newest buffer, and of the buffer analyzed before it
+  private final float[] samples;
+  private final float[] previousSamples;
+
+  // Ring of the most recent fftSize samples, and the same in order for the FFT
+  private float[] history;
+  private float[] ordered;
+  private int historyPosition = 0;
+
+  private FourierTransform fft;
+  private float octaves;
+
+  // FFT bins covered by each spectrum bin and band, as fractional bin positions
+  private final float[] spectrumLow = new float[SPECTRUM_SIZE];
+  private final float[] spectrumHigh = new float[SPECTRUM_SIZE];
+  private float[] bandLow;
+  private float[] bandHigh;
+
+  // Amplitudes of the newest FFT, then smoothed by attack and release
+  private final float[] spectrumRaw = new float[SPECTRUM_SIZE];
+  private final float[] spectrumRms = new float[SPECTRUM_SIZE];
+  private float[] bandRaw;
+  private float[] bandRms;
+  private float volumeRaw = 0;
+  private float volumeRms = 0;
+
+  // Unsmoothed normalized spectrum of the previous FFT, for the flux
+  private final float[] fluxSpectrum = new float[SPECTRUM_SIZE];
+  private final float[] previousFluxSpectrum = new float[SPECTRUM_SIZE];
+  private boolean fresh = false;
+
+  private TEMath.EMA[] bandEMAs;
+  private float[] previousBands;
+  private double[] msSinceBandHit;
+  private long[] bandHitCounts;
+
+  private final TEMath.EMA avgVolume = new TEMath.EMA(0.5, .01);
+  private final TEMath.EMA avgBass = new TEMath.EMA(0.5, .01);
+  private final TEMath.EMA avgTreble = new TEMath.EMA(0.5, .01);
+  private final TEMath.EMA avgFlux = new TEMath.EMA(0, .05);
+  private double lastBassLevel = 1;
+  private double msSinceOnset = 0;
+  private long onsetCount = 0;
+  private long bassRiseCount = 0;
+
+  public AudioAnalyzer(LX lx) {
+    this.lx = lx;
+    this.meter = lx.engine.audio.meter;
+    final LXAudioBuffer buffer = getBuffer();
+    this.samples = new float[buffer.bufferSize()];
+    this.previousSamples = new float[this.samples.length];
+    this.bufferNanos = 1_000_000_000L * buffer.bufferSize() / buffer.sampleRate();
+    this.pollNanos = this.bufferNanos / 4;
+
+    final int numBands = this.numBands.getValuei();
+    this.front = new Snapshot(numBands);
+    this.ready = new AtomicReference<>(new Snapshot(numBands));
+    this.back = new Snapshot(numBands);
+    configure();
+
+    this.thread = new Thread(this::run, "Audio Analyzer");
+    this.thread.setDaemon(true);
+  }
+
+  public void start() {
+    this.thread.start();
+  }
+
+  public void dispose() {
+    this.thread.interrupt();
+  }
+
+  /**
+   * Take the newest snapshot for a frame. Called by the engine thread at the start of each frame.
+   * The snapshot stays untouched until the next call, so it can be read for the whole frame.
+   */
+  public Snapshot acquire() {
+    if (this.ready.get().sequence > this.front.sequence) {
+      this.front = this.ready.getAndSet(this.front);
+    }
+
+    // Events of the frame are the ones counted since the previous frame
+    final Snapshot snapshot = this.front;
+    snapshot.onset = snapshot.onsetCount != this.lastOnsetCount;
+    snapshot.bassRising = snapshot.bassRiseCount != this.lastBassRiseCount;
+    this.lastOnsetCount = snapshot.onsetCount;
+    this.lastBassRiseCount = snapshot.bassRiseCount;
+    if (this.lastBandHitCounts.length != snapshot.getNumBands()) {
+      this.lastBandHitCounts = snapshot.bandHitCounts.clone();
+    }
+    for (int i = 0; i < snapshot.getNumBands(); i++) {
+      snapshot.bandHits[i] = snapshot.bandHitCounts[i] != this.lastBandHitCounts[i];
+      this.lastBandHitCounts[i] = snapshot.bandHitCounts[i];
+    }
+    return snapshot;
+  }
+
+  private void run() {
+    long lastNanos = System.nanoTime();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        final long nanos = System.nanoTime();
+        analyze((nanos - lastNanos) / 1_000_000.0);
+        lastNanos = nanos;
+        LockSupport.parkNanos(this.pollNanos);
+      }
+    } catch (RuntimeException e) {
+      LX.error(e, "Audio analysis stopped after an error");
+    }
+  }
+
+  private LXAudioBuffer getBuffer() {
+    return (this.lx.engine.audio.mode.getEnum() == LXAudioEngine.Mode.OUTPUT)
+        ? this.lx.engine.audio.output.mix
+        : this.lx.engine.audio.input.mix;
+  }
+
+  /** Reallocate the FFT and band state if their parameters changed */
+  private void configure() {
+    final int size = this.fftSize.getEnum().size;
+    if (this.fft == null || this.fft.getSize() != size) {
+      this.fft = new FourierTransform(size, getBuffer().sampleRate());
+      this.history = new float[size];
+      this.ordered = new float[size];
+      this.historyPosition = 0;
+      final float nyquist = this.fft.getSampleRate() / 2f;
+      this.octaves = (float) (Math.log(nyquist / FourierTransform.BASE_BAND_HZ) / Math.log(2));
+      computeEdges(this.spectrumLow, this.spectrumHigh);
+      this.bandLow = null;
+    }
+
+    final int numBands = this.numBands.getValuei();
+    if (this.bandLow == null || this.bandLow.length != numBands) {
+      this.bandLow = new float[numBands];
+      this.bandHigh = new float[numBands];
+      computeBandEdges(this.bandLow, this.bandHigh);
+    }
+
+    if (this.bandRaw == null || this.bandRaw.length != numBands) {
+      this.bandRaw = new float[numBands];
+      this.bandRms = new float[numBands];
+      this.bandEMAs = new TEMath.EMA[numBands];
+      for (int i = 0; i < numBands; i++) {
+        this.bandEMAs[i] = new TEMath.EMA(0.5, .01);
+      }
+      this.previousBands = new float[numBands];
+      this.msSinceBandHit = new double[numBands];
+      this.bandHitCounts = new long[numBands];
+    }
+
+    // Snapshots with the old number of bands are replaced as they come back from the reader
+    if (this.back.getNumBands() != numBands) {
+      this.back = new Snapshot(numBands);
+    }
+  }
+
+  /** Fill in the fractional FFT bins of log-spaced bins from BASE_BAND_HZ to Nyquist */
+  private void computeEdges(float[] low, float[] high) {
+    final float binHz = (float) this.fft.getSampleRate() / this.fft.getSize();
+    final int count = low.length;
+    for (int i = 0; i < count; i++) {
+      low[i] = binHz(this.octaves * i / count) / binHz;
+      high[i] = binHz(this.octaves * (i + 1) / count) / binHz;
+    }
+  }
+
+  /**
+   * Fill in the fractional FFT bins of bands with the same edges in Hz as the bands of the LX
+   * meter: the first band runs from DC to BASE_BAND_HZ, and the rest are log-spaced from there to
+   * Nyquist.
+   */
+  private void computeBandEdges(float[] low, float[] high) {
+    final float binHz = (float) this.fft.getSampleRate() / this.fft.getSize();
+    final int count = low.length;
+    low[0] = 0;
+    high[0] = FourierTransform.BASE_BAND_HZ / binHz;
+    for (int i = 1; i < count; i++) {
+      low[i] = high[i - 1];
+      high[i] = binHz(bandOctave(i, count)) / binHz;
+    }
+  }
+
+  /** Octaves above BASE_BAND_HZ of the top of a band, also the octave of the meter's slope */
+  private float bandOctave(int band, int count) {
+    return this.octaves * band / (count - 1);
+  }
+
+  private static float binHz(float octave) {
+    return (float) (FourierTransform.BASE_BAND_HZ * Math.pow(2, octave));
+  }
+
+  /**
+   * Amplitude of the FFT over a range of bins. Ranges narrower than a bin, which are common in the
+   * low octaves, are interpolated between the neighboring bins instead of all reading the same bin.
+   */
+  private float amplitude(float low, float high) {
+    final int maxBin = this.fft.getSize() / 2 - 1;
+    if (high - low < 1) {
+      final float center = Math.min((low + high) / 2, maxBin);
+      final int bin = (int) center;
+      final float frac = center - bin;
+      final float a = this.fft.get(bin);
+      final float b = this.fft.get(Math.min(bin + 1, maxBin));
+      return a + frac * (b - a);
+    }
+    final int start = Math.round(low);
+    final int end = Math.min(Math.round(high), maxBin + 1);
+    float sum = 0;
+    for (int bin = start; bin < end; bin++) {
+      sum += this.fft.get(bin);
+    }
+    return sum / Math.max(1, end - start);
+  }
+
+  /** Run the FFT if a new buffer of samples has arrived since the last call */
+  private void computeFFT() {
+    getBuffer().getSamples(this.samples);
+
+    // LX audio buffers don't count their updates, so new buffers are found by timestamp. A buffer
+    // that changed is new. One that didn't, such as the second of two silent buffers, is new once
+    // the input has had time to fill another buffer since the last new one. Half a buffer of slack
+    // keeps a buffer that is merely late from being counted twice.
+    final long nanos = System.nanoTime();
+    if (!Arrays.equals(this.samples, this.previousSamples)) {
+      this.fresh = true;
+      this.freshNanos = nanos;
+    } else if (nanos - this.freshNanos >= this.bufferNanos + this.bufferNanos / 2) {
+      this.fresh = true;
+      this.freshNanos = Math.max(this.freshNanos + this.bufferNanos, nanos - this.bufferNanos / 2);
+    } else {
+      this.fresh = false;
+      return;
+    }
+    System.arraycopy(this.samples, 0, this.previousSamples, 0, this.samples.length);
+
+    // Append the buffer to the history and unroll the history for the FFT
+    final int size = this.history.length;
+    final int count = Math.min(this.samples.length, size);
+    float sumSquares = 0;
+    for (int i = this.samples.length - count; i < this.samples.length; i++) {
+      this.history[this.historyPosition] = this.samples[i];
+      this.historyPosition = (this.historyPosition + 1) % size;
+    }
+    for (float sample : this.samples) {
+      sumSquares += sample * sample;
+    }
+    this.volumeRaw = (float) Math.sqrt(sumSquares / this.samples.length);
+    System.arraycopy(
+        this.history, this.historyPosition, this.ordered, 0, size - this.historyPosition);
+    System.arraycopy(
+        this.history, 0, this.ordered, size - this.historyPosition, this.historyPosition);
+    this.fft.compute(this.ordered);
+
+    // Amplitudes are scaled by the FFT size, so levels don't change with it
+    final float scale = 1f / size;
+    for (int i = 0; i < SPECTRUM_SIZE; i++) {
+      this.spectrumRaw[i] = amplitude(this.spectrumLow[i], this.spectrumHigh[i]) * scale;
+    }
+    for (int i = 0; i < this.bandRaw.length; i++) {
+      this.bandRaw[i] = amplitude(this.bandLow[i], this.bandHigh[i]) * scale;
+    }
+  }
+
+  /** Analyze the newest audio and publish a snapshot of it. Runs on the analysis thread. */
+  private void analyze(double deltaMs) {
+    configure();
+    computeFFT();
+
+    final Snapshot snapshot = this.back;
+    final float attackGain = (float) Math.exp(-deltaMs / this.meter.attack.getValue());
+    final float releaseGain = (float) Math.exp(-deltaMs / this.meter.release.getValue());
+    final double gain = this.meter.gain.getValue();
+    final double range = this.meter.range.getValue();
+    final double slope = this.meter.slope.getValue();
+
+    // Spectrum, with the flux computed on its unsmoothed levels
+    double flux = 0;
+    for (int i = 0; i < SPECTRUM_SIZE; i++) {
+      final double octave = this.octaves * i / SPECTRUM_SIZE;
+      this.spectrumRms[i] =
+          smooth(this.spectrumRms[i], this.spectrumRaw[i], attackGain, releaseGain);
+      snapshot.spectrum[i] = (float) normalize(this.spectrumRms[i], gain + octave * slope, range);
+      if (this.fresh) {
+        this.fluxSpectrum[i] = (float) normalize(this.spectrumRaw[i], gain + octave * slope, range);
+        flux += Math.max(0, this.fluxSpectrum[i] - this.previousFluxSpectrum[i]);
+      }
+    }
+    System.arraycopy(
+        this.samples, 0, snapshot.waveform, 0, Math.min(this.samples.length, SPECTRUM_SIZE));
+    snapshot.texture.put(0, snapshot.spectrum);
+    snapshot.texture.put(SPECTRUM_SIZE, snapshot.waveform);
+
+    // Onsets are flux peaks well above its recent average
+    this.msSinceOnset += deltaMs;
+    snapshot.flux = 0;
+    snapshot.onsetThreshold = ONSET_RATIO * this.avgFlux.getValue() + ONSET_FLOOR;
+    if (this.fresh) {
+      System.arraycopy(this.fluxSpectrum, 0, this.previousFluxSpectrum, 0, SPECTRUM_SIZE);
+      flux /= SPECTRUM_SIZE;
+      snapshot.flux = flux;
+      if (flux > snapshot.onsetThreshold && this.msSinceOnset > ONSET_RETRIGGER_MS) {
+        this.onsetCount++;
+        this.msSinceOnset = 0;
+      }
+      this.avgFlux.update(flux, deltaMs);
+    }
+
+    // Bands, with hits like the bass hit of TEAudioPattern
+    final int numBands = this.bandRaw.length;
+    for (int i = 0; i < numBands; i++) {
+      final double octave = bandOctave(i, numBands);
+      this.bandRms[i] = smooth(this.bandRms[i], this.bandRaw[i], attackGain, releaseGain);
+      final float level = (float) normalize(this.bandRms[i], gain + octave * slope, range);
+      final float average = (float) this.bandEMAs[i].update(level, deltaMs);
+      this.msSinceBandHit[i] += deltaMs;
+      if (level > HIT_RATIO * average
+          && level > this.previousBands[i]
+          && this.msSinceBandHit[i] > BAND_RETRIGGER_MS) {
+        this.bandHitCounts[i]++;
+        this.msSinceBandHit[i] = 0;
+      }
+      this.previousBands[i] = level;
+      snapshot.bands[i] = level;
+      snapshot.bandAverages[i] = average;
+    }
+
+    // Bass is the bottom eighth of the bands, treble the top half. With the default 16 bands these
+    // are the same frequency ranges as the bands of the meter that they used to come from.
+    this.volumeRms = smooth(this.volumeRms, this.volumeRaw, attackGain, releaseGain);
+    snapshot.volume = Math.max(LEVEL_MIN, normalize(this.volumeRms, gain, range));
+    snapshot.bassLevel = Math.max(LEVEL_MIN, average(snapshot.bands, 0, Math.max(1, numBands / 8)));
+    snapshot.trebleLevel =
+        Math.max(LEVEL_MIN, average(snapshot.bands, numBands / 2, numBands - numBands / 2));
+
+    // Ratios of current instantaneous levels to their slow EMAs. See TEAudioPattern for more info.
+    snapshot.avgVolume = this.avgVolume.update(snapshot.volume, deltaMs);
+    snapshot.avgBass = this.avgBass.update(snapshot.bassLevel, deltaMs);
+    snapshot.avgTreble = this.avgTreble.update(snapshot.trebleLevel, deltaMs);
+    snapshot.volumeRatio = snapshot.volume / snapshot.avgVolume;
+    snapshot.bassRatio = snapshot.bassLevel / snapshot.avgBass;
+    snapshot.trebleRatio = snapshot.trebleLevel / snapshot.avgTreble;
+
+    if (snapshot.bassLevel > HIT_RATIO * snapshot.avgBass
+        && snapshot.bassLevel > this.lastBassLevel) {
+      this.bassRiseCount++;
+    }
+    this.lastBassLevel = snapshot.bassLevel;
+
+    // Stems are sampled here too, so the engine thread doesn't have to
+    final AudioStems audioStems = AudioStems.get();
+    final int stemCount = (audioStems != null) ? Math.min(MAX_STEMS, audioStems.stems.size()) : 0;
+    for (int i = 0; i < MAX_STEMS; i++) {
+      snapshot.stems[i] = (i < stemCount) ? (float) audioStems.stems.get(i).getValue() : 0f;
+    }
+
+    // Publish, and take back the previous newest snapshot unless the reader took it
+    snapshot.onsetCount = this.onsetCount;
+    snapshot.bassRiseCount = this.bassRiseCount;
+    System.arraycopy(this.bandHitCounts, 0, snapshot.bandHitCounts, 0, numBands);
+    snapshot.sequence = ++this.sequence;
+    this.back = this.ready.getAndSet(snapshot);
+  }
+
+  /** Attack and release smoothing, as done by the LX meters */
+  private static float smooth(float rms, float amplitude, float attackGain, float releaseGain) {
+    final float g = (amplitude >= rms) ? attackGain : releaseGain;
+    return amplitude + g * (rms - amplitude);
+  }
+
+  /** Decibels of an amplitude, scaled into 0..1 by the meter's range */
+  private static double normalize(float amplitude, double gain, double range) {
+    final double db = 20 * Math.log10(amplitude) + gain;
+    return TEMath.clamp(1 + db / range, 0, 1);
+  }
+
+  private static double average(float[] values, int start, int count) {
+    double sum = 0;
+    for (int i = start; i < start + count; i++) {
+      sum += values[i];
+    }
+    return sum / count;
+  }
+}
@@ -0,0 +1,111 @@
+package titanicsend.pattern.glengine;
+
+import heronarts.lx.LX;
+import titanicsend.pattern.yoffa.shader_engine.Uniform;
+
+/**
+ * CPU render mode: gathers the texels of a view's points from a shader's output into the first rows
+ * of a canvas, so that only those rows need to be read back to the CPU. Shared by all shaders, each
+ * compaction is read back before the next one is rendered.
+ */
+public class CompactShader extends GLShader implements GLShader.UniformSource {
+
+  // Framebuffer object (FBO) for rendering
+  private FBO fbo;
+
+  // Input texture handles
+  private int iSrc = -1;
+  private int iIndex = -1;
+
+  // Number of canvas rows to render
+  private int numRows;
+
+  private static class CompactUniforms {
+    private Uniform.Sampler2D iSrc;
+    private Uniform.Sampler2D iIndex;
+  }
+
+  private final CompactUniforms uniforms = new CompactUniforms();
+  private boolean initializedUniforms = false;
+
+  public CompactShader(LX lx) {
+    super(config(lx).withFilename("compact.fs"));
+
+    addUniformSource(this);
+  }
+
+  @Override
+  protected boolean useTEPreProcess() {
+    return false;
+  }
+
+  @Override
+  protected void allocateShaderBuffers() {
+    super.allocateShaderBuffers();
+
+    // FBO (framebuffer and texture) for rendering
+    this.fbo = new FBO();
+  }
+
+  @Override
+  protected void resizeShaderBuffers() {
+    this.fbo.dispose();
+    this.fbo = new FBO();
+  }
+
+  /**
+   * Gather a view's texels into the first rows of the canvas. The canvas is left bound as the read
+   * framebuffer.
+   *
+   * @param src Output texture of the shader being read back
+   * @param indexTexture The view's compact index texture from TextureManager
+   * @param numRows Number of rows of compacted texels
+   */
+  public void compact(int src, int indexTexture, int numRows) {
+    this.iSrc = src;
+    this.iIndex = indexTexture;
+    this.numRows = numRows;
+    run();
+  }
+
+  private void initializeUniforms() {
+    this.uniforms.iSrc = getUniformSampler2D("iSrc");
+    this.uniforms.iIndex = getUniformSampler2D("iIndex");
+  }
+
+  @Override
+  public void setUniforms(GLShader s) {
+    if (!initializedUniforms) {
+      this.initializedUniforms = true;
+      initializeUniforms();
+    }
+
+    this.uniforms.iSrc.setValue(this.iSrc);
+    this.uniforms.iIndex.setValue(this.iIndex);
+  }
+
+  @Override
+  protected void render() {
+    bindVAO();
+
+    // Only the compacted rows are needed
+    this.fbo.bind();
+    this.gl4.glViewport(0, 0, this.width, this.numRows);
+
+    drawElements();
+  }
+
+  @Override
+  public void unbindTextures() {
+    this.uniforms.iSrc.unbind();
+    this.uniforms.iIndex.unbind();
+  }
+
+  @Override
+  public void dispose() {
+    if (isInitialized()) {
+      this.fbo.dispose();
+    }
+    super.dispose();
+  }
+}
@@ -16,6 +16,7 @@ import static com.jogamp.opengl.GL.GL_TEXTURE_MIN_FILTER;
 import static com.jogamp.opengl.GL.GL_TEXTURE_WRAP_S;
 import static com.jogamp.opengl.GL.GL_TEXTURE_WRAP_T;
 import static titanicsend.pattern.glengine.GLShader.TEXTURE_UNIT_AUDIO;
+import static titanicsend.pattern.glengine.GLShader.TEXTURE_UNIT_GRADIENTS;
 
 import com.jogamp.opengl.GL4;
 import com.jogamp.opengl.GLAutoDrawable;
@@ -24,16 +25,23 @@ import com.jogamp.opengl.util.GLBuffers;
 import heronarts.lx.LX;
 import heronarts.lx.LXComponent;
 import heronarts.lx.LXLoopTask;
-import heronarts.lx.audio.GraphicMeter;
 import heronarts.lx.color.LXColor;
 import heronarts.lx.color.LXSwatch;
+import heronarts.lx.model.LXModel;
 import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.EnumParameter;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import titanicsend.audio.AudioStems;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import titanicsend.color.TEColorParameter;
+import titanicsend.color.TEGradient;
+import titanicsend.color.TEGradientLUT;
+import titanicsend.color.TEGradientSource;
 import titanicsend.pattern.glengine.mixer.GLMixer;
 import titanicsend.pattern.yoffa.shader_engine.ShaderUtils;
 import titanicsend.util.TE;
-import titanicsend.util.TEMath;
 
 public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
   public static final String PATH = "GLEngine";
@@ -41,48 +49,96 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
 
   public final BooleanParameter gpuJavaEffects =
       new BooleanParameter("Java Fx in GPU Mode", true)
-          .setDescription("Loop Java effects in GPU mode (on master channel only)");
+          .setDescription(
+              "Loop Java effects in GPU mode. On channels and groups they run on a copy of the"
+                  + " bus read back from the GPU, a frame or two behind, and are skipped until the"
+                  + " first frame has been read back");
+
+  public final DiscreteParameter readbackDepth =
+      new DiscreteParameter("Readback Depth", 3, 2, 9)
+          .setDescription("Frames buffered for reading shader output back to the CPU");
+
+  public final EnumParameter<ReadbackRing.Policy> readbackPolicy =
+      new EnumParameter<ReadbackRing.Policy>("Readback Policy", ReadbackRing.Policy.NEWEST)
+          .setDescription(
+              "Whether reading shader output back to the CPU may reuse a frame or wait for the"
+                  + " GPU");
+
+  public final BooleanParameter batchReadback =
+      new BooleanParameter("Batch Readback", false)
+          .setDescription(
+              "In CPU mode, read back the output of all shader patterns in a single transfer");
+
+  public final BooleanParameter backgroundCompile =
+      new BooleanParameter("Background Compile", true)
+          .setDescription(
+              "Build shader pattern programs on a worker thread. A pattern renders black until its"
+                  + " programs are ready, instead of stalling the engine.");
+
+  public final BooleanParameter autoResolution =
+      new BooleanParameter("Auto Resolution", true)
+          .setDescription(
+              "Fit the rendering canvas to the number of points in the model. When off, the"
+                  + " startup resolution is used, made taller if the model does not fit. Shaders"
+                  + " see the startup resolution as iResolution either way.");
 
   private final int[] audioTextureHandle = new int[1];
-  private final int[] uniformBlockHandles = new int[2];
+  private final int[] uniformBlockHandles = new int[1];
 
-  // rendering canvas size.  May be changed
-  // via the startup command line.
-  private final int width;
-  private final int height;
+  // rendering canvas size.  Fitted to the model when autoResolution
+  // is on, otherwise the size given on the startup command line.
+  // The configured size is always the logical resolution (iResolution).
+  private final int configuredWidth;
+  private final int configuredHeight;
+  private int width;
+  private int height;
 
-  // audio texture size and buffer
-  private static final int audioTextureWidth = 512;
+  // Smallest canvas dimension. Fitted canvas heights are a multiple of this.
+  private static final int MIN_CANVAS_SIZE = 64;
+  private int maxTextureSize;
+
+  // Set when the model or autoResolution changes. The canvas is resized on the next frame.
+  private volatile boolean needsResize = false;
+
+  // audio texture size. Its contents come from the audio analyzer.
+  private static final int audioTextureWidth = AudioAnalyzer.SPECTRUM_SIZE;
   private static final int audioTextureHeight = 2;
-  private FloatBuffer audioTextureData;
 
-  // audio data sources & parameters
-  private final double AUDIO_LEVEL_MIN = 0.01;
-  private final GraphicMeter meter;
-  private final float fftResampleFactor;
+  // gradient texture: one row of TEGradientLUT.SIZE colors per TE gradient and blend mode
+  private final int[] gradientTextureHandle = new int[1];
+  private static final int gradientTextureWidth = TEGradientLUT.SIZE;
+  private static final int gradientTextureHeight =
+      TEGradient.values().length * TEColorParameter.BlendMode.values().length;
+  private IntBuffer gradientTextureData;
+
+  // version of the lookup tables currently in each row of the texture
+  private final int[] gradientVersions = new int[gradientTextureHeight];
+
+  // rows that patterns sampled since the last upload, which are updated when the palette changes.
+  // Row 0 is always updated, for shaders that don't set iGradientRow.
+  private final boolean[] gradientRowsInUse = new boolean[gradientTextureHeight];
 
-  private static final TEMath.EMA avgVolume = new TEMath.EMA(0.5, .01);
-  private static final TEMath.EMA avgBass = new TEMath.EMA(0.5, .01);
-  private static final TEMath.EMA avgTreble = new TEMath.EMA(0.5, .01);
+  // audio analysis, shared by the audio texture, the uniforms and all patterns.
+  // Runs on its own thread, and its newest snapshot is taken at the start of each frame.
+  public final AudioAnalyzer audioAnalyzer;
+  private static AudioAnalyzer.Snapshot audio =
+      new AudioAnalyzer.Snapshot(AudioAnalyzer.DEFAULT_NUM_BANDS);
 
   private static double beat = 0.0;
   private static double sinPhaseBeat = 0.0;
-  private static double volume = 0.0;
-  private static double bassLevel = 0.0;
-  private static double trebleLevel = 0.0;
-  private static double volumeRatio = 0.0;
-  private static double bassRatio = 0.0;
-  private static double trebleRatio = 0.0;
 
   // audio and related uniform block buffer parameters
-  private static final int MAX_AUDIO_STEMS = 5;
+  private static final int MAX_AUDIO_STEMS = AudioAnalyzer.MAX_STEMS;
   private FloatBuffer perRunUniformBlock;
   private int perRunUniformBlockSize;
+  private ByteBuffer perFrameUniformData;
   private FloatBuffer perFrameUniformBlock;
   private int perFrameUniformBlockSize;
+  private UniformRing perFrameUniformRing;
 
   public static final int perRunUniformBlockBinding = 0;
   public static final int perFrameUniformBlockBinding = 1;
+  public static final int perShaderUniformBlockBinding = 2;
 
   // Texture cache management
   public final TextureManager textureCache;
@@ -90,6 +146,15 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
   // GPU Mixer Engine
   private GLMixer mixer;
 
+  // CPU Mode: shared readback of all shader patterns
+  private ReadbackAtlas readbackAtlas;
+
+  // CPU Mode: gathers the points of sparse views before readback
+  private CompactShader compactShader;
+
+  // Builds shader programs on a worker thread with a shared context
+  private ShaderCompiler shaderCompiler;
+
   // Data and utility methods for the GL canvas/context.
   private GLAutoDrawable canvas = null;
   private GL4 gl4;
@@ -98,6 +163,24 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
     return canvas;
   }
 
+  ReadbackAtlas getReadbackAtlas() {
+    return this.readbackAtlas;
+  }
+
+  CompactShader getCompactShader() {
+    return this.compactShader;
+  }
+
+  /** Background shader compiler, null until the GL context is initialized */
+  public ShaderCompiler getShaderCompiler() {
+    return this.shaderCompiler;
+  }
+
+  /** GPU mixer, null in CPU render mode */
+  public GLMixer getMixer() {
+    return this.mixer;
+  }
+
   public int getWidth() {
     return this.width;
   }
@@ -106,10 +189,23 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
     return this.height;
   }
 
+  /**
+   * Width of the logical shader resolution (iResolution). This stays at the startup resolution when
+   * the canvas is fitted to the model, so shader aspect and pixel math do not change.
+   */
+  public int getResolutionWidth() {
+    return this.configuredWidth;
+  }
+
+  /** Height of the logical shader resolution (iResolution). */
+  public int getResolutionHeight() {
+    return this.configuredHeight;
+  }
+
   // Utility methods to give java patterns access to the audio texture
   // should they want it.
   public FloatBuffer getAudioTextureBuffer() {
-    return audioTextureData;
+    return audio.texture;
   }
 
   public static int getAudioTextureWidth() {
@@ -120,28 +216,6 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
     return audioTextureHeight;
   }
 
-  /**
-   * Retrieve a single sample of the current frame's fft data from the engine NOTE: 512 samples can
-   * always be retrieved, regardless of how many bands the engine actually supplies. Data will be
-   * properly distributed (but not smoothed or interpolated) across the full 512 sample range.
-   *
-   * @param index (0-511) of the sample to retrieve.
-   * @return fft sample, normalized to range 0 to 1.
-   */
-  private float getFrequencyData(int index) {
-    return meter.getBandf((int) Math.floor((float) index * fftResampleFactor));
-  }
-
-  /**
-   * Retrieve a single sample of the current frame's waveform data from the engine
-   *
-   * @param index (0-511) of the sample to retrieve
-   * @return waveform sample, range -1 to 1
-   */
-  private float getWaveformData(int index) {
-    return meter.getSamples()[index];
-  }
-
   public void bindAudioTexture() {
     bindTextureUnit(TEXTURE_UNIT_AUDIO, this.audioTextureHandle[0]);
   }
@@ -152,9 +226,6 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
    * per-pattern work.
    */
   private void initializeAudioTexture() {
-    // allocate backing buffer in native memory
-    this.audioTextureData = GLBuffers.newDirectFloatBuffer(audioTextureHeight * audioTextureWidth);
-
     // create texture and bind it to the dedicated texture unit
     gl4.glGenTextures(1, audioTextureHandle, 0);
     bindAudioTexture();
@@ -181,14 +252,6 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
 
   /** Update audio texture object with new fft and waveform data. This is called once per frame. */
   private void updateAudioTexture() {
-    // load frequency and waveform data into our texture buffer
-    for (int n = 0; n < audioTextureWidth; n++) {
-      // fft data in the first row
-      audioTextureData.put(n, getFrequencyData(n));
-      // normalized audio waveform data in the second row
-      audioTextureData.put(n + audioTextureWidth, getWaveformData(n));
-    }
-
     bindAudioTexture();
 
     // update audio texture on the GPU from our buffer, *without* re-allocating
@@ -201,11 +264,113 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
         audioTextureHeight,
         GL4.GL_RED,
         GL_FLOAT,
-        audioTextureData);
+        audio.texture);
+  }
+
+  public void bindGradientTexture() {
+    bindTextureUnit(TEXTURE_UNIT_GRADIENTS, this.gradientTextureHandle[0]);
+  }
+
+  /**
+   * Row of the gradient texture holding a TE gradient as blended with the given mode. Shaders
+   * select the row with the iGradientRow uniform.
+   */
+  public static int getGradientRow(TEGradient gradient, TEColorParameter.BlendMode blendMode) {
+    return gradient.ordinal() * TEColorParameter.BlendMode.values().length + blendMode.ordinal();
+  }
+
+  /**
+   * Row of the gradient texture for a pattern to sample, see getGradientRow(). The row is kept up
+   * to date with the palette from the next frame on. Rows that no pattern uses are not updated, so
+   * their lookup tables are only built when needed.
+   */
+  public int useGradientRow(TEGradient gradient, TEColorParameter.BlendMode blendMode) {
+    final int row = getGradientRow(gradient, blendMode);
+    this.gradientRowsInUse[row] = true;
+    return row;
+  }
+
+  /**
+   * Construct the texture holding the palette gradients. Each row is a copy of one of the
+   * TEGradientSource lookup tables, so shaders get a gradient color with a single texture fetch and
+   * match Java patterns exactly. Filtering is linear and wraps horizontally, so positions between
+   * table entries are interpolated the same way as TEGradientLUT.getColorInterpolated().
+   */
+  private void initializeGradientTexture() {
+    this.gradientTextureData =
+        GLBuffers.newDirectIntBuffer(gradientTextureWidth * gradientTextureHeight);
+    Arrays.fill(this.gradientVersions, -1);
+    // Fill every row once
+    Arrays.fill(this.gradientRowsInUse, true);
+
+    gl4.glGenTextures(1, gradientTextureHandle, 0);
+    bindGradientTexture();
+
+    // ARGB ints are BGRA in (little endian) memory
+    gl4.glTexImage2D(
+        GL4.GL_TEXTURE_2D,
+        0,
+        GL4.GL_RGBA8,
+        gradientTextureWidth,
+        gradientTextureHeight,
+        0,
+        GL4.GL_BGRA,
+        GL4.GL_UNSIGNED_BYTE,
+        null);
+
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL4.GL_LINEAR);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL4.GL_LINEAR);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL4.GL_REPEAT);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+
+    updateGradientTexture();
+  }
+
+  /**
+   * Copy the gradient lookup tables of the rows in use to the texture if they changed since the
+   * last upload, which only happens when the palette changes. Called once per frame.
+   */
+  private void updateGradientTexture() {
+    TEGradientSource gradientSource = TEGradientSource.get();
+    if (gradientSource == null) {
+      return;
+    }
+
+    boolean changed = false;
+    for (TEGradient gradient : TEGradient.values()) {
+      TEGradientLUT lut = gradientSource.getLUT(gradient);
+      for (TEColorParameter.BlendMode blendMode : TEColorParameter.BlendMode.values()) {
+        final int row = getGradientRow(gradient, blendMode);
+        if (this.gradientRowsInUse[row] && lut.getVersion() != this.gradientVersions[row]) {
+          this.gradientVersions[row] = lut.getVersion();
+          this.gradientTextureData.put(
+              row * gradientTextureWidth, lut.getTable(blendMode), 0, gradientTextureWidth);
+          changed = true;
+        }
+      }
+    }
+    if (!changed) {
+      return;
+    }
+    Arrays.fill(this.gradientRowsInUse, false);
+    this.gradientRowsInUse[0] = true;
+
+    bindGradientTexture();
+    gl4.glTexSubImage2D(
+        GL_TEXTURE_2D,
+        0,
+        0,
+        0,
+        gradientTextureWidth,
+        gradientTextureHeight,
+        GL4.GL_BGRA,
+        GL4.GL_UNSIGNED_BYTE,
+        gradientTextureData);
   }
 
   /**
-   * Set the palette size and colors in the shader uniform block.
+   * Set the palette size and colors in the shader uniform block. These are the raw swatch colors,
+   * blended gradients are in the gradient texture.
    *
    * @param uniformBuffer The uniform block buffer. When called, the current index must be at the
    *     start of the palette data area
@@ -285,9 +450,10 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
     perRunUniformBlock.put(2, 0f);
     perRunUniformBlock.put(3, 0f);
 
-    // iResolution is the size of the canvas
-    perRunUniformBlock.put(4, (float) width);
-    perRunUniformBlock.put(5, (float) height);
+    // iResolution is the logical resolution, independent of the storage canvas size.
+    // Model point lookups go through the model index texture, which is built at this size.
+    perRunUniformBlock.put(4, (float) configuredWidth);
+    perRunUniformBlock.put(5, (float) configuredHeight);
 
     // Do the same thing for per frame uniforms
     // The items in the block are, in order:
@@ -309,10 +475,11 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
     // in the shader framework code's uniform block declaration. Otherwise, the uniforms will not
     // have the correct values in the shader.
     this.perFrameUniformBlockSize = getUBOAlignedSize(36);
-    this.perFrameUniformBlock = GLBuffers.newDirectFloatBuffer(perFrameUniformBlockSize / 4);
+    this.perFrameUniformData = GLBuffers.newDirectByteBuffer(perFrameUniformBlockSize);
+    this.perFrameUniformBlock = perFrameUniformData.asFloatBuffer();
 
-    // Generate the uniform block buffers
-    gl4.glGenBuffers(2, uniformBlockHandles, 0);
+    // Generate the per-run uniform block buffer
+    gl4.glGenBuffers(1, uniformBlockHandles, 0);
 
     // Bind the per-run uniform block to the gl buffer object
     gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, uniformBlockHandles[0]);
@@ -327,60 +494,42 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
         0,
         perRunUniformBlockSize);
 
-    // Do the same for the per-frame uniform block and its initial data
-    gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, uniformBlockHandles[1]);
-    gl4.glBufferData(
-        GL4.GL_UNIFORM_BUFFER, perFrameUniformBlockSize, perFrameUniformBlock, GL4.GL_DYNAMIC_DRAW);
-    gl4.glBindBufferRange(
-        GL4.GL_UNIFORM_BUFFER,
-        perFrameUniformBlockBinding,
-        uniformBlockHandles[1],
-        0,
-        perFrameUniformBlockSize);
+    // The per-frame uniform block is rewritten every frame, so it goes through a ring
+    // of buffers that lets us write the next frame while the GPU reads the previous one.
+    this.perFrameUniformRing = new UniformRing(gl4, perFrameUniformBlockSize);
+    this.perFrameUniformRing.write(perFrameUniformData);
+    this.perFrameUniformRing.bind(perFrameUniformBlockBinding);
   }
 
-  // Update once-per-frame audio data and all the calculated
-  // values derived from it.
-  private void updateAudioFrameData(double deltaMs) {
+  // Update once-per-frame audio data. The audio itself has already been analyzed
+  // on the analyzer's thread, we just take its newest results for this frame.
+  private void updateAudioFrameData() {
     beat = lx.engine.tempo.basis();
     sinPhaseBeat = 0.5 + 0.5 * Math.sin(Math.PI * beat);
 
-    // current instantaneous levels of frequency ranges we're interested in
-    volume = Math.max(AUDIO_LEVEL_MIN, meter.getNormalized());
-    bassLevel = Math.max(AUDIO_LEVEL_MIN, meter.getAverage(0, 2));
-    trebleLevel =
-        Math.max(AUDIO_LEVEL_MIN, meter.getAverage(meter.numBands / 2, meter.numBands / 2));
-
-    // Compute the ratios of current instantaneous levels
-    // to their slow EMAs.  See TEAudioPattern.java for more info.
-    volumeRatio = volume / avgVolume.update(volume, deltaMs);
-    bassRatio = bassLevel / avgBass.update(bassLevel, deltaMs);
-    trebleRatio = trebleLevel / avgTreble.update(trebleLevel, deltaMs);
+    audio = this.audioAnalyzer.acquire();
   }
 
   // update the per-frame shared uniform block with current audio data
   private void updatePerFrameUniforms() {
     perFrameUniformBlock.put((float) beat); // beat
     perFrameUniformBlock.put((float) sinPhaseBeat); // sinPhaseBeat
-    perFrameUniformBlock.put((float) bassLevel); // bassLevel
-    perFrameUniformBlock.put((float) trebleLevel); // trebleLevel
-    perFrameUniformBlock.put((float) bassRatio); // bassRatio
-    perFrameUniformBlock.put((float) trebleRatio); // trebleRatio
-    perFrameUniformBlock.put((float) volumeRatio); // volumeRatio
-
-    int stemCount = Math.min(MAX_AUDIO_STEMS, AudioStems.get().stems.size());
-    for (int i = 0; i < MAX_AUDIO_STEMS; i++) {
-      perFrameUniformBlock.put(
-          (i < stemCount) ? (float) AudioStems.get().stems.get(i).getValue() : 0f);
-    }
+    perFrameUniformBlock.put((float) audio.bassLevel); // bassLevel
+    perFrameUniformBlock.put((float) audio.trebleLevel); // trebleLevel
+    perFrameUniformBlock.put((float) audio.bassRatio); // bassRatio
+    perFrameUniformBlock.put((float) audio.trebleRatio); // trebleRatio
+    perFrameUniformBlock.put((float) audio.volumeRatio); // volumeRatio
+
+    perFrameUniformBlock.put(audio.stems, 0, MAX_AUDIO_STEMS);
 
     // set the palette size and colors
     setPaletteUniforms(perFrameUniformBlock);
 
-    // update the GPU buffer with the new data
+    // update the GPU buffer with the new data. All draw calls of the previous
+    // frame have been issued by now, so its copy of the block is fenced here.
     perFrameUniformBlock.rewind();
-    gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, uniformBlockHandles[1]);
-    gl4.glBufferSubData(GL4.GL_UNIFORM_BUFFER, 0, perFrameUniformBlockSize, perFrameUniformBlock);
+    perFrameUniformRing.write(perFrameUniformData);
+    perFrameUniformRing.bind(perFrameUniformBlockBinding);
   }
 
   /**
@@ -416,25 +565,29 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
     current = this;
 
     addParameter("gpuJavaEffects", this.gpuJavaEffects);
+    addParameter("readbackDepth", this.readbackDepth);
+    addParameter("readbackPolicy", this.readbackPolicy);
+    addParameter("batchReadback", this.batchReadback);
+    addParameter("autoResolution", this.autoResolution);
+    addParameter("backgroundCompile", this.backgroundCompile);
+
+    this.audioAnalyzer = new AudioAnalyzer(lx);
+    addParameter("fftSize", this.audioAnalyzer.fftSize);
+    addParameter("audioBands", this.audioAnalyzer.numBands);
+    this.audioAnalyzer.start();
 
     // The shape the user gives us affects the rendered aspect ratio,
     // but what really matters is that it needs to have room for the
     // largest number of points we're going to encounter during a run.
-    // TODO - adjust buffer size & shape dynamically as the model changes.
-    // TODO - this will require a lot of GPU memory management, so is
-    // TODO - a longer-term goal.
+    // The canvas is fitted to the model once the GL context exists, and
+    // again whenever the model changes.
+    this.configuredWidth = width;
+    this.configuredHeight = height;
     this.width = width;
     this.height = height;
 
-    int maxPoints = this.width * this.height;
-    TE.log(
-        "GLEngine: Rendering canvas size: "
-            + this.width
-            + "x"
-            + this.height
-            + " = "
-            + maxPoints
-            + " total points");
+    this.autoResolution.addListener(p -> this.needsResize = true);
+    lx.addListener(this);
 
     // register glEngine so we can access it from patterns.
     // and add it as an engine task for audio analysis and buffer management
@@ -445,19 +598,16 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
     this.textureCache = new TextureManager(lx, this);
     if (this.lx.engine.renderMode.gpu) {
       this.mixer = new GLMixer(lx, this);
+    } else {
+      this.readbackAtlas = new ReadbackAtlas(this);
+      this.compactShader = new CompactShader(lx);
     }
-
-    // set up audio fft and waveform handling
-    // TODO - strongly consider expanding the number of FFT bands.
-    // TODO - LX defaults to 16, but more bands would let us do more
-    // TODO - interesting audio analysis.
-    this.meter = lx.engine.audio.meter;
-    fftResampleFactor = meter.bands.length / 512f;
   }
 
   private void initialize() {
     // On first frame...
-    // create and initialize offscreen drawable for gl rendering
+    // create and initialize offscreen drawable for gl rendering.
+    // All rendering goes to FBOs, so the drawable keeps this size when the canvas is resized.
     canvas = ShaderUtils.createGLSurface(width, height);
     canvas.display();
     gl4 = canvas.getGL().getGL4();
@@ -465,22 +615,121 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
     // activate our context and do initialization tasks
     canvas.getContext().makeCurrent();
 
+    // size the canvas for the current model before anything is allocated on it
+    int[] maxTextureSize = new int[1];
+    gl4.glGetIntegerv(GL4.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+    this.maxTextureSize = maxTextureSize[0];
+    this.needsResize = false;
+    fitCanvasToModel();
+    logCanvasSize();
+
     // set up shared uniform blocks
     initializeUniformBlocks();
 
+    // worker context for building shader programs, shares objects with ours
+    this.shaderCompiler = new ShaderCompiler(canvas);
+
     // Initialize child engines
     this.textureCache.initialize(this.gl4);
     if (this.lx.engine.renderMode.gpu) {
       this.mixer.initialize(this.gl4);
+    } else {
+      this.readbackAtlas.initialize(this.gl4);
+      this.compactShader.init();
     }
 
     // set up the per-frame audio info texture
     initializeAudioTexture();
 
+    // and the palette gradients, updated when the palette changes
+    initializeGradientTexture();
+
     // Run on every frame. The first run will be before the first mixer loop.
     lx.engine.addLoopTask(this);
   }
 
+  @Override
+  public void modelGenerationChanged(LX lx, LXModel model) {
+    this.needsResize = true;
+  }
+
+  /**
+   * Compute the canvas size for the current model. With autoResolution on, the width is the
+   * smallest power of two that gives a roughly square canvas and the height is rounded up to a
+   * multiple of MIN_CANVAS_SIZE rows. Otherwise the startup size is used, made taller if needed so
+   * that every point of the model has a texel.
+   *
+   * @return True if the canvas size changed
+   */
+  private boolean fitCanvasToModel() {
+    final int numPoints = Math.max(1, this.lx.getModel().size);
+
+    int w;
+    if (this.autoResolution.isOn()) {
+      w = MIN_CANVAS_SIZE;
+      while ((long) w * w < numPoints) {
+        w *= 2;
+      }
+    } else {
+      w = this.configuredWidth;
+    }
+    w = Math.min(w, this.maxTextureSize);
+
+    int rows = (numPoints + w - 1) / w;
+    int h = (rows + MIN_CANVAS_SIZE - 1) / MIN_CANVAS_SIZE * MIN_CANVAS_SIZE;
+    if (!this.autoResolution.isOn()) {
+      h = Math.max(this.configuredHeight, h);
+    }
+    if (h > this.maxTextureSize) {
+      LX.error(
+          "GLEngine: Model has "
+              + numPoints
+              + " points, more than the maximum rendering canvas size of "
+              + w
+              + "x"
+              + this.maxTextureSize);
+      h = this.maxTextureSize;
+    }
+
+    if (w == this.width && h == this.height) {
+      return false;
+    }
+    this.width = w;
+    this.height = h;
+    return true;
+  }
+
+  /**
+   * Resize the canvas in one step at the start of a frame. Engine-level resources are reallocated
+   * here. Shaders reallocate their own FBOs and PBOs on their next run, and model textures are
+   * recreated at the new size when shaders next ask for them.
+   */
+  private void resize() {
+    if (!fitCanvasToModel()) {
+      return;
+    }
+    logCanvasSize();
+
+    // iResolution is the logical resolution and does not change with the canvas.
+    this.textureCache.resize();
+    if (this.lx.engine.renderMode.gpu) {
+      this.mixer.resize();
+    } else {
+      this.readbackAtlas.resize();
+    }
+  }
+
+  private void logCanvasSize() {
+    TE.log(
+        "GLEngine: Rendering canvas size: "
+            + this.width
+            + "x"
+            + this.height
+            + " = "
+            + (this.width * this.height)
+            + " total points");
+  }
+
   /**
    * Helper method to activate a texture unit and bind a texture to it. In higher OpenGL versions
    * (4.5+) this method is built-in.
@@ -511,29 +760,46 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
   public void loop(double deltaMs) {
     // activate our context and do per-frame tasks
     canvas.getContext().makeCurrent();
-    updateAudioFrameData(deltaMs);
+    if (this.needsResize) {
+      this.needsResize = false;
+      resize();
+    }
+    updateAudioFrameData();
     updateAudioTexture();
+    updateGradientTexture();
     updatePerFrameUniforms();
 
     if (this.lx.engine.renderMode.gpu) {
       this.mixer.loop(deltaMs);
+    } else {
+      this.readbackAtlas.loop();
     }
   }
 
   @Override
   public void dispose() {
+    this.lx.removeListener(this);
+    this.audioAnalyzer.dispose();
     this.textureCache.dispose();
 
     // free GPU resources that we directly allocated
     if (GLContext.getCurrent() != null) {
       gl4.glDeleteTextures(audioTextureHandle.length, audioTextureHandle, 0);
+      gl4.glDeleteTextures(gradientTextureHandle.length, gradientTextureHandle, 0);
       gl4.glDeleteBuffers(uniformBlockHandles.length, uniformBlockHandles, 0);
+      perFrameUniformRing.dispose();
     }
 
     ShaderUtils.disposeCompileVAO(this.gl4);
+    if (this.shaderCompiler != null) {
+      this.shaderCompiler.dispose();
+    }
 
     if (this.lx.engine.renderMode.gpu) {
       this.mixer.dispose();
+    } else {
+      this.readbackAtlas.dispose();
+      this.compactShader.dispose();
     }
 
     super.dispose();
@@ -543,16 +809,21 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
   // TEPattern and derived pattern classes can access these, which are evaluated
   // only once per frame, instead of recalculating the values for every running pattern
   // instance.
+  /** This frame's audio analysis. Don't keep it past the frame, its snapshot gets reused. */
+  public static AudioAnalyzer.Snapshot getAudio() {
+    return audio;
+  }
+
   public static double getAvgVolume() {
-    return avgVolume.getValue();
+    return audio.avgVolume;
   }
 
   public static double getAvgBass() {
-    return avgBass.getValue();
+    return audio.avgBass;
   }
 
   public static double getAvgTreble() {
-    return avgTreble.getValue();
+    return audio.avgTreble;
   }
 
   public static double getBeat() {
@@ -564,26 +835,26 @@ public class GLEngine extends LXComponent implements LXLoopTask, LX.Listener {
   }
 
   public static double getVolume() {
-    return volume;
+    return audio.volume;
   }
 
   public static double getBassLevel() {
-    return bassLevel;
+    return audio.bassLevel;
   }
 
   public static double getTrebleLevel() {
-    return trebleLevel;
+    return audio.trebleLevel;
   }
 
   public static double getVolumeRatio() {
-    return volumeRatio;
+    return audio.volumeRatio;
   }
 
   public static double getBassRatio() {
-    return bassRatio;
+    return audio.bassRatio;
   }
 
   public static double getTrebleRatio() {
-    return trebleRatio;
+    return audio.trebleRatio;
   }
 }
@@ -13,12 +13,13 @@ import heronarts.lx.parameter.CompoundParameter;
 import heronarts.lx.parameter.LXParameter;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import titanicsend.pattern.yoffa.shader_engine.ShaderUtils;
@@ -26,6 +27,8 @@ import titanicsend.pattern.yoffa.shader_engine.UniformNames;
 
 public class GLPreprocessor {
 
+  private static final String TEMPLATE_FILE = ShaderUtils.FRAMEWORK_PATH + "template.fs";
+
   // used in #include processing to prevent infinite recursion
   // and to track line numbering for relevant error messages.
   private static final int MAX_INCLUDE_DEPTH = 10;
@@ -33,20 +36,88 @@ public class GLPreprocessor {
   private int lineCount = 0;
   private boolean isDriftModeShader = false;
 
+  // files read by #include, directly or nested, in the order they were first included
+  private final List<String> includedFiles = new ArrayList<>();
+
+  // versions of the include files and template read for the current shader
+  private final List<GLSourceCache.FileStamp> dependencies = new ArrayList<>();
+
+  /** Output of preprocessing a shader file, valid until a file it was built from changes */
+  private record Preprocessed(
+      GLSourceCache.FileStamp shaderStamp,
+      List<GLSourceCache.FileStamp> dependencies,
+      String shaderBody,
+      List<ShaderConfiguration> configs,
+      List<String> includedFiles,
+      boolean isDriftModeShader) {
+
+    boolean isCurrent(GLSourceCache.FileStamp shaderStamp) {
+      if (!this.shaderStamp.equals(shaderStamp)) {
+        return false;
+      }
+      for (GLSourceCache.FileStamp dependency : this.dependencies) {
+        if (!dependency.isCurrent()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  // Preprocessed shader files by canonical path. Instances of a pattern on several channels, and
+  // reloading a project, reuse the output instead of preprocessing again.
+  private static final Map<String, Preprocessed> preprocessedCache = new ConcurrentHashMap<>();
+
   /**
    * Preprocess the shader, expanding #includes and handling our TE-specific control and texture
    * configuration #pragmas. Note that this preprocessor doesn't support the old method of adding
    * extra controls. TODO - should we add this as an option?
+   *
+   * <p>The output is memoized until the shader file, its includes or the template change. The
+   * configurations added to parameters are copies that the caller can keep.
    */
   public String preprocessShader(File shaderFile, List<ShaderConfiguration> parameters)
       throws Exception {
-    String shaderBody = ShaderUtils.loadResource(shaderFile);
-    return preprocessShader(shaderBody, parameters);
+    GLSourceCache.Source source = GLSourceCache.get(shaderFile.getPath());
+    Preprocessed cached = preprocessedCache.get(source.stamp().path());
+    if (cached != null && cached.isCurrent(source.stamp())) {
+      for (ShaderConfiguration config : cached.configs) {
+        parameters.add(config.copy());
+      }
+      this.includedFiles.clear();
+      this.includedFiles.addAll(cached.includedFiles);
+      this.dependencies.clear();
+      this.dependencies.addAll(cached.dependencies);
+      this.isDriftModeShader = cached.isDriftModeShader;
+      return cached.shaderBody;
+    }
+
+    int firstConfig = parameters.size();
+    String shaderBody = preprocessShader(source.text(), parameters);
+    List<ShaderConfiguration> configs = parameters.subList(firstConfig, parameters.size());
+
+    // Placeholder parameters are LX parameters that belong to the caller, shaders that have
+    // them are preprocessed every time.
+    if (configs.stream().noneMatch(c -> c.opcode == ShaderConfigOpcode.ADD_LX_PARAMETER)) {
+      preprocessedCache.put(
+          source.stamp().path(),
+          new Preprocessed(
+              source.stamp(),
+              List.copyOf(this.dependencies),
+              shaderBody,
+              configs.stream().map(ShaderConfiguration::copy).toList(),
+              List.copyOf(this.includedFiles),
+              this.isDriftModeShader));
+    }
+    return shaderBody;
   }
 
   public String preprocessShader(String shaderBody, List<ShaderConfiguration> parameters)
       throws Exception {
     lineCount = 0;
+    isDriftModeShader = false;
+    this.includedFiles.clear();
+    this.dependencies.clear();
     try {
       int depth = 0;
       while (true) {
@@ -90,8 +161,9 @@ public class GLPreprocessor {
     }
 
     // combine the fragment shader code with the framework template
-    shaderBody =
-        getFragmentShaderTemplate().replace(ShaderUtils.SHADER_BODY_PLACEHOLDER, shaderBody);
+    GLSourceCache.Source template = GLSourceCache.get(TEMPLATE_FILE);
+    this.dependencies.add(template.stamp());
+    shaderBody = template.text().replace(ShaderUtils.SHADER_BODY_PLACEHOLDER, shaderBody);
     return shaderBody;
   }
 
@@ -108,16 +180,17 @@ public class GLPreprocessor {
         foundInclude = true;
         try {
           String filename = getFileName(line.substring("#include ".length()));
+          if (!this.includedFiles.contains(filename)) {
+            this.includedFiles.add(filename);
+          }
 
-          BufferedReader fileReader = new BufferedReader(new FileReader(filename));
-          String fileLine;
+          // shared cache, most includes are used by many shaders
+          GLSourceCache.Source include = GLSourceCache.get(filename);
+          this.dependencies.add(include.stamp());
 
           // restart line counter for include file
           output.append("#line 1 \n");
-          while ((fileLine = fileReader.readLine()) != null) {
-            output.append(fileLine).append("\n");
-          }
-          fileReader.close();
+          output.append(include.text());
         } catch (Exception e) {
           throw new IOException("Line " + lineCount + " : " + line + "\n" + e.getMessage());
         }
@@ -132,6 +205,11 @@ public class GLPreprocessor {
     return output.toString();
   }
 
+  /** Files that were included by the last shader preprocessed */
+  public List<String> getIncludedFiles() {
+    return this.includedFiles;
+  }
+
   // Parse #pragma statements in the shader code, subdividing them into shader
   // configuration parameters and texture definitions.  Note that GLSL requires
   // us to ignore any #pragma statements that we don't recognize.
@@ -181,7 +259,7 @@ public class GLPreprocessor {
   }
 
   public static String getFragmentShaderTemplate() {
-    return ShaderUtils.loadResource(ShaderUtils.FRAMEWORK_PATH + "template.fs");
+    return ShaderUtils.loadResource(TEMPLATE_FILE);
   }
 
   public void addLXParameter(List<ShaderConfiguration> parameters, LXParameter p) {
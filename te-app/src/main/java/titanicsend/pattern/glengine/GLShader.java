@@ -54,7 +54,8 @@ public abstract class GLShader {
   public static final int TEXTURE_UNIT_MODEL_COORDS = 1;
   public static final int TEXTURE_UNIT_BACKBUFFER = 2;
   public static final int TEXTURE_UNIT_MODEL_NEIGHBORHOOD = 3;
-  public static final int FIRST_UNRESERVED_TEXTURE_UNIT = 4;
+  public static final int TEXTURE_UNIT_GRADIENTS = 4;
+  public static final int FIRST_UNRESERVED_TEXTURE_UNIT = 5;
 
   /**
    * Callback interface to set any uniforms that have been modified since the last frame. Can be
@@ -91,9 +92,10 @@ public abstract class GLShader {
 
   protected ShaderProgram shaderProgram;
   protected final FragmentShader fragmentShader;
-  protected final int width;
-  protected final int height;
-  protected final int numPixels;
+  // Canvas size. Follows the GLEngine when the canvas is resized.
+  protected int width;
+  protected int height;
+  protected int numPixels;
 
   // Geometry buffers
   private final FloatBuffer vertexBuffer;
@@ -107,6 +109,9 @@ public abstract class GLShader {
   public final List<Uniform> uniforms = Collections.unmodifiableList(this.mutableUniforms);
   private final List<Uniform> erroredUniforms = new ArrayList<>();
 
+  // Per-shader uniform block of the TE shader template, null if the program doesn't have one
+  private UniformBlock uniformBlock;
+
   // Map of uniform names to GL texture units
   protected final HashMap<String, Integer> uniformTextureUnits = new HashMap<>();
 
@@ -126,6 +131,7 @@ public abstract class GLShader {
     private final List<String> textureFilenames = new ArrayList<>();
     private final List<UniformSource> uniformSources = new ArrayList<>();
     private ByteBuffer legacyBackBuffer;
+    private boolean backgroundCompile = false;
 
     public Config(LX lx) {
       this.lx = lx;
@@ -164,6 +170,15 @@ public abstract class GLShader {
       return this;
     }
 
+    /**
+     * Build the shader program on the ShaderCompiler's worker thread. The shader doesn't run until
+     * the program is ready.
+     */
+    public Config withBackgroundCompile() {
+      this.backgroundCompile = true;
+      return this;
+    }
+
     public String getShaderFilename() {
       return this.shaderFilename;
     }
@@ -179,6 +194,10 @@ public abstract class GLShader {
     public ByteBuffer getLegacyBackBuffer() {
       return this.legacyBackBuffer;
     }
+
+    public boolean isBackgroundCompile() {
+      return this.backgroundCompile;
+    }
   }
 
   /** Create a new set of constructor parameters for GLShader */
@@ -188,12 +207,16 @@ public abstract class GLShader {
 
   private final List<UniformSource> configUniformSources;
 
+  // Build the program on the ShaderCompiler's worker thread
+  private final boolean backgroundCompile;
+
+  // Program being built in the background, null when not pending
+  private ShaderCompiler.Job compileJob = null;
+
   public GLShader(Config config) {
     this.lx = config.lx;
     this.glEngine = (GLEngine) lx.engine.getChild(GLEngine.PATH);
-    this.width = this.glEngine.getWidth();
-    this.height = this.glEngine.getHeight();
-    this.numPixels = this.width * this.height;
+    updateCanvasSize();
 
     // Fragment Shader
     if (LXUtils.isEmpty(config.getShaderFilename())) {
@@ -208,6 +231,7 @@ public abstract class GLShader {
 
     // Wonky... uniformSources added from child constructors need to go *before* configs
     this.configUniformSources = config.getUniformSources();
+    this.backgroundCompile = config.isBackgroundCompile();
 
     // initialization that can be done before the OpenGL context is available
     this.vertexBuffer = Buffers.newDirectFloatBuffer(VERTICES.length);
@@ -220,6 +244,7 @@ public abstract class GLShader {
     this.uniformTextureUnits.put(UniformNames.LX_MODEL_COORDS, TEXTURE_UNIT_MODEL_COORDS);
     this.uniformTextureUnits.put(
         UniformNames.LX_MODEL_NEIGHBORHOOD, TEXTURE_UNIT_MODEL_NEIGHBORHOOD);
+    this.uniformTextureUnits.put(UniformNames.LX_GRADIENTS, TEXTURE_UNIT_GRADIENTS);
   }
 
   // Buffers
@@ -253,7 +278,7 @@ public abstract class GLShader {
   // Initialization
 
   public void onActive() {
-    if (!initialized) {
+    if (!this.initialized && this.compileJob == null) {
       init();
     }
   }
@@ -264,16 +289,51 @@ public abstract class GLShader {
     // so it is very fast to reactivate.
   }
 
+  /** True once the shader program is built and the shader's buffers are allocated */
   public boolean isInitialized() {
     return this.initialized;
   }
 
+  /**
+   * True if the shader can run. A shader whose program is built in the background completes its
+   * initialization here once the program is ready.
+   */
+  public boolean isReady() {
+    if (!this.initialized && this.compileJob != null && this.compileJob.isDone()) {
+      int programId = this.compileJob.getProgramId();
+      this.compileJob = null;
+      this.canvas.getContext().makeCurrent();
+      if (programId != 0) {
+        this.shaderProgram =
+            new ShaderProgram(this.gl4, this.fragmentShader.getShaderName(), programId);
+      } else {
+        // Compiler could not build it, fall back to building here
+        initShaderProgram();
+      }
+      completeInit();
+    }
+    return this.initialized;
+  }
+
+  /**
+   * Start building this shader's program ahead of its first activation, if it is built in the
+   * background. Can be called from any thread.
+   */
+  public void prewarm() {
+    ShaderCompiler compiler = this.glEngine.getShaderCompiler();
+    if (this.backgroundCompile
+        && compiler != null
+        && !this.initialized
+        && this.compileJob == null) {
+      compiler.prewarm(this.fragmentShader.getShaderName(), useTEPreProcess());
+    }
+  }
+
   /** Shader initialization that requires the OpenGL context. Call once. */
   public final void init() {
-    if (this.initialized) {
+    if (this.initialized || this.compileJob != null) {
       throw new IllegalStateException("Shader already initialized");
     }
-    this.initialized = true;
 
     // Add config uniformSources now, they will be after those added from child constructors...
     for (UniformSource uniformSource : this.configUniformSources) {
@@ -291,7 +351,20 @@ public abstract class GLShader {
 
     // complete the initialization of the shader program
     this.canvas.getContext().makeCurrent();
+    ShaderCompiler compiler = this.glEngine.getShaderCompiler();
+    if (this.backgroundCompile && compiler != null && this.glEngine.backgroundCompile.isOn()) {
+      // Finished by isReady() once the program is built
+      this.compileJob = compiler.compile(this.fragmentShader.getShaderName(), useTEPreProcess());
+      return;
+    }
     initShaderProgram();
+    completeInit();
+  }
+
+  private void completeInit() {
+    this.initialized = true;
+    // The canvas may have been resized since this shader was constructed
+    updateCanvasSize();
     allocateShaderBuffers();
   }
 
@@ -340,22 +413,63 @@ public abstract class GLShader {
 
     // Unbind VAO to prevent subsequent setup from modifying it by mistake
     this.gl4.glBindVertexArray(0);
+
+    // Storage for the common control uniforms of TE shaders
+    this.uniformBlock =
+        UniformBlock.create(
+            this.gl4,
+            this.shaderProgram.id,
+            UniformNames.PER_SHADER_BLOCK,
+            GLEngine.perShaderUniformBlockBinding);
   }
 
   // Run loop
 
   public void run() {
+    if (!isReady()) {
+      return;
+    }
     this.canvas.getContext().makeCurrent();
+    if (this.width != this.glEngine.getWidth() || this.height != this.glEngine.getHeight()) {
+      resize();
+    }
     useProgram();
     // Stage updates to uniforms
     setUniforms();
     // hand the complete uniform list to OpenGL
     updateUniforms();
+    if (this.uniformBlock != null) {
+      this.uniformBlock.bind();
+    }
     render();
+    if (this.uniformBlock != null) {
+      this.uniformBlock.fence();
+    }
     unbindTextures();
     activateDefaultTextureUnit();
   }
 
+  /**
+   * The GLEngine canvas was resized since this shader last ran. Shader buffers are reallocated
+   * lazily here, so that shaders which are not running don't hold up the resize.
+   */
+  private void resize() {
+    updateCanvasSize();
+    resizeShaderBuffers();
+  }
+
+  private void updateCanvasSize() {
+    this.width = this.glEngine.getWidth();
+    this.height = this.glEngine.getHeight();
+    this.numPixels = this.width * this.height;
+  }
+
+  /**
+   * Subclasses should reallocate any buffers that depend on the canvas size here. Called on the
+   * first run after the canvas was resized, with width and height already updated.
+   */
+  protected void resizeShaderBuffers() {}
+
   /** Activate this shader for rendering in the current context */
   private void useProgram() {
     this.gl4.glUseProgram(this.shaderProgram.id);
@@ -372,6 +486,9 @@ public abstract class GLShader {
     for (Uniform uniform : this.uniforms) {
       if (uniform.hasUpdate()) {
         uniform.update();
+        if (uniform.isBlockMember()) {
+          this.uniformBlock.setModified();
+        }
         // Log new errors
         if (uniform.hasError() && !this.erroredUniforms.contains(uniform)) {
           this.erroredUniforms.add(uniform);
@@ -739,6 +856,10 @@ public abstract class GLShader {
         uniform = Uniform.create(this.gl4, name, location, type, getTextureUnit(name));
       } else {
         uniform = Uniform.create(this.gl4, name, location, type);
+        // Common control uniforms are members of the per-shader uniform block
+        if (location == Uniform.LOCATION_NOT_FOUND && this.uniformBlock != null) {
+          this.uniformBlock.addMember(uniform);
+        }
       }
       this.uniformMap.put(name, uniform);
       this.mutableUniforms.add(uniform);
@@ -777,10 +898,18 @@ public abstract class GLShader {
     this.mutableUniforms.clear();
     this.erroredUniforms.clear();
 
+    if (this.compileJob != null) {
+      this.glEngine.getShaderCompiler().cancel(this.compileJob);
+      this.compileJob = null;
+    }
+
     if (this.initialized) {
       // delete GPU buffers we directly allocated
       this.gl4.glDeleteBuffers(2, geometryBufferHandles, 0);
       this.gl4.glDeleteVertexArrays(1, vaoHandles, 0);
+      if (this.uniformBlock != null) {
+        this.uniformBlock.dispose();
+      }
 
       this.shaderProgram.dispose();
     }
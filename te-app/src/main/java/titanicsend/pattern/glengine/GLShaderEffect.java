@@ -101,6 +101,7 @@ public class GLShaderEffect extends TEEffect implements GpuDevice {
   private GL4 gl4;
   private boolean cpuTextureInitialized = false;
   private int cpuDstTexture = -1;
+  private int cpuTextureWidth, cpuTextureHeight;
   private ByteBuffer cpuByteBuffer;
 
   private void initializeCpuTexture() {
@@ -108,6 +109,8 @@ public class GLShaderEffect extends TEEffect implements GpuDevice {
 
     int width = GLEngine.current.getWidth();
     int height = GLEngine.current.getHeight();
+    this.cpuTextureWidth = width;
+    this.cpuTextureHeight = height;
 
     this.cpuByteBuffer =
         ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
@@ -147,6 +150,11 @@ public class GLShaderEffect extends TEEffect implements GpuDevice {
         this.cpuTextureInitialized = true;
         initializeCpuTexture();
         onEnable();
+      } else if (this.cpuTextureWidth != GLEngine.current.getWidth()
+          || this.cpuTextureHeight != GLEngine.current.getHeight()) {
+        // Canvas was resized, reallocate at the new size
+        this.gl4.glDeleteTextures(1, new int[] {this.cpuDstTexture}, 0);
+        initializeCpuTexture();
       }
 
       // Load colors[] into texture
@@ -4,10 +4,12 @@ import heronarts.lx.GpuDevice;
 import heronarts.lx.LX;
 import heronarts.lx.color.LXColor;
 import heronarts.lx.model.LXModel;
+import heronarts.lx.pattern.LXPattern;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import titanicsend.color.TEColorParameter;
+import titanicsend.color.TEGradient;
 import titanicsend.pattern.TEPerformancePattern;
 import titanicsend.pattern.yoffa.framework.TEShaderView;
 import titanicsend.pattern.yoffa.shader_engine.Uniform;
@@ -33,6 +35,7 @@ public class GLShaderPattern extends TEPerformancePattern implements GpuDevice {
     private Uniform.Float3 iColor2RGB;
     private Uniform.Float3 iColor2HSB;
     private Uniform.Float1 iPaletteOffset;
+    private Uniform.Float1 iGradientRow;
     private Uniform.Float1 iSpeed;
     private Uniform.Float1 iScale;
     private Uniform.Float1 iQuantity;
@@ -59,7 +62,8 @@ public class GLShaderPattern extends TEPerformancePattern implements GpuDevice {
   }
 
   protected TEShader addShader(GLShader.Config config) {
-    TEShader shader = new TEShader(config.withUniformSource(this::setUniforms));
+    TEShader shader =
+        new TEShader(config.withUniformSource(this::setUniforms).withBackgroundCompile());
     this.mutableShaders.add(shader);
     return shader;
   }
@@ -81,6 +85,14 @@ public class GLShaderPattern extends TEPerformancePattern implements GpuDevice {
       return;
     }
 
+    // Render black until the programs being built in the background are ready
+    if (!isReady()) {
+      if (this.lx.engine.renderMode.cpu) {
+        clearPixels();
+      }
+      return;
+    }
+
     // Update the model coords texture only when changed (and the first run)
     if (this.modelChanged) {
       this.modelChanged = false;
@@ -105,6 +117,33 @@ public class GLShaderPattern extends TEPerformancePattern implements GpuDevice {
     }
   }
 
+  /** True if all shaders have their programs and can run */
+  public boolean isReady() {
+    boolean ready = true;
+    for (TEShader shader : this.shaders) {
+      // Check every shader, so that each one finishes initializing as soon as it can
+      ready &= shader.isReady();
+    }
+    return ready;
+  }
+
+  /**
+   * Start building the shader programs in the background ahead of the pattern's first activation,
+   * for example when it is about to be faded in. Can be called from any thread.
+   */
+  public void prewarm() {
+    for (TEShader shader : this.shaders) {
+      shader.prewarm();
+    }
+  }
+
+  /** Prewarm the pattern if it is a shader pattern */
+  public static void prewarm(LXPattern pattern) {
+    if (pattern instanceof GLShaderPattern glShaderPattern) {
+      glShaderPattern.prewarm();
+    }
+  }
+
   private void initializeUniforms(GLShader s) {
     // Keep direct references to each Uniform, saves hashmap lookup.
     this.uniforms.iTime = s.getUniformFloat1("iTime");
@@ -113,6 +152,7 @@ public class GLShaderPattern extends TEPerformancePattern implements GpuDevice {
     this.uniforms.iColor2RGB = s.getUniformFloat3("iColor2RGB");
     this.uniforms.iColor2HSB = s.getUniformFloat3("iColor2HSB");
     this.uniforms.iPaletteOffset = s.getUniformFloat1("iPaletteOffset");
+    this.uniforms.iGradientRow = s.getUniformFloat1("iGradientRow");
     this.uniforms.iSpeed = s.getUniformFloat1("iSpeed");
     this.uniforms.iScale = s.getUniformFloat1("iScale");
     this.uniforms.iQuantity = s.getUniformFloat1("iQuantity");
@@ -153,9 +193,17 @@ public class GLShaderPattern extends TEPerformancePattern implements GpuDevice {
     this.uniforms.iColor2HSB.setValue(
         LXColor.h(col) / 360f, LXColor.s(col) / 100f, LXColor.b(col) / 100f);
 
-    boolean usePalette =
-        getControls().color.colorSource.getEnum() != TEColorParameter.ColorSource.STATIC;
-    this.uniforms.iPaletteOffset.setValue(usePalette ? getControls().color.getOffsetf() : -1f);
+    TEColorParameter color = getControls().color;
+    boolean usePalette = color.colorSource.getEnum() != TEColorParameter.ColorSource.STATIC;
+    this.uniforms.iPaletteOffset.setValue(usePalette ? color.getOffsetf() : -1f);
+
+    // gradient texture row matching the pattern's color source and blend mode
+    TEGradient gradient =
+        color.colorSource.getEnum() == TEColorParameter.ColorSource.DARK
+            ? TEGradient.DARK
+            : TEGradient.NORMAL;
+    this.uniforms.iGradientRow.setValue(
+        (float) GLEngine.current.useGradientRow(gradient, color.blendMode.getEnum()));
 
     // uniforms for common controls
     this.uniforms.iSpeed.setValue((float) getSpeed());
@@ -175,14 +223,19 @@ public class GLShaderPattern extends TEPerformancePattern implements GpuDevice {
   /**
    * Retrieve the render(output) texture handle for the pattern.
    *
-   * @return The output texture handle of the last shader, or NO_TEXTURE if no shaders exist
+   * @return The output texture handle of the last shader, or NO_TEXTURE if no shaders exist or they
+   *     are not ready yet
    */
   public int getRenderTexture() {
-    if (!this.shaders.isEmpty()) {
-      return this.shaders.getLast().getRenderTexture();
-    } else {
+    if (this.shaders.isEmpty()) {
       return NO_TEXTURE;
     }
+    for (TEShader shader : this.shaders) {
+      if (!shader.isInitialized()) {
+        return NO_TEXTURE;
+      }
+    }
+    return this.shaders.getLast().getRenderTexture();
   }
 
   @Override
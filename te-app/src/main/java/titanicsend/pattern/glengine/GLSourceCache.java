@@ -0,0 +1,58 @@
+package titanicsend.pattern.glengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared cache of shader source files, so that files included by many shaders are read from disk
+ * only once. Files are keyed by canonical path and re-read when their modification time or size
+ * changes. Thread safe.
+ */
+public class GLSourceCache {
+
+  /** Identifies the version of a file that was read */
+  public record FileStamp(String path, long lastModified, long length) {
+
+    static FileStamp of(File file) throws IOException {
+      return new FileStamp(file.getCanonicalPath(), file.lastModified(), file.length());
+    }
+
+    /** True if the file hasn't been modified since this stamp was taken */
+    public boolean isCurrent() {
+      File file = new File(this.path);
+      return file.lastModified() == this.lastModified && file.length() == this.length;
+    }
+  }
+
+  /**
+   * Contents of a source file, with each line terminated by a single '\n'.
+   *
+   * @param stamp Version of the file the text was read from
+   */
+  public record Source(FileStamp stamp, String text) {}
+
+  private static final Map<String, Source> sources = new ConcurrentHashMap<>();
+
+  /** Get the contents of a source file, reading it only if it is new or has changed */
+  public static Source get(String filename) throws IOException {
+    File file = new File(filename);
+    FileStamp stamp = FileStamp.of(file);
+    Source source = sources.get(stamp.path());
+    if (source == null || !source.stamp().equals(stamp)) {
+      source = new Source(stamp, read(file));
+      sources.put(stamp.path(), source);
+    }
+    return source;
+  }
+
+  private static String read(File file) throws IOException {
+    String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    StringBuilder text = new StringBuilder(contents.length() + 1);
+    contents.lines().forEach(line -> text.append(line).append('\n'));
+    return text.toString();
+  }
+}
@@ -0,0 +1,301 @@
+package titanicsend.pattern.glengine;
+
+import static com.jogamp.opengl.GL.GL_BGRA;
+import static com.jogamp.opengl.GL.GL_CLAMP_TO_EDGE;
+import static com.jogamp.opengl.GL.GL_COLOR_ATTACHMENT0;
+import static com.jogamp.opengl.GL.GL_COLOR_BUFFER_BIT;
+import static com.jogamp.opengl.GL.GL_FRAMEBUFFER;
+import static com.jogamp.opengl.GL.GL_FRAMEBUFFER_COMPLETE;
+import static com.jogamp.opengl.GL.GL_NEAREST;
+import static com.jogamp.opengl.GL.GL_RGBA8;
+import static com.jogamp.opengl.GL.GL_TEXTURE_2D;
+import static com.jogamp.opengl.GL.GL_TEXTURE_MAG_FILTER;
+import static com.jogamp.opengl.GL.GL_TEXTURE_MIN_FILTER;
+import static com.jogamp.opengl.GL.GL_TEXTURE_WRAP_S;
+import static com.jogamp.opengl.GL.GL_TEXTURE_WRAP_T;
+import static com.jogamp.opengl.GL.GL_UNSIGNED_BYTE;
+
+import com.jogamp.opengl.GL4;
+import heronarts.lx.LX;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * CPU render mode: collects the output of every shader pattern rendered in a frame into one tall
+ * texture, so that all of them can be read back to the CPU with a single transfer instead of one
+ * per pattern. Completed frames are scattered into each shader's CPU buffer at the start of the
+ * next engine frame, before the patterns and mixer run.
+ *
+ * <p>Each shader gets as many rows of the atlas as its ReadbackLayout needs, stacked in the order
+ * the shaders were rendered. The atlas grows between frames as more patterns are running, up to the
+ * maximum texture size. Shaders that don't fit fall back to their own readback for that frame.
+ */
+public class ReadbackAtlas {
+
+  private final GLEngine glEngine;
+  private GL4 gl4;
+
+  private int width;
+  private int height;
+
+  private boolean initialized = false;
+
+  // Maximum number of rows allowed by the GL texture size
+  private int maxRows;
+
+  // Number of rows the atlas is currently allocated for. Zero if not allocated.
+  private int capacity = 0;
+
+  // Number of rows that were needed this frame, including any that didn't fit
+  private int requested = 0;
+
+  private final int[] textureHandles = new int[1];
+  private final int[] fboHandles = new int[1];
+  private ReadbackRing ring;
+
+  /** Shader output copied into the atlas. Pooled by Batch, so that a frame allocates nothing. */
+  private static class Entry {
+    private TEShader shader;
+    private ReadbackLayout layout;
+    private int row;
+  }
+
+  /** Entries of one frame in row order, reused from frame to frame */
+  private static class Batch {
+    private Entry[] entries = new Entry[16];
+    private int size = 0;
+
+    private void add(TEShader shader, ReadbackLayout layout, int row) {
+      if (this.size == this.entries.length) {
+        this.entries = Arrays.copyOf(this.entries, this.size * 2);
+      }
+      Entry entry = this.entries[this.size];
+      if (entry == null) {
+        entry = this.entries[this.size] = new Entry();
+      }
+      entry.shader = shader;
+      entry.layout = layout;
+      entry.row = row;
+      this.size++;
+    }
+
+    /** Stop delivering to a shader. Its rows stay reserved. */
+    private void remove(TEShader shader) {
+      for (int i = 0; i < this.size; i++) {
+        if (this.entries[i].shader == shader) {
+          this.entries[i].shader = null;
+        }
+      }
+    }
+
+    private void clear() {
+      for (int i = 0; i < this.size; i++) {
+        this.entries[i].shader = null;
+        this.entries[i].layout = null;
+      }
+      this.size = 0;
+    }
+  }
+
+  // Shaders that were copied into the atlas this frame. Swapped with the batch of the ring slot
+  // its read goes to.
+  private Batch pending = new Batch();
+
+  // Entries of the reads in flight, indexed by frame number modulo ring depth
+  private Batch[] layouts;
+
+  private final ReadbackRing.Reader scatter = this::scatter;
+
+  public ReadbackAtlas(GLEngine glEngine) {
+    this.glEngine = glEngine;
+    this.width = glEngine.getWidth();
+    this.height = glEngine.getHeight();
+  }
+
+  public void initialize(GL4 gl4) {
+    if (this.initialized) {
+      throw new IllegalStateException("ReadbackAtlas already initialized");
+    }
+    this.initialized = true;
+    this.gl4 = gl4;
+
+    int[] maxTextureSize = new int[1];
+    gl4.glGetIntegerv(GL4.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+    this.maxRows = maxTextureSize[0];
+  }
+
+  /**
+   * Copy the output of a shader into the next free rows of the atlas. The framebuffer holding the
+   * texels described by the layout must be bound as the read framebuffer.
+   *
+   * @return True if the output will be delivered to the shader's CPU buffer by the atlas, false if
+   *     the shader should read it back by itself this frame.
+   */
+  boolean add(TEShader shader, ReadbackLayout layout) {
+    final int row = this.requested;
+    final int numRows = layout.numRows;
+    this.requested += numRows;
+    if (row + numRows > this.capacity) {
+      return false;
+    }
+    this.gl4.glBindFramebuffer(GL4.GL_DRAW_FRAMEBUFFER, this.fboHandles[0]);
+    this.gl4.glBlitFramebuffer(
+        0,
+        0,
+        this.width,
+        numRows,
+        0,
+        row,
+        this.width,
+        row + numRows,
+        GL_COLOR_BUFFER_BIT,
+        GL_NEAREST);
+    this.gl4.glBindFramebuffer(GL4.GL_DRAW_FRAMEBUFFER, 0);
+    this.pending.add(shader, layout, row);
+    return true;
+  }
+
+  /**
+   * Stop delivering frames to a shader that are still in flight. Called when a shader clears its
+   * back buffer, changes model or is disposed.
+   */
+  void remove(TEShader shader) {
+    this.pending.remove(shader);
+    if (this.layouts != null) {
+      for (Batch batch : this.layouts) {
+        batch.remove(shader);
+      }
+    }
+  }
+
+  /**
+   * Called by GLEngine at the start of each frame. Starts the readback of shaders copied into the
+   * atlas in the previous frame and scatters any completed readback into the shaders' CPU buffers.
+   */
+  public void loop() {
+    if (!this.glEngine.batchReadback.isOn()) {
+      if (this.capacity > 0) {
+        free();
+      }
+      this.requested = 0;
+      return;
+    }
+
+    if (this.ring != null && this.ring.getDepth() != this.glEngine.readbackDepth.getValuei()) {
+      // Pending reads are discarded along with their layouts
+      this.ring.setDepth(this.glEngine.readbackDepth.getValuei());
+      this.layouts = createBatches(this.ring.getDepth());
+    }
+
+    if (this.pending.size > 0) {
+      Entry last = this.pending.entries[this.pending.size - 1];
+      this.gl4.glBindFramebuffer(GL4.GL_READ_FRAMEBUFFER, this.fboHandles[0]);
+      long frame = this.ring.startRead(last.row + last.layout.numRows);
+      this.gl4.glBindFramebuffer(GL4.GL_READ_FRAMEBUFFER, 0);
+      // The slot's previous read was delivered or dropped by now
+      final int slot = (int) (frame % this.layouts.length);
+      final Batch previous = this.layouts[slot];
+      previous.clear();
+      this.layouts[slot] = this.pending;
+      this.pending = previous;
+    }
+
+    if (this.ring != null) {
+      this.ring.read(this.glEngine.readbackPolicy.getEnum(), this.scatter);
+    }
+
+    // Grow the atlas if shaders did not fit last frame
+    if (this.requested > this.capacity && this.capacity < this.maxRows) {
+      allocate(
+          Math.min(
+              this.maxRows, Math.max(this.requested, Math.max(this.height, this.capacity * 2))));
+    }
+    this.requested = 0;
+  }
+
+  private void scatter(IntBuffer data, long frame) {
+    final Batch batch = this.layouts[(int) (frame % this.layouts.length)];
+    for (int i = 0; i < batch.size; i++) {
+      final Entry entry = batch.entries[i];
+      int[] cpuBuffer = entry.shader != null ? entry.shader.getCpuBuffer() : null;
+      if (cpuBuffer != null) {
+        data.position(entry.row * this.width);
+        entry.layout.scatter(data, cpuBuffer);
+      }
+    }
+    batch.clear();
+  }
+
+  private static Batch[] createBatches(int depth) {
+    Batch[] batches = new Batch[depth];
+    for (int i = 0; i < depth; i++) {
+      batches[i] = new Batch();
+    }
+    return batches;
+  }
+
+  private void allocate(int numRows) {
+    free();
+
+    this.gl4.glGenTextures(1, this.textureHandles, 0);
+    this.gl4.glBindTexture(GL_TEXTURE_2D, this.textureHandles[0]);
+    this.gl4.glTexImage2D(
+        GL_TEXTURE_2D, 0, GL_RGBA8, this.width, numRows, 0, GL_BGRA, GL_UNSIGNED_BYTE, null);
+    this.gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+    this.gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+    this.gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+    this.gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+    this.gl4.glBindTexture(GL_TEXTURE_2D, 0);
+
+    this.gl4.glGenFramebuffers(1, this.fboHandles, 0);
+    this.gl4.glBindFramebuffer(GL_FRAMEBUFFER, this.fboHandles[0]);
+    this.gl4.glFramebufferTexture2D(
+        GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, this.textureHandles[0], 0);
+    int status = this.gl4.glCheckFramebufferStatus(GL_FRAMEBUFFER);
+    this.gl4.glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    if (status != GL_FRAMEBUFFER_COMPLETE) {
+      LX.error("ReadbackAtlas FBO failed to initialize for " + numRows + " rows: " + status);
+      this.gl4.glDeleteFramebuffers(1, this.fboHandles, 0);
+      this.gl4.glDeleteTextures(1, this.textureHandles, 0);
+      // Don't retry, shaders will keep reading back individually
+      this.maxRows = 0;
+      return;
+    }
+
+    this.ring =
+        new ReadbackRing(this.gl4, this.width, numRows, this.glEngine.readbackDepth.getValuei());
+    this.layouts = createBatches(this.ring.getDepth());
+    this.capacity = numRows;
+  }
+
+  private void free() {
+    if (this.capacity > 0) {
+      this.ring.dispose();
+      this.ring = null;
+      this.layouts = null;
+      this.gl4.glDeleteFramebuffers(1, this.fboHandles, 0);
+      this.gl4.glDeleteTextures(1, this.textureHandles, 0);
+      this.capacity = 0;
+    }
+    this.pending.clear();
+  }
+
+  /**
+   * Called by GLEngine when the canvas was resized. Reads in flight are discarded, the atlas is
+   * reallocated at the new width when shaders are added to it again.
+   */
+  public void resize() {
+    if (this.initialized) {
+      free();
+    }
+    this.width = this.glEngine.getWidth();
+    this.height = this.glEngine.getHeight();
+    this.requested = 0;
+  }
+
+  public void dispose() {
+    if (this.initialized) {
+      free();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package titanicsend.pattern.glengine;
+
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import java.nio.IntBuffer;
+
+/**
+ * CPU render mode: describes which texels of a shader's output are read back for a model (view),
+ * and how they map into the pattern's colors buffer.
+ *
+ * <p>Texel i of a shader canvas holds the color of the point with index i. For a model whose points
+ * are 0..n-1, such as the top level model, the live texels are already packed into the first rows
+ * of the canvas. For a view with a sparse set of points, CompactShader first gathers the view's
+ * texels into the first rows of its own canvas.
+ */
+class ReadbackLayout {
+
+  // Number of texels to read back
+  final int numPoints;
+
+  // Number of canvas rows holding those texels
+  final int numRows;
+
+  // Point index of each compacted texel, or null if texel i holds point i
+  final int[] indices;
+
+  ReadbackLayout(LXModel model, int width, int height) {
+    final LXPoint[] points = model.points;
+    this.numPoints = Math.min(points.length, width * height);
+
+    boolean contiguous = true;
+    for (int i = 0; i < this.numPoints; i++) {
+      if (points[i].index != i) {
+        contiguous = false;
+        break;
+      }
+    }
+    if (contiguous) {
+      this.indices = null;
+    } else {
+      this.indices = new int[this.numPoints];
+      for (int i = 0; i < this.numPoints; i++) {
+        this.indices[i] = points[i].index;
+      }
+    }
+
+    this.numRows = Math.clamp((this.numPoints + width - 1) / width, 1, height);
+  }
+
+  /** Whether the texels need to be gathered by CompactShader before reading back */
+  boolean isCompact() {
+    return this.indices != null;
+  }
+
+  /**
+   * Copy the texels of a completed read into a colors buffer
+   *
+   * @param data Read back pixels, positioned at the first texel of this layout
+   * @param colors Destination colors buffer, indexed by point index
+   */
+  void scatter(IntBuffer data, int[] colors) {
+    final int numPoints = Math.min(this.numPoints, data.remaining());
+    if (this.indices == null) {
+      data.get(colors, 0, Math.min(numPoints, colors.length));
+    } else {
+      final int offset = data.position();
+      for (int i = 0; i < numPoints; i++) {
+        final int index = this.indices[i];
+        if (index < colors.length) {
+          colors[index] = data.get(offset + i);
+        }
+      }
+    }
+  }
+}
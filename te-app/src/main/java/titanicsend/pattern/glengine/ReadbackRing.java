@@ -0,0 +1,361 @@
+package titanicsend.pattern.glengine;
+
+import static com.jogamp.opengl.GL.GL_BGRA;
+import static com.jogamp.opengl.GL.GL_UNSIGNED_BYTE;
+
+import com.jogamp.opengl.GL4;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Ring of Pixel Pack Buffers (PBOs) for asynchronous readback of a framebuffer to the CPU. Each
+ * frame starts a read into the next PBO of the ring and places a fence sync behind it. Completed
+ * reads are detected by polling the fences, so the engine thread never blocks on the GPU unless the
+ * policy asks for it.
+ *
+ * <p>A deeper ring tolerates a slower GPU/driver at the cost of memory, while the policy picks
+ * between latency and stalling:
+ *
+ * <ul>
+ *   <li>NEWEST: Never wait. Use the newest completed frame, or reuse the previous frame if none has
+ *       completed.
+ *   <li>FIXED_LATENCY: Always use the frame from (depth - 1) frames ago, waiting for it if the
+ *       transfer has not completed yet. A frame that doesn't complete within MAX_WAIT_NANOS is
+ *       dropped and the previous frame is kept.
+ * </ul>
+ *
+ * <p>The depth can be changed at any time with setDepth(), which discards pending reads.
+ */
+public class ReadbackRing {
+
+  public enum Policy {
+    NEWEST("Newest, never stall"),
+    FIXED_LATENCY("Fixed latency");
+
+    public final String label;
+
+    Policy(String label) {
+      this.label = label;
+    }
+
+    @Override
+    public String toString() {
+      return this.label;
+    }
+  }
+
+  /** Receives the contents of a completed read while its PBO is mapped */
+  public interface Reader {
+    /**
+     * @param data Pixels of the frame, one BGRA int per pixel. Only valid during this call.
+     * @param frame Frame number that was returned by startRead()
+     */
+    void read(IntBuffer data, long frame);
+  }
+
+  /** Maximum time to wait for a fence under the FIXED_LATENCY policy */
+  private static final long MAX_WAIT_NANOS = 100_000_000L;
+
+  /** Readback statistics. One instance per ring, plus the totals for all rings. */
+  public static class Counters {
+    /** Frames copied to the CPU */
+    public long read;
+
+    /** Frames where no new data was available and the previous frame was kept */
+    public long reused;
+
+    /** Frames where the engine thread waited for a transfer to complete */
+    public long stalled;
+
+    /** Transfers that were discarded in favor of a newer frame */
+    public long dropped;
+
+    public void reset() {
+      this.read = this.reused = this.stalled = this.dropped = 0;
+    }
+
+    @Override
+    public String toString() {
+      return "read=" + read + " reused=" + reused + " stalled=" + stalled + " dropped=" + dropped;
+    }
+  }
+
+  /** Totals across all rings, updated on the engine thread */
+  public static final Counters totals = new Counters();
+
+  public final Counters counters = new Counters();
+
+  private final GL4 gl4;
+  private final int width;
+  private final int height;
+  private final int numBytes;
+
+  private int[] handles;
+  private long[] fences;
+  private long[] frames;
+  private int[] sizes;
+  private long nextFrame = 0;
+  // Index of the PBO the next read will go into. The oldest pending read, if the ring is full.
+  private int head = 0;
+
+  /**
+   * @param gl4 GL context the ring will be used in
+   * @param width Width of the framebuffer area to read
+   * @param height Height of the framebuffer area to read
+   * @param depth Number of PBOs, minimum 2
+   */
+  public ReadbackRing(GL4 gl4, int width, int height, int depth) {
+    this.gl4 = gl4;
+    this.width = width;
+    this.height = height;
+    this.numBytes = width * height * 4;
+    allocate(depth);
+  }
+
+  private static void checkDepth(int depth) {
+    if (depth < 2) {
+      throw new IllegalArgumentException("ReadbackRing depth must be at least 2: " + depth);
+    }
+  }
+
+  private void allocate(int depth) {
+    checkDepth(depth);
+    this.handles = new int[depth];
+    this.fences = new long[depth];
+    this.frames = new long[depth];
+    this.sizes = new int[depth];
+
+    this.gl4.glGenBuffers(depth, this.handles, 0);
+    for (int handle : this.handles) {
+      this.gl4.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, handle);
+      this.gl4.glBufferData(GL4.GL_PIXEL_PACK_BUFFER, this.numBytes, null, GL4.GL_STREAM_READ);
+    }
+    this.gl4.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+  }
+
+  public int getDepth() {
+    return this.handles.length;
+  }
+
+  /**
+   * Change the number of PBOs. Does nothing if the depth is unchanged, otherwise pending reads are
+   * discarded and the ring fills up again from the next read.
+   *
+   * @param depth Number of PBOs, minimum 2
+   */
+  public void setDepth(int depth) {
+    if (depth == this.handles.length) {
+      return;
+    }
+    checkDepth(depth);
+    dispose();
+    allocate(depth);
+  }
+
+  public int getWidth() {
+    return this.width;
+  }
+
+  public int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Start an asynchronous read of the currently bound read framebuffer
+   *
+   * @return Frame number of this read, passed to a Reader when it completes
+   */
+  public long startRead() {
+    return startRead(this.height);
+  }
+
+  /**
+   * Start an asynchronous read of the bottom rows of the currently bound read framebuffer
+   *
+   * @param numRows Number of rows to read, up to the height of the ring
+   * @return Frame number of this read, passed to a Reader when it completes
+   */
+  public long startRead(int numRows) {
+    if (numRows < 1 || numRows > this.height) {
+      throw new IllegalArgumentException("Invalid number of rows for ReadbackRing: " + numRows);
+    }
+    final int slot = this.head;
+    if (this.fences[slot] != 0) {
+      // Ring is full of pending reads, overwrite the oldest
+      deleteFence(slot);
+      this.counters.dropped++;
+      totals.dropped++;
+    }
+    this.gl4.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, this.handles[slot]);
+    this.gl4.glReadPixels(0, 0, this.width, numRows, GL_BGRA, GL_UNSIGNED_BYTE, 0);
+    this.gl4.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+    this.fences[slot] = this.gl4.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    this.frames[slot] = this.nextFrame;
+    this.sizes[slot] = this.width * numRows * 4;
+    this.head = (slot + 1) % this.handles.length;
+    return this.nextFrame++;
+  }
+
+  /**
+   * Pass a completed frame, as chosen by the policy, to a Reader.
+   *
+   * @return True if the reader was called, false if no new data was available
+   */
+  public boolean read(Policy policy, Reader reader) {
+    final int slot = acquire(policy);
+    if (slot < 0) {
+      return false;
+    }
+    ByteBuffer data = map(slot);
+    if (data == null) {
+      unbind();
+      return false;
+    }
+    reader.read(data.asIntBuffer(), this.frames[slot]);
+    unmap();
+    return true;
+  }
+
+  /**
+   * Copy a completed frame into an int array, as chosen by the policy.
+   *
+   * @return True if new data was copied, false if dst was left unchanged
+   */
+  public boolean read(int[] dst, Policy policy) {
+    final int slot = acquire(policy);
+    if (slot < 0) {
+      return false;
+    }
+    ByteBuffer data = map(slot);
+    if (data == null) {
+      unbind();
+      return false;
+    }
+    IntBuffer src = data.asIntBuffer();
+    src.get(dst, 0, Math.min(src.remaining(), dst.length));
+    unmap();
+    return true;
+  }
+
+  /**
+   * Copy a completed frame into a ByteBuffer, as chosen by the policy.
+   *
+   * @return True if new data was copied, false if dst was left unchanged
+   */
+  public boolean read(ByteBuffer dst, Policy policy) {
+    final int slot = acquire(policy);
+    if (slot < 0) {
+      return false;
+    }
+    ByteBuffer data = map(slot);
+    if (data == null) {
+      unbind();
+      return false;
+    }
+    dst.clear();
+    data.limit(Math.min(data.capacity(), dst.capacity()));
+    dst.put(data);
+    dst.rewind();
+    unmap();
+    return true;
+  }
+
+  /**
+   * Find the completed read to consume and release any older ones.
+   *
+   * @return Slot index, or -1 if no frame is available
+   */
+  private int acquire(Policy policy) {
+    final int depth = this.handles.length;
+    int slot = -1;
+
+    if (policy == Policy.FIXED_LATENCY) {
+      // Reads are consumed oldest first, so the ring is full when the next slot is still pending.
+      // Until it fills up after a reset there is nothing to deliver yet.
+      if (this.fences[this.head] != 0) {
+        slot = this.head;
+        if (!isSignaled(slot, 0)) {
+          this.counters.stalled++;
+          totals.stalled++;
+          if (!isSignaled(slot, MAX_WAIT_NANOS)) {
+            // Mapping the PBO now would block until the transfer completes. Give up on this frame
+            // and keep the previous one.
+            deleteFence(slot);
+            this.counters.dropped++;
+            totals.dropped++;
+            slot = -1;
+          }
+        }
+      }
+    } else {
+      // Fences complete in order, walk from oldest to newest and keep the last signaled one
+      for (int i = 0; i < depth; i++) {
+        int s = (this.head + i) % depth;
+        if (this.fences[s] == 0) {
+          continue;
+        }
+        if (!isSignaled(s, 0)) {
+          break;
+        }
+        if (slot >= 0) {
+          deleteFence(slot);
+          this.counters.dropped++;
+          totals.dropped++;
+        }
+        slot = s;
+      }
+    }
+
+    if (slot < 0) {
+      this.counters.reused++;
+      totals.reused++;
+      return -1;
+    }
+    deleteFence(slot);
+    this.counters.read++;
+    totals.read++;
+    return slot;
+  }
+
+  private boolean isSignaled(int slot, long timeoutNanos) {
+    int status =
+        this.gl4.glClientWaitSync(this.fences[slot], GL4.GL_SYNC_FLUSH_COMMANDS_BIT, timeoutNanos);
+    return status == GL4.GL_ALREADY_SIGNALED || status == GL4.GL_CONDITION_SATISFIED;
+  }
+
+  private ByteBuffer map(int slot) {
+    this.gl4.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, this.handles[slot]);
+    return this.gl4.glMapBufferRange(
+        GL4.GL_PIXEL_PACK_BUFFER, 0, this.sizes[slot], GL4.GL_MAP_READ_BIT);
+  }
+
+  private void unmap() {
+    this.gl4.glUnmapBuffer(GL4.GL_PIXEL_PACK_BUFFER);
+    unbind();
+  }
+
+  private void unbind() {
+    this.gl4.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+  }
+
+  private void deleteFence(int slot) {
+    this.gl4.glDeleteSync(this.fences[slot]);
+    this.fences[slot] = 0;
+  }
+
+  /** Discard all pending reads, for example when the source has been cleared */
+  public void reset() {
+    for (int i = 0; i < this.fences.length; i++) {
+      if (this.fences[i] != 0) {
+        deleteFence(i);
+      }
+    }
+    this.head = 0;
+  }
+
+  /** Release GPU resources */
+  public void dispose() {
+    reset();
+    this.gl4.glDeleteBuffers(this.handles.length, this.handles, 0);
+  }
+}
@@ -0,0 +1,229 @@
+package titanicsend.pattern.glengine;
+
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLContext;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import titanicsend.pattern.yoffa.shader_engine.ShaderUtils;
+import titanicsend.util.TE;
+
+/**
+ * Compiles and links shader programs on a worker thread, so that the first activation of a shader
+ * pattern doesn't stall the engine thread. The worker has its own OpenGL context, shared with the
+ * GLEngine canvas, so the program objects it creates can be used directly by the engine.
+ *
+ * <p>Programs can also be prewarmed: compiled ahead of a pattern's first activation, for example
+ * when the autopilot picks the next pattern for a channel. The next compile() for the same shader
+ * takes over the prewarmed program, whether or not it is finished yet.
+ */
+public class ShaderCompiler {
+
+  /** Maximum number of prewarmed programs waiting to be claimed */
+  private static final int MAX_PREWARMED = 8;
+
+  /** Maximum time to wait for the worker to finish on shutdown */
+  private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+  /** A program being compiled in the background */
+  public static class Job {
+    private final String shaderName;
+    private final boolean tePreProcess;
+    private int programId = 0;
+    private volatile boolean done = false;
+    private boolean cancelled = false;
+
+    private Job(String shaderName, boolean tePreProcess) {
+      this.shaderName = shaderName;
+      this.tePreProcess = tePreProcess;
+    }
+
+    /** True once the program is linked, or failed to build. Errors are logged by the worker. */
+    public boolean isDone() {
+      return this.done;
+    }
+
+    /** Id of the linked program object once the job is done, or 0 if it could not be built */
+    public int getProgramId() {
+      return this.programId;
+    }
+  }
+
+  private final GLAutoDrawable surface;
+  private final ExecutorService worker;
+  private GL4 gl4;
+
+  // Prewarmed jobs by shader, oldest first
+  private final Map<String, Job> prewarmed = new LinkedHashMap<>();
+
+  /**
+   * Must be called with the GLEngine canvas context current.
+   *
+   * @param canvas Drawable whose context will share objects with the worker context
+   */
+  public ShaderCompiler(GLAutoDrawable canvas) {
+    GLContext prevContext = GLContext.getCurrent();
+
+    // Can be any resolution -- we just need a context for the compiler
+    this.surface = ShaderUtils.createGLSurface(64, 64);
+    this.surface.setSharedAutoDrawable(canvas);
+    this.surface.display();
+
+    if (prevContext != null) prevContext.makeCurrent();
+
+    this.worker =
+        Executors.newSingleThreadExecutor(
+            r -> {
+              Thread thread = new Thread(r, "TE Shader Compiler");
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            });
+
+    // The worker context stays current on the worker thread for the life of the compiler
+    this.worker.execute(
+        () -> {
+          if (this.surface.getContext().makeCurrent() == GLContext.CONTEXT_NOT_CURRENT) {
+            TE.error("ShaderCompiler: could not activate worker context");
+            return;
+          }
+          this.gl4 = this.surface.getGL().getGL4();
+        });
+  }
+
+  private static String getKey(String shaderName, boolean tePreProcess) {
+    return shaderName + (tePreProcess ? "" : ":raw");
+  }
+
+  /**
+   * Start building a program in the background, or take over a prewarmed one. The caller owns the
+   * program once the job is done and must delete it when no longer needed.
+   */
+  public Job compile(String shaderName, boolean tePreProcess) {
+    Job job;
+    synchronized (this.prewarmed) {
+      job = this.prewarmed.remove(getKey(shaderName, tePreProcess));
+    }
+    if (job == null) {
+      job = new Job(shaderName, tePreProcess);
+      submit(job);
+    }
+    return job;
+  }
+
+  /**
+   * Start building a program ahead of its first use. Safe to call from any thread and more than
+   * once for the same shader. If too many prewarmed programs go unclaimed, the oldest are deleted.
+   */
+  public void prewarm(String shaderName, boolean tePreProcess) {
+    String key = getKey(shaderName, tePreProcess);
+    synchronized (this.prewarmed) {
+      if (this.prewarmed.containsKey(key)) {
+        return;
+      }
+      Job job = new Job(shaderName, tePreProcess);
+      this.prewarmed.put(key, job);
+      submit(job);
+
+      Iterator<Job> oldest = this.prewarmed.values().iterator();
+      while (this.prewarmed.size() > MAX_PREWARMED) {
+        cancel(oldest.next());
+        oldest.remove();
+      }
+    }
+  }
+
+  /**
+   * Discard a job whose program is no longer wanted. The program is deleted by the worker, so this
+   * can be called without a current context.
+   */
+  public void cancel(Job job) {
+    synchronized (job) {
+      job.cancelled = true;
+      if (!job.done) {
+        // The worker deletes the program when it finishes
+        return;
+      }
+    }
+    final int programId = job.programId;
+    if (programId != 0) {
+      submit(() -> this.gl4.glDeleteProgram(programId));
+    }
+  }
+
+  private void submit(Job job) {
+    submit(() -> build(job));
+  }
+
+  private void submit(Runnable task) {
+    if (!this.worker.isShutdown()) {
+      this.worker.execute(task);
+    }
+  }
+
+  // Runs on the worker thread
+  private void build(Job job) {
+    synchronized (job) {
+      if (job.cancelled) {
+        return;
+      }
+    }
+    if (this.gl4 == null) {
+      // No worker context, let the engine build the program
+      TE.error("ShaderCompiler: no context, could not build " + job.shaderName);
+      job.done = true;
+      return;
+    }
+
+    int programId = this.gl4.glCreateProgram();
+    ShaderUtils.loadShader(this.gl4, programId, job.shaderName, job.tePreProcess);
+    if (!ShaderUtils.isLinked(this.gl4, programId)) {
+      // loadShader() logged the error. A program id of 0 has the engine build it instead.
+      this.gl4.glDeleteProgram(programId);
+      programId = 0;
+    }
+
+    // Changes to a shared object are only guaranteed to be visible in another context once
+    // they are complete in the context that made them
+    this.gl4.glFinish();
+
+    synchronized (job) {
+      if (!job.cancelled) {
+        job.programId = programId;
+        job.done = true;
+        return;
+      }
+    }
+    if (programId != 0) {
+      this.gl4.glDeleteProgram(programId);
+    }
+  }
+
+  /** Delete any unclaimed programs and shut down the worker */
+  public void dispose() {
+    synchronized (this.prewarmed) {
+      for (Job job : this.prewarmed.values()) {
+        cancel(job);
+      }
+      this.prewarmed.clear();
+    }
+    submit(
+        () -> {
+          if (this.gl4 != null) {
+            ShaderUtils.disposeCompileVAO(this.gl4);
+            this.surface.getContext().release();
+          }
+        });
+    this.worker.shutdown();
+    try {
+      this.worker.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.surface.destroy();
+  }
+}
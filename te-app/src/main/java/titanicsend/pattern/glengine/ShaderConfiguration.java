@@ -15,6 +15,21 @@ public class ShaderConfiguration {
   public int iChannel;
   public String name;
 
+  /** Shallow copy. The lxParameter, if any, is shared. */
+  public ShaderConfiguration copy() {
+    ShaderConfiguration copy = new ShaderConfiguration();
+    copy.opcode = this.opcode;
+    copy.parameterId = this.parameterId;
+    copy.lxParameter = this.lxParameter;
+    copy.normalizationCurve = this.normalizationCurve;
+    copy.value = this.value;
+    copy.v1 = this.v1;
+    copy.v2 = this.v2;
+    copy.iChannel = this.iChannel;
+    copy.name = this.name;
+    return copy;
+  }
+
   @Override
   public String toString() {
     return "ShaderConfiguration{"
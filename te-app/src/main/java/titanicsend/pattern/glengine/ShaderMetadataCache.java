@@ -0,0 +1,175 @@
+package titanicsend.pattern.glengine;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import titanicsend.pattern.yoffa.shader_engine.ShaderUtils;
+import titanicsend.util.TE;
+
+/**
+ * What ShaderPatternClassFactory needs to know about each shader file, saved between runs in
+ * resources/shaders/cache so that unchanged shaders don't have to be preprocessed at startup. An
+ * entry is valid while the content hash of the shader file and the files it includes is unchanged.
+ * Thread safe, so shaders can be looked up and scanned in parallel.
+ */
+class ShaderMetadataCache {
+
+  private static final String CACHE_FILE = ShaderUtils.CACHE_PATH + "shader_metadata.json";
+
+  // Bump if the layout of the cache file or the meaning of its entries changes
+  private static final int CACHE_FILE_VERSION = 1;
+
+  /** Registration data for one shader file */
+  static class Entry {
+    // content hash of the shader and its includes when it was scanned
+    String hash;
+    // files read by #include, directly or nested
+    List<String> includes;
+    boolean isAutoShader;
+    String className;
+    String category;
+    boolean isDriftPattern;
+  }
+
+  private static class CacheFile {
+    int version;
+    Map<String, Entry> entries;
+  }
+
+  // shader file path -> entry
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  // contents of include files, read once per scan since most shaders share them
+  private final Map<String, byte[]> includeContents = new ConcurrentHashMap<>();
+
+  private volatile boolean modified = false;
+
+  private ShaderMetadataCache() {}
+
+  /** Load the cache file, or start with an empty cache if it is missing or outdated */
+  static ShaderMetadataCache load() {
+    ShaderMetadataCache cache = new ShaderMetadataCache();
+    File file = new File(CACHE_FILE);
+    if (file.exists()) {
+      try (Reader reader = new FileReader(file, StandardCharsets.UTF_8)) {
+        CacheFile cacheFile = new Gson().fromJson(reader, CacheFile.class);
+        if (cacheFile != null
+            && cacheFile.version == CACHE_FILE_VERSION
+            && cacheFile.entries != null) {
+          cache.entries.putAll(cacheFile.entries);
+        }
+      } catch (Exception e) {
+        TE.log("Shader metadata cache could not be read, all shaders will be scanned.");
+      }
+    }
+    return cache;
+  }
+
+  /** Save the cache file if any entries were added or removed */
+  void save() {
+    if (!this.modified) {
+      return;
+    }
+    CacheFile cacheFile = new CacheFile();
+    cacheFile.version = CACHE_FILE_VERSION;
+    cacheFile.entries = this.entries;
+
+    // Write to a temporary file and move it in place, so that a partial file is never read
+    Path path = Path.of(CACHE_FILE);
+    Path tempPath = Path.of(CACHE_FILE + ".tmp");
+    try {
+      Files.createDirectories(path.getParent());
+      try (Writer writer = new FileWriter(tempPath.toFile(), StandardCharsets.UTF_8)) {
+        new GsonBuilder().setPrettyPrinting().create().toJson(cacheFile, writer);
+      }
+      Files.move(
+          tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      this.modified = false;
+    } catch (IOException e) {
+      TE.error(e, "Could not save shader metadata cache");
+    }
+  }
+
+  /** Returns the entry for a shader file, or null if it isn't cached or the files have changed */
+  Entry get(File shaderFile) {
+    Entry entry = this.entries.get(shaderFile.getPath());
+    if (entry == null || entry.includes == null) {
+      return null;
+    }
+    String hash = getHash(shaderFile, entry.includes);
+    return hash != null && hash.equals(entry.hash) ? entry : null;
+  }
+
+  /** Add or replace the entry for a shader file that was just scanned */
+  void put(File shaderFile, List<String> includes, Entry entry) {
+    entry.includes = new ArrayList<>(includes);
+    entry.hash = getHash(shaderFile, entry.includes);
+    if (entry.hash != null) {
+      this.entries.put(shaderFile.getPath(), entry);
+      this.modified = true;
+    }
+  }
+
+  /** Drop entries for shader files that no longer exist */
+  void retain(Set<String> shaderPaths) {
+    if (this.entries.keySet().retainAll(shaderPaths)) {
+      this.modified = true;
+    }
+  }
+
+  /**
+   * Hash of the contents of a shader file and its includes, or null if any of the files could not
+   * be read.
+   */
+  private String getHash(File shaderFile, List<String> includes) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    try {
+      digest.update(Files.readAllBytes(shaderFile.toPath()));
+      for (String include : includes) {
+        byte[] contents =
+            this.includeContents.computeIfAbsent(
+                include,
+                path -> {
+                  try {
+                    return Files.readAllBytes(Path.of(path));
+                  } catch (IOException e) {
+                    return null;
+                  }
+                });
+        if (contents == null) {
+          return null;
+        }
+        // Separators, so that moving text between files changes the hash
+        digest.update((byte) 0);
+        digest.update(include.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(contents);
+      }
+    } catch (IOException e) {
+      return null;
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
@@ -5,7 +5,10 @@ import heronarts.lx.LXCategory;
 import heronarts.lx.pattern.LXPattern;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.NamingStrategy;
 import net.bytebuddy.description.annotation.AnnotationDescription;
@@ -82,11 +85,15 @@ public class ShaderPatternClassFactory {
    * any configuration pragmas in its code. The new class will be named after the shader file by
    * default, and will extend TEAutoShaderPattern or TEAutoDriftPattern depending on configuration
    * options. See comments in the code for the make() method below for details.
+   *
+   * <p>What we need to know about each shader is kept in a ShaderMetadataCache, so only shaders
+   * that are new or have changed since the last run are preprocessed. Those are scanned in parallel
+   * on the common fork-join pool.
    */
   @SuppressWarnings("unchecked")
   public void registerShaders(LX lx) {
+    long timer = System.currentTimeMillis();
     String dir = ShaderUtils.SHADER_PATH;
-    GLPreprocessor glp = new GLPreprocessor();
 
     // get a list of all shaders in resource path
     File[] files = new File(dir).listFiles((dir1, name) -> name.endsWith(".fs"));
@@ -95,35 +102,51 @@ public class ShaderPatternClassFactory {
       return;
     }
 
+    ShaderMetadataCache cache = ShaderMetadataCache.load();
+    cache.retain(Arrays.stream(files).map(File::getPath).collect(Collectors.toSet()));
+
+    // look up or scan every shader. Results are in file order, null if a shader couldn't be scanned
+    AtomicInteger scanned = new AtomicInteger();
+    List<ShaderMetadataCache.Entry> entries =
+        Arrays.stream(files)
+            .parallel()
+            .map(
+                file -> {
+                  ShaderMetadataCache.Entry entry = cache.get(file);
+                  if (entry == null) {
+                    scanned.incrementAndGet();
+                    entry = scanShader(file, cache);
+                  }
+                  return entry;
+                })
+            .toList();
+    cache.save();
+
+    TE.log(
+        "Shader scan: %d shaders checked in %d ms, %d scanned.",
+        files.length, System.currentTimeMillis() - timer, scanned.get());
+
     // iterate through shaders and try to create a class for each one
-    for (File file : files) {
-      String shaderFile = file.getName();
-
-      // get shader configuration data from the shader file
-      ArrayList<ShaderConfiguration> config = new ArrayList<>();
-      try {
-        glp.preprocessShader(file, config);
-      } catch (Exception e) {
-        TE.error("Error scanning shader " + file.getName() + "\n" + e.getMessage());
-        continue;
-      }
+    for (int i = 0; i < files.length; i++) {
+      String shaderFile = files[i].getName();
+      ShaderMetadataCache.Entry entry = entries.get(i);
 
       // if the shader has no embedded configuration at all, we have to assume
       // that it's set up the "normal" way.  Skip it.
-      if (isAutoShader(config) == false) {
+      if (entry == null || !entry.isAutoShader) {
         // TE.log("Shader " + shaderFile + " is not an auto shader.  Skipping.");
         continue;
       }
 
       // if class doesn't already exist, create and register it.
-      String className = getShaderClassName(file, config);
+      String className = entry.className;
       if (!classExists(className)) {
         // create the class
         TE.log("Creating Shader class: " + className + " for " + shaderFile);
         try {
           Class<?> clazz =
               new ShaderPatternClassFactory()
-                  .make(className, getLXCategory(config), shaderFile, isDriftPattern(config));
+                  .make(className, entry.category, shaderFile, entry.isDriftPattern);
           lx.registry.addPattern((Class<? extends LXPattern>) clazz);
           // TE.log("Registered shader class: " + className);
         } catch (Exception e) {
@@ -138,6 +161,30 @@ public class ShaderPatternClassFactory {
     }
   }
 
+  /**
+   * Get shader configuration data from the shader file and add what we need to the cache. Returns
+   * null if the shader could not be preprocessed, it will be scanned again on the next run.
+   */
+  private ShaderMetadataCache.Entry scanShader(File file, ShaderMetadataCache cache) {
+    ArrayList<ShaderConfiguration> config = new ArrayList<>();
+    // preprocessor instances keep per-shader state, so each scan needs its own
+    GLPreprocessor glp = new GLPreprocessor();
+    try {
+      glp.preprocessShader(file, config);
+    } catch (Exception e) {
+      TE.error("Error scanning shader " + file.getName() + "\n" + e.getMessage());
+      return null;
+    }
+
+    ShaderMetadataCache.Entry entry = new ShaderMetadataCache.Entry();
+    entry.isAutoShader = isAutoShader(config);
+    entry.className = getShaderClassName(file, config);
+    entry.category = getLXCategory(config);
+    entry.isDriftPattern = isDriftPattern(config);
+    cache.put(file, glp.getIncludedFiles(), entry);
+    return entry;
+  }
+
   /*
    Here, we create a new shader pattern class, derived from either TEAutoShaderPattern or
    TEAutoDriftPattern.  How it works:
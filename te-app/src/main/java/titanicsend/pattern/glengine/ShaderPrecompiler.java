@@ -1,8 +1,11 @@
 package titanicsend.pattern.glengine;
 
+import com.jogamp.opengl.GL4;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.GLContext;
+import java.io.File;
 import titanicsend.pattern.yoffa.shader_engine.ShaderUtils;
+import titanicsend.util.TE;
 
 /** Checks shader cache and builds binaries for any changed or previously uncached shaders. */
 public class ShaderPrecompiler {
@@ -17,8 +20,6 @@ public class ShaderPrecompiler {
     int totalFiles = 0;
     int compiledFiles = 0;
 
-    // TE.log("Refreshing shader cache...");
-
     // save the currently active GL context
     GLContext prevContext = GLContext.getCurrent();
 
@@ -26,58 +27,57 @@ public class ShaderPrecompiler {
     GLAutoDrawable surface = ShaderUtils.createGLSurface(width, height);
     surface.display();
     surface.getContext().makeCurrent();
-
-    /********************************************
-     * 6/2024
-     * Disabling the shader precompiler for now because
-     * Apple has chosen not to support OpenGL binary shader file
-     * formats in MacOS Sonoma.  We can retest periodically, but
-     * performance shouldn't be affected -- the shader compiler
-     * is very fast and still only needs to be run once per loaded
-     * shader.  And app startup time will actually be slightly faster!
-     *
-     * ShaderUtils.rebuildCache(surface) will still be called from TEApp,
-     * but now it will run only the minimum code necessary to initialize
-     * our OpenGL setup for the first time.
-     ********************************************/
-    /*
     GL4 gl4 = surface.getGL().getGL4();
-    int programId = gl4.glCreateProgram();
-
-    // Get a list of all shaders in resource path
-    // and try to compile them to .bin files in the
-    // cache directory. (NB: This directory listing
-    // method is significantly faster than the old one.)
-
-
-    File[] shaderFiles =
-        new File(ShaderUtils.SHADER_PATH).listFiles((dir, name) -> name.endsWith(".fs"));
-    if (shaderFiles == null) {
-      // TE.log("No shaders found in " + dir);
-      return;
-    }
 
+    // Apple doesn't support OpenGL binary shader formats since macOS Sonoma. There, every shader
+    // is compiled the first time it is used and this only initializes our OpenGL setup.
+    if (!ShaderUtils.isBinaryCacheSupported(gl4)) {
+      TE.log("Shader cache: No program binary formats available, shaders will not be cached.");
+    } else {
+      // Get a list of all shaders in resource path and compile any that don't have a valid
+      // binary in the cache directory.
+      File[] shaderFiles =
+          new File(ShaderUtils.SHADER_PATH).listFiles((dir, name) -> name.endsWith(".fs"));
+      if (shaderFiles == null) {
+        shaderFiles = new File[0];
+      }
 
-    for (File file : shaderFiles) {
-      if (file.getName().endsWith(".fs")) {
+      for (File file : shaderFiles) {
         totalFiles++;
-
-        if (ShaderUtils.needsRecompile(file.getName())) {
-          ShaderUtils.buildShader(gl4, programId, file.getName());
-          compiledFiles++;
+        String shaderName = file.getName();
+        try {
+          String shaderText = ShaderUtils.loadResource(file);
+          boolean tePreProcess = ShaderUtils.usesTEPreProcess(shaderText);
+          String shaderBody = ShaderUtils.preprocessShader(shaderName, tePreProcess);
+          String cacheKey = ShaderUtils.getCacheKey(gl4, shaderBody);
+          if (!ShaderUtils.isCached(shaderName, cacheKey)) {
+            compiledFiles++;
+            int programId = gl4.glCreateProgram();
+            try {
+              ShaderUtils.buildShader(gl4, programId, shaderName, shaderBody, cacheKey);
+            } finally {
+              gl4.glDeleteProgram(programId);
+            }
+          }
+        } catch (Exception e) {
+          TE.error("Shader cache: could not precompile " + shaderName + ": " + e.getMessage());
         }
       }
     }
 
-    // free native resources and restore the previous GL context
-    gl4.glDeleteProgram(programId);
-    */
-
     surface.getContext().release();
 
     if (prevContext != null) prevContext.makeCurrent();
 
-    // TE.log("%d shaders processed in %d ms.", totalFiles, System.currentTimeMillis() - timer);
-    // TE.log("%d cache file%s updated.", compiledFiles, (compiledFiles == 1) ? "" : "s");
+    TE.log(
+        "Shader cache: %d shaders checked in %d ms, %d hits, %d misses compiled.",
+        totalFiles, System.currentTimeMillis() - timer, totalFiles - compiledFiles, compiledFiles);
+  }
+
+  /** Log the number of programs loaded from the cache vs. compiled from source so far */
+  public static void logCacheStats() {
+    TE.log(
+        "Shader cache: %d programs loaded from cache, %d compiled.",
+        ShaderUtils.getCacheHits(), ShaderUtils.getCacheMisses());
   }
 }
@@ -1,10 +1,7 @@
 package titanicsend.pattern.glengine;
 
-import com.jogamp.opengl.GL4;
 import heronarts.lx.model.LXModel;
 import heronarts.lx.parameter.LXParameter;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -37,13 +34,23 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
   // TODO(JKB): this combination of CPU and GPU render variables is a bit of a mess
   // but for now they're crammed in here so we can develop both on one branch
 
-  // CPU Mode: Pixel Pack Buffers (PBOs) for ping-pong output
-  private PingPongPBO ppPBOs;
+  // CPU Mode: Pixel Pack Buffers (PBOs) for asynchronous output
+  private ReadbackRing readback;
+
+  // CPU Mode: whether the last frame was read back through the GLEngine's shared atlas
+  private boolean batched = false;
+
+  // CPU Mode: texels of the current model to read back, and the view's compact index texture
+  private ReadbackLayout readbackLayout;
+  private int modelCompactTextureHandle = UNINITIALIZED;
+  private final ReadbackRing.Reader scatter =
+      (data, frame) -> this.readbackLayout.scatter(data, this.cpuBuffer);
 
   // Render buffers: ping-pong FBOs and textures
   private PingPongFBO ppFBOs;
 
-  // Texture handles for the current view model textures
+  // Current view model, and texture handles for its model textures
+  private LXModel model;
   private int modelCoordsTextureHandle = UNINITIALIZED;
   private int modelNeighborhoodTextureHandle = UNINITIALIZED;
 
@@ -52,6 +59,7 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
     private Uniform.Int1 lxModelCoords;
     private Uniform.Int1 backBuffer;
     private Uniform.Int1 lxModelNeighborhood;
+    private Uniform.Int1 gradients;
   }
 
   private final TEShaderUniforms uniforms = new TEShaderUniforms();
@@ -79,8 +87,6 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
 
   // Initialization
 
-  protected ByteBuffer imageBuffer;
-
   /**
    * Called at pattern initialization time to allocate and configure GPU buffers that are common to
    * all shaders.
@@ -94,10 +100,9 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
 
     // CPU Mode output
     if (this.lx.engine.renderMode.cpu) {
-      // Pixel Pack Buffers (PBOs) for ping-pong output
-      this.ppPBOs = new PingPongPBO();
-
-      this.imageBuffer = TEShader.allocateBackBuffer();
+      this.readback =
+          new ReadbackRing(
+              this.gl4, this.width, this.height, this.glEngine.readbackDepth.getValuei());
     }
 
     // assign shared uniform blocks to the shader's binding points
@@ -112,6 +117,25 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
     loadTextureFiles();
   }
 
+  @Override
+  protected void resizeShaderBuffers() {
+    this.ppFBOs.dispose();
+    this.ppFBOs = new PingPongFBO();
+
+    if (this.lx.engine.renderMode.cpu) {
+      this.readback.dispose();
+      this.readback =
+          new ReadbackRing(
+              this.gl4, this.width, this.height, this.glEngine.readbackDepth.getValuei());
+      this.batched = false;
+    }
+
+    // Model textures were recreated at the new canvas size
+    if (this.model != null) {
+      setModel(this.model);
+    }
+  }
+
   private void loadTextureFiles() {
     for (Map.Entry<Integer, String> iChannelFilename :
         this.fragmentShader.getiChannelFilenames().entrySet()) {
@@ -132,7 +156,6 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
   @Override
   public void onActive() {
     clearBackBuffer();
-    this.firstFrame = true;
     super.onActive();
   }
 
@@ -141,6 +164,7 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
     this.uniforms.lxModelCoords = getUniformInt1(UniformNames.LX_MODEL_COORDS);
     this.uniforms.backBuffer = getUniformInt1(UniformNames.BACK_BUFFER);
     this.uniforms.lxModelNeighborhood = getUniformInt1(UniformNames.LX_MODEL_NEIGHBORHOOD);
+    this.uniforms.gradients = getUniformInt1(UniformNames.LX_GRADIENTS);
   }
 
   @Override
@@ -153,25 +177,26 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
 
     // Swap render/copy buffers
     this.ppFBOs.swap();
-    if (this.lx.engine.renderMode.cpu) {
-      this.ppPBOs.swap();
-    }
 
     // Set audio waveform and fft data as a 512x2 texture on the specified audio
     // channel if it's a shadertoy shader, or iChannel0 if it's a local shader.
 
     // By Imperial Decree, the audio texture will heretofore always use texture unit
-    // GL_TEXTURE0, the model coordinate array will use GL_TEXTURE1 and the backbuffer
-    // texture will use GL_TEXTURE2. Other (shader-specific) textures will be automatically
-    // bound to sequential ids starting with GL_TEXTURE3.
+    // GL_TEXTURE0, the model coordinate array will use GL_TEXTURE1, the backbuffer
+    // texture will use GL_TEXTURE2, the model neighborhood GL_TEXTURE3 and the palette
+    // gradients GL_TEXTURE4. Other (shader-specific) textures will be automatically
+    // bound to sequential ids starting with GL_TEXTURE5.
     //
-    // The audio texture can be used by all shaders, and stays bound to texture
-    // unit 0 throughout the Chromatik run. All we have to do to use it is add the uniform.
+    // The audio and gradient textures can be used by all shaders, and stay bound
+    // throughout the Chromatik run. All we have to do to use them is add the uniform.
 
     // Note(JKB): encountered mystery error without rebinding the audio texture here:
     this.glEngine.bindAudioTexture();
     this.uniforms.audio.setValue(TEXTURE_UNIT_AUDIO);
 
+    this.glEngine.bindGradientTexture();
+    this.uniforms.gradients.setValue(TEXTURE_UNIT_GRADIENTS);
+
     // use the current view's model coordinates texture which
     // has already been loaded to the GPU by the texture cache manager.
     // All we need to do is bind it to right GL texture unit.
@@ -214,14 +239,13 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
 
   private void _clearBackBuffer() {
     this.ppFBOs.copy.clear();
-    // PBOs are only used in CPU mode
+    // PBOs are only used in CPU mode. Discard reads of frames from before the clear.
     if (this.lx.engine.renderMode.cpu) {
-      this.ppPBOs.copy.clear();
+      this.readback.reset();
+      this.glEngine.getReadbackAtlas().remove(this);
     }
   }
 
-  boolean firstFrame = true;
-
   @Override
   protected void render() {
     // Bind vertex array object
@@ -235,32 +259,7 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
 
     // JKB note: Retrofit of CPU compatibility for the GPU branch:
     if (this.lx.engine.renderMode.cpu && this.cpuBuffer != null) {
-      // Start async read of framebuffer into PBO
-      this.ppPBOs.render.startRead();
-
-      if (firstFrame) {
-        // Skip the first frame, PBO is empty
-        firstFrame = false;
-      } else {
-
-        // Map the other PBO for reading (from previous frame)
-        this.imageBuffer = this.ppPBOs.copy.getData();
-
-        if (this.imageBuffer != null) {
-          // Copy data from PBO to cpu buffer
-          IntBuffer src = this.imageBuffer.asIntBuffer();
-          // Clamp
-          int count = Math.min(src.remaining(), this.cpuBuffer.length);
-          // Safe copy
-          src.get(this.cpuBuffer, 0, count);
-
-          // Unmap the PBO
-          this.gl4.glUnmapBuffer(GL4.GL_PIXEL_PACK_BUFFER);
-        }
-      }
-
-      // Unbind the PBO
-      this.gl4.glBindBuffer(GL4.GL_PIXEL_PACK_BUFFER, 0);
+      readBack();
     }
 
     // No need to unbind VAO.
@@ -268,6 +267,39 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
     // And GLMixer will unbind the last FBO at the end of postMix().
   }
 
+  /**
+   * CPU Mode: transfer the points of the current model from the render FBO to the cpu buffer. Like
+   * a Java pattern on a view, points outside the view are left untouched.
+   */
+  private void readBack() {
+    if (this.readbackLayout.isCompact()) {
+      // Gather the view's points into the first rows of the compaction canvas
+      this.glEngine
+          .getCompactShader()
+          .compact(getRenderTexture(), this.modelCompactTextureHandle, this.readbackLayout.numRows);
+    }
+
+    if (this.glEngine.batchReadback.isOn()
+        && this.glEngine.getReadbackAtlas().add(this, this.readbackLayout)) {
+      // Output was copied to the shared atlas, which will fill the cpu buffer
+      this.batched = true;
+    } else {
+      if (this.batched) {
+        // Discard reads from before the atlas took over
+        this.batched = false;
+        this.readback.reset();
+      }
+
+      // Start async read of framebuffer into the PBO ring
+      this.readback.setDepth(this.glEngine.readbackDepth.getValuei());
+      this.readback.startRead(this.readbackLayout.numRows);
+
+      // Copy a completed frame to the cpu buffer. If none is ready yet,
+      // the cpu buffer keeps the previous frame.
+      this.readback.read(this.glEngine.readbackPolicy.getEnum(), this.scatter);
+    }
+  }
+
   @Override
   public void unbindTextures() {
     // Unbind textures (except for audio, which stays bound for all patterns)
@@ -290,6 +322,10 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
     this.cpuBuffer = cpuBuffer;
   }
 
+  int[] getCpuBuffer() {
+    return this.cpuBuffer;
+  }
+
   // Staging Uniforms: LX Model
 
   /**
@@ -300,9 +336,23 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
    * @param model Current LXModel of the calling context, which is a LXView or the global model
    */
   public void setModel(LXModel model) {
+    this.model = model;
     this.modelCoordsTextureHandle = this.glEngine.textureCache.getModelCoordsTexture(model);
     this.modelNeighborhoodTextureHandle =
         this.glEngine.textureCache.getModelNeighborhoodTexture(model);
+
+    // CPU mode: read back only the texels of this model's points
+    if (this.lx.engine.renderMode.cpu) {
+      this.readbackLayout = new ReadbackLayout(model, this.width, this.height);
+      if (this.readbackLayout.isCompact()) {
+        this.modelCompactTextureHandle = this.glEngine.textureCache.getModelCompactTexture(model);
+      }
+      // Reads in flight have the old layout
+      if (this.readback != null) {
+        this.readback.reset();
+      }
+      this.glEngine.getReadbackAtlas().remove(this);
+    }
   }
 
   // Releases native resources allocated by this shader.
@@ -315,7 +365,8 @@ public class TEShader extends GLShader implements GLShader.UniformSource {
     if (isInitialized()) {
       this.ppFBOs.dispose();
       if (this.lx.engine.renderMode.cpu) {
-        this.ppPBOs.dispose();
+        this.readback.dispose();
+        this.glEngine.getReadbackAtlas().remove(this);
       }
 
       // free any textures on ShaderToy channels
@@ -47,6 +47,10 @@ public class TextureManager implements LX.Listener {
   // [1] = (GL_RG32F) indices of the model points
   private final Map<LXModel, ModelTexture[]> modelTextures = new HashMap<>();
 
+  // CPU mode: for views with a sparse set of points, the (GL_RG32F) canvas
+  // position of each point, used by CompactShader. Created on demand.
+  private final Map<LXModel, ModelTexture> compactTextures = new HashMap<>();
+
   // Textures that have been loaded for a filename
   private final Map<String, StaticTexture> staticTextures = new HashMap<>();
 
@@ -84,17 +88,19 @@ public class TextureManager implements LX.Listener {
    *
    * @param p The model point
    * @param indices The float buffer for the index texture
-   * @param width The width of the texture
-   * @param height The height of the texture
+   * @param width The width of the index texture (the logical shader resolution)
+   * @param height The height of the index texture
+   * @param canvasWidth The width of the canvas the point's color is stored in
    */
-  private void setIndexNeighborhood(LXPoint p, FloatBuffer indices, int width, int height) {
+  private void setIndexNeighborhood(
+      LXPoint p, FloatBuffer indices, int width, int height, int canvasWidth) {
     // Calculate the center pixel coordinates from the point's normalized position
     int px = Math.round(p.xn * (width - 1));
     int py = Math.round(p.yn * (height - 1));
 
-    // Convert index to 2D coordinates
-    float val1 = (float) (p.index % width);
-    float val2 = (float) Math.floor(p.index / width);
+    // Convert index to 2D canvas coordinates
+    float val1 = (float) (p.index % canvasWidth);
+    float val2 = (float) Math.floor(p.index / canvasWidth);
 
     // Iterate over neighborhood centered at (px, py)
     for (int ny = py - 2; ny <= py + 2; ny++) {
@@ -137,15 +143,20 @@ public class TextureManager implements LX.Listener {
     if (modelPoints > enginePoints) {
       LX.error(
           String.format(
-              "GLEngine resolution (%d) too small for number of points in the model (%d). Re-run with higher --resolution WxH",
+              "GLEngine resolution (%d) too small for number of points in the model (%d). Re-run"
+                  + " with higher --resolution WxH",
               enginePoints, modelPoints));
     }
 
     // Create a FloatBuffer to hold the normalized coordinates of the model points
     FloatBuffer coords = GLBuffers.newDirectFloatBuffer(enginePoints * 3);
 
-    // Create a buffer to hold the indices of the model points
-    FloatBuffer indices = GLBuffers.newDirectFloatBuffer(enginePoints * 2);
+    // Create a buffer to hold the indices of the model points. This is a spatial lookup
+    // addressed by shaders in iResolution pixels, so it is sized to the logical resolution
+    // rather than the canvas.
+    int indexWidth = this.glEngine.getResolutionWidth();
+    int indexHeight = this.glEngine.getResolutionHeight();
+    FloatBuffer indices = GLBuffers.newDirectFloatBuffer(indexWidth * indexHeight * 2);
 
     // Initialize with NaNs for coordinates and indices
     coords.rewind();
@@ -154,6 +165,8 @@ public class TextureManager implements LX.Listener {
       coords.put(Float.NaN);
       coords.put(Float.NaN);
       coords.put(Float.NaN);
+    }
+    for (int i = 0; i < indexWidth * indexHeight; i++) {
       indices.put(Float.NaN);
       indices.put(Float.NaN);
     }
@@ -165,11 +178,11 @@ public class TextureManager implements LX.Listener {
       coords.put(destIndex + 2, p.zn);
 
       // save normalized coordinates to a rectangular texture index
-      // using the model's width and height. We actually write to
+      // using the logical resolution. We actually write to
       // a rectangular neighborhood around the target pixel to compensate
       // for rounding errors in sampling, and the plain old non-contiguous
       // nature of the model points.
-      setIndexNeighborhood(p, indices, width, height);
+      setIndexNeighborhood(p, indices, indexWidth, indexHeight, width);
     }
 
     coords.rewind();
@@ -200,7 +213,15 @@ public class TextureManager implements LX.Listener {
 
     // load the neighborhood data into the texture
     gl4.glTexImage2D(
-        GL4.GL_TEXTURE_2D, 0, GL4.GL_RG32F, width, height, 0, GL4.GL_RG, GL4.GL_FLOAT, indices);
+        GL4.GL_TEXTURE_2D,
+        0,
+        GL4.GL_RG32F,
+        indexWidth,
+        indexHeight,
+        0,
+        GL4.GL_RG,
+        GL4.GL_FLOAT,
+        indices);
 
     gl4.glBindTexture(GL_TEXTURE_2D, 0);
     gl4.glActiveTexture(GL_TEXTURE0);
@@ -272,6 +293,52 @@ public class TextureManager implements LX.Listener {
     return getModelTexture(model, TEXTURE_UNIT_MODEL_NEIGHBORHOOD);
   }
 
+  /**
+   * Get the texture used by CompactShader to gather the output texels of a view's points, creating
+   * it if needed. Texel i holds the canvas position of model.points[i].
+   *
+   * @param model The model (view) to compact
+   * @return The texture handle of the view's compact index texture
+   */
+  public int getModelCompactTexture(LXModel model) {
+    ModelTexture texture = this.compactTextures.get(model);
+    if (texture == null) {
+      texture = createCompactTexture(model);
+      this.compactTextures.put(model, texture);
+    }
+    return texture.getHandle();
+  }
+
+  private ModelTexture createCompactTexture(LXModel model) {
+    this.canvas.getContext().makeCurrent();
+    ModelTexture texture = new ModelTexture();
+
+    int width = this.glEngine.getWidth();
+    int height = this.glEngine.getHeight();
+    int numPoints = Math.min(model.points.length, width * height);
+    int numRows = Math.clamp((numPoints + width - 1) / width, 1, height);
+
+    FloatBuffer positions = GLBuffers.newDirectFloatBuffer(width * numRows * 2);
+    for (int i = 0; i < numPoints; i++) {
+      int index = model.points[i].index;
+      positions.put(i * 2, index % width);
+      positions.put(i * 2 + 1, index / width);
+    }
+    positions.rewind();
+
+    gl4.glActiveTexture(GL_TEXTURE0);
+    gl4.glBindTexture(GL_TEXTURE_2D, texture.getHandle());
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+    gl4.glTexImage2D(
+        GL4.GL_TEXTURE_2D, 0, GL4.GL_RG32F, width, numRows, 0, GL4.GL_RG, GL_FLOAT, positions);
+    gl4.glBindTexture(GL_TEXTURE_2D, 0);
+
+    return texture;
+  }
+
   /**
    * Load a static texture from a file and return the texture *handle*. If the texture is already
    * loaded, just increment the ref count and return the existing texture handle.
@@ -294,6 +361,17 @@ public class TextureManager implements LX.Listener {
     }
   }
 
+  /**
+   * Called by GLEngine when the canvas was resized. Model textures are laid out on the canvas, so
+   * they are discarded and recreated at the new size when shaders next ask for them.
+   */
+  public void resize() {
+    if (!initialized) {
+      return;
+    }
+    clearModelTextures();
+  }
+
   /** Delete all existing lxmodel-derived textures (both slots) and clear the map. */
   private void clearModelTextures() {
     for (ModelTexture[] arr : this.modelTextures.values()) {
@@ -307,6 +385,11 @@ public class TextureManager implements LX.Listener {
       }
     }
     this.modelTextures.clear();
+
+    for (ModelTexture texture : this.compactTextures.values()) {
+      texture.dispose();
+    }
+    this.compactTextures.clear();
   }
 
   /**
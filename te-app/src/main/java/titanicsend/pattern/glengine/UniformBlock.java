@@ -0,0 +1,101 @@
+package titanicsend.pattern.glengine;
+
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.util.GLBuffers;
+import java.nio.ByteBuffer;
+import titanicsend.pattern.yoffa.shader_engine.Uniform;
+
+/**
+ * A std140 uniform block that belongs to a single shader program, such as the PerShaderBlock of
+ * common control uniforms in the TE shader template. Uniform objects for the block's members write
+ * their values into a CPU copy of the block, which is handed to the GPU through a UniformRing with
+ * a single copy when any member has changed, instead of one glUniform call per uniform.
+ *
+ * <p>Member offsets are queried from the linked program, so the Java side doesn't need to mirror
+ * the std140 layout of the block.
+ */
+public class UniformBlock {
+
+  private final GL4 gl4;
+  private final int programId;
+  private final int blockIndex;
+  private final int binding;
+
+  // CPU copy of the block, written by member uniforms
+  private final ByteBuffer data;
+  private final UniformRing ring;
+  private boolean modified = true;
+
+  /**
+   * Look up a uniform block in a linked program and allocate storage for it.
+   *
+   * @param binding Uniform block binding point the block will be bound to before drawing
+   * @return The block, or null if the program does not use a block with this name
+   */
+  public static UniformBlock create(GL4 gl4, int programId, String blockName, int binding) {
+    int blockIndex = gl4.glGetUniformBlockIndex(programId, blockName);
+    if (blockIndex == GL4.GL_INVALID_INDEX) {
+      return null;
+    }
+    return new UniformBlock(gl4, programId, blockIndex, binding);
+  }
+
+  private UniformBlock(GL4 gl4, int programId, int blockIndex, int binding) {
+    this.gl4 = gl4;
+    this.programId = programId;
+    this.blockIndex = blockIndex;
+    this.binding = binding;
+
+    gl4.glUniformBlockBinding(programId, blockIndex, binding);
+
+    int[] size = new int[1];
+    gl4.glGetActiveUniformBlockiv(programId, blockIndex, GL4.GL_UNIFORM_BLOCK_DATA_SIZE, size, 0);
+    this.data = GLBuffers.newDirectByteBuffer(size[0]);
+    this.ring = new UniformRing(gl4, size[0]);
+  }
+
+  /**
+   * If a uniform is a member of this block, redirect its updates into the block.
+   *
+   * @return True if the uniform is a member of this block
+   */
+  public boolean addMember(Uniform uniform) {
+    int[] index = new int[1];
+    this.gl4.glGetUniformIndices(this.programId, 1, new String[] {uniform.name}, index, 0);
+    if (index[0] == GL4.GL_INVALID_INDEX) {
+      return false;
+    }
+    int[] param = new int[1];
+    this.gl4.glGetActiveUniformsiv(
+        this.programId, 1, index, 0, GL4.GL_UNIFORM_BLOCK_INDEX, param, 0);
+    if (param[0] != this.blockIndex) {
+      return false;
+    }
+    this.gl4.glGetActiveUniformsiv(this.programId, 1, index, 0, GL4.GL_UNIFORM_OFFSET, param, 0);
+    uniform.setBlock(this.data, param[0]);
+    return true;
+  }
+
+  /** Called when a member uniform has written a new value into the block */
+  public void setModified() {
+    this.modified = true;
+  }
+
+  /** Transfer the block to the GPU if it was modified, and bind it for the next draw call */
+  public void bind() {
+    if (this.modified) {
+      this.modified = false;
+      this.ring.write(this.data);
+    }
+    this.ring.bind(this.binding);
+  }
+
+  /** Called after the draw call that used the block */
+  public void fence() {
+    this.ring.fence();
+  }
+
+  public void dispose() {
+    this.ring.dispose();
+  }
+}
@@ -0,0 +1,140 @@
+package titanicsend.pattern.glengine;
+
+import com.jogamp.opengl.GL4;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * GPU storage for a uniform block whose contents change every frame.
+ *
+ * <p>Where ARB_buffer_storage is available (OpenGL 4.4+) the buffer holds three copies of the block
+ * and stays persistently mapped. Each write goes straight into the next copy with a plain memory
+ * copy, and a fence placed after the draw calls that read a copy keeps the CPU from overwriting it
+ * while the GPU may still be reading it. Without it, notably on macOS which stops at OpenGL 4.1,
+ * the ring falls back to a single uniform buffer updated with glBufferSubData().
+ */
+public class UniformRing {
+
+  /** Number of copies of the block in a persistently mapped ring */
+  public static final int DEPTH = 3;
+
+  /** Maximum time to wait for the GPU to release a copy before overwriting it anyway */
+  private static final long MAX_WAIT_NANOS = 100_000_000L;
+
+  private final GL4 gl4;
+  private final int size;
+  private final int stride;
+  private final boolean persistent;
+  private final int[] handle = new int[1];
+  private ByteBuffer mapped;
+  private final long[] fences = new long[DEPTH];
+
+  // Copy of the block that was written last
+  private int current = 0;
+  private boolean needsFence = false;
+
+  /**
+   * @param gl4 GL context the ring will be used in
+   * @param size Size of the uniform block in bytes
+   */
+  public UniformRing(GL4 gl4, int size) {
+    this.gl4 = gl4;
+    this.size = size;
+    this.persistent = isPersistentMappingAvailable(gl4);
+
+    gl4.glGenBuffers(1, this.handle, 0);
+    gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, this.handle[0]);
+    if (this.persistent) {
+      // Each copy must start at a multiple of the uniform buffer offset alignment
+      int[] alignment = new int[1];
+      gl4.glGetIntegerv(GL4.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT, alignment, 0);
+      this.stride = (size + alignment[0] - 1) / alignment[0] * alignment[0];
+
+      final long capacity = (long) this.stride * DEPTH;
+      final int flags = GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT;
+      gl4.glBufferStorage(GL4.GL_UNIFORM_BUFFER, capacity, null, flags);
+      this.mapped = gl4.glMapBufferRange(GL4.GL_UNIFORM_BUFFER, 0, capacity, flags);
+      this.mapped.order(ByteOrder.nativeOrder());
+    } else {
+      this.stride = size;
+      gl4.glBufferData(GL4.GL_UNIFORM_BUFFER, size, null, GL4.GL_DYNAMIC_DRAW);
+    }
+    gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, 0);
+  }
+
+  private static boolean isPersistentMappingAvailable(GL4 gl4) {
+    return gl4.isExtensionAvailable("GL_ARB_buffer_storage");
+  }
+
+  public boolean isPersistent() {
+    return this.persistent;
+  }
+
+  /**
+   * Copy new contents of the block to the GPU. Draw calls issued after the next bind() will see
+   * them.
+   *
+   * @param data Block contents, from index 0 to the size of the block
+   */
+  public void write(ByteBuffer data) {
+    if (this.persistent) {
+      // Place the fence for the previous copy if the caller didn't
+      fence();
+      this.current = (this.current + 1) % DEPTH;
+      waitForCopy(this.current);
+      this.mapped.put(this.current * this.stride, data, 0, this.size);
+      this.needsFence = true;
+    } else {
+      this.gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, this.handle[0]);
+      this.gl4.glBufferSubData(GL4.GL_UNIFORM_BUFFER, 0, this.size, data.duplicate().rewind());
+      this.gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, 0);
+    }
+  }
+
+  /** Bind the latest copy of the block to a uniform block binding point */
+  public void bind(int binding) {
+    this.gl4.glBindBufferRange(
+        GL4.GL_UNIFORM_BUFFER,
+        binding,
+        this.handle[0],
+        (long) this.current * this.stride,
+        this.size);
+  }
+
+  /**
+   * Mark the end of the draw calls that read the latest copy. Until the GPU has passed this point
+   * the copy won't be overwritten.
+   */
+  public void fence() {
+    if (this.needsFence) {
+      this.fences[this.current] = this.gl4.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+      this.needsFence = false;
+    }
+  }
+
+  private void waitForCopy(int copy) {
+    if (this.fences[copy] != 0) {
+      // Normally signaled long ago, as the copy was written DEPTH writes earlier
+      this.gl4.glClientWaitSync(this.fences[copy], GL4.GL_SYNC_FLUSH_COMMANDS_BIT, MAX_WAIT_NANOS);
+      this.gl4.glDeleteSync(this.fences[copy]);
+      this.fences[copy] = 0;
+    }
+  }
+
+  /** Release GPU resources */
+  public void dispose() {
+    for (int i = 0; i < DEPTH; i++) {
+      if (this.fences[i] != 0) {
+        this.gl4.glDeleteSync(this.fences[i]);
+        this.fences[i] = 0;
+      }
+    }
+    if (this.persistent) {
+      this.gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, this.handle[0]);
+      this.gl4.glUnmapBuffer(GL4.GL_UNIFORM_BUFFER);
+      this.gl4.glBindBuffer(GL4.GL_UNIFORM_BUFFER, 0);
+      this.mapped = null;
+    }
+    this.gl4.glDeleteBuffers(1, this.handle, 0);
+  }
+}
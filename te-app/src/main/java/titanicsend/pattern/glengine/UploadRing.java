@@ -0,0 +1,181 @@
+package titanicsend.pattern.glengine;
+
+import static com.jogamp.opengl.GL.GL_BGRA;
+import static com.jogamp.opengl.GL.GL_CLAMP_TO_EDGE;
+import static com.jogamp.opengl.GL.GL_NEAREST;
+import static com.jogamp.opengl.GL.GL_RGBA8;
+import static com.jogamp.opengl.GL.GL_TEXTURE0;
+import static com.jogamp.opengl.GL.GL_TEXTURE_2D;
+import static com.jogamp.opengl.GL.GL_TEXTURE_MAG_FILTER;
+import static com.jogamp.opengl.GL.GL_TEXTURE_MIN_FILTER;
+import static com.jogamp.opengl.GL.GL_TEXTURE_WRAP_S;
+import static com.jogamp.opengl.GL.GL_TEXTURE_WRAP_T;
+import static com.jogamp.opengl.GL.GL_UNSIGNED_BYTE;
+
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.util.GLBuffers;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A canvas-sized texture that is updated from a CPU color buffer every frame, such as the output of
+ * a Java pattern in GPU render mode. Colors are written into a Pixel Unpack Buffer (PBO) and the
+ * texture is updated from the PBO, so glTexSubImage2D() returns without waiting for the transfer.
+ * Point i of the model goes to texel i of the canvas, the same layout as the model coords texture.
+ *
+ * <p>Where ARB_buffer_storage is available the PBO holds three copies of the canvas and stays
+ * persistently mapped, with a fence behind each transfer so that a copy isn't overwritten while the
+ * GPU may still be reading it. Otherwise a single PBO is orphaned with glBufferData() before each
+ * upload, letting the driver hand out fresh storage while the previous transfer completes.
+ */
+public class UploadRing {
+
+  /** Number of copies of the canvas in a persistently mapped ring */
+  public static final int DEPTH = 3;
+
+  /** Maximum time to wait for the GPU to release a copy before overwriting it anyway */
+  private static final long MAX_WAIT_NANOS = 100_000_000L;
+
+  private final GL4 gl4;
+  private final int width;
+  private final int height;
+  private final int size;
+  private final boolean persistent;
+
+  private final int[] textureHandle = new int[1];
+  private final int[] pboHandle = new int[1];
+
+  // Persistent mode: mapped view of all copies, one BGRA int per texel
+  private IntBuffer mapped;
+  private final long[] fences = new long[DEPTH];
+  private int current = 0;
+
+  public UploadRing(GL4 gl4, int width, int height) {
+    this.gl4 = gl4;
+    this.width = width;
+    this.height = height;
+    this.size = width * height * 4;
+    this.persistent = gl4.isExtensionAvailable("GL_ARB_buffer_storage");
+
+    // Texture starts out black and transparent
+    gl4.glGenTextures(1, this.textureHandle, 0);
+    gl4.glActiveTexture(GL_TEXTURE0);
+    gl4.glBindTexture(GL_TEXTURE_2D, this.textureHandle[0]);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+    gl4.glTexImage2D(
+        GL_TEXTURE_2D,
+        0,
+        GL_RGBA8,
+        width,
+        height,
+        0,
+        GL_BGRA,
+        GL_UNSIGNED_BYTE,
+        GLBuffers.newDirectByteBuffer(this.size));
+    gl4.glBindTexture(GL_TEXTURE_2D, 0);
+
+    gl4.glGenBuffers(1, this.pboHandle, 0);
+    gl4.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, this.pboHandle[0]);
+    if (this.persistent) {
+      final long capacity = (long) this.size * DEPTH;
+      final int flags = GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT;
+      gl4.glBufferStorage(GL4.GL_PIXEL_UNPACK_BUFFER, capacity, null, flags);
+      ByteBuffer buffer = gl4.glMapBufferRange(GL4.GL_PIXEL_UNPACK_BUFFER, 0, capacity, flags);
+      this.mapped = buffer.order(ByteOrder.nativeOrder()).asIntBuffer();
+    } else {
+      gl4.glBufferData(GL4.GL_PIXEL_UNPACK_BUFFER, this.size, null, GL4.GL_STREAM_DRAW);
+    }
+    gl4.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, 0);
+  }
+
+  public int getWidth() {
+    return this.width;
+  }
+
+  public int getHeight() {
+    return this.height;
+  }
+
+  /** Handle of the texture that receives the uploads */
+  public int getTexture() {
+    return this.textureHandle[0];
+  }
+
+  /**
+   * Start the transfer of a color buffer to the texture. Only the rows holding the colors are
+   * updated. Draw calls issued after this method returns will see the new colors.
+   *
+   * @param colors One ARGB color per model point
+   */
+  public void upload(int[] colors) {
+    final int numTexels = Math.min(colors.length, this.width * this.height);
+    final int numRows = (numTexels + this.width - 1) / this.width;
+    if (numRows == 0) {
+      return;
+    }
+
+    this.gl4.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, this.pboHandle[0]);
+    long offset = 0;
+    if (this.persistent) {
+      this.current = (this.current + 1) % DEPTH;
+      waitForCopy(this.current);
+      final int index = this.current * this.width * this.height;
+      this.mapped.put(index, colors, 0, numTexels);
+      offset = (long) index * 4;
+    } else {
+      // Orphan the previous storage, it may still be in use by the previous transfer
+      this.gl4.glBufferData(GL4.GL_PIXEL_UNPACK_BUFFER, this.size, null, GL4.GL_STREAM_DRAW);
+      ByteBuffer buffer =
+          this.gl4.glMapBufferRange(
+              GL4.GL_PIXEL_UNPACK_BUFFER,
+              0,
+              (long) numTexels * 4,
+              GL4.GL_MAP_WRITE_BIT | GL4.GL_MAP_INVALIDATE_BUFFER_BIT);
+      buffer.order(ByteOrder.nativeOrder()).asIntBuffer().put(colors, 0, numTexels);
+      this.gl4.glUnmapBuffer(GL4.GL_PIXEL_UNPACK_BUFFER);
+    }
+
+    // Source is the bound PBO, so this queues the transfer and returns
+    this.gl4.glActiveTexture(GL_TEXTURE0);
+    this.gl4.glBindTexture(GL_TEXTURE_2D, this.textureHandle[0]);
+    this.gl4.glTexSubImage2D(
+        GL_TEXTURE_2D, 0, 0, 0, this.width, numRows, GL_BGRA, GL_UNSIGNED_BYTE, offset);
+    this.gl4.glBindTexture(GL_TEXTURE_2D, 0);
+    this.gl4.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, 0);
+
+    if (this.persistent) {
+      this.fences[this.current] = this.gl4.glFenceSync(GL4.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+  }
+
+  private void waitForCopy(int copy) {
+    if (this.fences[copy] != 0) {
+      // Normally signaled long ago, as the copy was written DEPTH uploads earlier
+      this.gl4.glClientWaitSync(this.fences[copy], GL4.GL_SYNC_FLUSH_COMMANDS_BIT, MAX_WAIT_NANOS);
+      this.gl4.glDeleteSync(this.fences[copy]);
+      this.fences[copy] = 0;
+    }
+  }
+
+  /** Release GPU resources */
+  public void dispose() {
+    for (int i = 0; i < DEPTH; i++) {
+      if (this.fences[i] != 0) {
+        this.gl4.glDeleteSync(this.fences[i]);
+        this.fences[i] = 0;
+      }
+    }
+    if (this.persistent) {
+      this.gl4.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, this.pboHandle[0]);
+      this.gl4.glUnmapBuffer(GL4.GL_PIXEL_UNPACK_BUFFER);
+      this.gl4.glBindBuffer(GL4.GL_PIXEL_UNPACK_BUFFER, 0);
+      this.mapped = null;
+    }
+    this.gl4.glDeleteBuffers(1, this.pboHandle, 0);
+    this.gl4.glDeleteTextures(1, this.textureHandle, 0);
+  }
+}
@@ -44,6 +44,12 @@ public class BlendShader extends GLShader implements GLShader.UniformSource {
     this.fbo = new FBO();
   }
 
+  @Override
+  protected void resizeShaderBuffers() {
+    this.fbo.dispose();
+    this.fbo = new FBO();
+  }
+
   public void setDst(int iDst) {
     this.iDst = iDst;
   }
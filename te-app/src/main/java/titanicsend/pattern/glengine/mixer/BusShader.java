@@ -53,6 +53,16 @@ public class BusShader extends GLShader implements GLShader.UniformSource {
     this.ppPBOs = new PingPongPBO();
   }
 
+  @Override
+  protected void resizeShaderBuffers() {
+    this.fbo.dispose();
+    this.fbo = new FBO();
+    this.ppPBOs.dispose();
+    this.ppPBOs = new PingPongPBO();
+    // New PBOs are empty
+    this.firstFrame = true;
+  }
+
   public void setLevel(float level) {
     this.level = level;
   }
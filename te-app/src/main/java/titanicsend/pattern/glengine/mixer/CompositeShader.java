@@ -0,0 +1,157 @@
+package titanicsend.pattern.glengine.mixer;
+
+import com.jogamp.common.nio.Buffers;
+import heronarts.lx.LX;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import titanicsend.pattern.glengine.GLShader;
+import titanicsend.pattern.yoffa.shader_engine.Uniform;
+
+/**
+ * Blends up to MAX_LAYERS textures onto a destination texture in a single pass, each with its own
+ * blend mode, level and view mask. Used for composite channels, where one BlendShader pass per
+ * pattern would read and write the whole canvas once for every pattern. Each layer is only blended
+ * at the texels set in its view mask, the same as LX blending over a pattern's view.
+ */
+public class CompositeShader extends GLShader implements GLShader.UniformSource {
+
+  /**
+   * Maximum number of layers per pass, must match MAX_LAYERS in blendComposite.fs. Each layer takes
+   * two texture units, and together with the destination this has to fit in the 16 units that
+   * OpenGL 4.1 guarantees, after the units reserved by GLShader.
+   */
+  public static final int MAX_LAYERS = 5;
+
+  // Framebuffer object (FBO) for rendering
+  private FBO fbo;
+
+  // Input texture handles
+  private int iDst = -1;
+  private final int[] iSrc = new int[MAX_LAYERS];
+  private final int[] iView = new int[MAX_LAYERS];
+  private final FloatBuffer level = Buffers.newDirectFloatBuffer(MAX_LAYERS);
+  private final IntBuffer mode = Buffers.newDirectIntBuffer(MAX_LAYERS);
+  private int numLayers = 0;
+
+  private static class CompositeUniforms {
+    private Uniform.Sampler2D iDst;
+    private final Uniform.Sampler2D[] iSrc = new Uniform.Sampler2D[MAX_LAYERS];
+    private final Uniform.Sampler2D[] iView = new Uniform.Sampler2D[MAX_LAYERS];
+    private Uniform.Float1Vec level;
+    private Uniform.Int1Vec mode;
+    private Uniform.Int1 numLayers;
+  }
+
+  private final CompositeUniforms uniforms = new CompositeUniforms();
+  private boolean initializedUniforms = false;
+
+  public CompositeShader(LX lx) {
+    super(config(lx).withFilename("blendComposite.fs"));
+
+    addUniformSource(this);
+  }
+
+  @Override
+  protected boolean useTEPreProcess() {
+    return false;
+  }
+
+  @Override
+  protected void allocateShaderBuffers() {
+    super.allocateShaderBuffers();
+
+    // FBO (framebuffer and texture) for rendering
+    this.fbo = new FBO();
+  }
+
+  @Override
+  protected void resizeShaderBuffers() {
+    this.fbo.dispose();
+    this.fbo = new FBO();
+  }
+
+  /** Start a new pass that blends layers onto the dst texture */
+  public void setDst(int iDst) {
+    this.iDst = iDst;
+    this.numLayers = 0;
+  }
+
+  /**
+   * Add a layer to the current pass.
+   *
+   * @param iSrc Layer texture
+   * @param iView Mask texture of the texels the layer is blended at
+   * @return False if the pass is full
+   */
+  public boolean addLayer(int iSrc, int iView, float level, GLBlend blend) {
+    if (this.numLayers >= MAX_LAYERS) {
+      return false;
+    }
+    this.iSrc[this.numLayers] = iSrc;
+    this.iView[this.numLayers] = iView;
+    this.level.put(this.numLayers, level);
+    this.mode.put(this.numLayers, blend.getMode());
+    this.numLayers++;
+    return true;
+  }
+
+  private void initializeUniforms() {
+    this.uniforms.iDst = getUniformSampler2D("iDst");
+    for (int i = 0; i < MAX_LAYERS; i++) {
+      this.uniforms.iSrc[i] = getUniformSampler2D("iSrc[" + i + "]");
+      this.uniforms.iView[i] = getUniformSampler2D("iView[" + i + "]");
+    }
+    this.uniforms.level = getUniformFloat1Vec("level");
+    this.uniforms.mode = getUniformInt1Vec("mode");
+    this.uniforms.numLayers = getUniformInt1("numLayers");
+  }
+
+  @Override
+  public void setUniforms(GLShader s) {
+    if (!initializedUniforms) {
+      this.initializedUniforms = true;
+      initializeUniforms();
+    }
+
+    this.uniforms.iDst.setValue(this.iDst);
+    for (int i = 0; i < MAX_LAYERS; i++) {
+      // Unused samplers still need a valid texture bound
+      this.uniforms.iSrc[i].setValue(i < this.numLayers ? this.iSrc[i] : this.iDst);
+      this.uniforms.iView[i].setValue(i < this.numLayers ? this.iView[i] : this.iDst);
+    }
+    this.uniforms.level.setValue(this.level);
+    this.uniforms.mode.setValue(this.mode);
+    this.uniforms.numLayers.setValue(this.numLayers);
+  }
+
+  @Override
+  protected void render() {
+    bindVAO();
+    this.fbo.bind();
+    drawElements();
+  }
+
+  @Override
+  public void unbindTextures() {
+    this.uniforms.iDst.unbind();
+    for (Uniform.Sampler2D iSrc : this.uniforms.iSrc) {
+      iSrc.unbind();
+    }
+    for (Uniform.Sampler2D iView : this.uniforms.iView) {
+      iView.unbind();
+    }
+  }
+
+  /** Retrieve the output texture handle */
+  public int getRenderTexture() {
+    return this.fbo.getTextureHandle();
+  }
+
+  @Override
+  public void dispose() {
+    if (isInitialized()) {
+      this.fbo.dispose();
+    }
+    super.dispose();
+  }
+}
@@ -0,0 +1,75 @@
+package titanicsend.pattern.glengine.mixer;
+
+import heronarts.lx.LX;
+import heronarts.lx.blend.AddBlend;
+import heronarts.lx.blend.BurnBlend;
+import heronarts.lx.blend.DarkestBlend;
+import heronarts.lx.blend.DifferenceBlend;
+import heronarts.lx.blend.DissolveBlend;
+import heronarts.lx.blend.DodgeBlend;
+import heronarts.lx.blend.HighlightBlend;
+import heronarts.lx.blend.LXBlend;
+import heronarts.lx.blend.LightestBlend;
+import heronarts.lx.blend.MultiplyBlend;
+import heronarts.lx.blend.NormalBlend;
+import heronarts.lx.blend.ScreenBlend;
+import heronarts.lx.blend.SpotlightBlend;
+import heronarts.lx.blend.SubtractBlend;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GPU equivalents of the LX blend modes. Each mode has its own two-input shader for BlendShader,
+ * and the same math is available by mode number in the multi-input blendComposite.fs, where the
+ * mode numbers must match the order of this enum.
+ */
+public enum GLBlend {
+  NORMAL(NormalBlend.class, "blendNormal.fs"),
+  ADD(AddBlend.class, "blendAdd.fs"),
+  SUBTRACT(SubtractBlend.class, "blendSubtract.fs"),
+  MULTIPLY(MultiplyBlend.class, "blendMultiply.fs"),
+  SCREEN(ScreenBlend.class, "blendScreen.fs"),
+  LIGHTEST(LightestBlend.class, "blendLightest.fs"),
+  DARKEST(DarkestBlend.class, "blendDarkest.fs"),
+  DIFFERENCE(DifferenceBlend.class, "blendDifference.fs"),
+  DISSOLVE(DissolveBlend.class, "blendDissolve.fs"),
+  DODGE(DodgeBlend.class, "blendDodge.fs"),
+  BURN(BurnBlend.class, "blendBurn.fs"),
+  HIGHLIGHT(HighlightBlend.class, "blendHighlight.fs"),
+  SPOTLIGHT(SpotlightBlend.class, "blendSpotlight.fs");
+
+  private final Class<? extends LXBlend> blendClass;
+  public final String shaderName;
+
+  GLBlend(Class<? extends LXBlend> blendClass, String shaderName) {
+    this.blendClass = blendClass;
+    this.shaderName = shaderName;
+  }
+
+  /** Mode number of this blend in blendComposite.fs */
+  public int getMode() {
+    return ordinal();
+  }
+
+  // Blend classes without a GPU version that have been reported
+  private static final Set<Class<?>> unsupported = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Find the GPU blend for an LX blend. Blends without a GPU version fall back to Add, and an error
+   * is logged the first time each one is seen.
+   */
+  public static GLBlend get(LXBlend blend) {
+    for (GLBlend glBlend : values()) {
+      if (glBlend.blendClass.isInstance(blend)) {
+        return glBlend;
+      }
+    }
+    if (blend != null && unsupported.add(blend.getClass())) {
+      LX.error(
+          "GLBlend: "
+              + blend.getClass().getName()
+              + " has no GPU version, the GPU mixer blends it as Add");
+    }
+    return ADD;
+  }
+}
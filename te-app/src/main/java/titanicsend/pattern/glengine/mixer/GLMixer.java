@@ -1,22 +1,26 @@
 package titanicsend.pattern.glengine.mixer;
 
+import static com.jogamp.opengl.GL.GL_COLOR_ATTACHMENT0;
 import static com.jogamp.opengl.GL.GL_FRAMEBUFFER;
 import static com.jogamp.opengl.GL.GL_LINEAR;
+import static com.jogamp.opengl.GL.GL_NEAREST;
 import static com.jogamp.opengl.GL.GL_RGBA;
 import static com.jogamp.opengl.GL.GL_RGBA8;
 import static com.jogamp.opengl.GL.GL_TEXTURE0;
 import static com.jogamp.opengl.GL.GL_TEXTURE_2D;
 import static com.jogamp.opengl.GL.GL_TEXTURE_MAG_FILTER;
 import static com.jogamp.opengl.GL.GL_TEXTURE_MIN_FILTER;
+import static com.jogamp.opengl.GL.GL_UNPACK_ALIGNMENT;
 import static com.jogamp.opengl.GL.GL_UNSIGNED_BYTE;
 import static titanicsend.pattern.glengine.GLShaderPattern.NO_TEXTURE;
 
 import com.jogamp.opengl.GL4;
+import heronarts.lx.GpuDevice;
 import heronarts.lx.LX;
 import heronarts.lx.LXEngine;
 import heronarts.lx.ModelBuffer;
 import heronarts.lx.blend.LXBlend;
-import heronarts.lx.blend.MultiplyBlend;
+import heronarts.lx.color.LXColor;
 import heronarts.lx.effect.LXEffect;
 import heronarts.lx.mixer.LXAbstractChannel;
 import heronarts.lx.mixer.LXBus;
@@ -24,17 +28,25 @@ import heronarts.lx.mixer.LXChannel;
 import heronarts.lx.mixer.LXGroup;
 import heronarts.lx.mixer.LXMasterBus;
 import heronarts.lx.mixer.LXMixerEngine;
+import heronarts.lx.mixer.LXPatternEngine.AutoCycleMode;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
 import heronarts.lx.parameter.LXParameterListener;
 import heronarts.lx.pattern.LXPattern;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import titanicsend.ndi.NDIOutShaderEffect;
 import titanicsend.pattern.glengine.GLEngine;
 import titanicsend.pattern.glengine.GLShaderEffect;
 import titanicsend.pattern.glengine.GLShaderPattern;
+import titanicsend.pattern.glengine.ReadbackRing;
+import titanicsend.pattern.glengine.UploadRing;
 
 /** Experimental OpenGL-based LX mixer */
 public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer {
@@ -66,6 +78,47 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
   private int cueBusTexture = UNINITIALIZED;
   private int auxBusTexture = UNINITIALIZED;
 
+  // Textures of CPU patterns that haven't been uploaded for this many frames are released
+  private static final int UPLOAD_RELEASE_FRAMES = 60;
+
+  /** Output of a CPU pattern on the GPU */
+  private static class PatternUpload {
+    private final UploadRing ring;
+    private long frame;
+
+    private PatternUpload(UploadRing ring) {
+      this.ring = ring;
+    }
+  }
+
+  // Framebuffer for reading back bus textures, see JavaEffectStage
+  private final int[] readFramebuffer = new int[1];
+
+  // Textures holding the output of CPU patterns, see uploadPatternColors()
+  private final Map<LXPattern, PatternUpload> patternUploads = new HashMap<>();
+  private long frameCount = 0;
+
+  // Colors of a pattern with the points outside its view cleared, see maskToView()
+  private int[] viewColors = new int[0];
+
+  /** Texture marking the points of a view, restricts a composite blend to the pattern's view */
+  private static class ViewMask {
+    private final int texture;
+    private final int generation;
+    private long frame;
+
+    private ViewMask(int texture, int generation) {
+      this.texture = texture;
+      this.generation = generation;
+    }
+  }
+
+  // Masks of the views of composite patterns, see getViewMask()
+  private final Map<LXModel, ViewMask> viewMasks = new HashMap<>();
+
+  // Mask with every texel set, for patterns that use the whole model
+  private int fullViewMask = UNINITIALIZED;
+
   public GLMixer(LX lx, GLEngine glEngine) {
     this.lx = lx;
     this.glEngine = glEngine;
@@ -88,16 +141,36 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
     this.gl4 = gl4;
 
     // Create the default starting texture for buses
+    createBlackBackground();
+    this.fullViewMask = createViewMask(null);
+
+    this.gl4.glGenFramebuffers(1, this.readFramebuffer, 0);
+
+    // Initialize shader programs for any channels that were already created
+    this.glMasterBus.init();
+    for (GLAbstractChannel glChannel : this.glChannels) {
+      glChannel.init();
+    }
+
+    // Initialize preview shaders
+    this.glCueBus.init();
+    this.glAuxBus.init();
+
+    // Register GPU mixer
+    this.lx.engine.mixer.addPostMixer(this);
+  }
+
+  private void createBlackBackground() {
     ByteBuffer blackBuffer =
         ByteBuffer.allocateDirect(this.glEngine.getWidth() * this.glEngine.getHeight() * 4);
     blackBuffer.rewind();
     int[] backgroundHandles = new int[1];
-    gl4.glGenTextures(1, backgroundHandles, 0);
-    gl4.glActiveTexture(GL_TEXTURE0);
-    gl4.glBindTexture(GL_TEXTURE_2D, backgroundHandles[0]);
-    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-    gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-    gl4.glTexImage2D(
+    this.gl4.glGenTextures(1, backgroundHandles, 0);
+    this.gl4.glActiveTexture(GL_TEXTURE0);
+    this.gl4.glBindTexture(GL_TEXTURE_2D, backgroundHandles[0]);
+    this.gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    this.gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+    this.gl4.glTexImage2D(
         GL_TEXTURE_2D,
         0,
         GL_RGBA8,
@@ -108,25 +181,50 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
         GL_UNSIGNED_BYTE,
         blackBuffer);
     this.blackBackground = backgroundHandles[0];
+  }
 
-    // Initialize shader programs for any channels that were already created
-    this.glMasterBus.init();
-    for (GLAbstractChannel glChannel : this.glChannels) {
-      glChannel.init();
+  /**
+   * Called by GLEngine when the canvas was resized. Channel and bus shaders reallocate their own
+   * buffers on their next run.
+   */
+  public void resize() {
+    if (!this.initialized) {
+      return;
     }
-
-    // Initialize preview shaders
-    this.glCueBus.init();
-    this.glAuxBus.init();
-
-    // Register GPU mixer
-    this.lx.engine.mixer.addPostMixer(this);
+    this.gl4.glDeleteTextures(1, new int[] {this.blackBackground}, 0);
+    createBlackBackground();
+    disposePatternUploads();
+    disposeViewMasks();
+    this.fullViewMask = createViewMask(null);
   }
 
   public void loop(double deltaMs) {
     // This will be called [by GLEngine] every engine frame prior to the LXMixer running.
     // Do any pre-run setup here.
 
+    // Release the textures of CPU patterns that have stopped running
+    this.frameCount++;
+    this.patternUploads
+        .values()
+        .removeIf(
+            upload -> {
+              if (this.frameCount - upload.frame > UPLOAD_RELEASE_FRAMES) {
+                upload.ring.dispose();
+                return true;
+              }
+              return false;
+            });
+    this.viewMasks
+        .values()
+        .removeIf(
+            mask -> {
+              if (this.frameCount - mask.frame > UPLOAD_RELEASE_FRAMES) {
+                this.gl4.glDeleteTextures(1, new int[] {mask.texture}, 0);
+                return true;
+              }
+              return false;
+            });
+
     // Patterns will be looped after this
   }
 
@@ -166,6 +264,136 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
     this.gl4.glBindFramebuffer(GL_FRAMEBUFFER, 0);
   }
 
+  /**
+   * Start the transfer of a CPU pattern's colors to its texture for this frame. Called by TE
+   * patterns right after they run, as the patterns of a composite channel share one render buffer.
+   * Other CPU patterns are uploaded when the mixer reaches them.
+   */
+  public void uploadPatternColors(LXPattern pattern) {
+    if (!this.initialized) {
+      return;
+    }
+    PatternUpload upload = this.patternUploads.get(pattern);
+    if (upload == null) {
+      upload =
+          new PatternUpload(
+              new UploadRing(this.gl4, this.glEngine.getWidth(), this.glEngine.getHeight()));
+      this.patternUploads.put(pattern, upload);
+    }
+    upload.ring.upload(maskToView(pattern));
+    upload.frame = this.frameCount;
+  }
+
+  /**
+   * Colors of a pattern with the points outside its view cleared. In GPU mode LX does not clear the
+   * render buffer shared by the patterns of a composite channel, so points outside a pattern's view
+   * still hold the output of the pattern before it.
+   */
+  private int[] maskToView(LXPattern pattern) {
+    final int[] colors = pattern.getColors();
+    final LXModel view = pattern.getModelView();
+    if (view == null || view == this.lx.getModel()) {
+      return colors;
+    }
+    if (this.viewColors.length != colors.length) {
+      this.viewColors = new int[colors.length];
+    } else {
+      Arrays.fill(this.viewColors, LXColor.CLEAR);
+    }
+    for (LXPoint p : view.points) {
+      this.viewColors[p.index] = colors[p.index];
+    }
+    return this.viewColors;
+  }
+
+  /** Whether a CPU pattern's colors were transferred right after it ran this frame */
+  private boolean isUploaded(LXPattern pattern) {
+    PatternUpload upload = this.patternUploads.get(pattern);
+    return upload != null && upload.frame == this.frameCount;
+  }
+
+  /** Retrieve the texture holding a CPU pattern's colors for this frame */
+  private int getUploadedTexture(LXPattern pattern) {
+    if (!isUploaded(pattern)) {
+      uploadPatternColors(pattern);
+    }
+    return this.patternUploads.get(pattern).ring.getTexture();
+  }
+
+  private void disposePatternUploads() {
+    for (PatternUpload upload : this.patternUploads.values()) {
+      upload.ring.dispose();
+    }
+    this.patternUploads.clear();
+  }
+
+  /**
+   * Retrieve the mask texture of a pattern's view, for this frame. Masks are rebuilt when the
+   * points of the model move, and released when no composite pattern has used them for a while.
+   */
+  private int getViewMask(LXModel view) {
+    if (view == null || view == this.lx.getModel()) {
+      return this.fullViewMask;
+    }
+    final int generation = this.lx.getModel().getGeneration();
+    ViewMask mask = this.viewMasks.get(view);
+    if (mask == null || mask.generation != generation) {
+      if (mask != null) {
+        this.gl4.glDeleteTextures(1, new int[] {mask.texture}, 0);
+      }
+      mask = new ViewMask(createViewMask(view), generation);
+      this.viewMasks.put(view, mask);
+    }
+    mask.frame = this.frameCount;
+    return mask.texture;
+  }
+
+  /**
+   * Create a canvas-sized single channel texture that is set at the texels of a view's points, or
+   * at every texel if the view is null.
+   */
+  private int createViewMask(LXModel view) {
+    final int width = this.glEngine.getWidth();
+    final int height = this.glEngine.getHeight();
+    final int numTexels = width * height;
+    ByteBuffer maskBuffer = ByteBuffer.allocateDirect(numTexels);
+    if (view == null) {
+      for (int i = 0; i < numTexels; i++) {
+        maskBuffer.put(i, (byte) 0xff);
+      }
+    } else {
+      for (LXPoint p : view.points) {
+        if (p.index < numTexels) {
+          maskBuffer.put(p.index, (byte) 0xff);
+        }
+      }
+    }
+
+    int[] handle = new int[1];
+    this.gl4.glGenTextures(1, handle, 0);
+    this.gl4.glActiveTexture(GL_TEXTURE0);
+    this.gl4.glBindTexture(GL_TEXTURE_2D, handle[0]);
+    this.gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+    this.gl4.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+    this.gl4.glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+    this.gl4.glTexImage2D(
+        GL_TEXTURE_2D, 0, GL4.GL_R8, width, height, 0, GL4.GL_RED, GL_UNSIGNED_BYTE, maskBuffer);
+    this.gl4.glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    this.gl4.glBindTexture(GL_TEXTURE_2D, 0);
+    return handle[0];
+  }
+
+  private void disposeViewMasks() {
+    for (ViewMask mask : this.viewMasks.values()) {
+      this.gl4.glDeleteTextures(1, new int[] {mask.texture}, 0);
+    }
+    this.viewMasks.clear();
+    if (this.fullViewMask != UNINITIALIZED) {
+      this.gl4.glDeleteTextures(1, new int[] {this.fullViewMask}, 0);
+      this.fullViewMask = UNINITIALIZED;
+    }
+  }
+
   /** Checks a channel for inclusion in cue/aux previews */
   private void checkForPreview(LXAbstractChannel channel, GLBus bus) {
     if (channel.cueActive.isOn() && !this.cueBusActive) {
@@ -242,6 +470,120 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
 
     if (this.initialized) {
       this.lx.engine.mixer.removePostMixer(this);
+      disposePatternUploads();
+      disposeViewMasks();
+      this.gl4.glDeleteFramebuffers(1, this.readFramebuffer, 0);
+    }
+  }
+
+  /**
+   * Runs Java effects on a channel or group in GPU mode. The bus texture is read back to the CPU
+   * through a ReadbackRing, and the effects loop on a copy of the newest completed frame. The
+   * result is streamed back to the GPU through an UploadRing.
+   *
+   * <p>The readback does not wait for the GPU, so the output of the stage is the effects applied to
+   * an older frame of the bus, not the current one. Under the NEWEST readback policy that is
+   * usually one or two frames behind. Under FIXED_LATENCY it is always (readback depth - 1) frames
+   * behind. Shader effects and the bus contents themselves are not delayed.
+   *
+   * <p>Until the first readback has completed, the effects are not looped at all and the bus
+   * texture passes through unchanged. That happens for the first frame or two after the stage is
+   * created, and again whenever the canvas size or readback depth changes.
+   *
+   * <p>All consecutive Java effects in the bus's effect list share one stage, so there is a single
+   * download and upload for the run instead of one per effect.
+   */
+  private class JavaEffectStage {
+
+    // CPU copy of the bus that the effects run on
+    private final ModelBuffer buffer = new ModelBuffer(lx);
+
+    // Most recent frame read back from the GPU
+    private int[] input = new int[0];
+    private boolean hasInput = false;
+
+    private ReadbackRing readback;
+    private UploadRing upload;
+
+    // Whether effects should run this frame. False until the first frame was read back, and the
+    // effects are skipped until then.
+    private boolean active = false;
+
+    // Bus texture, returned unchanged while the stage is not active
+    private int src;
+
+    /** Start the readback of the bus texture, and prepare the newest completed frame */
+    void begin(int src) {
+      allocate();
+      final int[] colors = this.buffer.getArray();
+      if (this.input.length != colors.length) {
+        this.input = new int[colors.length];
+        this.hasInput = false;
+      }
+
+      // Read the rows holding the model's points
+      final int width = this.readback.getWidth();
+      final int numRows =
+          Math.max(1, Math.min(this.readback.getHeight(), (colors.length + width - 1) / width));
+      gl4.glBindFramebuffer(GL4.GL_READ_FRAMEBUFFER, readFramebuffer[0]);
+      gl4.glFramebufferTexture2D(
+          GL4.GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, src, 0);
+      this.readback.startRead(numRows);
+      gl4.glBindFramebuffer(GL4.GL_READ_FRAMEBUFFER, 0);
+
+      if (this.readback.read(this.input, glEngine.readbackPolicy.getEnum())) {
+        this.hasInput = true;
+      }
+
+      // Effects modify the buffer, so start from the unmodified input every frame
+      this.active = this.hasInput;
+      if (this.active) {
+        System.arraycopy(this.input, 0, colors, 0, colors.length);
+      }
+      this.src = src;
+    }
+
+    void loop(LXEffect effect, double deltaMs) {
+      if (this.active) {
+        effect.setBuffer(this.buffer);
+        effect.setModel(effect.getModelView());
+        effect.loop(deltaMs);
+      }
+    }
+
+    /** Upload the result of the effects, returning the texture that holds it */
+    int end() {
+      if (!this.active) {
+        return this.src;
+      }
+      this.upload.upload(this.buffer.getArray());
+      return this.upload.getTexture();
+    }
+
+    /** (Re)allocate the transfer rings if the canvas size or readback depth changed */
+    private void allocate() {
+      final int width = glEngine.getWidth();
+      final int height = glEngine.getHeight();
+      final int depth = glEngine.readbackDepth.getValuei();
+      if (this.readback != null
+          && this.readback.getWidth() == width
+          && this.readback.getHeight() == height
+          && this.readback.getDepth() == depth) {
+        return;
+      }
+      dispose();
+      this.readback = new ReadbackRing(gl4, width, height, depth);
+      this.upload = new UploadRing(gl4, width, height);
+      this.hasInput = false;
+    }
+
+    void dispose() {
+      if (this.readback != null) {
+        this.readback.dispose();
+        this.upload.dispose();
+        this.readback = null;
+        this.upload = null;
+      }
     }
   }
 
@@ -270,7 +612,11 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
       int src = blendContents(deltaMs);
 
       // Run Effects
-      src = loopEffects(deltaMs, src, bus.effects);
+      boolean javaEffects = runsJavaEffects();
+      if (!javaEffects) {
+        disposeJavaEffectStages();
+      }
+      src = loopEffects(deltaMs, src, bus.effects, javaEffects);
 
       // Remember the pre-fader texture for preview buses
       this.lastSrc = src;
@@ -288,10 +634,36 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
     /** Blend the bus contents (either channels or patterns), but do not yet run effects. */
     protected abstract int blendContents(double deltaMs);
 
+    /**
+     * Whether Java effects of this bus should run in a JavaEffectStage. Master runs them on the LX
+     * frame instead, and pattern-level Java effects are applied by LX when the pattern runs.
+     */
+    protected boolean runsJavaEffects() {
+      return false;
+    }
+
+    /** Run the shader effects of a list of effects on the dst texture */
     protected final int loopEffects(double deltaMs, int dst, List<LXEffect> effects) {
+      return loopEffects(deltaMs, dst, effects, false);
+    }
+
+    /**
+     * Run a list of effects on the dst texture. Consecutive Java effects share one JavaEffectStage.
+     */
+    protected final int loopEffects(
+        double deltaMs, int dst, List<LXEffect> effects, boolean javaEffects) {
+      int numStages = 0;
+      JavaEffectStage javaStage = null;
       for (LXEffect effect : effects) {
         // TODO: loop effect for damping even if disabled
         if (effect.isEnabled()) {
+          boolean isShaderEffect =
+              effect instanceof GLShaderEffect || effect instanceof NDIOutShaderEffect;
+          if (javaStage != null && isShaderEffect) {
+            // End of a run of Java effects
+            dst = javaStage.end();
+            javaStage = null;
+          }
           effect.setBuffer(dummyBuffer);
           if (effect instanceof GLShaderEffect glShaderEffect) {
             // Shader effect in GPU mode
@@ -304,19 +676,45 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
             effect.setModel(effect.getModelView());
             effect.loop(deltaMs);
             // Do not modify dst. Output texture is for NDI sending, not for us.
-          }
-          /* For now, don't loop Java effects at all on non-master
-          else if (!isMaster()) {
+          } else if (javaEffects) {
             // Java effect in GPU mode
-            // To loop for processing without using output:
-            effect.setModel(effect.getModelView());
-            effect.loop(deltaMs);
-          } */
+            if (javaStage == null) {
+              javaStage = getJavaEffectStage(numStages++);
+              javaStage.begin(dst);
+            }
+            javaStage.loop(effect, deltaMs);
+          }
+        }
+      }
+      if (javaStage != null) {
+        dst = javaStage.end();
+      }
+      if (javaEffects) {
+        // Release stages that are no longer used
+        while (this.javaEffectStages.size() > numStages) {
+          this.javaEffectStages.removeLast().dispose();
         }
       }
       return dst;
     }
 
+    // Java effect stages of this bus, in the order they are run
+    private final List<JavaEffectStage> javaEffectStages = new ArrayList<>();
+
+    private JavaEffectStage getJavaEffectStage(int index) {
+      if (index == this.javaEffectStages.size()) {
+        this.javaEffectStages.add(new JavaEffectStage());
+      }
+      return this.javaEffectStages.get(index);
+    }
+
+    protected final void disposeJavaEffectStages() {
+      for (JavaEffectStage stage : this.javaEffectStages) {
+        stage.dispose();
+      }
+      this.javaEffectStages.clear();
+    }
+
     /** Final step, blend the bus output texture onto the dst texture at the current fader level */
     protected abstract int finalBlend(double deltaMs, int dst, int src);
 
@@ -481,13 +879,8 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
         this.blendShader.dispose();
       }
 
-      String shaderName;
       LXBlend lxB = this.abstractChannel.blendMode.getObject();
-      if (lxB instanceof MultiplyBlend) {
-        shaderName = "blendMultiply.fs";
-      } else {
-        shaderName = "blendAdd.fs";
-      }
+      String shaderName = GLBlend.get(lxB).shaderName;
 
       this.blendShader = new BlendShader(BlendShader.config(lx).withFilename(shaderName));
       if (this.initialized) {
@@ -520,10 +913,16 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
       return this.blendShader.getRenderTexture();
     }
 
+    @Override
+    protected boolean runsJavaEffects() {
+      return glEngine.gpuJavaEffects.isOn();
+    }
+
     @Override
     protected void dispose() {
       this.abstractChannel.blendMode.removeListener(this.blendModeListener);
       this.blendShader.dispose();
+      disposeJavaEffectStages();
     }
   }
 
@@ -549,18 +948,77 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
     }
   }
 
+  /** Output of one pattern in a composite channel, to be blended onto the patterns before it */
+  private static class CompositeLayer {
+    private int texture;
+    private int view;
+    private float level;
+    private GLBlend blend;
+  }
+
   private class GLChannel extends GLAbstractChannel {
 
     private final LXChannel channel;
 
     private final BlendShader transitionShader;
 
+    // Composite mode: active patterns of the current frame, in channel order. Layer objects are
+    // kept from frame to frame, only the first numCompositeLayers are in use.
+    private final List<CompositeLayer> compositeLayers = new ArrayList<>();
+    private int numCompositeLayers = 0;
+
+    // Composite mode: shaders used alternately when there are more layers than fit in one pass,
+    // so that no pass reads its own output
+    private final CompositeShader[] compositeShaders = new CompositeShader[2];
+
+    // Composite mode: CPU patterns whose output was overwritten before it could be uploaded,
+    // warned about once
+    private final Set<LXPattern> lostPatterns = new HashSet<>();
+
+    // Set from the LX thread that removed a pattern, cleanup happens in the GL context
+    private volatile boolean compositePatternRemoved = false;
+
+    private final LXChannel.Listener channelListener =
+        new LXChannel.Listener() {
+          @Override
+          public void patternRemoved(LXChannel channel, LXPattern pattern) {
+            compositePatternRemoved = true;
+          }
+
+          @Override
+          public void patternDidChange(LXChannel channel, LXPattern pattern) {
+            prewarmUpcomingPatterns();
+          }
+        };
+
+    private final LXParameterListener focusedPatternListener = p -> prewarmUpcomingPatterns();
+
     public GLChannel(LXChannel channel) {
       super(channel);
       this.channel = channel;
 
       this.transitionShader =
           new BlendShader(BlendShader.config(lx).withFilename("blendDissolve.fs"));
+
+      this.channel.addListener(this.channelListener);
+      this.channel.patternEngine.focusedPattern.addListener(this.focusedPatternListener);
+    }
+
+    /**
+     * Start building the programs of the patterns this channel is likely to go to next, so that
+     * they are ready when the transition starts: the pattern focused in the UI, and the pattern
+     * auto-cycle will go to.
+     */
+    private void prewarmUpcomingPatterns() {
+      GLShaderPattern.prewarm(this.channel.getFocusedPattern());
+      if (this.channel.patternEngine.autoCycleEnabled.isOn()
+          && this.channel.patternEngine.autoCycleMode.getEnum() == AutoCycleMode.NEXT) {
+        int index = this.channel.patterns.indexOf(this.channel.getActivePattern());
+        if (index >= 0) {
+          GLShaderPattern.prewarm(
+              this.channel.patterns.get((index + 1) % this.channel.patterns.size()));
+        }
+      }
     }
 
     void init() {
@@ -578,7 +1036,7 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
 
       // Blend patterns
       if (this.channel.isComposite()) {
-        return compositePatterns();
+        return compositePatterns(deltaMs);
       } else if (this.channel.isInTransition()) {
         return transition(deltaMs);
       } else {
@@ -586,15 +1044,107 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
       }
     }
 
-    private static boolean needsCompositeWarning = true;
+    /**
+     * Blend the patterns of a composite channel onto a black background, in channel order. Like the
+     * LX CPU mixer, each pattern is applied with its composite blend at its composite level times
+     * its enable/disable damping, only over the points of its view, and patterns that LX did not
+     * run this frame are skipped.
+     */
+    private int compositePatterns(double deltaMs) {
+      if (this.compositePatternRemoved) {
+        this.compositePatternRemoved = false;
+        this.lostPatterns.retainAll(this.channel.patterns);
+      }
+
+      // CPU patterns that don't upload right after they run can only be read back from the shared
+      // render buffer if no other pattern ran after them
+      LXPattern lastRun = null;
+      for (LXPattern pattern : this.channel.patterns) {
+        if (isCompositeRun(pattern)) {
+          lastRun = pattern;
+        }
+      }
+
+      this.numCompositeLayers = 0;
+      for (LXPattern pattern : this.channel.patterns) {
+        double damping = pattern.getCompositeDampingLevel();
+        if (damping > 0 && !pattern.isAutoMuted.isOn()) {
+          if (pattern != lastRun && isOverwritten(pattern)) {
+            continue;
+          }
+          CompositeLayer layer = nextCompositeLayer();
+          layer.texture = getPatternTexture(deltaMs, pattern);
+          layer.view = getViewMask(pattern.getModelView());
+          layer.level = (float) (damping * pattern.compositeLevel.getValue());
+          layer.blend = GLBlend.get(pattern.compositeBlend.getObject());
+        }
+      }
+
+      return compositeLayers();
+    }
+
+    private CompositeLayer nextCompositeLayer() {
+      if (this.numCompositeLayers == this.compositeLayers.size()) {
+        this.compositeLayers.add(new CompositeLayer());
+      }
+      return this.compositeLayers.get(this.numCompositeLayers++);
+    }
 
-    private int compositePatterns() {
-      // TODO: composite all patterns in channel
-      if (needsCompositeWarning) {
-        needsCompositeWarning = false;
-        LX.error("Composite channels are not yet implemented in GLMixer");
+    /** Whether LX ran a pattern of this composite channel into the shared render buffer */
+    private boolean isCompositeRun(LXPattern pattern) {
+      return (pattern.getCompositeDampingLevel() > 0 && !pattern.isAutoMuted.isOn())
+          || pattern.cueActive.isOn()
+          || pattern.auxActive.isOn();
+    }
+
+    /**
+     * Whether a CPU pattern's output was overwritten by a later pattern in the shared render buffer
+     * before it could be uploaded. Such patterns are left out of the composite.
+     */
+    private boolean isOverwritten(LXPattern pattern) {
+      if (pattern instanceof GLShaderPattern || pattern instanceof GpuDevice) {
+        return false;
       }
-      return blackBackground;
+      if (isUploaded(pattern)) {
+        return false;
+      }
+      if (this.lostPatterns.add(pattern)) {
+        LX.error(
+            "GLMixer: "
+                + pattern.getClass().getSimpleName()
+                + " does not upload its colors after it runs, it is left out of composite channel "
+                + this.channel.getLabel());
+      }
+      return true;
+    }
+
+    /** Blend all composite layers with as few CompositeShader passes as possible */
+    private int compositeLayers() {
+      int dst = blackBackground;
+      int pass = 0;
+      int i = 0;
+      while (i < this.numCompositeLayers) {
+        CompositeShader shader = getCompositeShader(pass++ % this.compositeShaders.length);
+        shader.setDst(dst);
+        while (i < this.numCompositeLayers) {
+          CompositeLayer layer = this.compositeLayers.get(i);
+          if (!shader.addLayer(layer.texture, layer.view, layer.level, layer.blend)) {
+            break;
+          }
+          i++;
+        }
+        shader.run();
+        dst = shader.getRenderTexture();
+      }
+      return dst;
+    }
+
+    private CompositeShader getCompositeShader(int index) {
+      if (this.compositeShaders[index] == null) {
+        this.compositeShaders[index] = new CompositeShader(lx);
+        this.compositeShaders[index].init();
+      }
+      return this.compositeShaders[index];
     }
 
     private int transition(double deltaMs) {
@@ -618,6 +1168,9 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
         if (renderTexture != NO_TEXTURE) {
           patternTexture = renderTexture;
         }
+      } else if (pattern != null && !(pattern instanceof GpuDevice)) {
+        // CPU pattern, colors are streamed to a texture
+        patternTexture = getUploadedTexture(pattern);
       }
 
       // Loop pattern-level effects
@@ -630,7 +1183,14 @@ public class GLMixer implements LXMixerEngine.Listener, LXMixerEngine.PostMixer
 
     @Override
     protected void dispose() {
+      this.channel.removeListener(this.channelListener);
+      this.channel.patternEngine.focusedPattern.removeListener(this.focusedPatternListener);
       this.transitionShader.dispose();
+      for (CompositeShader shader : this.compositeShaders) {
+        if (shader != null) {
+          shader.dispose();
+        }
+      }
       super.dispose();
     }
   }
@@ -0,0 +1,1273 @@
+package titanicsend.pattern.pixelblaze;
+
+import heronarts.lx.LX;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import titanicsend.pattern.pixelblaze.PBParser.Assign;
+import titanicsend.pattern.pixelblaze.PBParser.Binary;
+import titanicsend.pattern.pixelblaze.PBParser.Block;
+import titanicsend.pattern.pixelblaze.PBParser.Break;
+import titanicsend.pattern.pixelblaze.PBParser.Call;
+import titanicsend.pattern.pixelblaze.PBParser.Conditional;
+import titanicsend.pattern.pixelblaze.PBParser.Continue;
+import titanicsend.pattern.pixelblaze.PBParser.Declarator;
+import titanicsend.pattern.pixelblaze.PBParser.DoWhile;
+import titanicsend.pattern.pixelblaze.PBParser.Empty;
+import titanicsend.pattern.pixelblaze.PBParser.Expr;
+import titanicsend.pattern.pixelblaze.PBParser.ExprStmt;
+import titanicsend.pattern.pixelblaze.PBParser.For;
+import titanicsend.pattern.pixelblaze.PBParser.Function;
+import titanicsend.pattern.pixelblaze.PBParser.If;
+import titanicsend.pattern.pixelblaze.PBParser.Index;
+import titanicsend.pattern.pixelblaze.PBParser.Logical;
+import titanicsend.pattern.pixelblaze.PBParser.Name;
+import titanicsend.pattern.pixelblaze.PBParser.Num;
+import titanicsend.pattern.pixelblaze.PBParser.Return;
+import titanicsend.pattern.pixelblaze.PBParser.Stmt;
+import titanicsend.pattern.pixelblaze.PBParser.Unary;
+import titanicsend.pattern.pixelblaze.PBParser.UnsupportedException;
+import titanicsend.pattern.pixelblaze.PBParser.Update;
+import titanicsend.pattern.pixelblaze.PBParser.VarDecl;
+import titanicsend.pattern.pixelblaze.PBParser.While;
+
+/**
+ * Compiles Pixelblaze scripts to JVM bytecode, as subclasses of PBProgram, so that they run without
+ * the overhead of Nashorn's dynamic types and property lookups. Globals become double fields,
+ * functions become methods taking and returning doubles, and arrays become double[]. Scripts that
+ * use anything else, such as objects, strings, nested arrays or Java classes, are left to Nashorn.
+ *
+ * <p>Compiled classes are cached per file until ScriptWatcher sees the file change. Each compile
+ * gets its own class loader, so that classes of edited scripts can be unloaded.
+ */
+class PBCompiler {
+
+  private static final String PACKAGE = "titanicsend/pattern/pixelblaze/compiled/";
+  private static final String BASE = Type.getInternalName(PBProgram.class);
+
+  private static final String DOUBLE = "D";
+  private static final String DOUBLE_ARRAY = "[D";
+
+  // Builtin functions implemented by PBProgram, and their number of arguments
+  private static final Map<String, Integer> BUILTINS =
+      Map.ofEntries(
+          Map.entry("abs", 1),
+          Map.entry("acos", 1),
+          Map.entry("asin", 1),
+          Map.entry("atan", 1),
+          Map.entry("atan2", 2),
+          Map.entry("cbrt", 1),
+          Map.entry("ceil", 1),
+          Map.entry("cos", 1),
+          Map.entry("exp", 1),
+          Map.entry("floor", 1),
+          Map.entry("log", 1),
+          Map.entry("log2", 1),
+          Map.entry("log10", 1),
+          Map.entry("pow", 2),
+          Map.entry("round", 1),
+          Map.entry("sign", 1),
+          Map.entry("sin", 1),
+          Map.entry("sqrt", 1),
+          Map.entry("tan", 1),
+          Map.entry("trunc", 1),
+          Map.entry("random", 1),
+          Map.entry("time", 1),
+          Map.entry("wave", 1),
+          Map.entry("triangle", 1),
+          Map.entry("clamp", 3),
+          Map.entry("hypot", 2),
+          Map.entry("hsv", 3),
+          Map.entry("rgb", 3),
+          Map.entry("rgba", 4),
+          Map.entry("paint", 1),
+          Map.entry("getHue", 0),
+          Map.entry("getSaturation", 0),
+          Map.entry("getBrightness", 0),
+          Map.entry("setAlpha", 1),
+          Map.entry("isBeat", 0),
+          Map.entry("measure", 0),
+          Map.entry("wholeNote", 0),
+          Map.entry("phrase", 0),
+          Map.entry("getBassLevel", 0),
+          Map.entry("getTrebleLevel", 0),
+          Map.entry("getBassRatio", 0),
+          Map.entry("getTrebleRatio", 0),
+          Map.entry("getRotationAngleFromSpeed", 0),
+          Map.entry("getRotationAngleFromSpin", 0),
+          Map.entry("getStaticRotationAngle", 0),
+          Map.entry("getTime", 0),
+          Map.entry("getTimeMs", 0),
+          Map.entry("getSpeed", 0),
+          Map.entry("getXPos", 0),
+          Map.entry("getYPos", 0),
+          Map.entry("getSize", 0),
+          Map.entry("getQuantity", 0),
+          Map.entry("getSpin", 0),
+          Map.entry("getWow1", 0),
+          Map.entry("getWow2", 0),
+          Map.entry("getWowTrigger", 0));
+
+  private static final Map<String, Double> CONSTANTS =
+      Map.of(
+          "E",
+          Math.E,
+          "LN2",
+          Math.log(2),
+          "LN10",
+          Math.log(10),
+          "LOG2E",
+          1 / Math.log(2),
+          "LOG10E",
+          1 / Math.log(10),
+          "PI",
+          Math.PI,
+          "PI2",
+          Math.PI * 2,
+          "SQRT1_2",
+          Math.sqrt(0.5),
+          "SQRT2",
+          Math.sqrt(2));
+
+  // Render functions in the order the glue looks for them
+  private static final String[] RENDER_FUNCTIONS = {"render3D", "render2D", "render"};
+
+  /**
+   * Outcome of compiling a version of a script file
+   *
+   * @param version ScriptWatcher version of the file
+   * @param programClass null if the script must run on Nashorn
+   * @param renderKeepsState whether render() changes state that later frames use
+   */
+  private record Result(
+      int version,
+      Class<? extends PBProgram> programClass,
+      String[] sliderKeys,
+      boolean renderKeepsState) {}
+
+  private static final Map<Path, Result> cache = new HashMap<>();
+
+  /**
+   * Create a new instance of a compiled script, compiling it if it is new or has changed.
+   *
+   * @return null if the script uses something the compiler does not support, or its compiled class
+   *     could not be loaded, in which case it should be run on Nashorn
+   */
+  static PBProgram load(Path path) throws IOException {
+    Result result = getResult(path, ScriptWatcher.getScript(path));
+    if (result.programClass() == null) {
+      return null;
+    }
+    PBProgram program;
+    try {
+      program = result.programClass().getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      fallBack(path, result.version(), e);
+      return null;
+    }
+    program.sliderKeys = result.sliderKeys();
+    program.renderKeepsState = result.renderKeepsState();
+    return program;
+  }
+
+  /** Run a version of a script on Nashorn from now on, after its compiled class failed */
+  static synchronized void fallBack(Path path, int version, Throwable t) {
+    LX.error(
+        t,
+        "Compiled Pixelblaze script "
+            + path.getFileName()
+            + " failed to load, it will run on Nashorn: "
+            + t.getMessage());
+    path = ScriptWatcher.normalize(path);
+    Result result = cache.get(path);
+    if (result != null && result.version() == version) {
+      cache.put(path, new Result(version, null, null, false));
+    }
+  }
+
+  /** Compile a new version of a script, if an older version has been compiled */
+  static synchronized void recompile(Path path, ScriptWatcher.Script script) {
+    if (cache.containsKey(ScriptWatcher.normalize(path))) {
+      getResult(path, script);
+    }
+  }
+
+  /** Compile a version of a script file, unless it is cached already */
+  private static synchronized Result getResult(Path path, ScriptWatcher.Script script) {
+    path = ScriptWatcher.normalize(path);
+    final int version = script.version();
+    Result result = cache.get(path);
+    if (result == null || result.version() != version) {
+      File file = path.toFile();
+      String source = script.source();
+      String name = file.getName().replaceFirst("\\.js$", "");
+      try {
+        PBCompiler compiler = new PBCompiler(name, PBParser.parse(source));
+        byte[] bytes = compiler.compile();
+        ScriptClassLoader loader = new ScriptClassLoader();
+        String className = compiler.className.replace('/', '.');
+        loader.define(className, bytes);
+        // Link and initialize now, so that bytecode the JVM rejects is found here and not when
+        // the script first runs
+        Class<? extends PBProgram> programClass =
+            Class.forName(className, true, loader).asSubclass(PBProgram.class);
+        result =
+            new Result(version, programClass, compiler.sliderKeys(), compiler.renderKeepsState());
+        LX.log("Pixelblaze script compiled to bytecode: " + file.getName());
+      } catch (UnsupportedException e) {
+        result = new Result(version, null, null, false);
+        LX.log(
+            "Pixelblaze script "
+                + file.getName()
+                + " will run on Nashorn, compiler does not support: "
+                + e.getMessage());
+      } catch (RuntimeException | LinkageError | ClassNotFoundException e) {
+        // A compiler bug, or bytecode the JVM rejects. The script can still run on Nashorn.
+        result = new Result(version, null, null, false);
+        LX.error(
+            e,
+            "Pixelblaze script "
+                + file.getName()
+                + " could not be compiled, it will run on Nashorn: "
+                + e.getMessage());
+      }
+      cache.put(path, result);
+    }
+    return result;
+  }
+
+  private static class ScriptClassLoader extends ClassLoader {
+    private ScriptClassLoader() {
+      super(PBProgram.class.getClassLoader());
+    }
+
+    private Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  /** Variables of a function, or of the top-level code, which has none of its own */
+  private static class Scope {
+    private final Function function;
+
+    // Variable name to whether it holds an array
+    private final Map<String, Boolean> locals = new LinkedHashMap<>();
+
+    private Scope(Function function) {
+      this.function = function;
+    }
+  }
+
+  private record Local(int slot, boolean array) {}
+
+  private final String className;
+  private final List<Stmt> topLevel = new ArrayList<>();
+  private final Map<String, Function> functions = new LinkedHashMap<>();
+
+  // Global name to whether it holds an array
+  private final Map<String, Boolean> globals = new LinkedHashMap<>();
+
+  private final Map<Function, Scope> scopes = new HashMap<>();
+
+  // User functions called by each function
+  private final Map<Function, Set<String>> calls = new HashMap<>();
+
+  // Functions that change globals in a way that carries over to later calls: updating a global
+  // from its own value, or writing to a global array
+  private final Set<Function> keepsState = new HashSet<>();
+  private final Scope topLevelScope = new Scope(null);
+
+  // State of the method being generated
+  private MethodVisitor mv;
+  private Scope scope;
+  private final Map<String, Local> slots = new HashMap<>();
+  private int nextSlot;
+
+  // Break and continue targets of the enclosing loops
+  private record Loop(Label breakLabel, Label continueLabel) {}
+
+  private final Deque<Loop> loops = new ArrayDeque<>();
+
+  private PBCompiler(String scriptName, List<Stmt> program) throws UnsupportedException {
+    this.className = PACKAGE + "Script_" + scriptName.replaceAll("[^A-Za-z0-9_$]", "_");
+    for (Stmt stmt : program) {
+      if (stmt instanceof Function function) {
+        // As in JavaScript, the last declaration of a function wins
+        this.functions.put(function.name(), function);
+      } else {
+        this.topLevel.add(stmt);
+      }
+    }
+    for (Function function : this.functions.values()) {
+      Scope scope = new Scope(function);
+      for (String param : function.params()) {
+        scope.locals.put(param, false);
+      }
+      declareVars(function.body(), scope);
+      this.scopes.put(function, scope);
+    }
+    for (Stmt stmt : this.topLevel) {
+      declareVars(stmt, this.topLevelScope);
+    }
+    for (Stmt stmt : this.topLevel) {
+      collect(stmt, this.topLevelScope);
+    }
+    for (Function function : this.functions.values()) {
+      collect(function.body(), this.scopes.get(function));
+    }
+    for (Function function : this.functions.values()) {
+      if (this.globals.containsKey(function.name())) {
+        throw new UnsupportedException("function " + function.name() + " used as a variable");
+      }
+      for (String param : function.params()) {
+        if (this.scopes.get(function).locals.get(param)) {
+          throw new UnsupportedException("array passed as an argument to " + function.name());
+        }
+      }
+    }
+  }
+
+  /**
+   * Whether render() or a function it calls changes state that later calls use, so that copies of
+   * the script rendering different points end up with different state. Plain assignments to globals
+   * are taken as temporaries, as in most scripts' render().
+   */
+  private boolean renderKeepsState() {
+    Deque<Function> pending = new ArrayDeque<>();
+    Set<Function> seen = new HashSet<>();
+    for (String name : RENDER_FUNCTIONS) {
+      Function render = this.functions.get(name);
+      if (render != null) {
+        pending.add(render);
+        break;
+      }
+    }
+    while (!pending.isEmpty()) {
+      Function function = pending.remove();
+      if (!seen.add(function)) {
+        continue;
+      }
+      if (this.keepsState.contains(function)) {
+        return true;
+      }
+      for (String callee : this.calls.getOrDefault(function, Set.of())) {
+        pending.add(this.functions.get(callee));
+      }
+    }
+    return false;
+  }
+
+  private String[] sliderKeys() {
+    return this.functions.keySet().stream()
+        .filter(name -> name.startsWith("slider"))
+        .toArray(String[]::new);
+  }
+
+  // Analysis
+
+  /** Find the var declarations of a scope. Top-level var declarations are globals. */
+  private void declareVars(Stmt stmt, Scope scope) {
+    switch (stmt) {
+      case VarDecl decl -> {
+        for (Declarator declarator : decl.declarators()) {
+          if (scope.function != null) {
+            scope.locals.putIfAbsent(declarator.name(), false);
+          } else if (!declarator.name().equals("pixelCount")) {
+            this.globals.putIfAbsent(declarator.name(), false);
+          }
+        }
+      }
+      case Block block -> block.body().forEach(s -> declareVars(s, scope));
+      case If s -> {
+        declareVars(s.then(), scope);
+        if (s.otherwise() != null) declareVars(s.otherwise(), scope);
+      }
+      case For s -> {
+        if (s.init() != null) declareVars(s.init(), scope);
+        declareVars(s.body(), scope);
+      }
+      case While s -> declareVars(s.body(), scope);
+      case DoWhile s -> declareVars(s.body(), scope);
+      default -> {}
+    }
+  }
+
+  /**
+   * Find assigned globals, the variables that hold arrays, the functions each function calls and
+   * the functions that keep state in globals
+   */
+  private void collect(Stmt stmt, Scope scope) throws UnsupportedException {
+    switch (stmt) {
+      case VarDecl decl -> {
+        for (Declarator declarator : decl.declarators()) {
+          if (declarator.init() != null) {
+            collect(new Assign("=", new Name(declarator.name()), declarator.init()), scope);
+          }
+        }
+      }
+      case ExprStmt s -> collect(s.expr(), scope);
+      case Block block -> {
+        for (Stmt s : block.body()) collect(s, scope);
+      }
+      case If s -> {
+        collect(s.test(), scope);
+        collect(s.then(), scope);
+        if (s.otherwise() != null) collect(s.otherwise(), scope);
+      }
+      case For s -> {
+        if (s.init() != null) collect(s.init(), scope);
+        if (s.test() != null) collect(s.test(), scope);
+        if (s.update() != null) collect(s.update(), scope);
+        collect(s.body(), scope);
+      }
+      case While s -> {
+        collect(s.test(), scope);
+        collect(s.body(), scope);
+      }
+      case DoWhile s -> {
+        collect(s.body(), scope);
+        collect(s.test(), scope);
+      }
+      case Return s -> {
+        if (s.value() != null) collect(s.value(), scope);
+      }
+      case Break s -> {}
+      case Continue s -> {}
+      case Empty s -> {}
+      case Function s -> throw new UnsupportedException("nested function " + s.name());
+    }
+  }
+
+  private void collect(Expr expr, Scope scope) throws UnsupportedException {
+    switch (expr) {
+      case Assign a -> {
+        if (a.target() instanceof Name name) {
+          assigned(name.name(), scope, a.op().equals("=") && isArrayCall(a.value()));
+          if (!a.op().equals("=")) {
+            changed(name, scope);
+          }
+        } else {
+          collect(a.target(), scope);
+          changed(((Index) a.target()).array(), scope);
+        }
+        if (!isArrayCall(a.value())) {
+          collect(a.value(), scope);
+        } else {
+          for (Expr arg : ((Call) a.value()).args()) collect(arg, scope);
+        }
+      }
+      case Update u -> {
+        if (u.target() instanceof Name name) {
+          assigned(name.name(), scope, false);
+          changed(name, scope);
+        } else {
+          collect(u.target(), scope);
+          changed(((Index) u.target()).array(), scope);
+        }
+      }
+      case Unary u -> collect(u.expr(), scope);
+      case Binary b -> {
+        collect(b.left(), scope);
+        collect(b.right(), scope);
+      }
+      case Logical l -> {
+        collect(l.left(), scope);
+        collect(l.right(), scope);
+      }
+      case Conditional c -> {
+        collect(c.test(), scope);
+        collect(c.then(), scope);
+        collect(c.otherwise(), scope);
+      }
+      case Call c -> {
+        if (scope.function != null && this.functions.containsKey(c.callee())) {
+          this.calls.computeIfAbsent(scope.function, f -> new HashSet<>()).add(c.callee());
+        }
+        for (Expr arg : c.args()) collect(arg, scope);
+      }
+      case Index i -> collect(i.index(), scope);
+      case Num n -> {}
+      case Name n -> {}
+    }
+  }
+
+  /** Note a function updating a variable from its own value, which keeps state if it is global */
+  private void changed(Name name, Scope scope) {
+    if (scope.function != null
+        && !scope.locals.containsKey(name.name())
+        && !name.name().equals("pixelCount")) {
+      this.keepsState.add(scope.function);
+    }
+  }
+
+  private void assigned(String name, Scope scope, boolean array) throws UnsupportedException {
+    Map<String, Boolean> variables;
+    if (scope.locals.containsKey(name)) {
+      variables = scope.locals;
+    } else if (name.equals("pixelCount")) {
+      if (array) {
+        throw new UnsupportedException("array assigned to pixelCount");
+      }
+      return;
+    } else {
+      variables = this.globals;
+      variables.putIfAbsent(name, false);
+    }
+    if (array) {
+      variables.put(name, true);
+    }
+  }
+
+  private boolean isArrayCall(Expr expr) {
+    return expr instanceof Call call
+        && call.callee().equals("array")
+        && !this.functions.containsKey("array");
+  }
+
+  // Code generation
+
+  private byte[] compile() throws UnsupportedException {
+    ClassWriter cw =
+        new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+          // Only our own classes are merged at branches, and they all extend PBProgram
+          @Override
+          protected String getCommonSuperClass(String type1, String type2) {
+            return "java/lang/Object";
+          }
+        };
+    cw.visit(
+        Opcodes.V17,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+        this.className,
+        null,
+        BASE,
+        null);
+
+    for (Map.Entry<String, Boolean> global : this.globals.entrySet()) {
+      cw.visitField(
+              Opcodes.ACC_PUBLIC,
+              fieldName(global.getKey()),
+              global.getValue() ? DOUBLE_ARRAY : DOUBLE,
+              null,
+              null)
+          .visitEnd();
+    }
+
+    // Constructor, with every global starting out undefined
+    beginMethod(cw, "<init>", "()V", this.topLevelScope);
+    this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+    this.mv.visitMethodInsn(Opcodes.INVOKESPECIAL, BASE, "<init>", "()V", false);
+    for (Map.Entry<String, Boolean> global : this.globals.entrySet()) {
+      if (!global.getValue()) {
+        this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+        pushDouble(Double.NaN);
+        this.mv.visitFieldInsn(
+            Opcodes.PUTFIELD, this.className, fieldName(global.getKey()), DOUBLE);
+      }
+    }
+    endVoidMethod();
+
+    beginMethod(cw, "init", "()V", this.topLevelScope);
+    for (Stmt stmt : this.topLevel) {
+      genStatement(stmt);
+    }
+    endVoidMethod();
+
+    for (Function function : this.functions.values()) {
+      genFunction(cw, function);
+    }
+
+    // Entry points called by PBProgram
+    beginMethod(cw, "invokeBeforeRender", "(D)V", this.topLevelScope);
+    Function beforeRender = this.functions.get("beforeRender");
+    if (beforeRender != null) {
+      genInvoke(beforeRender, 1);
+    }
+    endVoidMethod();
+
+    Function render = null;
+    for (String name : RENDER_FUNCTIONS) {
+      render = this.functions.get(name);
+      if (render != null) break;
+    }
+    if (render == null) {
+      throw new UnsupportedException("script without a render function");
+    }
+    beginMethod(cw, "invokeRender", "(DDDD)V", this.topLevelScope);
+    genInvoke(render, 1, 3, 5, 7);
+    endVoidMethod();
+
+    beginMethod(cw, "invokeSlider", "(ID)V", this.topLevelScope);
+    String[] sliderKeys = sliderKeys();
+    for (int i = 0; i < sliderKeys.length; i++) {
+      Label next = new Label();
+      this.mv.visitVarInsn(Opcodes.ILOAD, 1);
+      this.mv.visitLdcInsn(i);
+      this.mv.visitJumpInsn(Opcodes.IF_ICMPNE, next);
+      genInvoke(this.functions.get(sliderKeys[i]), 2);
+      this.mv.visitInsn(Opcodes.RETURN);
+      this.mv.visitLabel(next);
+    }
+    endVoidMethod();
+
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private static String fieldName(String global) {
+    return "g_" + global;
+  }
+
+  private static String methodName(Function function) {
+    return "f_" + function.name();
+  }
+
+  private static String methodDescriptor(int params) {
+    return "(" + DOUBLE.repeat(params) + ")D";
+  }
+
+  private void beginMethod(ClassWriter cw, String name, String descriptor, Scope scope) {
+    this.mv =
+        cw.visitMethod(
+            name.equals("<init>") ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PROTECTED,
+            name,
+            descriptor,
+            null,
+            null);
+    this.mv.visitCode();
+    this.scope = scope;
+    this.slots.clear();
+    this.loops.clear();
+    // The argument size includes this
+    this.nextSlot = Type.getArgumentsAndReturnSizes(descriptor) >> 2;
+  }
+
+  private void endVoidMethod() {
+    this.mv.visitInsn(Opcodes.RETURN);
+    this.mv.visitMaxs(0, 0);
+    this.mv.visitEnd();
+  }
+
+  private void genFunction(ClassWriter cw, Function function) throws UnsupportedException {
+    Scope scope = this.scopes.get(function);
+    this.mv =
+        cw.visitMethod(
+            Opcodes.ACC_PUBLIC,
+            methodName(function),
+            methodDescriptor(function.params().size()),
+            null,
+            null);
+    this.mv.visitCode();
+    this.scope = scope;
+    this.slots.clear();
+    this.loops.clear();
+    this.nextSlot = 1;
+    for (String param : function.params()) {
+      this.slots.put(param, new Local(this.nextSlot, false));
+      this.nextSlot += 2;
+    }
+    // Other locals start out undefined
+    for (Map.Entry<String, Boolean> local : scope.locals.entrySet()) {
+      if (this.slots.containsKey(local.getKey())) {
+        continue;
+      }
+      if (local.getValue()) {
+        this.slots.put(local.getKey(), new Local(this.nextSlot, true));
+        this.mv.visitInsn(Opcodes.ACONST_NULL);
+        this.mv.visitVarInsn(Opcodes.ASTORE, this.nextSlot);
+        this.nextSlot += 1;
+      } else {
+        this.slots.put(local.getKey(), new Local(this.nextSlot, false));
+        pushDouble(Double.NaN);
+        this.mv.visitVarInsn(Opcodes.DSTORE, this.nextSlot);
+        this.nextSlot += 2;
+      }
+    }
+    genStatement(function.body());
+    // Falling off the end returns undefined
+    pushDouble(Double.NaN);
+    this.mv.visitInsn(Opcodes.DRETURN);
+    this.mv.visitMaxs(0, 0);
+    this.mv.visitEnd();
+  }
+
+  /**
+   * Call a script function with the doubles in the given argument slots, passing undefined for
+   * parameters beyond them, and discard the result.
+   */
+  private void genInvoke(Function function, int... argSlots) {
+    this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+    for (int i = 0; i < function.params().size(); i++) {
+      if (i < argSlots.length) {
+        this.mv.visitVarInsn(Opcodes.DLOAD, argSlots[i]);
+      } else {
+        pushDouble(Double.NaN);
+      }
+    }
+    this.mv.visitMethodInsn(
+        Opcodes.INVOKEVIRTUAL,
+        this.className,
+        methodName(function),
+        methodDescriptor(function.params().size()),
+        false);
+    this.mv.visitInsn(Opcodes.POP2);
+  }
+
+  private int newTemp(int size) {
+    int slot = this.nextSlot;
+    this.nextSlot += size;
+    return slot;
+  }
+
+  private void pushDouble(double value) {
+    if (Double.doubleToRawLongBits(value) == 0L) {
+      this.mv.visitInsn(Opcodes.DCONST_0);
+    } else if (value == 1) {
+      this.mv.visitInsn(Opcodes.DCONST_1);
+    } else {
+      this.mv.visitLdcInsn(value);
+    }
+  }
+
+  // Statements
+
+  private void genStatement(Stmt stmt) throws UnsupportedException {
+    switch (stmt) {
+      case VarDecl decl -> {
+        for (Declarator declarator : decl.declarators()) {
+          if (declarator.init() != null) {
+            genExpressionStatement(new Assign("=", new Name(declarator.name()), declarator.init()));
+          }
+        }
+      }
+      case ExprStmt s -> genExpressionStatement(s.expr());
+      case Block block -> {
+        for (Stmt s : block.body()) genStatement(s);
+      }
+      case If s -> {
+        Label otherwise = new Label();
+        genJump(s.test(), false, otherwise);
+        genStatement(s.then());
+        if (s.otherwise() != null) {
+          Label end = new Label();
+          this.mv.visitJumpInsn(Opcodes.GOTO, end);
+          this.mv.visitLabel(otherwise);
+          genStatement(s.otherwise());
+          this.mv.visitLabel(end);
+        } else {
+          this.mv.visitLabel(otherwise);
+        }
+      }
+      case For s -> {
+        if (s.init() != null) {
+          genStatement(s.init());
+        }
+        Label top = new Label();
+        Label next = new Label();
+        Label end = new Label();
+        this.mv.visitLabel(top);
+        if (s.test() != null) {
+          genJump(s.test(), false, end);
+        }
+        genLoopBody(s.body(), end, next);
+        this.mv.visitLabel(next);
+        if (s.update() != null) {
+          genExpressionStatement(s.update());
+        }
+        this.mv.visitJumpInsn(Opcodes.GOTO, top);
+        this.mv.visitLabel(end);
+      }
+      case While s -> {
+        Label top = new Label();
+        Label end = new Label();
+        this.mv.visitLabel(top);
+        genJump(s.test(), false, end);
+        genLoopBody(s.body(), end, top);
+        this.mv.visitJumpInsn(Opcodes.GOTO, top);
+        this.mv.visitLabel(end);
+      }
+      case DoWhile s -> {
+        Label top = new Label();
+        Label next = new Label();
+        Label end = new Label();
+        this.mv.visitLabel(top);
+        genLoopBody(s.body(), end, next);
+        this.mv.visitLabel(next);
+        genJump(s.test(), true, top);
+        this.mv.visitLabel(end);
+      }
+      case Return s -> {
+        if (this.scope.function == null) {
+          throw new UnsupportedException("return outside of a function");
+        }
+        if (s.value() != null) {
+          genExpression(s.value());
+        } else {
+          pushDouble(Double.NaN);
+        }
+        this.mv.visitInsn(Opcodes.DRETURN);
+      }
+      case Break s -> {
+        if (this.loops.isEmpty()) {
+          throw new UnsupportedException("break outside of a loop");
+        }
+        this.mv.visitJumpInsn(Opcodes.GOTO, this.loops.peek().breakLabel());
+      }
+      case Continue s -> {
+        if (this.loops.isEmpty()) {
+          throw new UnsupportedException("continue outside of a loop");
+        }
+        this.mv.visitJumpInsn(Opcodes.GOTO, this.loops.peek().continueLabel());
+      }
+      case Empty s -> {}
+      case Function s -> throw new UnsupportedException("nested function " + s.name());
+    }
+  }
+
+  private void genLoopBody(Stmt body, Label breakLabel, Label continueLabel)
+      throws UnsupportedException {
+    this.loops.push(new Loop(breakLabel, continueLabel));
+    genStatement(body);
+    this.loops.pop();
+  }
+
+  /** An expression whose value is discarded. Only here may a variable be assigned an array. */
+  private void genExpressionStatement(Expr expr) throws UnsupportedException {
+    if (expr instanceof Assign a
+        && a.op().equals("=")
+        && a.target() instanceof Name name
+        && isArrayCall(a.value())) {
+      genArrayAssign(name.name(), (Call) a.value());
+    } else {
+      genExpression(expr);
+      this.mv.visitInsn(Opcodes.POP2);
+    }
+  }
+
+  private void genArrayAssign(String name, Call arrayCall) throws UnsupportedException {
+    Local local = this.slots.get(name);
+    if (local != null) {
+      genArguments(arrayCall.args(), 1);
+      this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "newArray", "(D)[D", false);
+      this.mv.visitVarInsn(Opcodes.ASTORE, local.slot());
+    } else {
+      this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      genArguments(arrayCall.args(), 1);
+      this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "newArray", "(D)[D", false);
+      this.mv.visitFieldInsn(Opcodes.PUTFIELD, this.className, fieldName(name), DOUBLE_ARRAY);
+    }
+  }
+
+  // Expressions, each leaving a double on the stack
+
+  private void genExpression(Expr expr) throws UnsupportedException {
+    switch (expr) {
+      case Num n -> pushDouble(n.value());
+      case Name n -> genLoad(n.name());
+      case Index i -> {
+        genLoadArray(i.array().name());
+        genExpression(i.index());
+        this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "load", "([DD)D", false);
+      }
+      case Unary u -> {
+        switch (u.op()) {
+          case "-" -> {
+            genExpression(u.expr());
+            this.mv.visitInsn(Opcodes.DNEG);
+          }
+          case "+" -> genExpression(u.expr());
+          case "~" -> {
+            genExpression(u.expr());
+            this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "bitNot", "(D)D", false);
+          }
+          default -> genBooleanValue(u);
+        }
+      }
+      case Binary b -> {
+        if (isComparison(b.op())) {
+          genBooleanValue(b);
+        } else {
+          genExpression(b.left());
+          genExpression(b.right());
+          genOperator(b.op());
+        }
+      }
+      case Logical l -> {
+        // Evaluates to the left operand if it decides the result, otherwise to the right
+        Label end = new Label();
+        genExpression(l.left());
+        this.mv.visitInsn(Opcodes.DUP2);
+        this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "truthy", "(D)Z", false);
+        this.mv.visitJumpInsn(l.op().equals("&&") ? Opcodes.IFEQ : Opcodes.IFNE, end);
+        this.mv.visitInsn(Opcodes.POP2);
+        genExpression(l.right());
+        this.mv.visitLabel(end);
+      }
+      case Conditional c -> {
+        Label otherwise = new Label();
+        Label end = new Label();
+        genJump(c.test(), false, otherwise);
+        genExpression(c.then());
+        this.mv.visitJumpInsn(Opcodes.GOTO, end);
+        this.mv.visitLabel(otherwise);
+        genExpression(c.otherwise());
+        this.mv.visitLabel(end);
+      }
+      case Assign a -> genAssign(a);
+      case Update u -> genUpdate(u);
+      case Call c -> genCall(c);
+    }
+  }
+
+  private static boolean isComparison(String op) {
+    return switch (op) {
+      case "<", ">", "<=", ">=", "==", "!=", "===", "!==" -> true;
+      default -> false;
+    };
+  }
+
+  private static boolean isUndefined(Expr expr) {
+    return expr instanceof Name name && name.name().equals("undefined");
+  }
+
+  private static boolean isUndefinedTest(Binary b) {
+    return switch (b.op()) {
+      case "==", "!=", "===", "!==" -> isUndefined(b.left()) || isUndefined(b.right());
+      default -> false;
+    };
+  }
+
+  private void genOperator(String op) {
+    switch (op) {
+      case "+" -> this.mv.visitInsn(Opcodes.DADD);
+      case "-" -> this.mv.visitInsn(Opcodes.DSUB);
+      case "*" -> this.mv.visitInsn(Opcodes.DMUL);
+      case "/" -> this.mv.visitInsn(Opcodes.DDIV);
+      case "%" -> this.mv.visitInsn(Opcodes.DREM);
+      default -> {
+        String helper =
+            switch (op) {
+              case "&" -> "bitAnd";
+              case "|" -> "bitOr";
+              case "^" -> "bitXor";
+              case "<<" -> "shiftLeft";
+              case ">>" -> "shiftRight";
+              case ">>>" -> "shiftRightUnsigned";
+              default -> throw new IllegalArgumentException("Unknown operator " + op);
+            };
+        this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, helper, "(DD)D", false);
+      }
+    }
+  }
+
+  /** A condition, as 1 or 0 */
+  private void genBooleanValue(Expr expr) throws UnsupportedException {
+    Label isFalse = new Label();
+    Label end = new Label();
+    genJump(expr, false, isFalse);
+    this.mv.visitInsn(Opcodes.DCONST_1);
+    this.mv.visitJumpInsn(Opcodes.GOTO, end);
+    this.mv.visitLabel(isFalse);
+    this.mv.visitInsn(Opcodes.DCONST_0);
+    this.mv.visitLabel(end);
+  }
+
+  /** Jump to target if the truth of the expression is jumpIf, otherwise fall through */
+  private void genJump(Expr expr, boolean jumpIf, Label target) throws UnsupportedException {
+    if (expr instanceof Binary b && isUndefinedTest(b)) {
+      // Undefined is NaN, so x == undefined tests whether x is NaN, which is the only value that
+      // doesn't equal itself
+      genExpression(isUndefined(b.left()) ? b.right() : b.left());
+      this.mv.visitInsn(Opcodes.DUP2);
+      this.mv.visitInsn(Opcodes.DCMPL);
+      boolean equality = b.op().startsWith("=");
+      this.mv.visitJumpInsn(equality == jumpIf ? Opcodes.IFNE : Opcodes.IFEQ, target);
+    } else if (expr instanceof Binary b && isComparison(b.op())) {
+      genExpression(b.left());
+      genExpression(b.right());
+      // Any comparison with NaN is false, except for !=
+      boolean less = b.op().startsWith("<");
+      this.mv.visitInsn(less ? Opcodes.DCMPG : Opcodes.DCMPL);
+      int opcode =
+          switch (b.op()) {
+            case "<" -> jumpIf ? Opcodes.IFLT : Opcodes.IFGE;
+            case "<=" -> jumpIf ? Opcodes.IFLE : Opcodes.IFGT;
+            case ">" -> jumpIf ? Opcodes.IFGT : Opcodes.IFLE;
+            case ">=" -> jumpIf ? Opcodes.IFGE : Opcodes.IFLT;
+            case "==", "===" -> jumpIf ? Opcodes.IFEQ : Opcodes.IFNE;
+            default -> jumpIf ? Opcodes.IFNE : Opcodes.IFEQ;
+          };
+      this.mv.visitJumpInsn(opcode, target);
+    } else if (expr instanceof Unary u && u.op().equals("!")) {
+      genJump(u.expr(), !jumpIf, target);
+    } else if (expr instanceof Logical l) {
+      // jumpIf false for && and true for || can short circuit straight to the target
+      boolean shortCircuit = l.op().equals("&&") != jumpIf;
+      if (shortCircuit) {
+        genJump(l.left(), jumpIf, target);
+        genJump(l.right(), jumpIf, target);
+      } else {
+        Label skip = new Label();
+        genJump(l.left(), !jumpIf, skip);
+        genJump(l.right(), jumpIf, target);
+        this.mv.visitLabel(skip);
+      }
+    } else {
+      genExpression(expr);
+      this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "truthy", "(D)Z", false);
+      this.mv.visitJumpInsn(jumpIf ? Opcodes.IFNE : Opcodes.IFEQ, target);
+    }
+  }
+
+  // Variables
+
+  private void genLoad(String name) throws UnsupportedException {
+    Local local = this.slots.get(name);
+    if (local != null) {
+      if (local.array()) {
+        throw new UnsupportedException("array " + name + " used as a number");
+      }
+      this.mv.visitVarInsn(Opcodes.DLOAD, local.slot());
+    } else if (this.globals.containsKey(name)) {
+      if (this.globals.get(name)) {
+        throw new UnsupportedException("array " + name + " used as a number");
+      }
+      this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      this.mv.visitFieldInsn(Opcodes.GETFIELD, this.className, fieldName(name), DOUBLE);
+    } else if (name.equals("pixelCount")) {
+      this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      this.mv.visitFieldInsn(Opcodes.GETFIELD, BASE, name, DOUBLE);
+    } else if (name.equals("undefined")) {
+      pushDouble(Double.NaN);
+    } else if (CONSTANTS.containsKey(name)) {
+      pushDouble(CONSTANTS.get(name));
+    } else {
+      throw new UnsupportedException("identifier " + name);
+    }
+  }
+
+  private void genLoadArray(String name) throws UnsupportedException {
+    Local local = this.slots.get(name);
+    if (local != null && local.array()) {
+      this.mv.visitVarInsn(Opcodes.ALOAD, local.slot());
+    } else if (local == null && Boolean.TRUE.equals(this.globals.get(name))) {
+      this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      this.mv.visitFieldInsn(Opcodes.GETFIELD, this.className, fieldName(name), DOUBLE_ARRAY);
+    } else {
+      throw new UnsupportedException("indexing " + name + ", which is not an array");
+    }
+  }
+
+  /**
+   * Owner and name of the field holding a global assigned by the script, or null if the name is a
+   * local
+   */
+  private String[] targetField(String name) throws UnsupportedException {
+    Local local = this.slots.get(name);
+    if (local != null) {
+      if (local.array()) {
+        throw new UnsupportedException("array " + name + " assigned a number");
+      }
+      return null;
+    }
+    if (name.equals("pixelCount") && !this.globals.containsKey(name)) {
+      return new String[] {BASE, name};
+    }
+    if (Boolean.TRUE.equals(this.globals.get(name))) {
+      throw new UnsupportedException("array " + name + " assigned a number");
+    }
+    return new String[] {this.className, fieldName(name)};
+  }
+
+  private void genAssign(Assign a) throws UnsupportedException {
+    if (isArrayCall(a.value())) {
+      throw new UnsupportedException("array() inside an expression");
+    }
+    final boolean compound = !a.op().equals("=");
+    final String op = a.op().substring(0, a.op().length() - 1);
+
+    if (a.target() instanceof Index i) {
+      genLoadArray(i.array().name());
+      genExpression(i.index());
+      if (compound) {
+        // The array and index are needed for both the load and the store
+        int indexSlot = newTemp(2);
+        int arraySlot = newTemp(1);
+        this.mv.visitVarInsn(Opcodes.DSTORE, indexSlot);
+        this.mv.visitVarInsn(Opcodes.ASTORE, arraySlot);
+        this.mv.visitVarInsn(Opcodes.ALOAD, arraySlot);
+        this.mv.visitVarInsn(Opcodes.DLOAD, indexSlot);
+        this.mv.visitVarInsn(Opcodes.ALOAD, arraySlot);
+        this.mv.visitVarInsn(Opcodes.DLOAD, indexSlot);
+        this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "load", "([DD)D", false);
+        genExpression(a.value());
+        genOperator(op);
+      } else {
+        genExpression(a.value());
+      }
+      this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "store", "([DDD)D", false);
+      return;
+    }
+
+    String name = ((Name) a.target()).name();
+    String[] field = targetField(name);
+    if (field == null) {
+      int slot = this.slots.get(name).slot();
+      if (compound) {
+        this.mv.visitVarInsn(Opcodes.DLOAD, slot);
+      }
+      genExpression(a.value());
+      if (compound) {
+        genOperator(op);
+      }
+      this.mv.visitInsn(Opcodes.DUP2);
+      this.mv.visitVarInsn(Opcodes.DSTORE, slot);
+    } else {
+      this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      if (compound) {
+        this.mv.visitInsn(Opcodes.DUP);
+        this.mv.visitFieldInsn(Opcodes.GETFIELD, field[0], field[1], DOUBLE);
+      }
+      genExpression(a.value());
+      if (compound) {
+        genOperator(op);
+      }
+      this.mv.visitInsn(Opcodes.DUP2_X1);
+      this.mv.visitFieldInsn(Opcodes.PUTFIELD, field[0], field[1], DOUBLE);
+    }
+  }
+
+  /** ++ and --, leaving the old value for postfix and the new value for prefix */
+  private void genUpdate(Update u) throws UnsupportedException {
+    final int opcode = u.op().equals("++") ? Opcodes.DADD : Opcodes.DSUB;
+
+    if (u.target() instanceof Index i) {
+      int indexSlot = newTemp(2);
+      int arraySlot = newTemp(1);
+      int oldSlot = newTemp(2);
+      genLoadArray(i.array().name());
+      this.mv.visitVarInsn(Opcodes.ASTORE, arraySlot);
+      genExpression(i.index());
+      this.mv.visitVarInsn(Opcodes.DSTORE, indexSlot);
+      this.mv.visitVarInsn(Opcodes.ALOAD, arraySlot);
+      this.mv.visitVarInsn(Opcodes.DLOAD, indexSlot);
+      this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "load", "([DD)D", false);
+      this.mv.visitVarInsn(Opcodes.DSTORE, oldSlot);
+      this.mv.visitVarInsn(Opcodes.ALOAD, arraySlot);
+      this.mv.visitVarInsn(Opcodes.DLOAD, indexSlot);
+      this.mv.visitVarInsn(Opcodes.DLOAD, oldSlot);
+      this.mv.visitInsn(Opcodes.DCONST_1);
+      this.mv.visitInsn(opcode);
+      this.mv.visitMethodInsn(Opcodes.INVOKESTATIC, BASE, "store", "([DDD)D", false);
+      if (!u.prefix()) {
+        this.mv.visitInsn(Opcodes.POP2);
+        this.mv.visitVarInsn(Opcodes.DLOAD, oldSlot);
+      }
+      return;
+    }
+
+    String name = ((Name) u.target()).name();
+    String[] field = targetField(name);
+    if (field == null) {
+      int slot = this.slots.get(name).slot();
+      this.mv.visitVarInsn(Opcodes.DLOAD, slot);
+      if (!u.prefix()) {
+        this.mv.visitInsn(Opcodes.DUP2);
+      }
+      this.mv.visitInsn(Opcodes.DCONST_1);
+      this.mv.visitInsn(opcode);
+      if (u.prefix()) {
+        this.mv.visitInsn(Opcodes.DUP2);
+      }
+      this.mv.visitVarInsn(Opcodes.DSTORE, slot);
+    } else {
+      this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      this.mv.visitInsn(Opcodes.DUP);
+      this.mv.visitFieldInsn(Opcodes.GETFIELD, field[0], field[1], DOUBLE);
+      if (!u.prefix()) {
+        this.mv.visitInsn(Opcodes.DUP2_X1);
+      }
+      this.mv.visitInsn(Opcodes.DCONST_1);
+      this.mv.visitInsn(opcode);
+      if (u.prefix()) {
+        this.mv.visitInsn(Opcodes.DUP2_X1);
+      }
+      this.mv.visitFieldInsn(Opcodes.PUTFIELD, field[0], field[1], DOUBLE);
+    }
+  }
+
+  // Calls
+
+  private void genCall(Call c) throws UnsupportedException {
+    final String callee = c.callee();
+    if (isArrayCall(c)) {
+      throw new UnsupportedException("array() inside an expression");
+    }
+    if (this.slots.containsKey(callee) || this.globals.containsKey(callee)) {
+      throw new UnsupportedException("calling variable " + callee);
+    }
+
+    Function function = this.functions.get(callee);
+    if (function != null) {
+      this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      genArguments(c.args(), function.params().size());
+      this.mv.visitMethodInsn(
+          Opcodes.INVOKEVIRTUAL,
+          this.className,
+          methodName(function),
+          methodDescriptor(function.params().size()),
+          false);
+    } else if (callee.equals("min") || callee.equals("max")) {
+      // Any number of arguments, reduced two at a time
+      if (c.args().isEmpty()) {
+        throw new UnsupportedException(callee + "() without arguments");
+      }
+      for (int i = 1; i < c.args().size(); i++) {
+        this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      }
+      genExpression(c.args().get(0));
+      for (int i = 1; i < c.args().size(); i++) {
+        genExpression(c.args().get(i));
+        this.mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BASE, callee, "(DD)D", false);
+      }
+    } else if (BUILTINS.containsKey(callee)) {
+      int params = BUILTINS.get(callee);
+      this.mv.visitVarInsn(Opcodes.ALOAD, 0);
+      genArguments(c.args(), params);
+      this.mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BASE, callee, methodDescriptor(params), false);
+    } else {
+      throw new UnsupportedException("function " + callee + "()");
+    }
+  }
+
+  /**
+   * Push exactly params arguments, as JavaScript passes them: missing arguments are undefined, and
+   * extra arguments are evaluated then dropped.
+   */
+  private void genArguments(List<Expr> args, int params) throws UnsupportedException {
+    for (int i = 0; i < Math.max(params, args.size()); i++) {
+      if (i >= args.size()) {
+        pushDouble(Double.NaN);
+      } else {
+        genExpression(args.get(i));
+        if (i >= params) {
+          this.mv.visitInsn(Opcodes.POP2);
+        }
+      }
+    }
+  }
+}
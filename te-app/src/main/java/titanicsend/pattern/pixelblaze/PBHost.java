@@ -0,0 +1,63 @@
+package titanicsend.pattern.pixelblaze;
+
+import heronarts.lx.LX;
+
+/**
+ * What a compiled Pixelblaze script reads from the pattern running it. Implemented by
+ * TEPerformancePattern, so that PBProgram does not depend on the rest of the pattern.
+ */
+public interface PBHost {
+
+  /** Slider controls, registered by scripts that define slider functions */
+  interface Sliders {
+    void addSlider(String key, String label);
+
+    double getSlider(String key);
+  }
+
+  LX getLX();
+
+  double getTime();
+
+  double getTimeMs();
+
+  int getGradientColor(float lerp);
+
+  double measure();
+
+  double wholeNote();
+
+  double phrase();
+
+  double getBassLevel();
+
+  double getTrebleLevel();
+
+  double getBassRatio();
+
+  double getTrebleRatio();
+
+  double getRotationAngleFromSpeed();
+
+  double getRotationAngleFromSpin();
+
+  double getStaticRotationAngle();
+
+  double getSpeed();
+
+  double getXPos();
+
+  double getYPos();
+
+  double getSize();
+
+  double getQuantity();
+
+  double getSpin();
+
+  double getWow1();
+
+  double getWow2();
+
+  boolean getWowTrigger();
+}
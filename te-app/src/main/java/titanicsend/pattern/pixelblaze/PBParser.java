@@ -0,0 +1,591 @@
+package titanicsend.pattern.pixelblaze;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parser for the subset of JavaScript used by our Pixelblaze scripts: numbers, variables, 1D
+ * arrays, arithmetic, bitwise and logical operators, if/for/while, and top-level functions. Any
+ * other construct, such as strings, objects or member access, raises UnsupportedException so the
+ * script can be run on Nashorn instead. Semicolons may be left out at the end of a line.
+ */
+class PBParser {
+
+  /** The script uses something outside of the subset understood by PBCompiler */
+  static class UnsupportedException extends Exception {
+    UnsupportedException(String message) {
+      super(message);
+    }
+  }
+
+  // AST
+
+  sealed interface Expr
+      permits Num, Name, Unary, Binary, Logical, Conditional, Assign, Update, Call, Index {}
+
+  record Num(double value) implements Expr {}
+
+  record Name(String name) implements Expr {}
+
+  record Unary(String op, Expr expr) implements Expr {}
+
+  record Binary(String op, Expr left, Expr right) implements Expr {}
+
+  /** && and ||, which evaluate to one of their operands */
+  record Logical(String op, Expr left, Expr right) implements Expr {}
+
+  record Conditional(Expr test, Expr then, Expr otherwise) implements Expr {}
+
+  /**
+   * @param op "=" or a compound assignment such as "+="
+   * @param target Name or Index
+   */
+  record Assign(String op, Expr target, Expr value) implements Expr {}
+
+  /**
+   * @param op "++" or "--"
+   * @param target Name or Index
+   */
+  record Update(String op, boolean prefix, Expr target) implements Expr {}
+
+  record Call(String callee, List<Expr> args) implements Expr {}
+
+  record Index(Name array, Expr index) implements Expr {}
+
+  sealed interface Stmt
+      permits VarDecl,
+          ExprStmt,
+          If,
+          For,
+          While,
+          DoWhile,
+          Return,
+          Block,
+          Break,
+          Continue,
+          Empty,
+          Function {}
+
+  record Declarator(String name, Expr init) {}
+
+  record VarDecl(List<Declarator> declarators) implements Stmt {}
+
+  record ExprStmt(Expr expr) implements Stmt {}
+
+  record If(Expr test, Stmt then, Stmt otherwise) implements Stmt {}
+
+  record For(Stmt init, Expr test, Expr update, Stmt body) implements Stmt {}
+
+  record While(Expr test, Stmt body) implements Stmt {}
+
+  record DoWhile(Stmt body, Expr test) implements Stmt {}
+
+  record Return(Expr value) implements Stmt {}
+
+  record Block(List<Stmt> body) implements Stmt {}
+
+  record Break() implements Stmt {}
+
+  record Continue() implements Stmt {}
+
+  record Empty() implements Stmt {}
+
+  record Function(String name, List<String> params, Block body) implements Stmt {}
+
+  // Lexer
+
+  private enum TokenType {
+    NUMBER,
+    NAME,
+    PUNCT,
+    EOF
+  }
+
+  private record Token(
+      TokenType type, String text, double value, boolean newlineBefore, int line) {}
+
+  // Longest first, so that the lexer matches greedily
+  private static final String[] PUNCTUATORS = {
+    ">>>=", "===", "!==", ">>>", "<<=", ">>=", "==", "!=", "<=", ">=", "&&", "||", "++", "--", "+=",
+    "-=", "*=", "/=", "%=", "&=", "|=", "^=", "<<", ">>", "{", "}", "(", ")", "[", "]", ";", ",",
+    "<", ">", "+", "-", "*", "/", "%", "&", "|", "^", "!", "~", "?", ":", "=", "."
+  };
+
+  private static final Set<String> ASSIGNMENT_OPS =
+      Set.of("=", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "<<=", ">>=", ">>>=");
+
+  private static final Set<String> UNSUPPORTED_KEYWORDS =
+      Set.of(
+          "new",
+          "this",
+          "typeof",
+          "instanceof",
+          "in",
+          "of",
+          "delete",
+          "void",
+          "switch",
+          "case",
+          "default",
+          "try",
+          "catch",
+          "finally",
+          "throw",
+          "class",
+          "null",
+          "import",
+          "yield",
+          "async",
+          "await",
+          "with",
+          "debugger");
+
+  private final List<Token> tokens = new ArrayList<>();
+  private int pos = 0;
+
+  private PBParser(String source) throws UnsupportedException {
+    tokenize(source);
+  }
+
+  /** Parse a script into its top-level statements, including function declarations */
+  static List<Stmt> parse(String source) throws UnsupportedException {
+    PBParser parser = new PBParser(source);
+    List<Stmt> program = new ArrayList<>();
+    while (parser.peek().type != TokenType.EOF) {
+      program.add(parser.parseStatement(true));
+    }
+    return program;
+  }
+
+  private void tokenize(String s) throws UnsupportedException {
+    int i = 0;
+    int line = 1;
+    boolean newline = false;
+    final int n = s.length();
+    while (i < n) {
+      char c = s.charAt(i);
+      if (c == '\n') {
+        newline = true;
+        line++;
+        i++;
+      } else if (Character.isWhitespace(c)) {
+        i++;
+      } else if (s.startsWith("//", i)) {
+        while (i < n && s.charAt(i) != '\n') i++;
+      } else if (s.startsWith("/*", i)) {
+        int end = s.indexOf("*/", i + 2);
+        if (end < 0) {
+          throw new UnsupportedException("unterminated comment");
+        }
+        for (int j = i; j < end; j++) {
+          if (s.charAt(j) == '\n') {
+            newline = true;
+            line++;
+          }
+        }
+        i = end + 2;
+      } else if (Character.isDigit(c)
+          || (c == '.' && i + 1 < n && Character.isDigit(s.charAt(i + 1)))) {
+        int start = i;
+        double value;
+        if (c == '0' && i + 1 < n && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+          i += 2;
+          while (i < n && Character.digit(s.charAt(i), 16) >= 0) i++;
+          value = Long.parseLong(s.substring(start + 2, i), 16);
+        } else {
+          while (i < n && (Character.isDigit(s.charAt(i)) || s.charAt(i) == '.')) i++;
+          if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            while (i < n && Character.isDigit(s.charAt(i))) i++;
+          }
+          try {
+            value = Double.parseDouble(s.substring(start, i));
+          } catch (NumberFormatException e) {
+            throw new UnsupportedException("bad number on line " + line);
+          }
+        }
+        this.tokens.add(new Token(TokenType.NUMBER, s.substring(start, i), value, newline, line));
+        newline = false;
+      } else if (Character.isJavaIdentifierStart(c)) {
+        int start = i;
+        while (i < n && Character.isJavaIdentifierPart(s.charAt(i))) i++;
+        this.tokens.add(new Token(TokenType.NAME, s.substring(start, i), 0, newline, line));
+        newline = false;
+      } else {
+        String punct = null;
+        for (String p : PUNCTUATORS) {
+          if (s.startsWith(p, i)) {
+            punct = p;
+            break;
+          }
+        }
+        if (punct == null) {
+          throw new UnsupportedException("'" + c + "' on line " + line);
+        }
+        this.tokens.add(new Token(TokenType.PUNCT, punct, 0, newline, line));
+        newline = false;
+        i += punct.length();
+      }
+    }
+    this.tokens.add(new Token(TokenType.EOF, "", 0, true, line));
+  }
+
+  // Parser helpers
+
+  private Token peek() {
+    return this.tokens.get(this.pos);
+  }
+
+  private Token next() {
+    return this.tokens.get(this.pos++);
+  }
+
+  private boolean isPunct(String text) {
+    Token t = peek();
+    return t.type == TokenType.PUNCT && t.text.equals(text);
+  }
+
+  private boolean isName(String text) {
+    Token t = peek();
+    return t.type == TokenType.NAME && t.text.equals(text);
+  }
+
+  private boolean acceptPunct(String text) {
+    if (isPunct(text)) {
+      this.pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expectPunct(String text) throws UnsupportedException {
+    if (!acceptPunct(text)) {
+      throw unexpected();
+    }
+  }
+
+  private String expectName() throws UnsupportedException {
+    Token t = next();
+    if (t.type != TokenType.NAME) {
+      this.pos--;
+      throw unexpected();
+    }
+    checkKeyword(t);
+    return t.text;
+  }
+
+  private UnsupportedException unexpected() {
+    Token t = peek();
+    String text = t.type == TokenType.EOF ? "end of script" : "'" + t.text + "'";
+    return new UnsupportedException(text + " on line " + t.line);
+  }
+
+  private void checkKeyword(Token t) throws UnsupportedException {
+    if (UNSUPPORTED_KEYWORDS.contains(t.text)) {
+      throw new UnsupportedException("'" + t.text + "' on line " + t.line);
+    }
+  }
+
+  /** End of a statement: a semicolon, or a line break, closing brace or end of script */
+  private void endStatement() throws UnsupportedException {
+    if (acceptPunct(";")) {
+      return;
+    }
+    Token t = peek();
+    if (!t.newlineBefore && !isPunct("}") && t.type != TokenType.EOF) {
+      throw unexpected();
+    }
+  }
+
+  // Statements
+
+  private Stmt parseStatement(boolean topLevel) throws UnsupportedException {
+    if (isName("export")) {
+      // Pixelblaze marks functions called by the framework as exports
+      next();
+    }
+    if (acceptPunct(";")) {
+      return new Empty();
+    }
+    if (isPunct("{")) {
+      return parseBlock();
+    }
+    if (isName("var") || isName("let") || isName("const")) {
+      next();
+      VarDecl decl = parseVarDecl();
+      endStatement();
+      return decl;
+    }
+    if (isName("function")) {
+      if (!topLevel) {
+        throw new UnsupportedException("nested function on line " + peek().line);
+      }
+      return parseFunction();
+    }
+    if (isName("if")) {
+      next();
+      expectPunct("(");
+      Expr test = parseExpression();
+      expectPunct(")");
+      Stmt then = parseStatement(false);
+      Stmt otherwise = null;
+      if (isName("else")) {
+        next();
+        otherwise = parseStatement(false);
+      }
+      return new If(test, then, otherwise);
+    }
+    if (isName("for")) {
+      next();
+      expectPunct("(");
+      Stmt init = null;
+      if (isName("var") || isName("let")) {
+        next();
+        init = parseVarDecl();
+      } else if (!isPunct(";")) {
+        init = new ExprStmt(parseExpression());
+      }
+      expectPunct(";");
+      Expr test = isPunct(";") ? null : parseExpression();
+      expectPunct(";");
+      Expr update = isPunct(")") ? null : parseExpression();
+      expectPunct(")");
+      return new For(init, test, update, parseStatement(false));
+    }
+    if (isName("while")) {
+      next();
+      expectPunct("(");
+      Expr test = parseExpression();
+      expectPunct(")");
+      return new While(test, parseStatement(false));
+    }
+    if (isName("do")) {
+      next();
+      Stmt body = parseStatement(false);
+      if (!isName("while")) {
+        throw unexpected();
+      }
+      next();
+      expectPunct("(");
+      Expr test = parseExpression();
+      expectPunct(")");
+      endStatement();
+      return new DoWhile(body, test);
+    }
+    if (isName("return")) {
+      next();
+      Expr value = null;
+      if (!peek().newlineBefore && !isPunct(";") && !isPunct("}")) {
+        value = parseExpression();
+      }
+      endStatement();
+      return new Return(value);
+    }
+    if (isName("break") || isName("continue")) {
+      boolean isBreak = next().text.equals("break");
+      endStatement();
+      return isBreak ? new Break() : new Continue();
+    }
+    Expr expr = parseExpression();
+    endStatement();
+    return new ExprStmt(expr);
+  }
+
+  private Block parseBlock() throws UnsupportedException {
+    expectPunct("{");
+    List<Stmt> body = new ArrayList<>();
+    while (!acceptPunct("}")) {
+      if (peek().type == TokenType.EOF) {
+        throw unexpected();
+      }
+      body.add(parseStatement(false));
+    }
+    return new Block(body);
+  }
+
+  private VarDecl parseVarDecl() throws UnsupportedException {
+    List<Declarator> declarators = new ArrayList<>();
+    do {
+      String name = expectName();
+      Expr init = acceptPunct("=") ? parseAssignment() : null;
+      declarators.add(new Declarator(name, init));
+    } while (acceptPunct(","));
+    return new VarDecl(declarators);
+  }
+
+  private Function parseFunction() throws UnsupportedException {
+    next();
+    String name = expectName();
+    expectPunct("(");
+    List<String> params = new ArrayList<>();
+    if (!acceptPunct(")")) {
+      do {
+        params.add(expectName());
+      } while (acceptPunct(","));
+      expectPunct(")");
+    }
+    return new Function(name, params, parseBlock());
+  }
+
+  // Expressions, from lowest to highest precedence
+
+  private Expr parseExpression() throws UnsupportedException {
+    Expr expr = parseAssignment();
+    if (isPunct(",")) {
+      throw new UnsupportedException("comma operator on line " + peek().line);
+    }
+    return expr;
+  }
+
+  private Expr parseAssignment() throws UnsupportedException {
+    Expr left = parseConditional();
+    Token t = peek();
+    if (t.type == TokenType.PUNCT && ASSIGNMENT_OPS.contains(t.text)) {
+      if (!(left instanceof Name) && !(left instanceof Index)) {
+        throw new UnsupportedException("assignment target on line " + t.line);
+      }
+      next();
+      return new Assign(t.text, left, parseAssignment());
+    }
+    return left;
+  }
+
+  private Expr parseConditional() throws UnsupportedException {
+    Expr test = parseBinary(0);
+    if (acceptPunct("?")) {
+      Expr then = parseAssignment();
+      expectPunct(":");
+      Expr otherwise = parseAssignment();
+      return new Conditional(test, then, otherwise);
+    }
+    return test;
+  }
+
+  // Binary operators by precedence level, lowest first
+  private static final String[][] BINARY_LEVELS = {
+    {"||"},
+    {"&&"},
+    {"|"},
+    {"^"},
+    {"&"},
+    {"==", "!=", "===", "!=="},
+    {"<", ">", "<=", ">="},
+    {"<<", ">>", ">>>"},
+    {"+", "-"},
+    {"*", "/", "%"}
+  };
+
+  private Expr parseBinary(int level) throws UnsupportedException {
+    if (level == BINARY_LEVELS.length) {
+      return parseUnary();
+    }
+    Expr left = parseBinary(level + 1);
+    while (true) {
+      String op = null;
+      for (String candidate : BINARY_LEVELS[level]) {
+        if (isPunct(candidate)) {
+          op = candidate;
+          break;
+        }
+      }
+      if (op == null) {
+        return left;
+      }
+      next();
+      Expr right = parseBinary(level + 1);
+      left =
+          (op.equals("&&") || op.equals("||"))
+              ? new Logical(op, left, right)
+              : new Binary(op, left, right);
+    }
+  }
+
+  private Expr parseUnary() throws UnsupportedException {
+    if (isPunct("-") || isPunct("+") || isPunct("!") || isPunct("~")) {
+      String op = next().text;
+      return new Unary(op, parseUnary());
+    }
+    if (isPunct("++") || isPunct("--")) {
+      Token t = next();
+      Expr target = parseUnary();
+      if (!(target instanceof Name) && !(target instanceof Index)) {
+        throw new UnsupportedException("increment target on line " + t.line);
+      }
+      return new Update(t.text, true, target);
+    }
+    return parsePostfix();
+  }
+
+  private Expr parsePostfix() throws UnsupportedException {
+    Expr expr = parsePrimary();
+    // A line break before ++ or -- ends the statement instead
+    if ((isPunct("++") || isPunct("--")) && !peek().newlineBefore) {
+      Token t = next();
+      if (!(expr instanceof Name) && !(expr instanceof Index)) {
+        throw new UnsupportedException("increment target on line " + t.line);
+      }
+      return new Update(t.text, false, expr);
+    }
+    return expr;
+  }
+
+  private Expr parsePrimary() throws UnsupportedException {
+    Token t = next();
+    switch (t.type) {
+      case NUMBER:
+        return new Num(t.value);
+      case PUNCT:
+        if (t.text.equals("(")) {
+          Expr expr = parseExpression();
+          expectPunct(")");
+          return expr;
+        }
+        this.pos--;
+        throw unexpected();
+      case NAME:
+        checkKeyword(t);
+        switch (t.text) {
+          case "true":
+            return new Num(1);
+          case "false":
+            return new Num(0);
+          case "NaN":
+            return new Num(Double.NaN);
+          case "Infinity":
+            return new Num(Double.POSITIVE_INFINITY);
+          case "function":
+            throw new UnsupportedException("function expression on line " + t.line);
+          default:
+            break;
+        }
+        if (acceptPunct("(")) {
+          List<Expr> args = new ArrayList<>();
+          if (!acceptPunct(")")) {
+            do {
+              args.add(parseAssignment());
+            } while (acceptPunct(","));
+            expectPunct(")");
+          }
+          return new Call(t.text, args);
+        }
+        Name name = new Name(t.text);
+        if (acceptPunct("[")) {
+          Expr index = parseExpression();
+          expectPunct("]");
+          if (isPunct("[")) {
+            throw new UnsupportedException("nested array on line " + t.line);
+          }
+          return new Index(name, index);
+        }
+        if (isPunct(".")) {
+          throw new UnsupportedException("member access '" + t.text + ".' on line " + t.line);
+        }
+        return name;
+      default:
+        this.pos--;
+        throw unexpected();
+    }
+  }
+}
@@ -0,0 +1,462 @@
+package titanicsend.pattern.pixelblaze;
+
+import heronarts.lx.color.LXColor;
+import heronarts.lx.model.LXPoint;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Base class of Pixelblaze scripts compiled to bytecode by PBCompiler. Generated subclasses hold
+ * the script's globals as fields and its functions as methods. This class provides the rest of what
+ * glue.js provides to scripts on Nashorn: the Pixelblaze API, Math functions and constants, and the
+ * per-frame calls to the script's controls, beforeRender() and render().
+ *
+ * <p>Like on Nashorn, all values are doubles, with true and false as 1 and 0, and undefined as NaN.
+ */
+public abstract class PBProgram {
+
+  // Globals visible to the script
+  protected double pixelCount;
+
+  private PBHost pattern;
+  private LXPoint[] points;
+  private int[] colors;
+  private double now;
+  private int color;
+
+  // Names of the script's slider functions, in the order used by invokeSlider()
+  String[] sliderKeys = new String[0];
+  private double[] sliderValues = new double[0];
+
+  // Whether render() changes state that later frames use, see copyFrame()
+  boolean renderKeepsState = false;
+
+  // Globals of each generated class, which are the only fields it declares
+  private static final ClassValue<Field[]> globalFields =
+      new ClassValue<>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+          return type.getDeclaredFields();
+        }
+      };
+
+  // Source of random(), replaced by tests to compare a run with one on Nashorn
+  DoubleSupplier random = Math::random;
+
+  /** Run the script's top-level code and register its sliders with the pattern */
+  void setup(PBHost pattern, LXPoint[] points) {
+    this.pattern = pattern;
+    this.points = points;
+    this.pixelCount = points.length;
+    this.now = pattern.getTimeMs();
+    init();
+
+    this.sliderValues = new double[this.sliderKeys.length];
+    // NaN never equals the slider value, so every slider is invoked on the first frame
+    Arrays.fill(this.sliderValues, Double.NaN);
+    if (pattern instanceof PBHost.Sliders sliders) {
+      for (String key : this.sliderKeys) {
+        sliders.addSlider(key, sentenceCase(key.substring(6)));
+      }
+    }
+  }
+
+  /** Update the controls and run the script's beforeRender() for a frame */
+  void beforeRender(double deltaMs, int[] colors) {
+    this.pixelCount = this.points.length;
+    this.now = this.pattern.getTimeMs();
+    this.colors = colors;
+    if (this.pattern instanceof PBHost.Sliders sliders) {
+      for (int i = 0; i < this.sliderKeys.length; i++) {
+        double value = sliders.getSlider(this.sliderKeys[i]);
+        if (this.sliderValues[i] != value) {
+          this.sliderValues[i] = value;
+          try {
+            invokeSlider(i, value);
+          } catch (RuntimeException e) {
+            // ignore, as the glue does
+          }
+        }
+      }
+    }
+    invokeBeforeRender(deltaMs);
+  }
+
+  /**
+   * Set up a frame by copying the globals of another instance of the same script after its
+   * beforeRender(), instead of running beforeRender() and the sliders again. Copies then render the
+   * frame as the source would, even if beforeRender() uses random(). Only useful while render()
+   * does not keep state of its own, as each copy renders different points.
+   */
+  void copyFrame(PBProgram source, int[] colors) {
+    this.pixelCount = source.pixelCount;
+    this.now = source.now;
+    this.colors = colors;
+    try {
+      for (Field field : globalFields.get(getClass())) {
+        if (field.getType() == double.class) {
+          field.setDouble(this, field.getDouble(source));
+          continue;
+        }
+        double[] from = (double[]) field.get(source);
+        double[] to = (double[]) field.get(this);
+        if (from == null || to == null || to.length != from.length) {
+          field.set(this, from == null ? null : from.clone());
+        } else {
+          System.arraycopy(from, 0, to, 0, from.length);
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Could not copy globals of " + getClass().getName(), e);
+    }
+  }
+
+  /** Run the script's render function for the points from start (inclusive) to end (exclusive) */
+  void renderPoints(int start, int end) {
+    final double xOffs = this.pattern.getXPos();
+    final double yOffs = -this.pattern.getYPos();
+    for (int i = start; i < end; i++) {
+      this.color = 0;
+      LXPoint point = this.points[i];
+      invokeRender(i, point.xn + xOffs, point.yn + yOffs, point.zn);
+      this.colors[point.index] = this.color;
+    }
+  }
+
+  // Implemented by the generated class
+
+  /** The script's top-level statements */
+  protected abstract void init();
+
+  protected abstract void invokeSlider(int slider, double value);
+
+  protected abstract void invokeBeforeRender(double delta);
+
+  /** Calls render3D(), render2D() or render(), whichever the script defines first */
+  protected abstract void invokeRender(double index, double x, double y, double z);
+
+  private static String sentenceCase(String text) {
+    String result = text.replaceAll("([A-Z])", " $1");
+    result = result.replace('_', ' ');
+    result = result.replace("  ", " ");
+    result = result.trim();
+    StringBuilder words = new StringBuilder();
+    for (String word : result.split(" ")) {
+      if (words.length() > 0) {
+        words.append(' ');
+      }
+      if (!word.isEmpty()) {
+        words.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+      }
+    }
+    return words.toString();
+  }
+
+  // JavaScript semantics used by generated code
+
+  protected static boolean truthy(double v) {
+    return v != 0 && !Double.isNaN(v);
+  }
+
+  /** ToInt32 of the ECMAScript spec, used by the bitwise operators */
+  protected static int toInt32(double v) {
+    return (int) (long) (v % 4294967296.0);
+  }
+
+  protected static double bitAnd(double a, double b) {
+    return toInt32(a) & toInt32(b);
+  }
+
+  protected static double bitOr(double a, double b) {
+    return toInt32(a) | toInt32(b);
+  }
+
+  protected static double bitXor(double a, double b) {
+    return toInt32(a) ^ toInt32(b);
+  }
+
+  protected static double bitNot(double a) {
+    return ~toInt32(a);
+  }
+
+  protected static double shiftLeft(double a, double b) {
+    return toInt32(a) << toInt32(b);
+  }
+
+  protected static double shiftRight(double a, double b) {
+    return toInt32(a) >> toInt32(b);
+  }
+
+  protected static double shiftRightUnsigned(double a, double b) {
+    return (toInt32(a) >>> toInt32(b)) & 0xffffffffL;
+  }
+
+  // Arrays. Reads outside of the array give undefined, and writes outside of it are dropped.
+
+  protected static double[] newArray(double n) {
+    return new double[n > 0 ? (int) n : 0];
+  }
+
+  protected static double load(double[] array, double index) {
+    final int i = (int) index;
+    if (i == index && i >= 0 && i < array.length) {
+      return array[i];
+    }
+    return Double.NaN;
+  }
+
+  protected static double store(double[] array, double index, double value) {
+    final int i = (int) index;
+    if (i == index && i >= 0 && i < array.length) {
+      array[i] = value;
+    }
+    return value;
+  }
+
+  // Math
+
+  protected double abs(double v) {
+    return Math.abs(v);
+  }
+
+  protected double acos(double v) {
+    return Math.acos(v);
+  }
+
+  protected double asin(double v) {
+    return Math.asin(v);
+  }
+
+  protected double atan(double v) {
+    return Math.atan(v);
+  }
+
+  protected double atan2(double y, double x) {
+    return Math.atan2(y, x);
+  }
+
+  protected double cbrt(double v) {
+    return Math.cbrt(v);
+  }
+
+  protected double ceil(double v) {
+    return Math.ceil(v);
+  }
+
+  protected double cos(double v) {
+    return Math.cos(v);
+  }
+
+  protected double exp(double v) {
+    return Math.exp(v);
+  }
+
+  protected double floor(double v) {
+    return Math.floor(v);
+  }
+
+  protected double log(double v) {
+    return Math.log(v);
+  }
+
+  protected double log2(double v) {
+    return Math.log(v) / Math.log(2);
+  }
+
+  protected double log10(double v) {
+    return Math.log10(v);
+  }
+
+  protected double max(double a, double b) {
+    return Math.max(a, b);
+  }
+
+  protected double min(double a, double b) {
+    return Math.min(a, b);
+  }
+
+  protected double pow(double a, double b) {
+    return Math.pow(a, b);
+  }
+
+  /** Rounds halves up, like JavaScript's Math.round() */
+  protected double round(double v) {
+    return Math.floor(v + 0.5);
+  }
+
+  protected double sign(double v) {
+    return Math.signum(v);
+  }
+
+  protected double sin(double v) {
+    return Math.sin(v);
+  }
+
+  protected double sqrt(double v) {
+    return Math.sqrt(v);
+  }
+
+  protected double tan(double v) {
+    return Math.tan(v);
+  }
+
+  protected double trunc(double v) {
+    return v < 0 ? Math.ceil(v) : Math.floor(v);
+  }
+
+  // Pixelblaze compatibility API
+
+  protected double random(double v) {
+    return this.random.getAsDouble() * v;
+  }
+
+  protected double time(double interval) {
+    return ((this.now / 65536) % interval) / interval;
+  }
+
+  protected double wave(double v) {
+    return (Math.sin(v * Math.PI * 2) + 1) / 2;
+  }
+
+  protected double triangle(double v) {
+    v = v * 2 % 2;
+    if (v < 0) v += 2;
+    return v < 1 ? v : 2 - v;
+  }
+
+  protected double clamp(double v, double min, double max) {
+    return Math.min(max, Math.max(min, v));
+  }
+
+  protected double hypot(double x, double y) {
+    return Math.sqrt(x * x + y * y);
+  }
+
+  // Color & Painting API
+
+  protected double hsv(double h, double s, double v) {
+    return this.color = Glue.hsv((float) h, (float) s, (float) v);
+  }
+
+  protected double rgb(double r, double g, double b) {
+    return this.color = Glue.rgb((float) r, (float) g, (float) b);
+  }
+
+  protected double rgba(double r, double g, double b, double a) {
+    return this.color = Glue.rgba((float) r, (float) g, (float) b, (float) a);
+  }
+
+  protected double paint(double v) {
+    return this.color = this.pattern.getGradientColor((float) v);
+  }
+
+  protected double getHue() {
+    return LXColor.h(this.color) / 360.0;
+  }
+
+  protected double getSaturation() {
+    return LXColor.s(this.color) / 100.0;
+  }
+
+  protected double getBrightness() {
+    return LXColor.b(this.color) / 100.0;
+  }
+
+  protected double setAlpha(double v) {
+    this.color = Glue.setAlpha(this.color, (float) v);
+    return Double.NaN;
+  }
+
+  // Sound reactive API
+
+  protected double isBeat() {
+    return this.pattern.getLX().engine.tempo.beat() ? 1 : 0;
+  }
+
+  protected double measure() {
+    return this.pattern.measure();
+  }
+
+  protected double wholeNote() {
+    return this.pattern.wholeNote();
+  }
+
+  protected double phrase() {
+    return this.pattern.phrase();
+  }
+
+  protected double getBassLevel() {
+    return this.pattern.getBassLevel();
+  }
+
+  protected double getTrebleLevel() {
+    return this.pattern.getTrebleLevel();
+  }
+
+  protected double getBassRatio() {
+    return this.pattern.getBassRatio();
+  }
+
+  protected double getTrebleRatio() {
+    return this.pattern.getTrebleRatio();
+  }
+
+  // Common controls
+
+  protected double getRotationAngleFromSpeed() {
+    return this.pattern.getRotationAngleFromSpeed();
+  }
+
+  protected double getRotationAngleFromSpin() {
+    return this.pattern.getRotationAngleFromSpin();
+  }
+
+  protected double getStaticRotationAngle() {
+    return this.pattern.getStaticRotationAngle();
+  }
+
+  protected double getTime() {
+    return this.pattern.getTime();
+  }
+
+  protected double getTimeMs() {
+    return this.pattern.getTimeMs();
+  }
+
+  protected double getSpeed() {
+    return this.pattern.getSpeed();
+  }
+
+  protected double getXPos() {
+    return this.pattern.getXPos();
+  }
+
+  protected double getYPos() {
+    return this.pattern.getYPos();
+  }
+
+  protected double getSize() {
+    return this.pattern.getSize();
+  }
+
+  protected double getQuantity() {
+    return this.pattern.getQuantity();
+  }
+
+  protected double getSpin() {
+    return this.pattern.getSpin();
+  }
+
+  protected double getWow1() {
+    return this.pattern.getWow1();
+  }
+
+  protected double getWow2() {
+    return this.pattern.getWow2();
+  }
+
+  protected double getWowTrigger() {
+    return this.pattern.getWowTrigger() ? 1 : 0;
+  }
+}
@@ -2,86 +2,324 @@ package titanicsend.pattern.pixelblaze;
 
 import heronarts.lx.LX;
 import heronarts.lx.model.LXPoint;
-import java.util.ArrayList;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.LXParameterListener;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
 import titanicsend.pattern.TEPerformancePattern;
 import titanicsend.pattern.yoffa.framework.TEShaderView;
 
+/**
+ * Renders Pixelblaze scripts on several threads: neon_ice on the edges and xorcery on the panels.
+ * Each worker has its own script engine, so every worker runs its own copy of each script, and
+ * renders a contiguous range of each section's points straight into the pattern's colors array. The
+ * ranges are resized from measured render times so that the workers finish at about the same time.
+ *
+ * <p>beforeRender() runs once per frame, in the first worker, and the other workers copy the state
+ * it leaves so that scripts using random() render alike. Scripts whose state can't be copied are
+ * rendered by the first worker alone. That includes every script running on Nashorn, whose globals
+ * live in each engine's bindings: running beforeRender() on every engine instead would let random()
+ * and state kept by render() differ between the ranges.
+ *
+ * <p>Workers are built on the pattern's thread pool, and the current workers keep rendering until a
+ * new set is ready. When a script changes, each worker reloads it on its own thread, and the
+ * section is rendered by the first worker alone until they all have.
+ */
 public class PixelblazeParallel extends TEPerformancePattern {
-  public static final int N_THREADS = 4;
-  private ArrayList<Wrapper> wrappers = new ArrayList<>();
-
-  ExecutorService es =
-      Executors.newFixedThreadPool(
-          N_THREADS,
-          new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-              Thread t = new Thread(r);
-              t.setDaemon(true);
-              t.setPriority(Thread.MIN_PRIORITY);
-              return t;
-            }
+  public static final int RENDER_ERROR_LOG_INTERVAL_MS = 5_000;
+
+  private static final int MAX_WORKERS = Runtime.getRuntime().availableProcessors();
+
+  // Frames between resizing the point ranges of the workers
+  private static final int REBALANCE_INTERVAL_FRAMES = 30;
+
+  // Weight of the newest measurement in a worker's smoothed render cost
+  private static final double COST_SMOOTHING = 0.2;
+
+  // Every worker keeps at least this fraction of its even share of a section,
+  // so that its render cost keeps being measured
+  private static final double MIN_SHARE = 0.25;
+
+  public final DiscreteParameter workerCount =
+      new DiscreteParameter("Workers", MAX_WORKERS, 1, MAX_WORKERS + 1)
+          .setDescription(
+              "Number of threads rendering the scripts, each with its own script engine");
+
+  /** Points rendered by one script, split into a range per worker */
+  private static class Section {
+    private final String scriptName;
+    private final LXPoint[] points;
+
+    // Worker i renders points bounds[i] (inclusive) to bounds[i + 1] (exclusive)
+    private int[] bounds;
+
+    // Whether this frame is split between the workers, or rendered by the first one alone
+    private boolean split;
+
+    private Section(String scriptName, List<LXPoint> points) {
+      this.scriptName = scriptName;
+      this.points = points.toArray(new LXPoint[0]);
+    }
+
+    private void split(int numWorkers) {
+      this.bounds = new int[numWorkers + 1];
+      for (int i = 0; i <= numWorkers; i++) {
+        this.bounds[i] = (int) ((long) this.points.length * i / numWorkers);
+      }
+    }
+
+    /** Give each worker a share of the points inversely proportional to its cost per point */
+    private void rebalance(double[] costs) {
+      final int numWorkers = costs.length;
+      double totalSpeed = 0;
+      for (double cost : costs) {
+        if (cost <= 0) {
+          // Not measured yet
+          return;
+        }
+        totalSpeed += 1 / cost;
+      }
+
+      final int minPoints = (int) (MIN_SHARE * this.points.length / numWorkers);
+      final int sharedPoints = this.points.length - minPoints * numWorkers;
+      double speed = 0;
+      for (int i = 1; i < numWorkers; i++) {
+        speed += 1 / costs[i - 1];
+        this.bounds[i] = minPoints * i + (int) Math.round(sharedPoints * speed / totalSpeed);
+      }
+      this.bounds[numWorkers] = this.points.length;
+    }
+  }
+
+  /** A thread's script engine and its scripts, one per section */
+  private class Worker {
+    private final Wrapper[] wrappers;
+
+    // Smoothed render time per point for each section, in nanoseconds
+    private final double[] costs;
+
+    private Worker(ScriptRuntime runtime) throws Exception {
+      this.wrappers = new Wrapper[sections.length];
+      this.costs = new double[sections.length];
+      for (int s = 0; s < sections.length; s++) {
+        this.wrappers[s] =
+            Wrapper.fromResource(
+                runtime, sections[s].scriptName, PixelblazeParallel.this, sections[s].points);
+        try {
+          this.wrappers[s].load();
+        } catch (Exception e) {
+          // The wrapper reloads once the script is fixed
+          LX.error(e, "Error loading Pixelblaze script " + sections[s].scriptName);
+        }
+      }
+    }
+
+    /** Reload the scripts that have changed. Called on the worker's own thread. */
+    private void reload() {
+      for (int s = 0; s < sections.length; s++) {
+        try {
+          this.wrappers[s].reloadIfNecessary();
+        } catch (Exception e) {
+          // The wrapper reloads once the script is fixed
+          LX.error(e, "Error loading Pixelblaze script " + sections[s].scriptName);
+        }
+      }
+    }
+
+    private void render(int index) {
+      for (int s = 0; s < sections.length; s++) {
+        final Wrapper wrapper = this.wrappers[s];
+        if (!sections[s].split) {
+          if (index == 0) {
+            wrapper.renderPoints(0, sections[s].points.length);
+          }
+          continue;
+        }
+        final int start = sections[s].bounds[index];
+        final int end = sections[s].bounds[index + 1];
+        if (start < end) {
+          long startNanos = System.nanoTime();
+          wrapper.renderPoints(start, end);
+          double cost = (double) (System.nanoTime() - startNanos) / (end - start);
+          this.costs[s] =
+              (this.costs[s] == 0) ? cost : this.costs[s] + COST_SMOOTHING * (cost - this.costs[s]);
+        }
+      }
+    }
+  }
+
+  private final Section[] sections;
+  private Worker[] workers = null;
+  private Future<?>[] futures = null;
+  private int frameCount = 0;
+  private long lastLogMs = 0;
+
+  // Workers being built on the pool, which take over once they are ready
+  private Future<Worker[]> nextWorkers = null;
+
+  // The engine thread renders for the first worker, the pool runs the others, and builds new
+  // workers so that creating script engines doesn't stall the engine.
+  private final ExecutorService pool =
+      Executors.newCachedThreadPool(
+          r -> {
+            Thread t = new Thread(r, "Pixelblaze Worker");
+            t.setDaemon(true);
+            return t;
           });
 
+  private final LXParameterListener workerCountListener = p -> buildWorkers();
+
   public PixelblazeParallel(LX lx) {
     super(lx, TEShaderView.ALL_POINTS);
 
-    try {
-      final List<LXPoint> edgePoints = this.modelTE.getEdgePoints();
-      final List<LXPoint> panelPoints = this.modelTE.getPanelPoints();
+    this.sections =
+        new Section[] {
+          new Section("neon_ice", this.modelTE.getEdgePoints()),
+          new Section("xorcery", this.modelTE.getPanelPoints())
+        };
 
-      // split edge points into chunks
-      int chunksize = (int) Math.ceil((float) edgePoints.size() / N_THREADS);
+    addParameter("workerCount", this.workerCount);
+    this.workerCount.addListener(this.workerCountListener);
+    buildWorkers();
+  }
 
-      for (int i = 0; i < edgePoints.size(); i += chunksize) {
-        List<LXPoint> chunk = edgePoints.subList(i, Math.min(i + chunksize, edgePoints.size() - 1));
-        LXPoint[] chunkPoints = new LXPoint[chunk.size()];
-        wrappers.add(Wrapper.fromResource("neon_ice", this, edgePoints.toArray(chunkPoints)));
-      }
+  /** Start building a set of workers on the pool, replacing any set still being built */
+  private void buildWorkers() {
+    if (this.nextWorkers != null) {
+      this.nextWorkers.cancel(true);
+    }
+    final int numWorkers = this.workerCount.getValuei();
+    this.nextWorkers =
+        this.pool.submit(
+            () -> {
+              Worker[] workers = new Worker[numWorkers];
+              for (int i = 0; i < numWorkers; i++) {
+                workers[i] = new Worker(new ScriptRuntime());
+              }
+              return workers;
+            });
+  }
 
-      chunksize = (int) Math.ceil((float) panelPoints.size() / N_THREADS);
-      for (int i = 0; i < panelPoints.size(); i += chunksize) {
-        List<LXPoint> chunk =
-            panelPoints.subList(i, Math.min(i + chunksize, panelPoints.size() - 1));
-        LXPoint[] chunkPoints = new LXPoint[chunk.size()];
-        wrappers.add(Wrapper.fromResource("xorcery", this, panelPoints.toArray(chunkPoints)));
-      }
-      LX.log("parallel chunks=" + wrappers.size());
+  /** Switch to the workers that were being built, if they are ready */
+  private void takeWorkers() {
+    if (this.nextWorkers == null || !this.nextWorkers.isDone()) {
+      return;
+    }
+    final Worker[] workers;
+    try {
+      workers = this.nextWorkers.get();
+    } catch (ExecutionException e) {
+      LX.error(e.getCause(), "Error initializing Pixelblaze workers");
+      return;
+    } catch (CancellationException | InterruptedException e) {
+      return;
+    } finally {
+      this.nextWorkers = null;
+    }
+    for (Section section : this.sections) {
+      section.split(workers.length);
+    }
+    this.workers = workers;
+    this.futures = new Future<?>[workers.length];
+    this.frameCount = 0;
+    LX.log("Pixelblaze parallel workers=" + workers.length);
+  }
 
-    } catch (Exception e) {
-      e.printStackTrace();
-      LX.error(e);
+  /**
+   * Run each script's beforeRender() in the first worker, and have the other workers copy its
+   * state. A section is split between the workers only if they all could. Workers that still have
+   * to reload a script do so on their own thread this frame, and take part again from the next.
+   */
+  private void beforeRender(Worker[] workers, double deltaMs) {
+    for (int s = 0; s < this.sections.length; s++) {
+      final Section section = this.sections[s];
+      section.split = false;
+      try {
+        final Wrapper lead = workers[0].wrappers[s];
+        lead.reloadIfNecessary();
+        lead.beforeRender(deltaMs, this.colors);
+        boolean split = true;
+        for (int i = 1; i < workers.length && split; i++) {
+          final Wrapper wrapper = workers[i].wrappers[s];
+          split = !wrapper.needsReload() && wrapper.copyBeforeRender(lead, this.colors);
+        }
+        section.split = split;
+      } catch (Exception e) {
+        logRenderError(e);
+      }
     }
   }
 
+  @Override
   public void runTEAudioPattern(double deltaMs) {
-    if (wrappers.size() == 0) return;
+    takeWorkers();
+    if (this.workers == null) {
+      return;
+    }
+    final Worker[] workers = this.workers;
+    beforeRender(workers, deltaMs);
+
+    // Workers write to separate points of the colors array, so there is nothing to merge
+    // once they are done.
+    for (int i = 1; i < workers.length; i++) {
+      final int index = i;
+      this.futures[i] =
+          this.pool.submit(
+              () -> {
+                workers[index].reload();
+                workers[index].render(index);
+                return null;
+              });
+    }
     try {
-      ArrayList<Future<Void>> futures = new ArrayList<>(wrappers.size());
-      for (Wrapper wrapper : wrappers) {
-        futures.add(
-            es.submit(
-                (Callable<Void>)
-                    () -> {
-                      wrapper.reloadIfNecessary();
-                      wrapper.render(deltaMs, colors);
-                      return null;
-                    }));
+      workers[0].render(0);
+    } catch (Exception e) {
+      logRenderError(e);
+    }
+    for (int i = 1; i < workers.length; i++) {
+      try {
+        this.futures[i].get();
+      } catch (ExecutionException e) {
+        logRenderError(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
       }
+    }
 
-      for (Future<Void> future : futures) {
-        future.get(); // block until done
+    if (++this.frameCount % REBALANCE_INTERVAL_FRAMES == 0) {
+      double[] costs = new double[workers.length];
+      for (int s = 0; s < this.sections.length; s++) {
+        if (!this.sections[s].split) {
+          continue;
+        }
+        for (int i = 0; i < workers.length; i++) {
+          costs[i] = workers[i].costs[s];
+        }
+        this.sections[s].rebalance(costs);
       }
-    } catch (Exception e) {
-      e.printStackTrace();
-      LX.error(e);
-      return;
     }
   }
+
+  private void logRenderError(Throwable t) {
+    // the show must go on, and we don't want to spam the logs.
+    if (System.currentTimeMillis() - this.lastLogMs > RENDER_ERROR_LOG_INTERVAL_MS) {
+      LX.log("Error rendering Pixelblaze script:" + t.getMessage());
+      this.lastLogMs = System.currentTimeMillis();
+    }
+  }
+
+  @Override
+  public void dispose() {
+    this.workerCount.removeListener(this.workerCountListener);
+    this.pool.shutdownNow();
+    this.nextWorkers = null;
+    this.workers = null;
+    this.futures = null;
+    super.dispose();
+  }
 }
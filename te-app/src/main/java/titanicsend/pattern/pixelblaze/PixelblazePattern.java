@@ -12,7 +12,7 @@ import javax.script.ScriptException;
 import titanicsend.pattern.TEPerformancePattern;
 import titanicsend.pattern.yoffa.framework.TEShaderView;
 
-public abstract class PixelblazePattern extends TEPerformancePattern {
+public abstract class PixelblazePattern extends TEPerformancePattern implements PBHost.Sliders {
   public static final int RENDER_ERROR_LOG_INTERVAL_MS = 5_000;
   private Wrapper wrapper;
   long lastLogMs = 0; // to prevent spamming the logs with script errors
@@ -91,6 +91,7 @@ public abstract class PixelblazePattern extends TEPerformancePattern {
    * @param key
    * @param label
    */
+  @Override
   public void addSlider(String key, String label) {
     if (parameters.containsKey(key)) {
       return;
@@ -107,6 +108,7 @@ public abstract class PixelblazePattern extends TEPerformancePattern {
    * @param key
    * @return
    */
+  @Override
   public double getSlider(String key) {
     LXParameter parameter = parameters.get(key);
     if (parameter != null) {
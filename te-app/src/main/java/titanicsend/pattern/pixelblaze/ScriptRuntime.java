@@ -0,0 +1,72 @@
+package titanicsend.pattern.pixelblaze;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory;
+
+/**
+ * A Nashorn script engine and the scripts compiled for it. Wrappers on the same runtime must not
+ * render at the same time, so code that renders Pixelblaze scripts on several threads gives each
+ * thread its own runtime. Compiled scripts, including the glue, are kept until ScriptWatcher
+ * publishes a new version of their file, which is then compiled by the thread asking for it.
+ */
+public class ScriptRuntime {
+
+  private static final NashornScriptEngineFactory factory = new NashornScriptEngineFactory();
+
+  /** Runtime for patterns that render on the engine thread */
+  static final ScriptRuntime shared = new ScriptRuntime();
+
+  private final ScriptEngine engine;
+  private final Compilable compilingEngine;
+  private final HashMap<Path, CachedScript> scripts = new HashMap<>();
+
+  private static class CachedScript {
+    final CompiledScript compiledScript;
+    final int version;
+
+    CachedScript(CompiledScript compiledScript, int version) {
+      this.compiledScript = compiledScript;
+      this.version = version;
+    }
+  }
+
+  public ScriptRuntime() {
+    this.engine = factory.getScriptEngine("--language=es6");
+    this.compilingEngine = (Compilable) this.engine;
+    ScriptWatcher.watch(ScriptWatcher.GLUE);
+  }
+
+  /** Create a new global scope for a script on this runtime */
+  Bindings createBindings() {
+    return this.engine.createBindings();
+  }
+
+  /** The glue script, compiled once for this runtime */
+  CompiledScript getGlue() throws ScriptException, IOException {
+    return compile(ScriptWatcher.GLUE);
+  }
+
+  /** Compile a script for this runtime, or return the cached copy if the file is unchanged */
+  synchronized CompiledScript compile(Path path) throws ScriptException, IOException {
+    path = ScriptWatcher.normalize(path);
+    final ScriptWatcher.Script script = ScriptWatcher.getScript(path);
+    CachedScript cachedScript = this.scripts.get(path);
+    if (cachedScript == null || cachedScript.version != script.version()) {
+      String js = script.source();
+      js = js.replaceAll("\\bexport\\b", "");
+      CompiledScript compiled = this.compilingEngine.compile(js);
+
+      cachedScript = new CachedScript(compiled, script.version());
+      this.scripts.put(path, cachedScript);
+    }
+
+    return cachedScript.compiledScript;
+  }
+}
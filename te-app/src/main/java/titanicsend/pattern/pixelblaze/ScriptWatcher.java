@@ -0,0 +1,199 @@
+package titanicsend.pattern.pixelblaze;
+
+import heronarts.lx.LX;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the directories of Pixelblaze scripts for changes, so that wrappers don't have to check
+ * the files on every frame. Each watched file has a version, bumped whenever the file changes, and
+ * compiled scripts are cached per version.
+ *
+ * <p>The watcher thread reads a changed file once and publishes its source with the new version as
+ * an immutable Script, so readers always see a version together with its own source. It compiles
+ * the new version to bytecode, which is not tied to a script engine, before publishing it. Nashorn
+ * scripts belong to the engine that compiled them, so each ScriptRuntime compiles the published
+ * source on its own thread when a wrapper reloads.
+ *
+ * <p>The macOS WatchService polls and can take seconds to notice a change, so there the watcher
+ * thread also compares the modification times of the watched files a few times per second.
+ */
+public class ScriptWatcher {
+
+  public static final Path GLUE = normalize(Path.of("resources/pixelblaze/glue.js"));
+
+  // Editors often save a file in several steps, so changes are collected for this long
+  private static final long SETTLE_MS = 50;
+
+  // Whether events can come late, so that modification times are checked as well
+  private static final boolean POLL_MODIFIED_TIMES =
+      System.getProperty("os.name", "").toLowerCase().contains("mac");
+
+  // Interval at which watched files are checked for a new modification time
+  private static final long POLL_MS = 250;
+
+  private static final FileTime MISSING = FileTime.fromMillis(0);
+
+  /** A version of a script file and its source */
+  record Script(int version, String source) {}
+
+  private static final Map<Path, Script> scripts = new ConcurrentHashMap<>();
+
+  // Modification time of each watched file as of its current version, when polling
+  private static final Map<Path, FileTime> modified = new ConcurrentHashMap<>();
+
+  private static final Set<Path> directories = new HashSet<>();
+  private static WatchService watchService = null;
+  private static boolean failed = false;
+
+  /** Key used for a file by the watcher and the script caches */
+  static Path normalize(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+
+  /**
+   * Version of a file, which changes whenever the file is modified. Cheap enough to call every
+   * frame.
+   */
+  public static int getVersion(Path path) {
+    final Script script = scripts.get(normalize(path));
+    return script == null ? 0 : script.version();
+  }
+
+  /** Current version of a script and its source, read from the file the first time */
+  static Script getScript(Path path) throws IOException {
+    try {
+      return scripts.computeIfAbsent(
+          normalize(path),
+          p -> {
+            try {
+              return new Script(0, Files.readString(p));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Start watching a script file, and its directory if it isn't watched already */
+  static synchronized void watch(Path path) {
+    final Path file = normalize(path);
+    final Path directory = file.getParent();
+    if (failed || directory == null) {
+      return;
+    }
+    if (POLL_MODIFIED_TIMES) {
+      modified.computeIfAbsent(file, ScriptWatcher::getModifiedTime);
+    }
+    if (directories.contains(directory)) {
+      return;
+    }
+    try {
+      if (watchService == null) {
+        watchService = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(ScriptWatcher::run, "Pixelblaze Script Watcher");
+        thread.setDaemon(true);
+        thread.start();
+      }
+      directory.register(
+          watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      directories.add(directory);
+    } catch (IOException e) {
+      // Scripts still load, they just won't reload when edited
+      failed = true;
+      LX.error(e, "Could not watch Pixelblaze scripts for changes, hot reload is disabled");
+    }
+  }
+
+  private static void run() {
+    try {
+      while (true) {
+        Set<Path> changed = new LinkedHashSet<>();
+        WatchKey key =
+            POLL_MODIFIED_TIMES
+                ? watchService.poll(POLL_MS, TimeUnit.MILLISECONDS)
+                : watchService.take();
+        while (key != null) {
+          collect(key, changed);
+          key = watchService.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
+        }
+        if (POLL_MODIFIED_TIMES) {
+          changed.addAll(modified.keySet());
+        }
+
+        for (Path path : changed) {
+          if (POLL_MODIFIED_TIMES) {
+            // Watched files only count as changed when their modification time moved, so that
+            // an event and the polling don't both reload the same change
+            final FileTime time = getModifiedTime(path);
+            final FileTime previous = modified.get(path);
+            if (previous != null) {
+              if (previous.equals(time)) {
+                continue;
+              }
+              modified.put(path, time);
+            }
+          }
+          publish(path);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // exit
+    }
+  }
+
+  private static FileTime getModifiedTime(Path path) {
+    try {
+      return Files.getLastModifiedTime(path);
+    } catch (IOException e) {
+      return MISSING;
+    }
+  }
+
+  private static void collect(WatchKey key, Set<Path> changed) {
+    final Path directory = (Path) key.watchable();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.context() instanceof Path name && name.toString().endsWith(".js")) {
+        changed.add(normalize(directory.resolve(name)));
+      }
+    }
+    key.reset();
+  }
+
+  /** Read a changed file, compile it to bytecode, then publish it as the next version */
+  private static void publish(Path path) {
+    final String source;
+    try {
+      source = Files.readString(path);
+    } catch (IOException e) {
+      // Saved in several steps, a later event brings the rest
+      LX.log("Could not read changed Pixelblaze script " + path.getFileName() + ": " + e);
+      return;
+    }
+    final Script script = new Script(getVersion(path) + 1, source);
+    try {
+      PBCompiler.recompile(path, script);
+    } catch (Exception e) {
+      // The wrappers report the error when they reload
+      LX.log("Error compiling changed Pixelblaze script " + path.getFileName() + ": " + e);
+    }
+    scripts.put(path, script);
+  }
+}
@@ -4,80 +4,75 @@ import heronarts.lx.LX;
 import heronarts.lx.model.LXPoint;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
 import javax.script.Bindings;
-import javax.script.Compilable;
 import javax.script.CompiledScript;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import org.openjdk.nashorn.api.scripting.JSObject;
-import org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import titanicsend.pattern.TEPerformancePattern;
 
 public class Wrapper {
 
-  // NOTE these are thread-safe, if used with separate bindings
-  // https://stackoverflow.com/a/30159424/910094
-  static final ScriptEngine engine;
-  static final Compilable compilingEngine;
-  static HashMap<Path, CachedScript> scripts = new HashMap<>();
-
-  static {
-    NashornScriptEngineFactory factory = new NashornScriptEngineFactory();
-    engine = factory.getScriptEngine("--language=es6");
-    compilingEngine = (Compilable) engine;
-  }
-
-  static class CachedScript {
-    CompiledScript compiledScript;
-    long lastModified;
-
-    public CachedScript(CompiledScript compiledScript, long lastModified) {
-      this.compiledScript = compiledScript;
-      this.lastModified = lastModified;
-    }
-  }
-
-  static synchronized CompiledScript compile(Path path) throws ScriptException, IOException {
-    CachedScript cachedScript = scripts.get(path);
-    File file = path.toFile();
-    if (cachedScript == null || cachedScript.lastModified != file.lastModified()) {
-      String js = Files.readString(file.toPath());
-      long lastModified = file.lastModified();
-      js = js.replaceAll("\\bexport\\b", "");
-      CompiledScript compiled = compilingEngine.compile(js);
-
-      cachedScript = new CachedScript(compiled, lastModified);
-      scripts.put(path, cachedScript);
-    }
-
-    return cachedScript.compiledScript;
+  public static Wrapper fromResource(String pbClass, TEPerformancePattern pattern, LXPoint[] points)
+      throws Exception {
+    return fromResource(ScriptRuntime.shared, pbClass, pattern, points);
   }
 
-  public static Wrapper fromResource(String pbClass, TEPerformancePattern pattern, LXPoint[] points)
+  public static Wrapper fromResource(
+      ScriptRuntime runtime, String pbClass, TEPerformancePattern pattern, LXPoint[] points)
       throws Exception {
-    return new Wrapper(new File("resources/pixelblaze/" + pbClass + ".js"), pattern, points);
+    return new Wrapper(
+        runtime, new File("resources/pixelblaze/" + pbClass + ".js"), pattern, points);
   }
 
+  final ScriptRuntime runtime;
   File file;
+  final Path path;
   TEPerformancePattern pattern;
   LXPoint[] points;
-  long lastModified;
-  Bindings bindings = engine.createBindings();
+  // Sum of the ScriptWatcher versions of the script and the glue when last loaded
+  int loadedVersion = -1;
+  Bindings bindings;
   String renderName;
   boolean hasError = false;
 
+  // The script compiled to bytecode, or null if it runs on Nashorn
+  PBProgram program;
+
   public Wrapper(File file, TEPerformancePattern pattern, LXPoint[] points)
       throws ScriptException, IOException {
+    this(ScriptRuntime.shared, file, pattern, points);
+  }
+
+  /**
+   * @param runtime Script engine to run on. Wrappers sharing a runtime must render one at a time.
+   */
+  public Wrapper(ScriptRuntime runtime, File file, TEPerformancePattern pattern, LXPoint[] points)
+      throws ScriptException, IOException {
+    this.runtime = runtime;
     this.file = file;
+    this.path = ScriptWatcher.normalize(file.toPath());
     this.pattern = pattern;
     this.points = points;
+    this.bindings = runtime.createBindings();
+    ScriptWatcher.watch(this.path);
   }
 
+  private int getVersion() {
+    return ScriptWatcher.getVersion(path) + ScriptWatcher.getVersion(ScriptWatcher.GLUE);
+  }
+
+  /** Whether the script hasn't been loaded yet or has changed since it was loaded */
+  public boolean needsReload() {
+    return getVersion() != loadedVersion;
+  }
+
+  /**
+   * Load the script if it hasn't been loaded yet or has changed. Changes are detected by
+   * ScriptWatcher, so this doesn't touch the file system unless there is something to load.
+   */
   public void reloadIfNecessary() throws ScriptException, IOException, NoSuchMethodException {
-    if (file.lastModified() != lastModified) {
+    if (needsReload()) {
       LX.log("Reloading pattern: " + file.getName());
       load();
     }
@@ -85,12 +80,24 @@ public class Wrapper {
 
   public void load() throws IOException, ScriptException, NoSuchMethodException {
     try {
-
-      bindings = engine.createBindings();
-
-      CompiledScript glueScript = compile(Path.of("resources/pixelblaze/glue.js"));
-      CompiledScript patternScript = compile(file.toPath());
-      lastModified = file.lastModified();
+      loadedVersion = getVersion();
+      program = PBCompiler.load(path);
+      if (program != null) {
+        try {
+          program.setup(pattern, points);
+          LX.log("Pattern loaded, ready:" + file.getName());
+          hasError = false;
+          return;
+        } catch (LinkageError e) {
+          PBCompiler.fallBack(path, ScriptWatcher.getVersion(path), e);
+          program = null;
+        }
+      }
+
+      bindings = runtime.createBindings();
+
+      CompiledScript glueScript = runtime.getGlue();
+      CompiledScript patternScript = runtime.compile(path);
 
       bindings.put("pixelCount", points.length);
       bindings.put("__pattern", pattern);
@@ -111,6 +118,25 @@ public class Wrapper {
 
   public void render(double deltaMs, int[] colors) throws ScriptException, NoSuchMethodException {
     if (hasError) return;
+    beforeRender(deltaMs, colors);
+    if (program != null) {
+      program.renderPoints(0, points.length);
+      return;
+    }
+    JSObject glueRender = (JSObject) bindings.get("glueRender");
+    if (glueRender != null) glueRender.call(null);
+  }
+
+  /**
+   * Run the script's beforeRender() for a frame. Used with renderPoints() to render a frame in
+   * parts.
+   */
+  public void beforeRender(double deltaMs, int[] colors) {
+    if (hasError) return;
+    if (program != null) {
+      program.beforeRender(deltaMs, colors);
+      return;
+    }
     bindings.put("__now", pattern.getTimeMs());
     bindings.put("__points", points);
     bindings.put("__colors", colors);
@@ -118,8 +144,42 @@ public class Wrapper {
     JSObject glueBeforeRender = (JSObject) bindings.get("glueBeforeRender");
     if (glueBeforeRender != null)
       glueBeforeRender.call(null, deltaMs, pattern.getTimeMs(), points, colors);
+  }
+
+  /**
+   * Set up a frame by copying the state of another wrapper of the same script after its
+   * beforeRender(), instead of running beforeRender() again, so that both render the frame the same
+   * way. Used with renderPoints() to render a frame in parts.
+   *
+   * @return false if the state can't be copied, because the script runs on Nashorn or its render()
+   *     keeps state of its own. The script then has to render all of its points in one wrapper.
+   */
+  public boolean copyBeforeRender(Wrapper source, int[] colors) {
+    if (hasError
+        || source.hasError
+        || program == null
+        || source.program == null
+        || program.getClass() != source.program.getClass()
+        || program.renderKeepsState) {
+      return false;
+    }
+    program.copyFrame(source.program, colors);
+    return true;
+  }
+
+  /**
+   * Render the points from start (inclusive) to end (exclusive), after beforeRender(). The script
+   * still sees all of the wrapper's points, so pixelCount and the index passed to render() are the
+   * same as when rendering everything at once.
+   */
+  public void renderPoints(int start, int end) {
+    if (hasError) return;
+    if (program != null) {
+      program.renderPoints(start, end);
+      return;
+    }
     JSObject glueRender = (JSObject) bindings.get("glueRender");
-    if (glueRender != null) glueRender.call(null);
+    if (glueRender != null) glueRender.call(null, start, end);
   }
 
   /**
@@ -2,7 +2,6 @@ package titanicsend.pattern.yoffa.shader_engine;
 
 import static com.jogamp.opengl.GL.GL_ARRAY_BUFFER;
 import static com.jogamp.opengl.GL.GL_BACK;
-import static com.jogamp.opengl.GL.GL_BGRA;
 import static com.jogamp.opengl.GL.GL_CLAMP_TO_EDGE;
 import static com.jogamp.opengl.GL.GL_ELEMENT_ARRAY_BUFFER;
 import static com.jogamp.opengl.GL.GL_FLOAT;
@@ -13,7 +12,6 @@ import static com.jogamp.opengl.GL.GL_TEXTURE_MAG_FILTER;
 import static com.jogamp.opengl.GL.GL_TEXTURE_MIN_FILTER;
 import static com.jogamp.opengl.GL.GL_TEXTURE_WRAP_S;
 import static com.jogamp.opengl.GL.GL_TEXTURE_WRAP_T;
-import static com.jogamp.opengl.GL.GL_UNSIGNED_BYTE;
 
 import Jama.Matrix;
 import com.jogamp.common.nio.Buffers;
@@ -38,6 +36,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import titanicsend.pattern.glengine.GLEngine;
+import titanicsend.pattern.glengine.ReadbackRing;
+import titanicsend.pattern.glengine.UniformBlock;
 
 // Technically we don't need to implement GLEventListener unless we plan on rendering on screen,
 // but let's leave it for good practice.
@@ -69,7 +70,11 @@ public class NativeShader implements GLEventListener {
   private final Map<Integer, Texture> textures;
   private int textureKey;
   private ShaderProgram shaderProgram;
+
+  // Per-shader uniform block of the TE shader template
+  private UniformBlock uniformBlock;
   ByteBuffer backBuffer;
+  private ReadbackRing readback;
   private PatternControlData controlData;
   private final int audioTextureWidth;
   private final int audioTextureHeight;
@@ -121,6 +126,14 @@ public class NativeShader implements GLEventListener {
   public void cleanupGLHandles(GL4 gl4) {
     gl4.glDeleteBuffers(2, geometryBufferHandles, 0);
     gl4.glDeleteTextures(1, audioTextureHandle, 0);
+    if (this.uniformBlock != null) {
+      this.uniformBlock.dispose();
+      this.uniformBlock = null;
+    }
+    if (this.readback != null) {
+      this.readback.dispose();
+      this.readback = null;
+    }
   }
 
   @Override
@@ -134,18 +147,34 @@ public class NativeShader implements GLEventListener {
     textureKey = 1;
 
     setUniforms(gl4);
+    if (this.uniformBlock != null) {
+      this.uniformBlock.bind();
+    }
 
     render(gl4);
+    if (this.uniformBlock != null) {
+      this.uniformBlock.fence();
+    }
     saveSnapshot(gl4, width, height);
   }
 
   private void saveSnapshot(GL4 gl4, int width, int height) {
-    backBuffer.rewind();
+    GLEngine glEngine = GLEngine.current;
+    int depth = glEngine != null ? glEngine.readbackDepth.getValuei() : 2;
+    if (this.readback == null) {
+      this.readback = new ReadbackRing(gl4, width, height, depth);
+    } else {
+      this.readback.setDepth(depth);
+    }
     gl4.glReadBuffer(GL_BACK);
 
-    // using BGRA byte order lets us read int values from the buffer and pass them
-    // directly to LX as colors, without any additional work on the Java side.
-    gl4.glReadPixels(0, 0, width, height, GL_BGRA, GL_UNSIGNED_BYTE, backBuffer);
+    // Read asynchronously through PBOs. The PBO ring reads BGRA, which lets us read int
+    // values from the buffer and pass them directly to LX as colors, without any additional
+    // work on the Java side. If no frame is ready the back buffer keeps the previous frame.
+    this.readback.startRead();
+    this.readback.read(
+        this.backBuffer,
+        glEngine != null ? glEngine.readbackPolicy.getEnum() : ReadbackRing.Policy.NEWEST);
   }
 
   private int position;
@@ -324,6 +353,12 @@ public class NativeShader implements GLEventListener {
     shaderProgram = new ShaderProgram(gl4, fragmentShader.getShaderName());
 
     allocateShaderBuffers(gl4);
+    this.uniformBlock =
+        UniformBlock.create(
+            gl4,
+            shaderProgram.id,
+            UniformNames.PER_SHADER_BLOCK,
+            GLEngine.perShaderUniformBlockBinding);
   }
 
   private void loadTextureFiles(FragmentShader fragmentShader) {
@@ -404,6 +439,9 @@ public class NativeShader implements GLEventListener {
     for (Uniform uniform : this.uniforms) {
       if (uniform.hasUpdate()) {
         uniform.update();
+        if (uniform.isBlockMember()) {
+          this.uniformBlock.setModified();
+        }
       }
     }
   }
@@ -578,6 +616,9 @@ public class NativeShader implements GLEventListener {
       // } else {
       uniform = Uniform.create(this.gl4, name, location, type);
       // }
+      if (location == Uniform.LOCATION_NOT_FOUND && this.uniformBlock != null) {
+        this.uniformBlock.addMember(uniform);
+      }
       this.uniformMap.put(name, uniform);
       this.mutableUniforms.add(uniform);
     }
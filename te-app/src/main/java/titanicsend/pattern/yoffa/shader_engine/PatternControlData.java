@@ -1,23 +1,15 @@
 package titanicsend.pattern.yoffa.shader_engine;
 
-import heronarts.lx.audio.GraphicMeter;
 import java.nio.FloatBuffer;
 import titanicsend.pattern.TEPerformancePattern;
+import titanicsend.pattern.glengine.GLEngine;
 
 public class PatternControlData {
 
   TEPerformancePattern parent;
 
-  // TODO - Legacy audio processing code preserved for compatibility
-  // TODO - with old shaders.  This should be removed at some point.
-  // TODO - The new (GLShaderPattern, etc.) system doesn't use it.
-  GraphicMeter meter;
-  float fftResampleFactor;
-
   public PatternControlData(TEPerformancePattern pattern) {
     this.parent = pattern;
-    this.meter = pattern.getLX().engine.audio.meter;
-    fftResampleFactor = meter.bands.length / 512f;
   }
 
   public double getTime() {
@@ -25,15 +17,14 @@ public class PatternControlData {
   }
 
   /**
-   * Retrieve a single sample of the current frame's fft data from the engine NOTE: 512 samples can
-   * always be retrieved, regardless of how many bands the engine actually supplies. Data will be
-   * properly distributed (but not smoothed or interpolated) across the full 512 sample range.
+   * Retrieve a single sample of the current frame's log-spaced spectrum from the engine's audio
+   * analyzer, the same data as the first row of the GL audio texture.
    *
    * @param index (0-511) of the sample to retrieve.
-   * @return fft sample, normalized to range 0 to 1.
+   * @return spectrum sample, normalized to range 0 to 1.
    */
   public float getFrequencyData(int index) {
-    return meter.getBandf((int) Math.floor((float) index * fftResampleFactor));
+    return GLEngine.getAudio().spectrum[index];
   }
 
   /**
@@ -43,7 +34,7 @@ public class PatternControlData {
    * @return waveform sample, range -1 to 1
    */
   public float getWaveformData(int index) {
-    return meter.getSamples()[index];
+    return GLEngine.getAudio().waveform[index];
   }
 
   public double getBeat() {
@@ -17,10 +17,14 @@ public class ShaderProgram {
     this.name = shaderName;
     this.id = gl4.glCreateProgram();
 
-    boolean inCache = ShaderUtils.loadShaderFromCache(gl4, this.id, shaderName);
-    if (!inCache) {
-      ShaderUtils.buildShader(gl4, id, shaderName, tePreProcess);
-    }
+    ShaderUtils.loadShader(gl4, this.id, shaderName, tePreProcess);
+  }
+
+  /** Wrap a program that was already built, for example by a background compiler */
+  public ShaderProgram(GL4 gl4, String shaderName, int programId) {
+    this.gl4 = gl4;
+    this.name = shaderName;
+    this.id = programId;
   }
 
   public void dispose() {
@@ -5,23 +5,35 @@ import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL4;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLContext;
 import com.jogamp.opengl.GLDrawableFactory;
 import com.jogamp.opengl.GLProfile;
 import com.jogamp.opengl.util.GLBuffers;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import titanicsend.pattern.glengine.GLPreprocessor;
-import titanicsend.pattern.glengine.ShaderConfiguration;
 import titanicsend.util.TE;
 
 public class ShaderUtils {
@@ -35,8 +47,9 @@ public class ShaderUtils {
   public static final String SHADER_BODY_PLACEHOLDER = "{{%shader_body%}}";
   public static final Pattern PLACEHOLDER_FINDER = Pattern.compile("\\{%(.*?)(\\[(.*?)\\])??\\}");
 
-  // Global "compile VAO" for use during program validation
-  private static final int[] compileVao = new int[] {0};
+  // "Compile VAOs" for use during program validation. VAOs are not shared between contexts, so
+  // each context that compiles shaders has its own.
+  private static final Map<GLContext, Integer> compileVaos = new ConcurrentHashMap<>();
 
   public static String loadResource(File file) {
     try {
@@ -106,138 +119,227 @@ public class ShaderUtils {
     return String.format(CACHE_PATH + "%s.bin", parts[0]);
   }
 
-  static boolean isNewerThan(File f1, File f2) {
-    // if either of the files doesn't exist, clearly *something* has been modified
-    // in this case returning true will result in either a recompile or an exception,
-    // depending on which file is missing.
-    if (!f1.exists()) {
-      return true;
-    }
-    if (!f2.exists()) {
-      return true;
+  /**
+   * Load the fragment shader source for a program, expanded by the TE preprocessor if needed.
+   *
+   * @param shaderName filename (without path) of fragment shader
+   * @param tePreProcess whether to perform te pre-processing and merge with template shader
+   */
+  public static String preprocessShader(String shaderName, boolean tePreProcess) {
+    if (!tePreProcess) {
+      return loadResource(SHADER_PATH + shaderName);
     }
-    // return true if file1 is newer than file2
-    if (f1.lastModified() > f2.lastModified()) {
-      return true;
+    try {
+      return new GLPreprocessor()
+          .preprocessShader(new File(SHADER_PATH + shaderName), new ArrayList<>());
+    } catch (Exception e) {
+      throw new RuntimeException(e);
     }
-    return false;
   }
 
-  static boolean isNewerThan(String file1, String file2) {
-    File f1 = new File(file1);
-    File f2 = new File(file2);
+  /**
+   * True if a shader file is compiled with TE pre-processing. Shaders that are used as-is, such as
+   * the mixer's blend shaders, declare their own GLSL version.
+   */
+  public static boolean usesTEPreProcess(String shaderText) {
+    return !shaderText.stripLeading().startsWith("#version");
+  }
+
+  // Program binary cache
+
+  // Bump if the layout of cache files changes
+  private static final int CACHE_FILE_VERSION = 1;
+
+  private static final AtomicInteger cacheHits = new AtomicInteger();
+  private static final AtomicInteger cacheMisses = new AtomicInteger();
+
+  /** Number of programs loaded from the shader cache since startup */
+  public static int getCacheHits() {
+    return cacheHits.get();
+  }
 
-    return isNewerThan(f1, f2);
+  /** Number of programs that had to be compiled because the cache was missing or stale */
+  public static int getCacheMisses() {
+    return cacheMisses.get();
   }
 
   /**
-   * True if we need to recompile this shader because either the framework or the shader code have
-   * been modified since last compile, false otherwise
-   *
-   * @param shaderFile path to the shader's glsl file
-   * @return true if recompile needed, false otherwise
+   * True if the OpenGL driver can save and load program binaries. Not the case on macOS, where
+   * every shader is compiled when it is first used.
    */
-  public static boolean needsRecompile(String shaderFile) {
-    String cacheFile = ShaderUtils.getCacheFilename(shaderFile);
+  public static boolean isBinaryCacheSupported(GL4 gl4) {
+    int[] fmtCount = new int[1];
+    gl4.glGetIntegerv(GL4.GL_NUM_PROGRAM_BINARY_FORMATS, fmtCount, 0);
+    return fmtCount[0] > 0;
+  }
 
-    if (isNewerThan(FRAMEWORK_PATH + "default.vs", cacheFile)) {
-      // TE.log("Vertex shader framework has been modified.");
-      return true;
+  /**
+   * Key identifying a program binary in the cache. Changes whenever the preprocessed fragment
+   * shader source (with all includes expanded), the shader framework files or the OpenGL driver
+   * change, so stale binaries are never loaded.
+   *
+   * @param gl4 an active OpenGL context
+   * @param fragmentSource fragment shader source as it is passed to the compiler
+   */
+  public static String getCacheKey(GL4 gl4, String fragmentSource) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
     }
-
-    if (isNewerThan(FRAMEWORK_PATH + "template.fs", cacheFile)) {
-      // TE.err("Fragment shader framework been modified.");
-      return true;
+    for (String part :
+        new String[] {
+          gl4.glGetString(GL.GL_VENDOR),
+          gl4.glGetString(GL.GL_RENDERER),
+          gl4.glGetString(GL.GL_VERSION),
+          getVertexShaderTemplate(),
+          loadResource(FRAMEWORK_PATH + "template.fs"),
+          fragmentSource
+        }) {
+      digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+      // Separator, so that moving text between parts changes the key
+      digest.update((byte) 0);
     }
+    return HexFormat.of().formatHex(digest.digest());
+  }
 
-    if (isNewerThan(SHADER_PATH + shaderFile, cacheFile)) {
-      // TE.log("Shader '%s` has been modified.",shaderFile);
-      return true;
+  /** True if the cache holds a binary for this shader with a matching key */
+  public static boolean isCached(String shaderName, String cacheKey) {
+    File cacheFile = new File(getCacheFilename(shaderName));
+    if (!cacheFile.exists()) {
+      return false;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+      return in.readInt() == CACHE_FILE_VERSION && in.readUTF().equals(cacheKey);
+    } catch (IOException e) {
+      return false;
     }
-
-    // if here, no recompile needed.
-    return false;
   }
 
   /**
-   * Attempts to read the named shader from resources/shaders/cache. Returns a ByteBuffer full of
-   * shader binary if successful, null otherwise.
+   * Attempts to load the named shader's program binary from resources/shaders/cache into a program
+   * object.
+   *
+   * @param cacheKey key from getCacheKey() for the program's current source
+   * @return true if the program was loaded and linked, false if it needs to be built
    */
-  public static boolean loadShaderFromCache(GL4 gl4, int programId, String shaderName) {
+  public static boolean loadShaderFromCache(
+      GL4 gl4, int programId, String shaderName, String cacheKey) {
 
     // account for shadertoy shaders pulled in via URL
     if (shaderName == null) return false;
 
-    // see if the shader or the framework have changed since last recompile
-    if (needsRecompile(shaderName)) {
+    // fast out if no binary formats are available (e.g. on MacOS)
+    if (!isBinaryCacheSupported(gl4)) {
       return false;
     }
 
-    // attempt to read shader binary from cache file
-    String cacheFile = getCacheFilename(shaderName);
-
-    try {
-      // get available binary formats for shader storage
-      int[] fmtCount = new int[1];
-      gl4.glGetIntegerv(GL4.GL_NUM_PROGRAM_BINARY_FORMATS, fmtCount, 0);
+    File cacheFile = new File(getCacheFilename(shaderName));
+    if (!cacheFile.exists()) {
+      cacheMisses.incrementAndGet();
+      return false;
+    }
 
-      // fast out if no binary formats are available (e.g. on MacOS)
-      if (fmtCount[0] < 1) {
-        // TE.log("Shader cache: No compatible binary shader format available.");
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+      // see if the shader, the framework or the driver have changed since last compile
+      if (in.readInt() != CACHE_FILE_VERSION || !in.readUTF().equals(cacheKey)) {
+        cacheMisses.incrementAndGet();
+        return false;
+      }
+      int format = in.readInt();
+      int length = in.readInt();
+      byte[] binary = in.readNBytes(length);
+      if (binary.length != length) {
+        cacheMisses.incrementAndGet();
         return false;
       }
-
-      // take the first available format
-      int[] formatList = new int[fmtCount[0]];
-      gl4.glGetIntegerv(GL4.GL_PROGRAM_BINARY_FORMATS, formatList, 0);
-
-      byte[] outBuf = Files.readAllBytes(Path.of(cacheFile));
-      ByteBuffer shader = ByteBuffer.wrap(outBuf);
 
       // attach binary to our shader program
-      gl4.glProgramBinary(programId, formatList[0], shader, outBuf.length);
+      ByteBuffer shader = GLBuffers.newDirectByteBuffer(length);
+      shader.put(binary).rewind();
+      gl4.glProgramBinary(programId, format, shader, length);
     } catch (IOException e) {
       TE.log("I/O Exception loading shader '%s'.", shaderName);
+      cacheMisses.incrementAndGet();
       return false;
     }
 
-    // TE.log("Loaded from cache: '%s'", shaderName);
+    // The driver can still reject a binary, the program is then built from source as usual
+    if (!isLinked(gl4, programId)) {
+      cacheMisses.incrementAndGet();
+      return false;
+    }
+
+    cacheHits.incrementAndGet();
     return true;
   }
 
   /** Save compiled and linked shader binary in a cache file, in resources/shaders/cache */
-  public static void saveShaderToCache(GL4 gl4, String shaderName, int programId) {
+  public static void saveShaderToCache(GL4 gl4, String shaderName, int programId, String cacheKey) {
 
     // account for shadertoy shaders pulled in via URL
     if (shaderName == null) return;
 
+    if (!isBinaryCacheSupported(gl4)) {
+      return;
+    }
+
     // get the size of the shader binary in bytes
     int[] len = new int[1];
     gl4.glGetProgramiv(programId, GL4.GL_PROGRAM_BINARY_LENGTH, len, 0);
-
-    // get available binary formats for shader storage
-    int[] fmtCount = new int[1];
-    gl4.glGetIntegerv(GL4.GL_NUM_PROGRAM_BINARY_FORMATS, fmtCount, 0);
-
-    if (fmtCount[0] < 1) {
-      // TE.log("Shader cache: No compatible binary shader format available.");
+    if (len[0] < 1) {
       return;
     }
 
-    // take the first available format
-    int[] formatList = new int[fmtCount[0]];
-    gl4.glGetIntegerv(GL4.GL_PROGRAM_BINARY_FORMATS, formatList, 0);
-
-    // get the binary from OpenGL and store it in our buffer
+    // get the binary and its format from OpenGL
+    int[] format = new int[1];
     ByteBuffer shader = GLBuffers.newDirectByteBuffer(len[0]);
-    gl4.glGetProgramBinary(programId, len[0], len, 0, formatList, 0, shader);
-
-    // save the shader binary to the cache file
-    try (FileChannel fileChannel =
-        new FileOutputStream(ShaderUtils.getCacheFilename(shaderName)).getChannel()) {
-      fileChannel.write(shader);
+    gl4.glGetProgramBinary(programId, len[0], len, 0, format, 0, shader);
+    byte[] binary = new byte[len[0]];
+    shader.get(binary);
+
+    // Write to a temporary file and move it in place, so a concurrent reader never sees a
+    // partial file
+    Path cacheFile = Path.of(getCacheFilename(shaderName));
+    Path tempFile = Path.of(cacheFile + ".tmp");
+    try {
+      Files.createDirectories(cacheFile.getParent());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile.toFile())))) {
+        out.writeInt(CACHE_FILE_VERSION);
+        out.writeUTF(cacheKey);
+        out.writeInt(format[0]);
+        out.writeInt(binary.length);
+        out.write(binary);
+      }
+      Files.move(
+          tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     } catch (IOException e) {
-      e.printStackTrace();
+      TE.error(e, "Could not save shader '%s' to cache", shaderName);
+    }
+  }
+
+  /**
+   * Attach a program for a shader to a program object, loading it from the cache if possible and
+   * otherwise building it and saving it to the cache.
+   *
+   * @param gl4 an active OpenGL context
+   * @param programId id to which the shader binary will be attached
+   * @param shaderName filename (without path) of fragment shader
+   * @param tePreProcess whether to perform te pre-processing and merge with template shader
+   */
+  public static void loadShader(GL4 gl4, int programId, String shaderName, boolean tePreProcess) {
+    try {
+      String shaderBody = preprocessShader(shaderName, tePreProcess);
+      String cacheKey = getCacheKey(gl4, shaderBody);
+      if (!loadShaderFromCache(gl4, programId, shaderName, cacheKey)) {
+        buildShader(gl4, programId, shaderName, shaderBody, cacheKey);
+      }
+    } catch (Exception e) {
+      TE.error("Error building shader " + shaderName + "\n" + e.getMessage());
     }
   }
 
@@ -252,42 +354,49 @@ public class ShaderUtils {
    * @param tePreProcess whether to perform te pre-processing and merge with template shader
    */
   public static void buildShader(GL4 gl4, int programId, String shaderName, boolean tePreProcess) {
-    ArrayList<ShaderConfiguration> config = new ArrayList<>();
-    String cacheName = getCacheFilename(shaderName);
-    String shaderText = loadResource(SHADER_PATH + shaderName);
-
-    String shaderBody;
     try {
-      if (tePreProcess) {
-        GLPreprocessor glp = new GLPreprocessor();
-        // try the new way
-        try {
-          shaderBody = glp.preprocessShader(shaderText, config);
-        } catch (Exception e) {
-          throw new RuntimeException(e);
-        }
-      } else {
-        shaderBody = shaderText;
-      }
-
-      int vertexShaderId =
-          createShader(gl4, programId, getVertexShaderTemplate(), GL4.GL_VERTEX_SHADER);
-      int fragmentShaderId = createShader(gl4, programId, shaderBody, GL4.GL_FRAGMENT_SHADER);
-      link(gl4, programId);
-
-      // free native resources after link
-      gl4.glDetachShader(programId, fragmentShaderId);
-      gl4.glDetachShader(programId, vertexShaderId);
-      gl4.glDeleteShader(fragmentShaderId);
-      gl4.glDeleteShader(vertexShaderId);
-
-      // and save the complete program object to file
-      saveShaderToCache(gl4, cacheName, programId);
+      String shaderBody = preprocessShader(shaderName, tePreProcess);
+      buildShader(gl4, programId, shaderName, shaderBody, getCacheKey(gl4, shaderBody));
     } catch (Exception e) {
       TE.error("Error building shader " + shaderName + "\n" + e.getMessage());
     }
   }
 
+  /**
+   * Compile and link an already preprocessed fragment shader with the vertex shader template,
+   * attach it to the specified OpenGL programId, and save it to the shader cache.
+   *
+   * @param shaderBody fragment shader source from preprocessShader()
+   * @param cacheKey key from getCacheKey() for shaderBody
+   */
+  public static void buildShader(
+      GL4 gl4, int programId, String shaderName, String shaderBody, String cacheKey)
+      throws Exception {
+    // ask the driver to keep the binary around for saving
+    gl4.glProgramParameteri(programId, GL4.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL.GL_TRUE);
+
+    int vertexShaderId =
+        createShader(gl4, programId, getVertexShaderTemplate(), GL4.GL_VERTEX_SHADER);
+    int fragmentShaderId = createShader(gl4, programId, shaderBody, GL4.GL_FRAGMENT_SHADER);
+    link(gl4, programId);
+
+    // free native resources after link
+    gl4.glDetachShader(programId, fragmentShaderId);
+    gl4.glDetachShader(programId, vertexShaderId);
+    gl4.glDeleteShader(fragmentShaderId);
+    gl4.glDeleteShader(vertexShaderId);
+
+    // and save the complete program object to file
+    saveShaderToCache(gl4, shaderName, programId, cacheKey);
+  }
+
+  /** True if the program object was linked successfully */
+  public static boolean isLinked(GL4 gl4, int programId) {
+    int[] status = new int[1];
+    gl4.glGetProgramiv(programId, GL4.GL_LINK_STATUS, status, 0);
+    return status[0] == GL.GL_TRUE;
+  }
+
   public static void link(GL4 gl4, int programId) {
     gl4.glLinkProgram(programId);
     validateStatus(gl4, programId, GL4.GL_LINK_STATUS);
@@ -302,10 +411,15 @@ public class ShaderUtils {
   }
 
   private static void bindCompileVAO(GL4 gl4) {
-    if (compileVao[0] == 0) {
-      gl4.glGenVertexArrays(1, compileVao, 0);
-    }
-    gl4.glBindVertexArray(compileVao[0]);
+    int compileVao =
+        compileVaos.computeIfAbsent(
+            GLContext.getCurrent(),
+            context -> {
+              int[] vao = new int[1];
+              gl4.glGenVertexArrays(1, vao, 0);
+              return vao[0];
+            });
+    gl4.glBindVertexArray(compileVao);
     // JKB note 7-12-25: A new problem has appeared. When a project file is
     // manually opened after launch, the default framebuffer is not bound
     // at pattern constructor time which causes a validation error.
@@ -318,9 +432,9 @@ public class ShaderUtils {
   }
 
   public static void disposeCompileVAO(GL4 gl4) {
-    if (compileVao[0] != 0) {
-      gl4.glDeleteVertexArrays(1, compileVao, 0);
-      compileVao[0] = 0;
+    Integer compileVao = compileVaos.remove(GLContext.getCurrent());
+    if (compileVao != null) {
+      gl4.glDeleteVertexArrays(1, new int[] {compileVao}, 0);
     }
   }
 
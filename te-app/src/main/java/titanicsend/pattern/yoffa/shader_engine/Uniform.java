@@ -5,6 +5,7 @@ import static com.jogamp.opengl.GL.GL_TEXTURE_2D;
 
 import com.jogamp.opengl.GL4;
 import com.jogamp.opengl.util.texture.Texture;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
@@ -21,6 +22,11 @@ public abstract class Uniform {
   public final UniformType type;
   protected boolean modified;
 
+  // Members of a uniform block write their value into the block's data instead of calling
+  // glUniform*(). Null for uniforms in the default block.
+  protected ByteBuffer block = null;
+  protected int blockOffset = 0;
+
   public Uniform(GL4 gl4, String name, int location, UniformType type) {
     this.gl4 = gl4;
     this.name = name;
@@ -32,7 +38,30 @@ public abstract class Uniform {
   }
 
   public boolean hasUpdate() {
-    return modified && hasLocation;
+    return modified && (hasLocation || block != null);
+  }
+
+  /**
+   * Make this uniform a member of a uniform block. Supported for scalar and vector types.
+   *
+   * @param block CPU copy of the uniform block data, in native byte order
+   * @param blockOffset Byte offset of this member in the block
+   */
+  public void setBlock(ByteBuffer block, int blockOffset) {
+    switch (this.type) {
+      case INT1, BOOLEAN1, FLOAT1, FLOAT2, FLOAT3, FLOAT4 -> {
+        this.block = block;
+        this.blockOffset = blockOffset;
+        this.modified = true;
+      }
+      default ->
+          throw new IllegalArgumentException(
+              "Uniform type " + this.type + " is not supported in a uniform block: " + this.name);
+    }
+  }
+
+  public boolean isBlockMember() {
+    return this.block != null;
   }
 
   /** Send latest value to OpenGL */
@@ -46,6 +75,13 @@ public abstract class Uniform {
     return this.error;
   }
 
+  /** Write consecutive float components of a vector member into the block data */
+  protected void putBlockFloats(float[] value) {
+    for (int i = 0; i < value.length; i++) {
+      this.block.putFloat(this.blockOffset + i * Float.BYTES, value[i]);
+    }
+  }
+
   /** Factory to create a new uniform by type */
   public static Uniform create(
       GL4 gl4, String name, int location, UniformType type, Object... args) {
@@ -146,7 +182,11 @@ public abstract class Uniform {
 
     @Override
     public void update() {
-      this.gl4.glUniform1i(this.location, this.value);
+      if (this.block != null) {
+        this.block.putInt(this.blockOffset, this.value);
+      } else {
+        this.gl4.glUniform1i(this.location, this.value);
+      }
       this.modified = false;
     }
   }
@@ -241,7 +281,11 @@ public abstract class Uniform {
 
     @Override
     public void update() {
-      this.gl4.glUniform1i(this.location, this.value ? 1 : 0);
+      if (this.block != null) {
+        this.block.putInt(this.blockOffset, this.value ? 1 : 0);
+      } else {
+        this.gl4.glUniform1i(this.location, this.value ? 1 : 0);
+      }
       this.modified = false;
     }
   }
@@ -286,7 +330,11 @@ public abstract class Uniform {
 
     @Override
     public void update() {
-      this.gl4.glUniform1f(this.location, this.value);
+      if (this.block != null) {
+        this.block.putFloat(this.blockOffset, this.value);
+      } else {
+        this.gl4.glUniform1f(this.location, this.value);
+      }
       this.modified = false;
     }
   }
@@ -309,7 +357,11 @@ public abstract class Uniform {
 
     @Override
     public void update() {
-      this.gl4.glUniform2f(this.location, this.value[0], this.value[1]);
+      if (this.block != null) {
+        putBlockFloats(this.value);
+      } else {
+        this.gl4.glUniform2f(this.location, this.value[0], this.value[1]);
+      }
       this.modified = false;
     }
   }
@@ -333,7 +385,11 @@ public abstract class Uniform {
 
     @Override
     public void update() {
-      this.gl4.glUniform3f(this.location, this.value[0], this.value[1], this.value[2]);
+      if (this.block != null) {
+        putBlockFloats(this.value);
+      } else {
+        this.gl4.glUniform3f(this.location, this.value[0], this.value[1], this.value[2]);
+      }
       this.modified = false;
     }
   }
@@ -358,8 +414,12 @@ public abstract class Uniform {
 
     @Override
     public void update() {
-      this.gl4.glUniform4f(
-          this.location, this.value[0], this.value[1], this.value[2], this.value[3]);
+      if (this.block != null) {
+        putBlockFloats(this.value);
+      } else {
+        this.gl4.glUniform4f(
+            this.location, this.value[0], this.value[1], this.value[2], this.value[3]);
+      }
       this.modified = false;
     }
   }
@@ -11,4 +11,6 @@ public class UniformNames {
   public static final String LX_MODEL_COORDS = "lxModelCoords";
   public static final String LX_MODEL_NEIGHBORHOOD = "lxModelIndex";
   public static final String BACK_BUFFER = "iBackbuffer";
+  public static final String LX_GRADIENTS = "lxGradients";
+  public static final String PER_SHADER_BLOCK = "PerShaderBlock";
 }
@@ -0,0 +1,155 @@
+package titanicsend.util;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over a set of points in the XY plane for nearest-neighbor queries. Intended to be
+ * built once when geometry changes, then queried many times. Distances include z so that points
+ * projected onto a plane with some residual depth still match a brute-force 3D search.
+ */
+public class NearestPointGrid {
+
+  private final float[] x;
+  private final float[] y;
+  private final float[] z;
+
+  private final float minX, minY;
+  private final float cellSize;
+  private final int cols, rows;
+
+  // Point indices sorted by cell, with cellStart[c]..cellStart[c+1] holding the points of cell c
+  private final int[] cellStart;
+  private final int[] cellPoints;
+
+  /**
+   * @param x X coordinates
+   * @param y Y coordinates
+   * @param z Z coordinates, included in distance calculations
+   */
+  public NearestPointGrid(float[] x, float[] y, float[] z) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    final int n = x.length;
+
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < n; i++) {
+      minX = Math.min(minX, x[i]);
+      maxX = Math.max(maxX, x[i]);
+      minY = Math.min(minY, y[i]);
+      maxY = Math.max(maxY, y[i]);
+    }
+    if (n == 0) {
+      minX = minY = maxX = maxY = 0;
+    }
+    this.minX = minX;
+    this.minY = minY;
+
+    // Aim for about one point per cell
+    float width = maxX - minX;
+    float height = maxY - minY;
+    float area = Math.max(width, Float.MIN_NORMAL) * Math.max(height, Float.MIN_NORMAL);
+    float cellSize = (float) Math.sqrt(area / Math.max(n, 1));
+    if (!(cellSize > 0) || Float.isInfinite(cellSize)) {
+      cellSize = Math.max(Math.max(width, height), 1f);
+    }
+    this.cellSize = cellSize;
+    this.cols = Math.max(1, (int) (width / cellSize) + 1);
+    this.rows = Math.max(1, (int) (height / cellSize) + 1);
+
+    // Counting sort of points into cells
+    this.cellStart = new int[this.cols * this.rows + 1];
+    int[] cellOf = new int[n];
+    for (int i = 0; i < n; i++) {
+      cellOf[i] = cell(col(x[i]), row(y[i]));
+      this.cellStart[cellOf[i] + 1]++;
+    }
+    for (int c = 0; c < this.cols * this.rows; c++) {
+      this.cellStart[c + 1] += this.cellStart[c];
+    }
+    this.cellPoints = new int[n];
+    int[] fill = Arrays.copyOf(this.cellStart, this.cellStart.length - 1);
+    for (int i = 0; i < n; i++) {
+      this.cellPoints[fill[cellOf[i]]++] = i;
+    }
+  }
+
+  private int col(float px) {
+    return Math.clamp((int) ((px - this.minX) / this.cellSize), 0, this.cols - 1);
+  }
+
+  private int row(float py) {
+    return Math.clamp((int) ((py - this.minY) / this.cellSize), 0, this.rows - 1);
+  }
+
+  private int cell(int col, int row) {
+    return row * this.cols + col;
+  }
+
+  /**
+   * Find the point closest to a query position.
+   *
+   * @return Index of the closest point, or -1 if the grid is empty
+   */
+  public int nearest(float qx, float qy, float qz) {
+    if (this.cellPoints.length == 0) {
+      return -1;
+    }
+    final int c0 = col(qx);
+    final int r0 = row(qy);
+
+    int best = -1;
+    float bestDistSq = Float.MAX_VALUE;
+
+    for (int ring = 0; ; ring++) {
+      final int cMin = c0 - ring, cMax = c0 + ring;
+      final int rMin = r0 - ring, rMax = r0 + ring;
+
+      // Visit only the cells on the border of this ring
+      for (int r = Math.max(rMin, 0); r <= Math.min(rMax, this.rows - 1); r++) {
+        final boolean edgeRow = (r == rMin || r == rMax);
+        final int step = edgeRow ? 1 : (cMax - cMin);
+        for (int c = cMin; c <= cMax; c += Math.max(step, 1)) {
+          if (c < 0 || c >= this.cols) {
+            continue;
+          }
+          final int cell = cell(c, r);
+          for (int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; k++) {
+            final int i = this.cellPoints[k];
+            final float dx = this.x[i] - qx;
+            final float dy = this.y[i] - qy;
+            final float dz = this.z[i] - qz;
+            final float distSq = dx * dx + dy * dy + dz * dz;
+            if (distSq < bestDistSq || (distSq == bestDistSq && i < best)) {
+              best = i;
+              bestDistSq = distSq;
+            }
+          }
+        }
+      }
+
+      // Any unvisited point lies outside the box covered so far. Stop when the grid is exhausted
+      // or when no point outside the box can be closer than the best match.
+      float bound = Float.MAX_VALUE;
+      if (cMin > 0) {
+        bound = Math.min(bound, qx - (this.minX + cMin * this.cellSize));
+      }
+      if (cMax < this.cols - 1) {
+        bound = Math.min(bound, (this.minX + (cMax + 1) * this.cellSize) - qx);
+      }
+      if (rMin > 0) {
+        bound = Math.min(bound, qy - (this.minY + rMin * this.cellSize));
+      }
+      if (rMax < this.rows - 1) {
+        bound = Math.min(bound, (this.minY + (rMax + 1) * this.cellSize) - qy);
+      }
+      if (bound == Float.MAX_VALUE) {
+        return best;
+      }
+      if (best >= 0 && bound > 0 && bound * bound > bestDistSq) {
+        return best;
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package titanicsend.color;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import heronarts.lx.color.LXColor;
+import org.junit.jupiter.api.Test;
+import titanicsend.lx.LXGradientUtils;
+
+public class TEGradientLUTTest {
+
+  private static final int SAMPLES = 10000;
+
+  // Largest difference per channel from the float gradient. Entries are 1/1024 apart, so the
+  // straight line between two of them stays close to the blend function's curve.
+  private static final int TOLERANCE = 2;
+
+  /** Swatch colors with a wrap stop back to the first, as TEGradientSource builds them */
+  private static LXGradientUtils.ColorStops createStops() {
+    return createStops(new int[] {0xffff0000, 0xff00ff40, 0xff2020ff, 0xffffffff, 0xff000000});
+  }
+
+  private static LXGradientUtils.ColorStops createStops(int[] colors) {
+    LXGradientUtils.ColorStops stops = new LXGradientUtils.ColorStops();
+    stops.numStops = colors.length;
+    for (int i = 0; i < colors.length; i++) {
+      stops.stops[i].setRGB(colors[i]);
+    }
+    stops.stops[colors.length].setRGB(colors[0]);
+    return stops;
+  }
+
+  private static int maxChannelDifference(int c1, int c2) {
+    return Math.max(
+        Math.abs(LXColor.red(c1) - LXColor.red(c2)),
+        Math.max(
+            Math.abs(LXColor.green(c1) - LXColor.green(c2)),
+            Math.abs(LXColor.blue(c1) - LXColor.blue(c2))));
+  }
+
+  @Test
+  public void InterpolatedMatchesFloatGradient() {
+    LXGradientUtils.ColorStops stops = createStops();
+    TEGradientLUT lut = new TEGradientLUT();
+    assertTrue(lut.update(stops));
+
+    for (TEColorParameter.BlendMode blendMode : TEColorParameter.BlendMode.values()) {
+      for (int i = 0; i < SAMPLES; i++) {
+        float lerp = i / (float) SAMPLES;
+        int expected = stops.getColor(lerp, blendMode.function);
+        int actual = lut.getColorInterpolated(lerp, blendMode);
+        assertTrue(
+            maxChannelDifference(expected, actual) <= TOLERANCE,
+            blendMode
+                + " at "
+                + lerp
+                + ": expected "
+                + Integer.toHexString(expected)
+                + ", got "
+                + Integer.toHexString(actual));
+        assertEquals(0xff, actual >>> 24, blendMode + " at " + lerp);
+      }
+    }
+  }
+
+  @Test
+  public void GetColorReturnsNearestEntry() {
+    TEGradientLUT lut = new TEGradientLUT();
+    lut.update(createStops());
+
+    for (TEColorParameter.BlendMode blendMode : TEColorParameter.BlendMode.values()) {
+      int[] table = lut.getTable(blendMode);
+      for (int i = 0; i < TEGradientLUT.SIZE; i++) {
+        assertEquals(table[i], lut.getColor((i + .4f) / TEGradientLUT.SIZE, blendMode));
+        assertEquals(table[i + 1], lut.getColor((i + .6f) / TEGradientLUT.SIZE, blendMode));
+      }
+      // Just below 1 is nearest to the wrap entry, the first color
+      assertEquals(table[0], lut.getColor(.99999f, blendMode));
+      assertEquals(table[0], lut.getColor(-.00001f, blendMode));
+    }
+  }
+
+  @Test
+  public void TablesFollowColorStopChanges() {
+    TEGradientLUT lut = new TEGradientLUT();
+    lut.update(createStops());
+    TEColorParameter.BlendMode blendMode = TEColorParameter.BlendMode.values()[0];
+    int[] table = lut.getTable(blendMode);
+    assertSame(table, lut.getTable(blendMode));
+
+    int version = lut.getVersion();
+    assertFalse(lut.update(createStops()));
+    assertEquals(version, lut.getVersion());
+    assertSame(table, lut.getTable(blendMode));
+
+    LXGradientUtils.ColorStops stops = createStops(new int[] {0xff00ffff, 0xffff00ff});
+    assertTrue(lut.update(stops));
+    assertNotEquals(version, lut.getVersion());
+    for (int i = 0; i < TEGradientLUT.SIZE; i++) {
+      float lerp = i / (float) TEGradientLUT.SIZE;
+      assertEquals(stops.getColor(lerp, blendMode.function), lut.getTable(blendMode)[i]);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package titanicsend.dmx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import titanicsend.dmx.parameter.DmxCompoundParameter;
+import titanicsend.dmx.parameter.DmxDiscreteParameter;
+import titanicsend.dmx.parameter.DmxDiscreteParameterOption;
+import titanicsend.dmx.parameter.DmxParameter;
+import titanicsend.dmx.parameter.DmxParameter.DmxBlendMode;
+
+/** Checks the packed DmxFieldTable path against the DmxParameter methods it replaced */
+public class DmxFieldTableTest {
+
+  private static final double[] ALPHAS = {0, .25, .5, 1};
+
+  private static DmxParameter[] createParameters() {
+    DmxCompoundParameter tilt = new DmxCompoundParameter("Tilt", 0, -180, 180).setNumBytes(2);
+    tilt.getLimiter().setLimits(-90, 120);
+    return new DmxParameter[] {
+      new DmxCompoundParameter("Pan", 0, 0, 540).setNumBytes(2),
+      tilt,
+      new DmxCompoundParameter("Focus", 0, 0, 255).setBlendMode(DmxBlendMode.JUMP_END),
+      new DmxDiscreteParameter(
+              "Color",
+              new DmxDiscreteParameterOption[] {
+                new DmxDiscreteParameterOption("Open", 0),
+                new DmxDiscreteParameterOption("Red", 16),
+                new DmxDiscreteParameterOption("Spin", 30, 35)
+              })
+          .setBlendMode(DmxBlendMode.JUMP_START),
+      new DmxDiscreteParameter(
+              "Shutter",
+              new DmxDiscreteParameterOption[] {
+                new DmxDiscreteParameterOption("Closed", 0),
+                new DmxDiscreteParameterOption("Open", 255)
+              })
+          .setScaleToAlpha(true)
+    };
+  }
+
+  /** Raw values to try for each field, including some outside the fixture's range */
+  private static final double[][] VALUES = {
+    {-10, 0, 100.5, 540, 600},
+    {-200, -180, -95, 0, 33.3, 119, 180},
+    {0, 12.7, 255, 300},
+    {0, 1, 2, 7},
+    {0, 1}
+  };
+
+  @Test
+  public void WriteBytesMatchesParameters() {
+    DmxParameter[] params = createParameters();
+    DmxBuffer buffer = new DmxBuffer(params);
+    for (int round = 0; round < 7; round++) {
+      int numBytes = 0;
+      for (int i = 0; i < params.length; i++) {
+        params[i].setValue(VALUES[i][round % VALUES[i].length]);
+        numBytes += params[i].getNumBytes();
+      }
+      byte[] expected = new byte[numBytes];
+      int offset = 0;
+      for (DmxParameter p : params) {
+        p.writeBytes(expected, offset);
+        offset += p.getNumBytes();
+      }
+      byte[] actual = new byte[numBytes];
+      buffer.fields.writeBytes(buffer.values, actual, 0);
+      assertArrayEquals(expected, actual, "round " + round);
+    }
+  }
+
+  @Test
+  public void ConstrainMatchesSetValue() {
+    DmxParameter[] params = createParameters();
+    DmxFieldTable fields = new DmxFieldTable(params);
+    for (int i = 0; i < params.length; i++) {
+      for (double value : VALUES[i]) {
+        params[i].setValue(value);
+        assertEquals(params[i].getValue(), fields.constrain(i, value), params[i].getLabel());
+      }
+    }
+  }
+
+  @Test
+  public void DmxValuesMatchParameters() {
+    DmxParameter[] params = createParameters();
+    DmxBuffer buffer = new DmxBuffer(params);
+    DmxParameter[] expected = createParameters();
+    double[] actual = new double[params.length];
+    for (int i = 0; i < params.length; i++) {
+      // Director is not running, so alpha-scaled compound fields would need its beacons level
+      if (params[i].isScaleToAlpha() && params[i] instanceof DmxCompoundParameter) {
+        continue;
+      }
+      for (double value : VALUES[i]) {
+        params[i].setValue(value);
+        for (double alpha : ALPHAS) {
+          double dmxValue = params[i].getDmxValue(alpha);
+          assertEquals(
+              dmxValue,
+              buffer.fields.getDmxValue(buffer.values, i, alpha, 1),
+              params[i].getLabel());
+
+          expected[i].setDmxValue(dmxValue);
+          buffer.fields.setDmxValue(actual, i, dmxValue);
+          assertEquals(expected[i].getValue(), actual[i], params[i].getLabel());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void BlendUsesEachBuffersOwnBlendModes() {
+    DmxParameter[] dstParams = createParameters();
+    DmxParameter[] srcParams = createParameters();
+    // Only the destination copy jumps, as the old per-parameter blend did
+    ((DmxCompoundParameter) dstParams[0]).setBlendMode(DmxBlendMode.JUMP_END);
+    DmxBuffer dst = new DmxBuffer(dstParams);
+    DmxBuffer src = new DmxBuffer(srcParams);
+    DmxBuffer out = new DmxBuffer(createParameters());
+    dstParams[0].setValue(100);
+    srcParams[0].setValue(300);
+    dstParams[1].setValue(-100);
+    srcParams[1].setValue(100);
+
+    new DmxBlend()
+        .blend(new DmxBuffer[] {dst}, new DmxBuffer[] {src}, .5, new DmxBuffer[] {out}, null);
+
+    assertEquals(100, out.values[0]);
+    assertEquals(0, out.values[1]);
+  }
+}
@@ -0,0 +1,149 @@
+package titanicsend.pattern.glengine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import titanicsend.pattern.yoffa.shader_engine.ShaderUtils;
+
+/**
+ * Runs on any GL4 implementation, including Mesa's llvmpipe software renderer on a headless machine
+ * (for example LIBGL_ALWAYS_SOFTWARE=1 under xvfb-run). Skipped if no GL4 context can be created.
+ */
+class ReadbackRingTest {
+
+  private static final int WIDTH = 16;
+  private static final int HEIGHT = 8;
+
+  private GLAutoDrawable drawable;
+  private GL4 gl4;
+
+  @BeforeEach
+  void setUp() {
+    try {
+      this.drawable = ShaderUtils.createGLSurface(WIDTH, HEIGHT);
+      this.drawable.display();
+      assumeTrue(this.drawable.getContext().makeCurrent() != GLContext.CONTEXT_NOT_CURRENT);
+      this.gl4 = this.drawable.getGL().getGL4();
+    } catch (RuntimeException | LinkageError e) {
+      assumeTrue(false, "No GL4 context available: " + e);
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (this.drawable != null) {
+      this.drawable.getContext().release();
+      this.drawable.destroy();
+    }
+  }
+
+  /** Fill the framebuffer with a color that identifies the frame */
+  private static int frameColor(int frame) {
+    return 0xff000000 | (frame + 1) * 0x10;
+  }
+
+  private void drawFrame(int frame) {
+    int color = frameColor(frame);
+    this.gl4.glClearColor(0, 0, (color & 0xff) / 255f, 1);
+    this.gl4.glClear(GL4.GL_COLOR_BUFFER_BIT);
+  }
+
+  private static int[] filled(int color) {
+    int[] colors = new int[WIDTH * HEIGHT];
+    Arrays.fill(colors, color);
+    return colors;
+  }
+
+  @Test
+  public void NewestDeliversLatestCompletedFrame() {
+    ReadbackRing ring = new ReadbackRing(this.gl4, WIDTH, HEIGHT, 3);
+    int[] dst = new int[WIDTH * HEIGHT];
+
+    drawFrame(0);
+    ring.startRead();
+    drawFrame(1);
+    ring.startRead();
+    this.gl4.glFinish();
+
+    assertTrue(ring.read(dst, ReadbackRing.Policy.NEWEST));
+    assertArrayEquals(filled(frameColor(1)), dst);
+    assertEquals(1, ring.counters.dropped);
+
+    // Nothing new, dst is left alone
+    assertFalse(ring.read(dst, ReadbackRing.Policy.NEWEST));
+    assertEquals(1, ring.counters.reused);
+    ring.dispose();
+  }
+
+  @Test
+  public void FixedLatencyDeliversFrameFromDepthMinusOneAgo() {
+    final int depth = 3;
+    ReadbackRing ring = new ReadbackRing(this.gl4, WIDTH, HEIGHT, depth);
+    List<Long> delivered = new ArrayList<>();
+    for (int frame = 0; frame < 6; frame++) {
+      drawFrame(frame);
+      ring.startRead();
+      final int expectedFrame = frame - (depth - 1);
+      boolean read =
+          ring.read(
+              ReadbackRing.Policy.FIXED_LATENCY,
+              (data, n) -> {
+                delivered.add(n);
+                assertEquals(frameColor(expectedFrame), data.get(0));
+              });
+      assertEquals(expectedFrame >= 0, read);
+    }
+    assertEquals(List.of(0L, 1L, 2L, 3L), delivered);
+    ring.dispose();
+  }
+
+  @Test
+  public void DepthChangesApplyLive() {
+    ReadbackRing ring = new ReadbackRing(this.gl4, WIDTH, HEIGHT, 2);
+    int[] dst = new int[WIDTH * HEIGHT];
+
+    drawFrame(0);
+    ring.startRead();
+    ring.setDepth(4);
+    assertEquals(4, ring.getDepth());
+
+    // The pending read was discarded, and the deeper ring fills up before delivering
+    for (int frame = 1; frame <= 3; frame++) {
+      drawFrame(frame);
+      ring.startRead();
+      assertFalse(ring.read(dst, ReadbackRing.Policy.FIXED_LATENCY));
+    }
+    drawFrame(4);
+    ring.startRead();
+    assertTrue(ring.read(dst, ReadbackRing.Policy.FIXED_LATENCY));
+    assertArrayEquals(filled(frameColor(1)), dst);
+    ring.dispose();
+  }
+
+  @Test
+  public void PartialReadFillsBottomRows() {
+    ReadbackRing ring = new ReadbackRing(this.gl4, WIDTH, HEIGHT, 2);
+    int[] dst = new int[WIDTH * HEIGHT];
+
+    drawFrame(0);
+    ring.startRead(2);
+    this.gl4.glFinish();
+    assertTrue(ring.read(dst, ReadbackRing.Policy.NEWEST));
+    int[] expected = new int[WIDTH * HEIGHT];
+    Arrays.fill(expected, 0, 2 * WIDTH, frameColor(0));
+    assertArrayEquals(expected, dst);
+    ring.dispose();
+  }
+}
@@ -0,0 +1,251 @@
+package titanicsend.pattern.pixelblaze;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXPoint;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import javax.script.Bindings;
+import org.junit.jupiter.api.Test;
+import org.openjdk.nashorn.api.scripting.AbstractJSObject;
+import org.openjdk.nashorn.api.scripting.JSObject;
+
+class PBCompilerTest {
+
+  private static final Path SCRIPTS = Path.of("resources/pixelblaze");
+  private static final int FRAMES = 30;
+  private static final double DELTA_MS = 16.6;
+  private static final int NUM_POINTS = 200;
+  private static final long SEED = 1;
+
+  /** Enough of a pattern to run a script on, without the TE app a real pattern needs */
+  public static class TestPattern implements PBHost, PBHost.Sliders {
+    double timeMs;
+
+    @Override
+    public LX getLX() {
+      return null;
+    }
+
+    @Override
+    public void addSlider(String key, String label) {}
+
+    @Override
+    public double getSlider(String key) {
+      return .3;
+    }
+
+    @Override
+    public int getGradientColor(float lerp) {
+      // Exact, so that any difference in the value passed shows up in the colors
+      return Float.floatToIntBits(lerp);
+    }
+
+    @Override
+    public double getTime() {
+      return this.timeMs / 1000;
+    }
+
+    @Override
+    public double getTimeMs() {
+      return this.timeMs;
+    }
+
+    @Override
+    public double getXPos() {
+      return .1;
+    }
+
+    @Override
+    public double getYPos() {
+      return -.05;
+    }
+
+    @Override
+    public double measure() {
+      return .3;
+    }
+
+    @Override
+    public double wholeNote() {
+      return .4;
+    }
+
+    @Override
+    public double phrase() {
+      return .5;
+    }
+
+    @Override
+    public double getBassLevel() {
+      return .6;
+    }
+
+    @Override
+    public double getTrebleLevel() {
+      return .7;
+    }
+
+    @Override
+    public double getBassRatio() {
+      return .8;
+    }
+
+    @Override
+    public double getTrebleRatio() {
+      return .9;
+    }
+
+    @Override
+    public double getRotationAngleFromSpeed() {
+      return 1.1;
+    }
+
+    @Override
+    public double getRotationAngleFromSpin() {
+      return 1.2;
+    }
+
+    @Override
+    public double getStaticRotationAngle() {
+      return 1.3;
+    }
+
+    @Override
+    public double getSpeed() {
+      return .5;
+    }
+
+    @Override
+    public double getSize() {
+      return 1.5;
+    }
+
+    @Override
+    public double getQuantity() {
+      return .4;
+    }
+
+    @Override
+    public double getSpin() {
+      return .2;
+    }
+
+    @Override
+    public double getWow1() {
+      return .3;
+    }
+
+    @Override
+    public double getWow2() {
+      return .6;
+    }
+
+    @Override
+    public boolean getWowTrigger() {
+      return false;
+    }
+  }
+
+  /** random() for Nashorn, giving the same numbers as the compiled script's */
+  public static class SeededRandom extends AbstractJSObject {
+    private final Random random = new Random(SEED);
+
+    @Override
+    public boolean isFunction() {
+      return true;
+    }
+
+    @Override
+    public Object call(Object thiz, Object... args) {
+      return this.random.nextDouble() * ((Number) args[0]).doubleValue();
+    }
+  }
+
+  private static LXPoint[] createPoints() {
+    Random random = new Random(SEED);
+    LXPoint[] points = new LXPoint[NUM_POINTS];
+    for (int i = 0; i < NUM_POINTS; i++) {
+      LXPoint point = new LXPoint(random.nextFloat(), random.nextFloat(), random.nextFloat());
+      point.xn = point.x;
+      point.yn = point.y;
+      point.zn = point.z;
+      point.index = i;
+      points[i] = point;
+    }
+    return points;
+  }
+
+  private static int[][] runCompiled(PBProgram program, LXPoint[] points) throws Exception {
+    TestPattern pattern = new TestPattern();
+    program.random = new Random(SEED)::nextDouble;
+    program.setup(pattern, points);
+    int[][] frames = new int[FRAMES][];
+    for (int frame = 0; frame < FRAMES; frame++) {
+      pattern.timeMs = frame * DELTA_MS;
+      frames[frame] = new int[points.length];
+      program.beforeRender(DELTA_MS, frames[frame]);
+      program.renderPoints(0, points.length);
+    }
+    return frames;
+  }
+
+  /** Run a script the way Wrapper does on Nashorn */
+  private static int[][] runNashorn(Path path, LXPoint[] points) throws Exception {
+    TestPattern pattern = new TestPattern();
+    ScriptRuntime runtime = new ScriptRuntime();
+    Bindings bindings = runtime.createBindings();
+    bindings.put("pixelCount", points.length);
+    bindings.put("__pattern", pattern);
+    bindings.put("__now", pattern.getTimeMs());
+    runtime.getGlue().eval(bindings);
+    bindings.put("random", new SeededRandom());
+    runtime.compile(path).eval(bindings);
+    ((JSObject) bindings.get("glueRegisterControls")).call(null);
+
+    JSObject glueBeforeRender = (JSObject) bindings.get("glueBeforeRender");
+    JSObject glueRender = (JSObject) bindings.get("glueRender");
+    int[][] frames = new int[FRAMES][];
+    for (int frame = 0; frame < FRAMES; frame++) {
+      pattern.timeMs = frame * DELTA_MS;
+      frames[frame] = new int[points.length];
+      glueBeforeRender.call(null, DELTA_MS, pattern.getTimeMs(), points, frames[frame]);
+      glueRender.call(null);
+    }
+    return frames;
+  }
+
+  @Test
+  public void CompiledScriptsMatchNashorn() throws Exception {
+    List<Path> scripts;
+    try (Stream<Path> files = Files.list(SCRIPTS)) {
+      scripts =
+          files
+              .filter(p -> p.toString().endsWith(".js"))
+              .filter(p -> !ScriptWatcher.normalize(p).equals(ScriptWatcher.GLUE))
+              .sorted()
+              .toList();
+    }
+    LXPoint[] points = createPoints();
+    int compiled = 0;
+    for (Path path : scripts) {
+      PBProgram program = PBCompiler.load(path);
+      if (program == null) {
+        // The compiler doesn't support this script, so it only ever runs on Nashorn
+        continue;
+      }
+      compiled++;
+      int[][] expected = runNashorn(path, points);
+      int[][] actual = runCompiled(program, points);
+      for (int frame = 0; frame < FRAMES; frame++) {
+        assertArrayEquals(expected[frame], actual[frame], path.getFileName() + " frame " + frame);
+      }
+    }
+    assertTrue(compiled > 0, "No bundled script was compiled");
+  }
+}
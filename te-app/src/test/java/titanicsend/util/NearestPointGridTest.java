@@ -0,0 +1,60 @@
+package titanicsend.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class NearestPointGridTest {
+
+  private static int bruteForce(float[] x, float[] y, float[] z, float qx, float qy, float qz) {
+    int best = -1;
+    float bestDistSq = Float.MAX_VALUE;
+    for (int i = 0; i < x.length; i++) {
+      float dx = x[i] - qx, dy = y[i] - qy, dz = z[i] - qz;
+      float distSq = dx * dx + dy * dy + dz * dz;
+      if (distSq < bestDistSq) {
+        best = i;
+        bestDistSq = distSq;
+      }
+    }
+    return best;
+  }
+
+  @Test
+  public void MatchesBruteForce() {
+    Random random = new Random(1);
+    for (int trial = 0; trial < 50; trial++) {
+      int n = 1 + random.nextInt(500);
+      float[] x = new float[n], y = new float[n], z = new float[n];
+      for (int i = 0; i < n; i++) {
+        x[i] = random.nextFloat() * 100 - 50;
+        y[i] = random.nextFloat() * 40 - 20;
+        z[i] = random.nextFloat() * .01f;
+      }
+      NearestPointGrid grid = new NearestPointGrid(x, y, z);
+      // Queries land both inside and well outside the bounds of the points
+      for (int q = 0; q < 100; q++) {
+        float qx = random.nextFloat() * 200 - 100;
+        float qy = random.nextFloat() * 200 - 100;
+        assertEquals(bruteForce(x, y, z, qx, qy, 0), grid.nearest(qx, qy, 0));
+      }
+    }
+  }
+
+  @Test
+  public void CollinearPoints() {
+    float[] x = {0, 1, 2, 3, 4};
+    float[] y = {0, 0, 0, 0, 0};
+    float[] z = {0, 0, 0, 0, 0};
+    NearestPointGrid grid = new NearestPointGrid(x, y, z);
+    assertEquals(3, grid.nearest(3.2f, 5, 0));
+    assertEquals(0, grid.nearest(-10, -10, 0));
+  }
+
+  @Test
+  public void EmptyGrid() {
+    NearestPointGrid grid = new NearestPointGrid(new float[0], new float[0], new float[0]);
+    assertEquals(-1, grid.nearest(0, 0, 0));
+  }
+}
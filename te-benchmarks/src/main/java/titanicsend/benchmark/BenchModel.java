@@ -0,0 +1,136 @@
+package titanicsend.benchmark;
+
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.studio.TEApp;
+import heronarts.lx.transform.LXVector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import titanicsend.model.TEEdgeModel;
+import titanicsend.model.TEPanelModel;
+import titanicsend.model.TEWholeModelDynamic;
+
+/**
+ * Builds a synthetic model with the same shape as the car: tagged panels made of triangular rows of
+ * points plus three tagged edges per panel, carrying the metadata that TEWholeModelDynamic expects.
+ * Geometry is random but seeded, so every run of a benchmark sees an identical model.
+ */
+public class BenchModel {
+
+  // Roughly the size of the full car: ~100k panel points and ~27k edge points.
+  public static final int DEFAULT_NUM_PANELS = 200;
+  public static final int DEFAULT_PANEL_ROWS = 31;
+  public static final int DEFAULT_EDGE_POINTS = 45;
+
+  private static final long SEED = 0x7E7E7EL;
+
+  // Spacing between LEDs and the size of the volume panels are scattered in, in model units
+  private static final float SPACING = 1f;
+  private static final float EXTENT = 500f;
+
+  public static LXModel build() {
+    return build(DEFAULT_NUM_PANELS, DEFAULT_PANEL_ROWS, DEFAULT_EDGE_POINTS);
+  }
+
+  public static LXModel build(int numPanels, int panelRows, int edgePoints) {
+    Random random = new Random(SEED);
+    List<LXModel> children = new ArrayList<LXModel>();
+
+    for (int i = 0; i < numPanels; i++) {
+      LXVector origin =
+          new LXVector(
+              (random.nextFloat() - .5f) * EXTENT,
+              random.nextFloat() * EXTENT * .4f,
+              (random.nextFloat() - .5f) * EXTENT * .3f);
+      LXVector u = randomUnit(random);
+      LXVector v = u.copy().cross(randomUnit(random)).normalize();
+
+      // Panel: rows of increasing length form a triangle
+      List<LXPoint> panelPoints = new ArrayList<LXPoint>();
+      LXModel[] rows = new LXModel[panelRows];
+      for (int r = 0; r < panelRows; r++) {
+        List<LXPoint> rowPoints = new ArrayList<LXPoint>();
+        for (int k = 0; k <= r; k++) {
+          float du = (k - r * .5f) * SPACING;
+          float dv = r * SPACING * .866f;
+          rowPoints.add(
+              new LXPoint(
+                  origin.x + u.x * du + v.x * dv,
+                  origin.y + u.y * du + v.y * dv,
+                  origin.z + u.z * du + v.z * dv));
+        }
+        rows[r] = new LXModel(rowPoints, "row");
+        panelPoints.addAll(rowPoints);
+      }
+
+      // Vertexes are the three corners of the triangle
+      LXPoint a = rows[0].points[0];
+      LXPoint b = rows[panelRows - 1].points[0];
+      LXPoint c = rows[panelRows - 1].points[panelRows - 1];
+      int v0 = i * 3;
+      int v1 = v0 + 1;
+      int v2 = v0 + 2;
+      String e0 = v0 + "-" + v1;
+      String e1 = v1 + "-" + v2;
+      String e2 = v0 + "-" + v2;
+
+      children.add(edge(e0, v0, v1, a, b, edgePoints));
+      children.add(edge(e1, v1, v2, b, c, edgePoints));
+      children.add(edge(e2, v0, v2, a, c, edgePoints));
+
+      Map<String, String> meta = new HashMap<String, String>();
+      meta.put(TEPanelModel.META_ID, "P" + i);
+      meta.put(TEPanelModel.META_V0, Integer.toString(v0));
+      meta.put(TEPanelModel.META_V1, Integer.toString(v1));
+      meta.put(TEPanelModel.META_V2, Integer.toString(v2));
+      meta.put(TEPanelModel.META_EDGE1, e0);
+      meta.put(TEPanelModel.META_EDGE2, e1);
+      meta.put(TEPanelModel.META_EDGE3, e2);
+      children.add(new LXModel(panelPoints, rows, meta, TEWholeModelDynamic.TAG_PANEL));
+    }
+
+    LXModel model = new LXModel(children.toArray(new LXModel[0]));
+    model.reindexPoints();
+    model.normalizePoints();
+    return model;
+  }
+
+  private static LXModel edge(String id, int v0, int v1, LXPoint from, LXPoint to, int numPoints) {
+    List<LXPoint> points = new ArrayList<LXPoint>();
+    for (int i = 0; i < numPoints; i++) {
+      float lerp = (i + .5f) / numPoints;
+      points.add(
+          new LXPoint(
+              from.x + (to.x - from.x) * lerp,
+              from.y + (to.y - from.y) * lerp,
+              from.z + (to.z - from.z) * lerp));
+    }
+    Map<String, String> meta = new HashMap<String, String>();
+    meta.put(TEEdgeModel.META_ID, id);
+    meta.put(TEEdgeModel.META_V0, Integer.toString(v0));
+    meta.put(TEEdgeModel.META_V1, Integer.toString(v1));
+    return new LXModel(points, meta, TEWholeModelDynamic.TAG_EDGE);
+  }
+
+  private static LXVector randomUnit(Random random) {
+    LXVector v =
+        new LXVector(random.nextFloat() - .5f, random.nextFloat() - .5f, random.nextFloat() - .5f);
+    return v.mag() > 0 ? v.normalize() : new LXVector(1, 0, 0);
+  }
+
+  /**
+   * Creates a headless LX instance for the model and installs a TEWholeModel for it, which TE
+   * effects pick up from TEApp at construction.
+   */
+  public static LX createLX(LXModel model) {
+    LX lx = new LX(model);
+    TEWholeModelDynamic wholeModel = new TEWholeModelDynamic(lx);
+    wholeModel.modelGenerationChanged(lx, model);
+    TEApp.wholeModel = wholeModel;
+    return lx;
+  }
+}
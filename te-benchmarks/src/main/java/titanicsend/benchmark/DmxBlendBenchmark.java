@@ -0,0 +1,108 @@
+package titanicsend.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import titanicsend.dmx.DmxBlend;
+import titanicsend.dmx.DmxBuffer;
+import titanicsend.dmx.model.DmxModel;
+import titanicsend.dmx.model.DmxWholeModel;
+import titanicsend.dmx.parameter.DmxCompoundParameter;
+import titanicsend.dmx.parameter.DmxDiscreteParameter;
+import titanicsend.dmx.parameter.DmxDiscreteParameterOption;
+import titanicsend.dmx.parameter.DmxParameter;
+import titanicsend.dmx.parameter.DmxParameter.DmxBlendMode;
+
+/**
+ * One layer of the DMX blend stack: blends a source full buffer onto a destination full buffer.
+ * Fixtures mirror the beacon field layout (19 fields, mostly 8-bit, pan/tilt 16-bit).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DmxBlendBenchmark {
+
+  private static final int FIELDS_PER_FIXTURE = 19;
+
+  @Param({"8", "32"})
+  public int numFixtures;
+
+  @Param({"0.5"})
+  public double alpha;
+
+  private final DmxBlend dmxBlend = new DmxBlend();
+
+  private DmxBuffer[] dst;
+  private DmxBuffer[] src;
+  private DmxBuffer[] output;
+  private DmxWholeModel model;
+
+  @Setup
+  public void setup() {
+    this.dst = createFullBuffer(.25);
+    this.src = createFullBuffer(.75);
+    this.output = createFullBuffer(0);
+    this.model =
+        new DmxWholeModel() {
+          @Override
+          public int sizeDmx() {
+            return 0;
+          }
+
+          @Override
+          public List<DmxModel> getDmxModels() {
+            return new ArrayList<DmxModel>();
+          }
+        };
+  }
+
+  private DmxBuffer[] createFullBuffer(double value) {
+    DmxBuffer[] buffers = new DmxBuffer[this.numFixtures];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = new DmxBuffer(createFixture(value));
+      buffers[i].isActive = true;
+    }
+    return buffers;
+  }
+
+  private static DmxParameter[] createFixture(double value) {
+    DmxParameter[] parameters = new DmxParameter[FIELDS_PER_FIXTURE];
+    // Pan, tilt
+    parameters[0] = new DmxCompoundParameter("Pan", value, 0, 1).setNumBytes(2);
+    parameters[1] = new DmxCompoundParameter("Tilt", value, 0, 1).setNumBytes(2);
+    // Discrete wheel which jumps instead of lerping
+    parameters[2] =
+        new DmxDiscreteParameter(
+                "Wheel",
+                new DmxDiscreteParameterOption[] {
+                  new DmxDiscreteParameterOption("Open", 0),
+                  new DmxDiscreteParameterOption("Red", 16),
+                  new DmxDiscreteParameterOption("Scroll", 128, 180)
+                })
+            .setBlendMode(DmxBlendMode.JUMP_END);
+    for (int i = 3; i < FIELDS_PER_FIXTURE; i++) {
+      parameters[i] = new DmxCompoundParameter("Field" + i, value * 255);
+    }
+    return parameters;
+  }
+
+  @Benchmark
+  public DmxBuffer[] blend() {
+    this.dmxBlend.blend(this.dst, this.src, this.alpha, this.output, this.model);
+    return this.output;
+  }
+}
@@ -0,0 +1,90 @@
+package titanicsend.benchmark;
+
+import heronarts.lx.LX;
+import heronarts.lx.ModelBuffer;
+import heronarts.lx.effect.LXEffect;
+import heronarts.lx.model.LXModel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import titanicsend.effect.KaleidoscopeEffect;
+import titanicsend.effect.SimplifyEffect;
+
+/**
+ * One frame of a Java effect over the whole synthetic model. The colors buffer is refilled with
+ * noise before each invocation so that effects which converge (Simplify at full amount) keep doing
+ * representative work.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EffectBenchmark {
+
+  private static final double FRAME_MS = 1000. / 60;
+
+  @Param({"Simplify", "Kaleidoscope"})
+  public String effectName;
+
+  private LX lx;
+  private LXEffect effect;
+  private ModelBuffer buffer;
+  private int[] noise;
+
+  @Setup
+  public void setup() {
+    LXModel model = BenchModel.build();
+    this.lx = BenchModel.createLX(model);
+
+    switch (this.effectName) {
+      case "Simplify" -> {
+        SimplifyEffect simplify = new SimplifyEffect(this.lx);
+        simplify.amount.setValue(1);
+        this.effect = simplify;
+      }
+      case "Kaleidoscope" -> this.effect = new KaleidoscopeEffect(this.lx);
+      default -> throw new IllegalArgumentException("Unknown effect: " + this.effectName);
+    }
+
+    this.buffer = new ModelBuffer(this.lx);
+    this.effect.setBuffer(this.buffer);
+    this.effect.enabled.setValue(true);
+
+    Random random = new Random(0);
+    this.noise = new int[model.size];
+    for (int i = 0; i < this.noise.length; i++) {
+      this.noise[i] = 0xff000000 | random.nextInt();
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void fill() {
+    System.arraycopy(this.noise, 0, this.buffer.getArray(), 0, this.noise.length);
+  }
+
+  @Benchmark
+  public int[] run() {
+    this.effect.loop(FRAME_MS);
+    return this.buffer.getArray();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.effect.dispose();
+    this.lx.dispose();
+  }
+}
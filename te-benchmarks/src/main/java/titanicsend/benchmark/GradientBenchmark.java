@@ -0,0 +1,66 @@
+package titanicsend.benchmark;
+
+import heronarts.lx.color.ColorParameter;
+import heronarts.lx.color.LXColor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import titanicsend.lx.LXGradientUtils;
+
+/**
+ * Per-point gradient lookup as Java patterns do through TEColorParameter.getGradientColor().
+ * Results are reported per color lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GradientBenchmark {
+
+  private static final int NUM_LOOKUPS = 4096;
+
+  @Param({"OKLAB", "HSV"})
+  public LXGradientUtils.BlendMode blendMode;
+
+  private final LXGradientUtils.ColorStops colorStops = new LXGradientUtils.ColorStops();
+  private LXGradientUtils.BlendFunction blendFunction;
+  private final float[] lerps = new float[NUM_LOOKUPS];
+
+  @Setup
+  public void setup() {
+    // Three color swatch plus the wrap-around stop, as built by TEGradientSource
+    int[] swatch = {LXColor.hsb(0, 100, 100), LXColor.hsb(120, 80, 100), LXColor.hsb(240, 100, 60)};
+    this.colorStops.numStops = swatch.length;
+    for (int i = 0; i < swatch.length; i++) {
+      this.colorStops.stops[i].set(new ColorParameter("Stop" + i, swatch[i]));
+    }
+    this.colorStops.stops[swatch.length].set(this.colorStops.stops[0]);
+
+    this.blendFunction = this.blendMode.function;
+    for (int i = 0; i < NUM_LOOKUPS; i++) {
+      this.lerps[i] = (float) i / NUM_LOOKUPS;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public int getColor() {
+    int sum = 0;
+    for (float lerp : this.lerps) {
+      sum += this.colorStops.getColor(lerp, this.blendFunction);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,61 @@
+package titanicsend.benchmark;
+
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import titanicsend.pattern.glengine.ShaderPainter;
+
+/** Copies between a GL readback buffer and the LX colors array, as done per shader per frame. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShaderPainterBenchmark {
+
+  // Default GLEngine canvas size
+  private static final int WIDTH = 480;
+  private static final int HEIGHT = 480;
+
+  private LXPoint[] points;
+  private ByteBuffer image;
+  private int[] colors;
+
+  @Setup
+  public void setup() {
+    LXModel model = BenchModel.build();
+    this.points = model.points;
+    this.image = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.nativeOrder());
+    Random random = new Random(0);
+    for (int i = 0; i < WIDTH * HEIGHT; i++) {
+      this.image.putInt(i * 4, 0xff000000 | random.nextInt());
+    }
+    this.colors = new int[this.points.length];
+  }
+
+  @Benchmark
+  public int[] mapToPointsDirect() {
+    ShaderPainter.mapToPointsDirect(this.points, this.image, this.colors);
+    return this.colors;
+  }
+
+  @Benchmark
+  public ByteBuffer mapFromLinearBuffer() {
+    ShaderPainter.mapFromLinearBuffer(this.points, WIDTH, HEIGHT, this.image, this.colors);
+    return this.image;
+  }
+}
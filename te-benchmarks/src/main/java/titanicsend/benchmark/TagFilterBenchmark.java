@@ -0,0 +1,46 @@
+package titanicsend.benchmark;
+
+import heronarts.lx.model.LXModel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import titanicsend.app.director.TagFilter;
+import titanicsend.model.TEWholeModelDynamic;
+
+/** Director filter pass over every panel point, as run on the master bus each frame. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TagFilterBenchmark {
+
+  private TagFilter filter;
+  private int[] colors;
+
+  @Setup
+  public void setup() {
+    LXModel model = BenchModel.build();
+    this.filter = new TagFilter("panels", "Panels", TEWholeModelDynamic.TAG_PANEL);
+    this.filter.fader.setValue(.5);
+    this.filter.modelChanged(model);
+    this.colors = new int[model.size];
+    Arrays.fill(this.colors, 0xffc08040);
+  }
+
+  @Benchmark
+  public int[] run() {
+    this.filter.run(this.colors, 1f);
+    return this.colors;
+  }
+}